@@ -0,0 +1 @@
+java -cp bin hu/belicza/andras/factorization/batch/BatchFactorization %*
@@ -0,0 +1,3 @@
+@rem Builds the benchmarks (with the current sources, they are not built by the main pom.xml), then runs them
+call mvn -q -f benchmarks/pom.xml package || exit /b 1
+java -jar benchmarks/target/benchmarks.jar %*
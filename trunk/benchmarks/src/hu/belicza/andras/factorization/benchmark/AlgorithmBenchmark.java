@@ -0,0 +1,102 @@
+package hu.belicza.andras.factorization.benchmark;
+
+import hu.belicza.andras.factorization.algorithm.Algorithm;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the factorization algorithms on semiprimes.<br>
+ * <br>
+ * The semiprimes are the products of 2 random primes of the given bit lengths (like the 2 factor bit length spinners
+ * of the GUI), both balanced and unbalanced pairs. The random generator is seeded, so every run (and every algorithm)
+ * factorizes the same numbers.<br>
+ * <br>
+ * The default grid is small enough for the slowest algorithms; other algorithms and bit lengths can be given by
+ * the JMH parameter options, for example: <code>-p algorithm=SiqsFactorization -p bitLengths=60x60,40x80</code>
+ *
+ * @author Andras Belicza
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class AlgorithmBenchmark {
+	
+	/** Package of the algorithms.                         */
+	private static final String ALGORITHM_PACKAGE = "hu.belicza.andras.factorization.algorithm.";
+	/** Seed of the random generator of the semiprimes.    */
+	private static final long   SEED              = 20100101l;
+	/** Number of semiprimes to be factorized in turns.    */
+	private static final int    SEMIPRIME_COUNT   = 16;
+	
+	/** Simple name (or fully qualified name) of the algorithm class.       */
+	@Param( { "BasicFactorization", "TryingPrimesFactorization", "SquareNumberFactorization", "ParallelTrialDivisionFactorization",
+	          "LehmanFactorization", "PollardRhoFactorization", "PollardPMinus1Factorization", "EcmFactorization",
+	          "SiqsFactorization", "PrimeFactorization" } )
+	public String algorithm;
+	
+	/** Bit lengths of the 2 factors in the form of <code>bits1xbits2</code>. */
+	@Param( { "16x16", "24x24", "28x28", "8x24", "12x28" } )
+	public String bitLengths;
+	
+	/** The algorithm class.                   */
+	private Class< ? extends Algorithm > algorithmClass;
+	/** The semiprimes to be factorized.       */
+	private BigInteger[]                 semiprimes;
+	/** Index of the next semiprime.           */
+	private int                          semiprimeIndex;
+	
+	/**
+	 * Resolves the algorithm class and generates the semiprimes.
+	 * @throws ClassNotFoundException if the algorithm class is not found
+	 */
+	@Setup
+	public void setup() throws ClassNotFoundException {
+		algorithmClass = Class.forName( algorithm.indexOf( '.' ) < 0 ? ALGORITHM_PACKAGE + algorithm : algorithm ).asSubclass( Algorithm.class );
+		
+		final int separatorIndex = bitLengths.indexOf( 'x' );
+		final int factor1BitLength = Integer.parseInt( bitLengths.substring( 0, separatorIndex ) );
+		final int factor2BitLength = Integer.parseInt( bitLengths.substring( separatorIndex + 1 ) );
+		
+		final Random random = new Random( SEED );
+		semiprimes = new BigInteger[ SEMIPRIME_COUNT ];
+		for ( int i = 0; i < semiprimes.length; i++ ) {
+			final BigInteger factor1 = BigInteger.probablePrime( factor1BitLength, random );
+			BigInteger factor2;
+			do {
+				factor2 = BigInteger.probablePrime( factor2BitLength, random );
+			} while ( factor2.equals( factor1 ) );
+			semiprimes[ i ] = factor1.multiply( factor2 );
+		}
+	}
+	
+	/**
+	 * Factorizes the next semiprime with a new instance of the algorithm.
+	 * @return the factor found
+	 * @throws Exception if the algorithm can't be instantiated
+	 */
+	@Benchmark
+	public BigInteger factorize() throws Exception {
+		final BigInteger n = semiprimes[ semiprimeIndex ];
+		semiprimeIndex = ( semiprimeIndex + 1 ) % semiprimes.length;
+		
+		return algorithmClass.getDeclaredConstructor().newInstance().getFactor( n );
+	}
+	
+}
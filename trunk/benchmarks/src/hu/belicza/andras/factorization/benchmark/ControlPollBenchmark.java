@@ -0,0 +1,155 @@
+package hu.belicza.andras.factorization.benchmark;
+
+import hu.belicza.andras.factorization.algorithm.Algorithm;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the overhead of the status/suspend/stop checks of the algorithms.<br>
+ * <br>
+ * The same trial division loop (the inner loop of the trial division algorithms) is measured without any checks,
+ * with the control countdown and polls of {@link Algorithm}, and with the polls while another thread requests
+ * the state continuously (like the GUI refreshing the progress, only much more often).
+ *
+ * @author Andras Belicza
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ControlPollBenchmark {
+	
+	/** The number to be divided: a prime, so the loops run to the end. */
+	private static final long N          = 1000000000000000003l;
+	/** Number of trial divisions of a loop.                            */
+	private static final int  ITERATIONS = 1 << 16;
+	
+	/**
+	 * Trial division algorithm which polls the control word the way the algorithms do.<br>
+	 * As an algorithm it tries the first {@link ControlPollBenchmark#ITERATIONS} odd divisors of <code>n</code>
+	 * (which must fit in a <code>long</code>), the benchmarks call the same loop directly.
+	 *
+	 * @author Andras Belicza
+	 */
+	static class PollingTrialDivision extends Algorithm {
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			if ( !n.testBit( 0 ) )
+				return BigInteger.valueOf( 2l );
+			
+			final long divisor = findDivisor( n.longValueExact() );
+			if ( divisor != 0l )
+				return BigInteger.valueOf( divisor );
+			
+			// No divisor among the tried ones
+			return isStopRequested() ? null : BigInteger.ONE;
+		}
+		
+		@Override
+		protected StringBuilder createStateBuilder() {
+			// The benchmarks don't call getFactor(), so there is no initial content
+			return new StringBuilder();
+		}
+		
+		/**
+		 * Runs the trial division loop of {@link ControlPollBenchmark#N} with control checks.
+		 * @return number of divisors found (0)
+		 */
+		public int divide() {
+			return findDivisor( N ) == 0l ? 0 : 1;
+		}
+		
+		/**
+		 * Runs the trial division loop with control checks.
+		 * @param n the number to be divided
+		 * @return the first odd number which divides <code>n</code>; 0 if none is found or a stop is requested
+		 */
+		private long findDivisor( final long n ) {
+			for ( long i = 3l; i < 3l + 2l * ITERATIONS; i += 2l ) {
+				if ( n % i == 0l )
+					return i;
+				
+				if ( --controlCountdown < 0 ) {
+					final int requests = pollControl();
+					if ( ( requests & STOP_REQUEST ) != 0 )
+						return 0l;
+					if ( ( requests & STATUS_REQUEST ) != 0 )
+						createStateSnapshot( ( i - 3l ) / ( 2.0f * ITERATIONS ), createStateBuilder() );
+				}
+			}
+			return 0l;
+		}
+	}
+	
+	/**
+	 * State holding the polling algorithm, shared by the threads of a group.
+	 *
+	 * @author Andras Belicza
+	 */
+	@State( Scope.Group )
+	public static class AlgorithmHolder {
+		/** The polling algorithm. */
+		public final PollingTrialDivision algorithm = new PollingTrialDivision();
+	}
+	
+	/**
+	 * Runs the trial division loop without checks.
+	 * @return number of divisors found (0)
+	 */
+	@Benchmark
+	public int noChecks() {
+		int divisorCount = 0;
+		for ( long i = 3l; i < 3l + 2l * ITERATIONS; i += 2l )
+			if ( N % i == 0l )
+				divisorCount++;
+		return divisorCount;
+	}
+	
+	/**
+	 * Runs the trial division loop with control checks, without requests.
+	 * @param holder holder of the algorithm
+	 * @return number of divisors found (0)
+	 */
+	@Benchmark
+	@Group( "polls" )
+	public int polls( final AlgorithmHolder holder ) {
+		return holder.algorithm.divide();
+	}
+	
+	/**
+	 * Runs the trial division loop with control checks while the state is requested by another thread.
+	 * @param holder holder of the algorithm
+	 * @return number of divisors found (0)
+	 */
+	@Benchmark
+	@Group( "pollsWithStatusRequests" )
+	public int pollsWithStatusRequests( final AlgorithmHolder holder ) {
+		return holder.algorithm.divide();
+	}
+	
+	/**
+	 * Requests the state of the algorithm continuously.
+	 * @param holder holder of the algorithm
+	 * @param blackhole blackhole to consume the state
+	 */
+	@Benchmark
+	@Group( "pollsWithStatusRequests" )
+	public void statusRequests( final AlgorithmHolder holder, final Blackhole blackhole ) {
+		blackhole.consume( holder.algorithm.getState() );
+	}
+	
+}
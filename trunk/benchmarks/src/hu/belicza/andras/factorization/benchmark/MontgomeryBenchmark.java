@@ -0,0 +1,91 @@
+package hu.belicza.andras.factorization.benchmark;
+
+import hu.belicza.andras.factorization.utils.MontgomeryContext;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmark of the modular multiplication: {@link MontgomeryContext#multiply(long[], long[], long[])}
+ * compared to the {@link BigInteger} multiplication and reduction, with random odd moduli of the given bit lengths.
+ *
+ * @author Andras Belicza
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class MontgomeryBenchmark {
+	
+	/** Seed of the random generator of the numbers. */
+	private static final long SEED = 20100101l;
+	
+	/** Bit length of the modulus. */
+	@Param( { "64", "128", "256", "512", "1024" } )
+	public int bitLength;
+	
+	/** The modulus.                                    */
+	private BigInteger        n;
+	/** The Montgomery context of the modulus.          */
+	private MontgomeryContext context;
+	/** The number multiplied by {@link BigInteger}.    */
+	private BigInteger        x;
+	/** The constant factor.                            */
+	private BigInteger        a;
+	/** The number multiplied in Montgomery form.       */
+	private long[]            xElement;
+	/** The constant factor in Montgomery form.         */
+	private long[]            aElement;
+	
+	/**
+	 * Generates the modulus and the factors.
+	 */
+	@Setup
+	public void setup() {
+		final Random random = new Random( SEED );
+		n = new BigInteger( bitLength, random ).setBit( bitLength - 1 ).setBit( 0 );
+		x = new BigInteger( bitLength, random ).mod( n );
+		a = new BigInteger( bitLength, random ).mod( n );
+		
+		context  = new MontgomeryContext( n );
+		xElement = context.newElement();
+		aElement = context.newElement();
+		context.toMontgomery( x, xElement );
+		context.toMontgomery( a, aElement );
+	}
+	
+	/**
+	 * Multiplies the number by the constant factor with {@link BigInteger}.
+	 * @return the product
+	 */
+	@Benchmark
+	public BigInteger bigInteger() {
+		return x = x.multiply( a ).mod( n );
+	}
+	
+	/**
+	 * Multiplies the number by the constant factor in Montgomery form.
+	 * @return the product
+	 */
+	@Benchmark
+	public long[] montgomery() {
+		context.multiply( xElement, aElement, xElement );
+		return xElement;
+	}
+	
+}
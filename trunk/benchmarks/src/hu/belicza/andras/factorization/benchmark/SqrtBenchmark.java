@@ -0,0 +1,71 @@
+package hu.belicza.andras.factorization.benchmark;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmark of {@link BigIntegerMath#sqrt(BigInteger)} on random numbers of the given bit lengths.
+ *
+ * @author Andras Belicza
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SqrtBenchmark {
+	
+	/** Seed of the random generator of the numbers. */
+	private static final long SEED         = 20100101l;
+	/** Number of numbers to be used in turns.       */
+	private static final int  NUMBER_COUNT = 256;
+	
+	/** Bit length of the numbers. */
+	@Param( { "32", "62", "64", "128", "256", "1024", "4096" } )
+	public int bitLength;
+	
+	/** The numbers whose square root to be calculated. */
+	private BigInteger[] numbers;
+	/** Index of the next number.                       */
+	private int          numberIndex;
+	
+	/**
+	 * Generates the numbers.
+	 */
+	@Setup
+	public void setup() {
+		final Random random = new Random( SEED );
+		numbers = new BigInteger[ NUMBER_COUNT ];
+		for ( int i = 0; i < numbers.length; i++ )
+			numbers[ i ] = new BigInteger( bitLength, random ).setBit( bitLength - 1 );
+	}
+	
+	/**
+	 * Calculates the square root of the next number.
+	 * @return the square root
+	 */
+	@Benchmark
+	public BigInteger sqrt() {
+		final BigInteger n = numbers[ numberIndex ];
+		numberIndex = numberIndex + 1 & NUMBER_COUNT - 1;
+		
+		return BigIntegerMath.sqrt( n );
+	}
+	
+}
@@ -1,14 +1,60 @@
 package hu.belicza.andras.factorization.algorithm;
 
+import hu.belicza.andras.factorization.algorithm.AlgorithmEvents.CompletionEvent;
+import hu.belicza.andras.factorization.algorithm.AlgorithmEvents.StageTransitionEvent;
+import hu.belicza.andras.factorization.algorithm.AlgorithmEvents.SuspensionEvent;
+import hu.belicza.andras.factorization.utils.PrimalityTest;
+
 import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Defines an abstract class for controllable, monitorable algorithms to get a factor of a number.
+ * Defines an abstract class for controllable, monitorable algorithms to get a factor of a number.<br>
+ * <br>
+ * The control requests (status, suspension, stop) are bits of a single atomic control word. The requesting
+ * methods only set a bit and return, they never wait for the algorithm. The algorithm polls the control word with
+ * {@link #pollControl()} when its {@link #controlCountdown} runs out; the countdown is adapted so that
+ * the polls happen about every {@link #POLL_INTERVAL_NANOS} nanoseconds regardless of the cost of an iteration.
+ * The hot loops only decrement a plain <code>int</code> instead of reading volatile flags on every iteration:
+ * <pre>
+ * if ( --controlCountdown &lt; 0 ) {
+ *     final int requests = pollControl();
+ *     if ( ( requests &amp; STOP_REQUEST ) != 0 )
+ *         return null;
+ *     if ( ( requests &amp; STATUS_REQUEST ) != 0 )
+ *         createStateSnapshot( ... );
+ * }
+ * </pre>
+ * Status snapshots are published to a volatile field, {@link #getState()} returns the latest one.<br>
+ * <br>
+ * Checkpoints are requested the same way. Algorithms which can be resumed at their exact loop position override
+ * {@link #writesCheckpoints()}, serialize their loop variables with {@link #createCheckpoint(Checkpoint.Builder)}
+ * on a {@link #CHECKPOINT_REQUEST}, and read them back with {@link #takeResumeCheckpoint()} when started.
+ * The checkpoints of the other algorithms only contain <code>n</code> and the execution time.<br>
+ * <br>
+ * The algorithms add their throughput counters to {@link #metrics} at the polls, and report their stage transitions
+ * with {@link #setStage(String)}. The metrics can be read any time without involving the algorithm;
+ * stage transitions, suspensions and completions are also emitted as Java Flight Recorder events.
  * 
  * @author Andras Belicza
  */
 public abstract class Algorithm {
 	
+	/** Bit of the control word: a state snapshot is requested. */
+	protected static final int  STATUS_REQUEST       = 1;
+	/** Bit of the control word: suspension is requested.       */
+	protected static final int  SUSPEND_REQUEST      = 2;
+	/** Bit of the control word: stop is requested.             */
+	protected static final int  STOP_REQUEST         = 4;
+	/** Bit of the control word: a checkpoint is requested.    */
+	protected static final int  CHECKPOINT_REQUEST   = 8;
+	
+	/** The targeted time between 2 polls of the control word.  */
+	protected static final long POLL_INTERVAL_NANOS  = 1000000l;
+	/** The largest number of iterations between 2 polls.       */
+	private static final int    MAX_CONTROL_INTERVAL = 1 << 24;
+	
 	/** The overall execution time of the algorithm (handled respect to resume, suspention) in nanoseconds. */
 	protected long executionTimeNanos;
 	/** The system time nanos when the execution time was last updated. */
@@ -16,63 +62,133 @@ public abstract class Algorithm {
 	
 	/** Initial content of the state builder (which doesn't change). */
 	private String stateBuilderInitialContent;
+	/** The number being factorized.                                  */
+	private BigInteger n;
 	
-	/** A request for the current status is signed by setting this variable to true. */
-	protected volatile boolean        requestingStatus;
-	/** This is where the algorithm state will be stored.                            */
-	protected volatile AlgorithmState algorithmStateSnapshot;
-	/** Flag to tell if the algorithm is completed.                                  */
-	protected volatile boolean        completed;
-	/** A request for suspension is signed by setting this variable to true.         */
-	protected volatile boolean        requestingSuspension;
-	/** A requesting to stop is signed by setting this variable to true.             */
-	protected volatile boolean        requestingStop;
-	/** A request for resume is signed by setting this variable to true.             */
-	protected volatile boolean        requestingResume;
+	/** The control word, the bits are the pending requests.                           */
+	private final AtomicInteger       control                = new AtomicInteger();
+	/** The thread executing the algorithm, to be unparked on resume and stop.         */
+	private volatile Thread           algorithmThread;
+	/** Number of iterations left until the next poll of the control word.            */
+	protected int                     controlCountdown;
+	/** Number of iterations between 2 polls of the control word (adapted).           */
+	private int                       controlInterval        = 1;
+	/** The system time nanos of the last poll.                                        */
+	private long                      lastPollNanos;
+	/** The measured time between the last 2 polls in nanoseconds.                    */
+	private long                      measuredPollNanos;
+	/** This is where the algorithm state will be stored.                              */
+	private volatile AlgorithmState   algorithmStateSnapshot = new AlgorithmState( 0l, 0.0f, "" );
+	/** Flag to tell if the algorithm is completed.                                    */
+	private volatile boolean          completed;
+	/** This is where the latest checkpoint will be stored.                            */
+	private volatile Checkpoint       checkpoint;
+	/** The checkpoint to resume from, until taken by the algorithm.                   */
+	private Checkpoint                resumeCheckpoint;
+	/** The runtime metrics of the algorithm.                                          */
+	protected final AlgorithmMetrics  metrics                = new AlgorithmMetrics();
 	
 	/**
 	 * Returns a factor of <code>n</code>.<br>
-	 * This method handles the calculation initialization and deinitialization.
+	 * This method handles the calculation initialization and deinitialization.<br>
+	 * Primes are recognized by a primality test before starting the algorithm.<br>
+	 * An instance can be reused: the pending control requests and the checkpoint to resume from are cleared when this method returns,
+	 * so the requests made before a call (for example a stop before the thread of the algorithm starts) apply to that call only.
+	 * The execution time and the metrics (counters, suspensions) are measured from the start of the call.
 	 * @param n <code>n</code> to be analysed
 	 * @return a factor of <code>n</code> or either <code>n</code> or 1 if <code>n</code> is a prime
 	 */
 	public final BigInteger getFactor( final BigInteger n ) {
+		this.n = n;
+		completed = false;
+		// A resumed algorithm continues counting from the execution time of the checkpoint and the counters carried over
+		if ( resumeCheckpoint == null ) {
+			executionTimeNanos = 0l;
+			metrics.reset();
+		}
+		algorithmThread = Thread.currentThread();
 		stateBuilderInitialContent = "algorithmClass=" + getClass().getName() + "\nn=" + n + "\n";
-		executionTimeLastUpdated = System.nanoTime();
+		executionTimeLastUpdated = lastPollNanos = System.nanoTime();
+		controlCountdown = 0;
+		createStateSnapshot( 0.0f, createStateBuilder() );
 		
-		final BigInteger factor = getFactorImpl( n );
+		final BigInteger factor;
+		try {
+			// Primes would make most algorithms scan their whole search space
+			factor = n.compareTo( BigInteger.ONE ) > 0 && PrimalityTest.isPrime( n ) ? primeFound( n ) : getFactorImpl( n );
+			
+			createStateSnapshot( 1.0f, createStateBuilder() );
+			metrics.setExecutionTimeNanos( executionTimeNanos );
+		} finally {
+			completed = true;
+			control.set( 0 );
+			// Not taken if the algorithm returned before starting its search (for example if n is a prime)
+			resumeCheckpoint = null;
+		}
 		
-		createStateSnapshot( 1.0f, createStateBuilder() );
-		completed = true;
+		final CompletionEvent event = new CompletionEvent();
+		if ( event.isEnabled() ) {
+			event.algorithm       = getClass().getName();
+			event.bitLength       = n.bitLength();
+			event.factorBitLength = factor == null ? 0 : factor.bitLength();
+			event.split           = factor != null && factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0;
+			event.stopped         = factor == null;
+			event.executionTime   = executionTimeNanos;
+			event.candidates      = metrics.get( AlgorithmMetrics.Counter.CANDIDATES );
+			event.gcds            = metrics.get( AlgorithmMetrics.Counter.GCDS );
+			event.commit();
+		}
 		
 		return factor;
 	}
 	
 	/**
-	 * The implementation of the factorization of <code>n</code>.
+	 * Resumes the algorithm from a checkpoint, and returns a factor of the number of the checkpoint.<br>
+	 * If the checkpoint has no payload, the algorithm restarts from the beginning of its search.<br>
+	 * The metrics are not reset, so the counters of the stopped algorithm can be carried over to a new instance
+	 * with {@link AlgorithmMetrics#addCounters(AlgorithmMetrics)} before calling this.
+	 * @param resumeCheckpoint checkpoint to resume from
+	 * @return a factor of the number of the checkpoint or either the number or 1 if the number is a prime
+	 * @see #getFactor(BigInteger)
+	 */
+	public final BigInteger getFactor( final Checkpoint resumeCheckpoint ) {
+		if ( !resumeCheckpoint.algorithmClassName.equals( getClass().getName() ) )
+			throw new IllegalArgumentException( "The checkpoint was created by another algorithm: " + resumeCheckpoint.algorithmClassName );
+		
+		this.resumeCheckpoint = resumeCheckpoint;
+		executionTimeNanos    = resumeCheckpoint.executionTimeNanos;
+		
+		return getFactor( resumeCheckpoint.n );
+	}
+	
+	/**
+	 * Called instead of {@link #getFactorImpl(BigInteger)} if the primality test finds <code>n</code> to be a prime.
+	 * @param n <code>n</code> to be analysed, a prime
+	 * @return the result of the algorithm for the prime <code>n</code>, <code>n</code> by default
+	 */
+	protected BigInteger primeFound( final BigInteger n ) {
+		return n;
+	}
+	
+	/**
+	 * The implementation of the factorization of <code>n</code>.<br>
+	 * Implementations have to call {@link #pollControl()} regularly, and return <code>null</code> if a stop is requested.
 	 * @param n <code>n</code> to be analysed
 	 * @return a factor of <code>n</code> or either <code>n</code> or 1 if <code>n</code> is a prime
 	 */
 	protected abstract BigInteger getFactorImpl( final BigInteger n );
 	
 	/**
-	 * Returns the current state of the algorithm.
-	 * @return the current state of the algorithm
+	 * Returns the latest published state of the algorithm, and requests a new snapshot.<br>
+	 * Doesn't block: the returned state is at most about {@link #POLL_INTERVAL_NANOS} older than the previous call
+	 * (unless the algorithm is suspended).
+	 * @return the latest published state of the algorithm
 	 */
-	public synchronized AlgorithmState getState() {
-		if ( completed )
-			return algorithmStateSnapshot;
+	public AlgorithmState getState() {
+		if ( !completed )
+			setControlBits( STATUS_REQUEST );
 		
-		requestingStatus = true;
-		try {
-			while ( requestingStatus )
-				wait();
-			
-			return algorithmStateSnapshot;
-		} catch ( final InterruptedException ie ) {
-			ie.printStackTrace();
-			return null;
-		}
+		return algorithmStateSnapshot;
 	}
 	
 	/**
@@ -85,19 +201,104 @@ public abstract class Algorithm {
 	}
 	
 	/**
-	 * Creates a snapshot of the current state of the algorithm.
+	 * Creates a snapshot of the current state of the algorithm, and publishes it.<br>
+	 * Must be called by the thread executing the algorithm.
 	 * @param completionState completion state of the algorithm
 	 * @param stateBuilder builder to be used to build the string representation of the state
 	 */
 	protected void createStateSnapshot( final float completionState, final StringBuilder stateBuilder ) {
 		recalculateExecutinTime();
+		stateBuilder.append( "controlPollNanos=" ).append( measuredPollNanos ).append( '\n' );
 		stateBuilder.append( "executionTimeNanos=" ).append( executionTimeNanos );
 		
+		clearControlBits( STATUS_REQUEST );
 		algorithmStateSnapshot = new AlgorithmState( executionTimeNanos, completionState, stateBuilder.toString() );
-		requestingStatus = false;
-		synchronized ( this ) {
-			notifyAll();
+	}
+	
+	/**
+	 * Returns the runtime metrics of the algorithm.<br>
+	 * Reading the metrics doesn't involve the algorithm.
+	 * @return the runtime metrics of the algorithm
+	 */
+	public AlgorithmMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets the current stage of the algorithm, and emits a stage transition event.<br>
+	 * Can be called by any thread, for example by the workers of a parallel algorithm.
+	 * @param stage the new stage of the algorithm
+	 */
+	protected synchronized void setStage( final String stage ) {
+		final StageTransitionEvent event = new StageTransitionEvent();
+		if ( event.isEnabled() ) {
+			event.algorithm     = getClass().getName();
+			event.bitLength     = n.bitLength();
+			event.previousStage = metrics.getStage();
+			event.stage         = stage;
+			event.commit();
 		}
+		
+		metrics.setStage( stage );
+	}
+	
+	/**
+	 * Tells if the algorithm writes its loop position into the checkpoints.<br>
+	 * If not, {@link #pollControl()} handles the checkpoint requests with checkpoints without payload.
+	 * @return true if the algorithm writes its loop position into the checkpoints; false otherwise
+	 */
+	protected boolean writesCheckpoints() {
+		return false;
+	}
+	
+	/**
+	 * Requests a checkpoint.<br>
+	 * Doesn't block: the checkpoint is created at the next poll of the control word,
+	 * {@link #getCheckpoint()} returns it after that.
+	 */
+	public void requestCheckpoint() {
+		if ( !completed )
+			setControlBits( CHECKPOINT_REQUEST );
+	}
+	
+	/**
+	 * Returns the latest checkpoint.
+	 * @return the latest checkpoint; <code>null</code> if no checkpoint has been created yet
+	 */
+	public Checkpoint getCheckpoint() {
+		return checkpoint;
+	}
+	
+	/**
+	 * Creates and returns a checkpoint builder to write the loop variables into.
+	 * @return a checkpoint builder
+	 */
+	protected Checkpoint.Builder createCheckpointBuilder() {
+		return new Checkpoint.Builder();
+	}
+	
+	/**
+	 * Creates a checkpoint of the algorithm, and publishes it.<br>
+	 * Must be called by the thread executing the algorithm.
+	 * @param checkpointBuilder builder holding the loop variables
+	 */
+	protected void createCheckpoint( final Checkpoint.Builder checkpointBuilder ) {
+		recalculateExecutinTime();
+		
+		clearControlBits( CHECKPOINT_REQUEST );
+		checkpoint = new Checkpoint( getClass().getName(), n, executionTimeNanos, checkpointBuilder.toByteArray() );
+	}
+	
+	/**
+	 * Returns the reader of the checkpoint to resume from, and forgets the checkpoint.<br>
+	 * Algorithms which write checkpoints call this when they start their search.
+	 * @return the reader of the checkpoint to resume from; <code>null</code> if not resuming (or the checkpoint has no payload)
+	 */
+	protected final Checkpoint.Reader takeResumeCheckpoint() {
+		final Checkpoint resumeCheckpoint = this.resumeCheckpoint;
+		this.resumeCheckpoint = null;
+		
+		return resumeCheckpoint == null || !resumeCheckpoint.hasPayload() ? null : resumeCheckpoint.createReader();
 	}
 	
 	/**
@@ -110,73 +311,131 @@ public abstract class Algorithm {
 	}
 	
 	/**
-	 * Suspends the execution of the algorithm.
+	 * Polls the control word, and resets {@link #controlCountdown}.<br>
+	 * The number of iterations between 2 polls is doubled if the last ones took less than half of
+	 * {@link #POLL_INTERVAL_NANOS}, and halved if they took more than twice of it.<br>
+	 * A suspension request is handled here by calling {@link #suspended()}, and so is a checkpoint request
+	 * if the algorithm doesn't write checkpoints.
+	 * @return the pending requests: {@link #STATUS_REQUEST}, {@link #STOP_REQUEST} and {@link #CHECKPOINT_REQUEST} bits
 	 */
-	public synchronized void suspend() {
-		requestingSuspension = true;
-		try {
-			while ( requestingSuspension )
-				wait();
-			
-			// Execution time will not be measured during suspention.
-			recalculateExecutinTime();
-		} catch ( final InterruptedException ie ) {
-			ie.printStackTrace();
+	protected final int pollControl() {
+		final long currentNanoTime = System.nanoTime();
+		measuredPollNanos = currentNanoTime - lastPollNanos;
+		lastPollNanos     = currentNanoTime;
+		if ( measuredPollNanos < POLL_INTERVAL_NANOS >> 1 ) {
+			if ( controlInterval < MAX_CONTROL_INTERVAL )
+				controlInterval <<= 1;
+		}
+		else if ( measuredPollNanos > POLL_INTERVAL_NANOS << 1 && controlInterval > 1 )
+			controlInterval >>= 1;
+		controlCountdown = controlInterval;
+		metrics.setExecutionTimeNanos( executionTimeNanos + currentNanoTime - executionTimeLastUpdated );
+		
+		int requests = control.get();
+		if ( ( requests & SUSPEND_REQUEST ) != 0 && ( requests & STOP_REQUEST ) == 0 ) {
+			suspended();
+			requests = control.get();
+		}
+		
+		if ( ( requests & CHECKPOINT_REQUEST ) != 0 && !writesCheckpoints() ) {
+			createCheckpoint( createCheckpointBuilder() );
+			requests &= ~CHECKPOINT_REQUEST;
 		}
+		
+		return requests;
 	}
 	
 	/**
-	 * Acknowledges the suspention and the algorithm will stay here while suspended.
+	 * Tells if a stop is requested.<br>
+	 * Can be called by any thread, for example by the workers of a parallel algorithm.
+	 * @return true if a stop is requested; false otherwise
 	 */
-	protected synchronized void suspended() {
-		requestingSuspension = false;
-		notifyAll();
-		try {
-			while ( !requestingResume )
-				wait();
-			requestingResume = false;
-			notifyAll();
-		} catch ( final InterruptedException ie ) {
-			ie.printStackTrace();
-		}
+	protected final boolean isStopRequested() {
+		return ( control.get() & STOP_REQUEST ) != 0;
 	}
 	
 	/**
-	 * Resumes the execution of the algorithm.
+	 * Suspends the execution of the algorithm.<br>
+	 * Doesn't block: the algorithm suspends at its next poll of the control word.
 	 */
-	public synchronized void resume() {
-		requestingResume = true;
-		notify();
-		try {
-			while ( requestingResume )
-				wait();
-			
-			// Restart execution time measurement from here.
-			executionTimeLastUpdated = System.nanoTime();
-		} catch ( final InterruptedException ie ) {
-			ie.printStackTrace();
-		}
+	public void suspend() {
+		setControlBits( SUSPEND_REQUEST );
 	}
 	
 	/**
-	 * Stops the execution of the algorithm.
+	 * The algorithm stays here while suspended (until resumed or stopped).<br>
+	 * The execution time is not measured during the suspension.
+	 * Parallel algorithms override this to hold their workers too.
 	 */
-	public synchronized void stop() {
-		requestingStop = true;
-		try {
-			while ( requestingStop )
-				wait();
-		} catch ( final InterruptedException ie ) {
-			ie.printStackTrace();
+	protected void suspended() {
+		recalculateExecutinTime();
+		final long suspensionStartNanos = executionTimeLastUpdated;
+		final SuspensionEvent event = new SuspensionEvent();
+		event.begin();
+		
+		while ( ( control.get() & SUSPEND_REQUEST ) != 0 && ( control.get() & STOP_REQUEST ) == 0 )
+			LockSupport.park( this );
+		
+		// Restart execution time measurement from here.
+		executionTimeLastUpdated = lastPollNanos = System.nanoTime();
+		metrics.addSuspension( executionTimeLastUpdated - suspensionStartNanos );
+		
+		event.end();
+		if ( event.shouldCommit() ) {
+			event.algorithm = getClass().getName();
+			event.bitLength = n.bitLength();
+			event.stage     = metrics.getStage();
+			event.commit();
 		}
 	}
 	
 	/**
-	 * Acknowledges that stop has been executed.  
+	 * Resumes the execution of the algorithm.<br>
+	 * Doesn't block.
+	 */
+	public void resume() {
+		clearControlBits( SUSPEND_REQUEST );
+		unparkAlgorithmThread();
+	}
+	
+	/**
+	 * Stops the execution of the algorithm.<br>
+	 * Doesn't block: the algorithm stops at its next poll of the control word (even if it is suspended).
+	 */
+	public void stop() {
+		setControlBits( STOP_REQUEST );
+		unparkAlgorithmThread();
+	}
+	
+	/**
+	 * Unparks the thread executing the algorithm if it is waiting in {@link #suspended()}.
+	 */
+	private void unparkAlgorithmThread() {
+		final Thread thread = algorithmThread;
+		if ( thread != null )
+			LockSupport.unpark( thread );
+	}
+	
+	/**
+	 * Sets bits of the control word.
+	 * @param bits bits to be set
+	 */
+	private void setControlBits( final int bits ) {
+		int value;
+		do {
+			value = control.get();
+		} while ( ( value & bits ) != bits && !control.compareAndSet( value, value | bits ) );
+	}
+	
+	/**
+	 * Clears bits of the control word.
+	 * @param bits bits to be cleared
 	 */
-	protected synchronized void stopping() {
-		requestingStop = false;
-		notifyAll();
+	private void clearControlBits( final int bits ) {
+		int value;
+		do {
+			value = control.get();
+		} while ( ( value & bits ) != 0 && !control.compareAndSet( value, value & ~bits ) );
 	}
 	
 }
@@ -0,0 +1,105 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events of the algorithms.<br>
+ * <br>
+ * The events are only emitted at stage transitions, suspensions and completions, never in the hot loops.
+ * If no recording is running, creating and committing an event costs next to nothing.
+ *
+ * @author Andras Belicza
+ */
+class AlgorithmEvents {
+	
+	/** Category of the events. */
+	private static final String CATEGORY = "Factorization";
+	
+	/**
+	 * Event of an algorithm entering a new stage.
+	 *
+	 * @author Andras Belicza
+	 */
+	@Name( "hu.belicza.andras.factorization.StageTransition" )
+	@Label( "Stage Transition" )
+	@Category( CATEGORY )
+	@Description( "An algorithm entered a new stage" )
+	static class StageTransitionEvent extends Event {
+		/** Name of the algorithm class.     */
+		@Label( "Algorithm" )
+		String algorithm;
+		/** Bit length of <code>n</code>.    */
+		@Label( "Bit Length" )
+		int    bitLength;
+		/** The previous stage.              */
+		@Label( "Previous Stage" )
+		String previousStage;
+		/** The new stage.                   */
+		@Label( "Stage" )
+		String stage;
+	}
+	
+	/**
+	 * Event of an algorithm being suspended, the duration of the event is the duration of the suspension.
+	 *
+	 * @author Andras Belicza
+	 */
+	@Name( "hu.belicza.andras.factorization.Suspension" )
+	@Label( "Suspension" )
+	@Category( CATEGORY )
+	@Description( "An algorithm was suspended" )
+	static class SuspensionEvent extends Event {
+		/** Name of the algorithm class.     */
+		@Label( "Algorithm" )
+		String algorithm;
+		/** Bit length of <code>n</code>.    */
+		@Label( "Bit Length" )
+		int    bitLength;
+		/** The stage of the algorithm.      */
+		@Label( "Stage" )
+		String stage;
+	}
+	
+	/**
+	 * Event of an algorithm completing (finding a factor, giving up or being stopped).
+	 *
+	 * @author Andras Belicza
+	 */
+	@Name( "hu.belicza.andras.factorization.Completion" )
+	@Label( "Completion" )
+	@Category( CATEGORY )
+	@Description( "An algorithm completed" )
+	static class CompletionEvent extends Event {
+		/** Name of the algorithm class.     */
+		@Label( "Algorithm" )
+		String  algorithm;
+		/** Bit length of <code>n</code>.    */
+		@Label( "Bit Length" )
+		int     bitLength;
+		/** Bit length of the factor found.  */
+		@Label( "Factor Bit Length" )
+		int     factorBitLength;
+		/** Tells if a proper factor was found. */
+		@Label( "Split" )
+		boolean split;
+		/** Tells if the algorithm was stopped. */
+		@Label( "Stopped" )
+		boolean stopped;
+		/** The execution time.              */
+		@Label( "Execution Time" )
+		@Timespan( Timespan.NANOSECONDS )
+		long    executionTime;
+		/** Number of candidates tested.     */
+		@Label( "Candidates" )
+		long    candidates;
+		/** Number of gcds calculated.       */
+		@Label( "GCDs" )
+		long    gcds;
+	}
+	
+}
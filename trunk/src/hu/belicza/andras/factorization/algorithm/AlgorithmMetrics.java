@@ -0,0 +1,209 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of an {@link Algorithm}: throughput counters, the current stage, the suspensions and the execution time.<br>
+ * <br>
+ * The counters are striped ({@link LongAdder}s), so the workers of the parallel algorithms can update them without contention.
+ * The hot loops count in local variables, and add their counts here when they poll the control word (or per batch),
+ * so the metrics don't cost shared memory writes per iteration.<br>
+ * <br>
+ * The metrics can be read by any thread at any time, reading them doesn't involve (or pause) the algorithm.
+ * The values are at most about {@link Algorithm#POLL_INTERVAL_NANOS} old. They belong to the current (or last) call of
+ * {@link Algorithm#getFactor(java.math.BigInteger)}: they are reset when a reused algorithm starts on the next number.<br>
+ * <br>
+ * Algorithms running other algorithms (for example as stages) register the metrics of those as children:
+ * the counters of the children are included in the values while they run, and are merged when they complete.
+ *
+ * @author Andras Belicza
+ */
+public class AlgorithmMetrics {
+	
+	/**
+	 * The counters of the algorithms.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static enum Counter {
+		/** Candidates tested: trial divisors, squares, multipliers, sequence steps or primes of the bounds. */
+		CANDIDATES,
+		/** Greatest common divisors calculated.                                                            */
+		GCDS,
+		/** Sieve blocks processed: segments of the prime sieves or sieve intervals of the quadratic sieve. */
+		SIEVE_BLOCKS,
+		/** Relations found by the quadratic sieve.                                                         */
+		RELATIONS,
+		/** Elliptic curves tried.                                                                          */
+		CURVES
+	}
+	
+	/** The counters, indexed by the ordinals of {@link Counter}. */
+	private final LongAdder[]              counters = new LongAdder[ Counter.values().length ];
+	/** The metrics of the running sub-algorithms, also the lock of merging them. */
+	private final List< AlgorithmMetrics > children = new ArrayList< AlgorithmMetrics >();
+	
+	/** The current stage of the algorithm.                     */
+	private volatile String   stage;
+	/** The execution time at the last poll in nanoseconds.    */
+	private volatile long     executionTimeNanos;
+	/** Number of suspensions.                                  */
+	private volatile int      suspensions;
+	/** The time spent suspended in nanoseconds.                */
+	private volatile long     suspendedNanos;
+	
+	/**
+	 * Creates a new AlgorithmMetrics.
+	 */
+	public AlgorithmMetrics() {
+		for ( int i = 0; i < counters.length; i++ )
+			counters[ i ] = new LongAdder();
+	}
+	
+	/**
+	 * Adds to a counter.
+	 * @param counter counter to be added to
+	 * @param count count to be added
+	 */
+	public void add( final Counter counter, final long count ) {
+		if ( count != 0l )
+			counters[ counter.ordinal() ].add( count );
+	}
+	
+	/**
+	 * Increments a counter.
+	 * @param counter counter to be incremented
+	 */
+	public void increment( final Counter counter ) {
+		counters[ counter.ordinal() ].increment();
+	}
+	
+	/**
+	 * Adds the counters of other metrics to the counters, for example of an algorithm run as a stage.
+	 * @param metrics metrics whose counters to be added
+	 */
+	public void addCounters( final AlgorithmMetrics metrics ) {
+		for ( final Counter counter : Counter.values() )
+			add( counter, metrics.get( counter ) );
+	}
+	
+	/**
+	 * Resets the counters, the execution time and the suspensions, called when an algorithm starts on a new number.
+	 */
+	void reset() {
+		for ( final LongAdder counter : counters )
+			counter.reset();
+		executionTimeNanos = 0l;
+		suspensions        = 0;
+		suspendedNanos     = 0l;
+	}
+	
+	/**
+	 * Registers the metrics of a running sub-algorithm: its counters are included in the values until merged.
+	 * @param child the metrics of the sub-algorithm
+	 */
+	void addChild( final AlgorithmMetrics child ) {
+		synchronized ( children ) {
+			children.add( child );
+		}
+	}
+	
+	/**
+	 * Adds the counters of a completed sub-algorithm to the counters, and unregisters its metrics.<br>
+	 * Done under the lock of the reads, so the values are never counted twice or missed.
+	 * @param child the metrics of the sub-algorithm registered by {@link #addChild(AlgorithmMetrics)}
+	 */
+	void mergeChild( final AlgorithmMetrics child ) {
+		synchronized ( children ) {
+			for ( int i = children.size() - 1; i >= 0; i-- )
+				if ( children.get( i ) == child ) {
+					children.remove( i );
+					break;
+				}
+			addCounters( child );
+		}
+	}
+	
+	/**
+	 * Returns the value of a counter, including the counters of the running sub-algorithms.
+	 * @param counter counter whose value to be returned
+	 * @return the value of the counter
+	 */
+	public long get( final Counter counter ) {
+		synchronized ( children ) {
+			long value = counters[ counter.ordinal() ].sum();
+			for ( final AlgorithmMetrics child : children )
+				value += child.get( counter );
+			return value;
+		}
+	}
+	
+	/**
+	 * Returns the current stage of the algorithm.
+	 * @return the current stage of the algorithm; <code>null</code> if the algorithm has no stages
+	 */
+	public String getStage() {
+		return stage;
+	}
+	
+	/**
+	 * Sets the current stage of the algorithm.
+	 * @param stage the current stage of the algorithm
+	 */
+	void setStage( final String stage ) {
+		this.stage = stage;
+	}
+	
+	/**
+	 * Returns the execution time of the algorithm at its last poll.
+	 * @return the execution time of the algorithm at its last poll in nanoseconds
+	 */
+	public long getExecutionTimeNanos() {
+		return executionTimeNanos;
+	}
+	
+	/**
+	 * Sets the execution time of the algorithm.
+	 * @param executionTimeNanos the execution time of the algorithm in nanoseconds
+	 */
+	void setExecutionTimeNanos( final long executionTimeNanos ) {
+		this.executionTimeNanos = executionTimeNanos;
+	}
+	
+	/**
+	 * Returns the number of suspensions.
+	 * @return the number of suspensions
+	 */
+	public int getSuspensions() {
+		return suspensions;
+	}
+	
+	/**
+	 * Returns the time the algorithm spent suspended.
+	 * @return the time the algorithm spent suspended in nanoseconds
+	 */
+	public long getSuspendedNanos() {
+		return suspendedNanos;
+	}
+	
+	/**
+	 * Records a suspension. Only called by the thread executing the algorithm.
+	 * @param nanos duration of the suspension in nanoseconds
+	 */
+	void addSuspension( final long nanos ) {
+		suspensions++;
+		suspendedNanos += nanos;
+	}
+	
+	/**
+	 * Returns the number of candidates tested per second of execution time.
+	 * @return the number of candidates tested per second of execution time
+	 */
+	public double getCandidatesPerSecond() {
+		final long nanos = executionTimeNanos;
+		return nanos == 0l ? 0.0 : get( Counter.CANDIDATES ) * 1.0e9 / nanos;
+	}
+	
+}
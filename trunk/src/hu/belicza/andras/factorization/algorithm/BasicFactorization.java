@@ -1,6 +1,7 @@
 package hu.belicza.andras.factorization.algorithm;
 
 import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.Wheel;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -9,48 +10,99 @@ import java.math.MathContext;
 /**
  * Basic factorization algorithm.<br>
  * <br>
- * This algorithm first checks the remainder divided by 2,
- * and checks the remainder divided by numbers starting from 3 and incremented by 2
- * up to the square root of <code>n</code>.<br>
- * This algorithm is only fast if <code>n</code> has a small factor.
+ * This algorithm first checks the remainder divided by the base primes of a {@link Wheel} (2, 3, 5, 7 and 11 by default),
+ * and checks the remainder divided by the numbers generated by the wheel (the numbers which are not multiples of
+ * the base primes) up to the square root of <code>n</code>.<br>
+ * This algorithm is only fast if <code>n</code> has a small factor.<br>
+ * <br>
+ * If <code>n</code> fits in 63 bits, the division is performed on primitive <code>long</code>s.<br>
+ * <br>
+ * The checkpoints contain the current candidate and gap index.
  * 
  * @author Andras Belicza
  */
 public class BasicFactorization extends Algorithm {
 	
+	/** The wheel to generate the candidates. */
+	private Wheel wheel = Wheel.MOD_2310;
+	
+	/**
+	 * Sets the wheel to generate the candidates.
+	 * @param wheel the wheel to generate the candidates
+	 */
+	public void setWheel( final Wheel wheel ) {
+		this.wheel = wheel;
+	}
+	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
 	@Override
 	protected BigInteger getFactorImpl( final BigInteger n ) {
 		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
 			return n;
 		
-		if ( n.remainder( BigIntegerMath.TWO ).equals( BigInteger.ZERO ) )
-			return BigIntegerMath.TWO;
+		if ( n.bitLength() < 63 )
+			return LongTrialDivision.getFactor( this, n.longValue(), wheel );
+		
+		for ( final int prime : wheel.getBasePrimes() ) {
+			final BigInteger bigPrime = BigInteger.valueOf( prime );
+			if ( n.remainder( bigPrime ).equals( BigInteger.ZERO ) )
+				return bigPrime;
+		}
 		
-		final BigInteger squareRoot = BigIntegerMath.sqrt( n );
+		final BigInteger   squareRoot = BigIntegerMath.sqrt( n );
+		final BigInteger[] gaps       = wheel.getBigGaps();
+		final BigInteger   first      = BigInteger.valueOf( wheel.getFirstCandidate() );
 		
 		// For status report (completion calculation):
-		final BigDecimal halfSquareRoot = new BigDecimal( squareRoot.shiftRight( 1 ) );
+		final BigDecimal candidatesLength = new BigDecimal( squareRoot.subtract( first ).add( BigInteger.ONE ) );
 		
-		for ( BigInteger i = new BigInteger( "3" ); i.compareTo( squareRoot ) <= 0 && !requestingStop; i= i.add( BigIntegerMath.TWO ) ) {
-			
-			if ( requestingSuspension )
-				suspended();
+		BigInteger i        = first;
+		int        gapIndex = wheel.getFirstGapIndex();
+		
+		final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+		if ( checkpointReader != null ) {
+			i        = checkpointReader.getBigInteger();
+			gapIndex = checkpointReader.getInt();
+		}
+		
+		// Counted locally, added to the metrics at the polls
+		long candidates = 0l;
+		while ( i.compareTo( squareRoot ) <= 0 ) {
 			
-			if ( requestingStatus ) {
-				final StringBuilder stateBuilder = createStateBuilder();
-				stateBuilder.append( "i=" ).append( i ).append( '\n' );
-				createStateSnapshot( new BigDecimal( i.shiftRight( 1 ) ).divide( halfSquareRoot, MathContext.DECIMAL32 ).floatValue(), stateBuilder );
+			if ( --controlCountdown < 0 ) {
+				metrics.add( AlgorithmMetrics.Counter.CANDIDATES, candidates );
+				candidates = 0l;
+				
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 )
+					return null;
+				
+				if ( ( requests & STATUS_REQUEST ) != 0 ) {
+					final StringBuilder stateBuilder = createStateBuilder();
+					stateBuilder.append( "i=" ).append( i ).append( '\n' );
+					createStateSnapshot( new BigDecimal( i.subtract( first ) ).divide( candidatesLength, MathContext.DECIMAL32 ).floatValue(), stateBuilder );
+				}
+				
+				if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+					createCheckpoint( createCheckpointBuilder().putBigInteger( i ).putInt( gapIndex ) );
 			}
 			
-			if ( n.remainder( i ).equals( BigInteger.ZERO ) )
+			candidates++;
+			if ( n.remainder( i ).equals( BigInteger.ZERO ) ) {
+				metrics.add( AlgorithmMetrics.Counter.CANDIDATES, candidates );
 				return i;
+			}
+			
+			i = i.add( gaps[ gapIndex ] );
+			if ( ++gapIndex == gaps.length )
+				gapIndex = 0;
 		}
 		
-		if ( requestingStop ) {
-			stopping();
-			return null;
-		}
-		
+		metrics.add( AlgorithmMetrics.Counter.CANDIDATES, candidates );
 		return n;
 	}
 	
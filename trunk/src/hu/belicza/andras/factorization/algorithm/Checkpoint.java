@@ -0,0 +1,275 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A compact binary checkpoint of an {@link Algorithm}, from which the algorithm can be resumed at the exact loop position.<br>
+ * <br>
+ * The checkpoint consists of the algorithm class, <code>n</code>, the execution time and an algorithm specific payload
+ * (the loop variables). The payload is built by a {@link Builder} and read back by a {@link Reader} in the same order.<br>
+ * <br>
+ * Checkpoints are written to a temporary file which is then moved over the target file, so a crash during a write
+ * leaves the previous checkpoint intact.
+ *
+ * @author Andras Belicza
+ */
+public class Checkpoint {
+	
+	/** Magic number at the beginning of the checkpoint files. */
+	private static final int  MAGIC   = 0x46434b50; // "FCKP"
+	/** Version of the checkpoint file format.                */
+	private static final byte VERSION = 1;
+	
+	/** Name of the algorithm class.                   */
+	public final String     algorithmClassName;
+	/** The number being factorized.                   */
+	public final BigInteger n;
+	/** The algorithm's execution time in nanoseconds. */
+	public final long       executionTimeNanos;
+	/** The algorithm specific payload.                */
+	private final byte[]    payload;
+	
+	/**
+	 * Creates a new Checkpoint.
+	 * @param algorithmClassName name of the algorithm class
+	 * @param n the number being factorized
+	 * @param executionTimeNanos the algorithm's execution time in nanoseconds
+	 * @param payload the algorithm specific payload
+	 */
+	Checkpoint( final String algorithmClassName, final BigInteger n, final long executionTimeNanos, final byte[] payload ) {
+		this.algorithmClassName = algorithmClassName;
+		this.n                  = n;
+		this.executionTimeNanos = executionTimeNanos;
+		this.payload            = payload;
+	}
+	
+	/**
+	 * Returns a reader of the payload.
+	 * @return a reader of the payload
+	 */
+	Reader createReader() {
+		return new Reader( payload );
+	}
+	
+	/**
+	 * Tells if the checkpoint has an algorithm specific payload.<br>
+	 * Algorithms which don't write checkpoints restart from the beginning of their search.
+	 * @return true if the checkpoint has an algorithm specific payload; false otherwise
+	 */
+	public boolean hasPayload() {
+		return payload.length > 0;
+	}
+	
+	/**
+	 * Writes the checkpoint to a file atomically.<br>
+	 * The checkpoint is written to <code>file.tmp</code> first, which is then moved to <code>file</code>.
+	 * @param file file to write the checkpoint to
+	 * @throws IOException if writing the checkpoint fails
+	 */
+	public void writeTo( final File file ) throws IOException {
+		final File tempFile = new File( file.getPath() + ".tmp" );
+		
+		final FileOutputStream fileOutput = new FileOutputStream( tempFile );
+		try {
+			final DataOutputStream output = new DataOutputStream( fileOutput );
+			output.writeInt( MAGIC );
+			output.writeByte( VERSION );
+			output.writeUTF( algorithmClassName );
+			final byte[] nBytes = n.toByteArray();
+			output.writeInt( nBytes.length );
+			output.write( nBytes );
+			output.writeLong( executionTimeNanos );
+			output.writeInt( payload.length );
+			output.write( payload );
+			output.flush();
+			fileOutput.getFD().sync();
+		} finally {
+			fileOutput.close();
+		}
+		
+		Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+	
+	/**
+	 * Reads a checkpoint from a file.
+	 * @param file file to read the checkpoint from
+	 * @return the checkpoint read from the file
+	 * @throws IOException if the file is not a valid checkpoint file or reading it fails
+	 */
+	public static Checkpoint readFrom( final File file ) throws IOException {
+		final long fileSize = file.length();
+		final DataInputStream input = new DataInputStream( new FileInputStream( file ) );
+		try {
+			if ( input.readInt() != MAGIC )
+				throw new IOException( "Not a checkpoint file: " + file );
+			if ( input.readByte() != VERSION )
+				throw new IOException( "Unsupported checkpoint version: " + file );
+			
+			final String algorithmClassName = input.readUTF();
+			final byte[] nBytes = readBytes( input, fileSize, file );
+			if ( nBytes.length == 0 )
+				throw new IOException( "Corrupt checkpoint file, n is missing: " + file );
+			final long   executionTimeNanos = input.readLong();
+			final byte[] payload = readBytes( input, fileSize, file );
+			
+			return new Checkpoint( algorithmClassName, new BigInteger( nBytes ), executionTimeNanos, payload );
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Reads a length prefixed byte array.<br>
+	 * The length is validated before allocating the array, so a corrupt file can't cause an excessive allocation.
+	 * @param input input to read from
+	 * @param fileSize size of the checkpoint file
+	 * @param file the checkpoint file (for the error message)
+	 * @return the byte array read
+	 * @throws IOException if the length is invalid or reading fails
+	 */
+	private static byte[] readBytes( final DataInputStream input, final long fileSize, final File file ) throws IOException {
+		final int length = input.readInt();
+		if ( length < 0 || length > fileSize )
+			throw new IOException( "Corrupt checkpoint file, invalid length " + length + ": " + file );
+		
+		final byte[] bytes = new byte[ length ];
+		input.readFully( bytes );
+		return bytes;
+	}
+	
+	/**
+	 * Builder of the algorithm specific payload.<br>
+	 * Values are appended to a growing byte array, nothing else is allocated,
+	 * so building the payload doesn't stall the algorithm.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class Builder {
+		
+		/** The bytes of the payload.          */
+		private byte[] bytes = new byte[ 64 ];
+		/** Number of bytes used in the buffer. */
+		private int    size;
+		
+		/**
+		 * Appends an <code>int</code> to the payload.
+		 * @param value value to be appended
+		 * @return the builder itself
+		 */
+		public Builder putInt( final int value ) {
+			ensureCapacity( 4 );
+			for ( int shift = 24; shift >= 0; shift -= 8 )
+				bytes[ size++ ] = (byte) ( value >>> shift );
+			return this;
+		}
+		
+		/**
+		 * Appends a <code>long</code> to the payload.
+		 * @param value value to be appended
+		 * @return the builder itself
+		 */
+		public Builder putLong( final long value ) {
+			ensureCapacity( 8 );
+			for ( int shift = 56; shift >= 0; shift -= 8 )
+				bytes[ size++ ] = (byte) ( value >>> shift );
+			return this;
+		}
+		
+		/**
+		 * Appends a {@link BigInteger} to the payload.
+		 * @param value value to be appended
+		 * @return the builder itself
+		 */
+		public Builder putBigInteger( final BigInteger value ) {
+			final byte[] valueBytes = value.toByteArray();
+			putInt( valueBytes.length );
+			ensureCapacity( valueBytes.length );
+			System.arraycopy( valueBytes, 0, bytes, size, valueBytes.length );
+			size += valueBytes.length;
+			return this;
+		}
+		
+		/**
+		 * Returns the bytes of the payload.
+		 * @return the bytes of the payload
+		 */
+		byte[] toByteArray() {
+			return Arrays.copyOf( bytes, size );
+		}
+		
+		/**
+		 * Ensures that <code>count</code> more bytes fit in the buffer.
+		 * @param count number of bytes to be appended
+		 */
+		private void ensureCapacity( final int count ) {
+			if ( size + count > bytes.length )
+				bytes = Arrays.copyOf( bytes, Math.max( bytes.length << 1, size + count ) );
+		}
+		
+	}
+	
+	/**
+	 * Reader of the algorithm specific payload.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class Reader {
+		
+		/** The bytes of the payload.          */
+		private final byte[] bytes;
+		/** Position of the next byte to read. */
+		private int          position;
+		
+		/**
+		 * Creates a new Reader.
+		 * @param bytes the bytes of the payload
+		 */
+		private Reader( final byte[] bytes ) {
+			this.bytes = bytes;
+		}
+		
+		/**
+		 * Reads the next <code>int</code> of the payload.
+		 * @return the next <code>int</code> of the payload
+		 */
+		public int getInt() {
+			int value = 0;
+			for ( int i = 0; i < 4; i++ )
+				value = value << 8 | bytes[ position++ ] & 0xff;
+			return value;
+		}
+		
+		/**
+		 * Reads the next <code>long</code> of the payload.
+		 * @return the next <code>long</code> of the payload
+		 */
+		public long getLong() {
+			long value = 0l;
+			for ( int i = 0; i < 8; i++ )
+				value = value << 8 | bytes[ position++ ] & 0xff;
+			return value;
+		}
+		
+		/**
+		 * Reads the next {@link BigInteger} of the payload.
+		 * @return the next {@link BigInteger} of the payload
+		 */
+		public BigInteger getBigInteger() {
+			final int length = getInt();
+			final BigInteger value = new BigInteger( Arrays.copyOfRange( bytes, position, position + length ) );
+			position += length;
+			return value;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,552 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.PrimeSieve;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lenstra's elliptic curve factorization method (ECM).<br>
+ * <br>
+ * The algorithm is the generalization of the <code>p-1</code> method ({@link PollardPMinus1Factorization}):
+ * instead of the multiplicative group modulo <code>p</code> whose order is fixed, it works in the group of
+ * a random elliptic curve modulo <code>p</code> whose order varies from curve to curve. A factor
+ * <code>p</code> is found if the order of a curve is smooth.<br>
+ * <br>
+ * The curves are Montgomery curves <code>By<sup>2</sup>=x<sup>3</sup>+Ax<sup>2</sup>+x</code> generated
+ * by Suyama's parametrization from a parameter <code>sigma</code>. Points are represented in projective
+ * <code>X:Z</code> coordinates, so neither doubling nor differential addition needs inversion.<br>
+ * <b>Stage 1</b> multiplies the starting point by the largest powers of all primes up to <code>B1</code> using the
+ * Montgomery ladder.<br>
+ * <b>Stage 2</b> is a baby-step giant-step stage: each prime <code>q</code> in <code>(B1, B2]</code> is written
+ * as <code>q=vD&plusmn;u</code>, the baby steps <code>uQ</code> and the giant steps <code>vDQ</code> are computed
+ * by differential additions, and <code>qQ</code> is the point at infinity modulo <code>p</code> if
+ * <code>X<sub>vD</sub>Z<sub>u</sub>-X<sub>u</sub>Z<sub>vD</sub></code> is divisible by <code>p</code>.
+ * These cross products are multiplied together, and a gcd is calculated at the end of each curve.<br>
+ * If a stage finds all prime factors at once (the gcd is <code>n</code>), it is replayed with more frequent gcds:
+ * stage 1 with a gcd after each prime, stage 2 with a gcd after each giant step.<br>
+ * <br>
+ * The curves can't separate the prime factors of very small numbers and of perfect powers, so small prime factors
+ * are divided out and perfect powers are detected before running the curves.<br>
+ * <br>
+ * The curves are independent, so they are run concurrently on a thread pool. The first curve finding a factor
+ * stops the others. The thread calling {@link #getFactor(BigInteger)} coordinates the workers: it handles
+ * the suspend and status requests; the workers check the stop request directly too, so they don't wait for the next poll
+ * of the coordinator to abandon their curves. Only the curves run to the end are counted in the metrics.<br>
+ * <br>
+ * The checkpoints contain the bounds and the completed curves; the curves being run when the checkpoint
+ * is created are run again on resume.<br>
+ * <br>
+ * If no factor is found on the configured number of curves, 1 is returned.
+ *
+ * @author Andras Belicza
+ */
+public class EcmFactorization extends Algorithm {
+	
+	/** The giant step size of stage 2 (2*3*5*7*11).                   */
+	private static final int        D                    = 2310;
+	/** The first <code>sigma</code> parameter of the curves.          */
+	private static final int        FIRST_SIGMA          = 6;
+	/** Time between 2 polls of the control word by the coordinator.   */
+	private static final long       POLL_INTERVAL_MILLIS = 10l;
+	/** Bound of the small primes divided out before the curves.       */
+	private static final long       SMALL_PRIME_BOUND    = 1000l;
+	/** BigInteger constant of the value 4.                            */
+	private static final BigInteger FOUR                 = BigInteger.valueOf( 4l );
+	/** BigInteger constant of the value 5.                            */
+	private static final BigInteger FIVE                 = BigInteger.valueOf( 5l );
+	
+	/** The stage 1 bound.                */
+	private long       b1          = 50000l;
+	/** The stage 2 bound.                */
+	private long       b2          = 5000000l;
+	/** Number of curves to try.          */
+	private int        curves      = 200;
+	/** Number of worker threads.         */
+	private int        parallelism = Runtime.getRuntime().availableProcessors();
+	
+	/** <code>n</code> to be analysed.    */
+	private BigInteger n;
+	/** The prime powers used in stage 1. */
+	private long[]     primePowers;
+	/** The primes of the prime powers.   */
+	private long[]     stage1Primes;
+	/** The primes used in stage 2.       */
+	private long[]     stage2Primes;
+	
+	/** The gate to hold the workers during suspension.      */
+	private final WorkerGate                    workerGate        = new WorkerGate();
+	/** The factor found by the workers.                     */
+	private final AtomicReference< BigInteger > foundFactor       = new AtomicReference< BigInteger >();
+	/** Index of the next curve to be run.                   */
+	private final AtomicInteger                 nextCurve         = new AtomicInteger();
+	/** Number of curves completed.                          */
+	private final AtomicInteger                 completedCurves   = new AtomicInteger();
+	/** The indices of the completed curves, also the lock.  */
+	private final BitSet                        completedCurveSet = new BitSet();
+	/** Tells if the workers have to stop.                   */
+	private volatile boolean                    cancelled;
+	
+	/**
+	 * Sets the stage 1 bound.
+	 * @param b1 the stage 1 bound
+	 */
+	public void setB1( final long b1 ) {
+		this.b1 = b1;
+	}
+	
+	/**
+	 * Sets the stage 2 bound.
+	 * @param b2 the stage 2 bound
+	 */
+	public void setB2( final long b2 ) {
+		this.b2 = b2;
+	}
+	
+	/**
+	 * Sets the number of curves to try.
+	 * @param curves the number of curves to try
+	 */
+	public void setCurves( final int curves ) {
+		this.curves = curves;
+	}
+	
+	/**
+	 * Sets the number of worker threads.
+	 * @param parallelism the number of worker threads
+	 */
+	public void setParallelism( final int parallelism ) {
+		this.parallelism = parallelism;
+	}
+	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger n ) {
+		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
+			return n;
+		
+		if ( !n.testBit( 0 ) )
+			return BigIntegerMath.TWO;
+		
+		final BigInteger smallFactor = findSmallFactor( n );
+		if ( smallFactor != null )
+			return smallFactor;
+		
+		this.n = n;
+		
+		// The curves of a previous call were run on another n
+		foundFactor.set( null );
+		cancelled = false;
+		synchronized ( completedCurveSet ) {
+			completedCurveSet.clear();
+			
+			final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+			if ( checkpointReader != null ) {
+				// The curve indices are only valid with the bounds they were run with
+				b1     = checkpointReader.getLong();
+				b2     = checkpointReader.getLong();
+				curves = checkpointReader.getInt();
+				completedCurveSet.set( 0, checkpointReader.getInt() );
+				for ( int count = checkpointReader.getInt(); count > 0; count-- )
+					completedCurveSet.set( checkpointReader.getInt() );
+			}
+			
+			nextCurve      .set( completedCurveSet.nextClearBit( 0 ) );
+			completedCurves.set( completedCurveSet.cardinality() );
+		}
+		preparePrimes();
+		
+		final ExecutorService executor = Executors.newFixedThreadPool( parallelism );
+		final CountDownLatch  finished = new CountDownLatch( parallelism );
+		for ( int i = 0; i < parallelism; i++ )
+			executor.execute( new Runnable() {
+				@Override
+				public void run() {
+					try {
+						int curve;
+						while ( !isCancelled() && ( curve = nextCurve.getAndIncrement() ) < curves ) {
+							if ( isCurveCompleted( curve ) )
+								continue; // Completed before the checkpoint we resumed from
+							final BigInteger factor = runCurve( BigInteger.valueOf( FIRST_SIGMA + curve ) );
+							if ( factor != null ) {
+								metrics.increment( AlgorithmMetrics.Counter.CURVES );
+								foundFactor.compareAndSet( null, factor );
+								cancelled = true;
+							}
+							else if ( !isCancelled() ) {
+								// The curve was not abandoned
+								metrics.increment( AlgorithmMetrics.Counter.CURVES );
+								synchronized ( completedCurveSet ) {
+									completedCurveSet.set( curve );
+								}
+								completedCurves.incrementAndGet();
+							}
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			} );
+			
+		try {
+			while ( !finished.await( POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS ) ) {
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 ) {
+					cancelled = true;
+					continue; // Wait for the workers to finish
+				}
+				
+				if ( ( requests & STATUS_REQUEST ) != 0 ) {
+					final StringBuilder stateBuilder = createStateBuilder();
+					stateBuilder.append( "b1=" ).append( b1 ).append( '\n' );
+					stateBuilder.append( "b2=" ).append( b2 ).append( '\n' );
+					stateBuilder.append( "curves=" ).append( curves ).append( '\n' );
+					stateBuilder.append( "completedCurves=" ).append( completedCurves.get() ).append( '\n' );
+					stateBuilder.append( "nextSigma=" ).append( FIRST_SIGMA + Math.min( nextCurve.get(), curves ) ).append( '\n' );
+					createStateSnapshot( (float) completedCurves.get() / curves, stateBuilder );
+				}
+				
+				if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+					createCurvesCheckpoint();
+			}
+		} catch ( final InterruptedException ie ) {
+			// The curves would still be running on the next n
+			cancelled = true;
+			awaitWorkers( finished );
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			cancelled = true;
+			executor.shutdown();
+		}
+		
+		if ( isStopRequested() )
+			return null;
+		
+		final BigInteger factor = foundFactor.get();
+		return factor == null ? BigInteger.ONE : factor;
+	}
+	
+	/**
+	 * Waits for the workers to finish; interruptions are ignored while waiting.
+	 * @param finished the latch counted down by the finishing workers
+	 */
+	private static void awaitWorkers( final CountDownLatch finished ) {
+		while ( true )
+			try {
+				finished.await();
+				return;
+			} catch ( final InterruptedException ie ) {
+				// The interruption is restored by the caller
+			}
+	}
+	
+	/**
+	 * Holds the workers at the gate while suspended.
+	 */
+	@Override
+	protected void suspended() {
+		workerGate.close();
+		super.suspended();
+		workerGate.open();
+	}
+	
+	/**
+	 * Tells if the workers have to stop: a curve found a factor, the coordinator cancelled them or a stop is requested.
+	 * @return true if the workers have to stop; false otherwise
+	 */
+	private boolean isCancelled() {
+		return cancelled || isStopRequested();
+	}
+	
+	/**
+	 * Tells if a curve is completed.
+	 * @param curve index of the curve
+	 * @return true if the curve is completed; false otherwise
+	 */
+	private boolean isCurveCompleted( final int curve ) {
+		synchronized ( completedCurveSet ) {
+			return completedCurveSet.get( curve );
+		}
+	}
+	
+	/**
+	 * Creates a checkpoint of the bounds and the completed curves.<br>
+	 * The payload: <code>B1</code>, <code>B2</code>, the number of curves, the number of curves completed in a row from the first one,
+	 * and the indices of the other completed curves (preceded by their count).
+	 */
+	private void createCurvesCheckpoint() {
+		final Checkpoint.Builder checkpointBuilder = createCheckpointBuilder().putLong( b1 ).putLong( b2 ).putInt( curves );
+		synchronized ( completedCurveSet ) {
+			final int firstIncomplete = completedCurveSet.nextClearBit( 0 );
+			checkpointBuilder.putInt( firstIncomplete ).putInt( completedCurveSet.cardinality() - firstIncomplete );
+			for ( int curve = completedCurveSet.nextSetBit( firstIncomplete ); curve >= 0; curve = completedCurveSet.nextSetBit( curve + 1 ) )
+				checkpointBuilder.putInt( curve );
+		}
+		createCheckpoint( checkpointBuilder );
+	}
+	
+	/**
+	 * Looks for a small prime factor and checks if <code>n</code> is a perfect power.
+	 * @param n the odd number to be analysed
+	 * @return a small prime factor or the root if <code>n</code> is a perfect power; <code>null</code> otherwise
+	 */
+	private static BigInteger findSmallFactor( final BigInteger n ) {
+		final PrimeSieve primeSieve = new PrimeSieve();
+		for ( long prime = primeSieve.nextPrime(); prime < SMALL_PRIME_BOUND; prime = primeSieve.nextPrime() ) {
+			final BigInteger bigPrime = BigInteger.valueOf( prime );
+			if ( n.mod( bigPrime ).signum() == 0 )
+				return bigPrime;
+		}
+		
+		// All prime factors are above the small prime bound, which limits the exponent
+		final int maxExponent = (int) ( n.bitLength() / ( Math.log( SMALL_PRIME_BOUND ) / Math.log( 2.0 ) ) );
+		for ( int exponent = 2; exponent <= maxExponent; exponent++ ) {
+			final BigInteger root = BigIntegerMath.root( n, exponent );
+			if ( root.pow( exponent ).equals( n ) )
+				return root;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Prepares the prime powers of stage 1 and the primes of stage 2.
+	 */
+	private void preparePrimes() {
+		final PrimeSieve primeSieve = new PrimeSieve();
+		
+		primePowers  = new long[ (int) ( PrimeSieve.estimatePrimeCount( b1 ) * 1.1 ) + 16 ];
+		stage1Primes = new long[ primePowers.length ];
+		int count = 0;
+		long prime;
+		for ( prime = primeSieve.nextPrime(); prime <= b1; prime = primeSieve.nextPrime() ) {
+			long primePower = prime;
+			while ( primePower <= b1 / prime )
+				primePower *= prime;
+			if ( count == primePowers.length ) {
+				primePowers  = Arrays.copyOf( primePowers , count << 1 );
+				stage1Primes = Arrays.copyOf( stage1Primes, count << 1 );
+			}
+			stage1Primes[ count   ] = prime;
+			primePowers [ count++ ] = primePower;
+		}
+		primePowers  = Arrays.copyOf( primePowers , count );
+		stage1Primes = Arrays.copyOf( stage1Primes, count );
+		
+		stage2Primes = new long[ (int) Math.max( 0.0, ( PrimeSieve.estimatePrimeCount( b2 ) - PrimeSieve.estimatePrimeCount( b1 ) ) * 1.1 ) + 16 ];
+		count = 0;
+		for ( ; prime <= b2; prime = primeSieve.nextPrime() ) {
+			if ( count == stage2Primes.length )
+				stage2Primes = Arrays.copyOf( stage2Primes, count << 1 );
+			stage2Primes[ count++ ] = prime;
+		}
+		stage2Primes = Arrays.copyOf( stage2Primes, count );
+	}
+	
+	/**
+	 * Runs both stages on the curve given by <code>sigma</code>.
+	 * @param sigma the parameter of the curve
+	 * @return the factor found or <code>null</code> if the curve didn't find a factor or the run was cancelled
+	 */
+	private BigInteger runCurve( final BigInteger sigma ) {
+		// Suyama's parametrization: u=sigma^2-5, v=4*sigma, x0=u^3, z0=v^3, (A+2)/4=(v-u)^3*(3u+v)/(16*u^3*v)
+		final BigInteger u           = sigma.multiply( sigma ).subtract( FIVE ).mod( n );
+		final BigInteger v           = sigma.multiply( FOUR ).mod( n );
+		final BigInteger uCube       = u.multiply( u ).multiply( u ).mod( n );
+		final BigInteger vMinusU     = v.subtract( u );
+		final BigInteger denominator = uCube.multiply( v ).shiftLeft( 4 ).mod( n );
+		final BigInteger g           = denominator.gcd( n );
+		metrics.increment( AlgorithmMetrics.Counter.GCDS );
+		if ( !g.equals( BigInteger.ONE ) )
+			return g.equals( n ) ? null : g;
+		final BigInteger a24 = vMinusU.multiply( vMinusU ).multiply( vMinusU ).multiply( u.multiply( BigInteger.valueOf( 3l ) ).add( v ) )
+			.multiply( denominator.modInverse( n ) ).mod( n );
+		
+		final Curve        curve = new Curve( a24 );
+		final BigInteger[] start = new BigInteger[] { uCube, v.multiply( v ).multiply( v ).mod( n ) };
+		
+		// Stage 1
+		BigInteger[] q = start;
+		for ( final long primePower : primePowers ) {
+			if ( isCancelled() )
+				return null;
+			workerGate.pass();
+			q = curve.multiply( q, primePower )[ 0 ];
+		}
+		
+		BigInteger factor = q[ 1 ].gcd( n );
+		metrics.increment( AlgorithmMetrics.Counter.GCDS );
+		if ( factor.equals( n ) )
+			factor = replayStage1( curve, start );
+		if ( factor == null || !factor.equals( BigInteger.ONE ) )
+			return factor == null || factor.equals( n ) ? null : factor;
+		
+		factor = runStage2( curve, q, false );
+		if ( factor != null && factor.equals( n ) )
+			factor = runStage2( curve, q, true );
+		return factor == null || factor.equals( BigInteger.ONE ) || factor.equals( n ) ? null : factor;
+	}
+	
+	/**
+	 * Replays stage 1 with a gcd after each prime, so the prime factors reached in different steps are separated.
+	 * @param curve the curve
+	 * @param start the starting point
+	 * @return the first nontrivial gcd (<code>n</code> if the prime factors can't be separated on this curve)
+	 * or <code>null</code> if the run was cancelled
+	 */
+	private BigInteger replayStage1( final Curve curve, final BigInteger[] start ) {
+		BigInteger[] q = start;
+		for ( int i = 0; i < primePowers.length; i++ ) {
+			if ( isCancelled() )
+				return null;
+			workerGate.pass();
+			for ( long primePower = primePowers[ i ]; primePower > 1l; primePower /= stage1Primes[ i ] ) {
+				q = curve.multiply( q, stage1Primes[ i ] )[ 0 ];
+				final BigInteger factor = q[ 1 ].gcd( n );
+				metrics.increment( AlgorithmMetrics.Counter.GCDS );
+				if ( !factor.equals( BigInteger.ONE ) )
+					return factor;
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * Runs stage 2 on a curve.
+	 * @param curve the curve
+	 * @param q the point resulted by stage 1
+	 * @param gcdPerGiantStep tells if a gcd is to be calculated after each giant step (used to separate prime factors found at once)
+	 * @return the gcd of the cross products and <code>n</code> (the first nontrivial gcd if <code>gcdPerGiantStep</code> is true)
+	 * or <code>null</code> if the run was cancelled
+	 */
+	private BigInteger runStage2( final Curve curve, final BigInteger[] q, final boolean gcdPerGiantStep ) {
+		// Stage 2, baby steps: the odd multiples uQ for u < D/2 (only those coprime to D are used)
+		final BigInteger[][] babySteps = new BigInteger[ D / 2 + 1 ][];
+		final BigInteger[]   doubleQ   = curve.doublePoint( q );
+		babySteps[ 1 ] = q;
+		babySteps[ 3 ] = curve.add( doubleQ, q, q );
+		for ( int j = 5; j <= D / 2; j += 2 )
+			babySteps[ j ] = curve.add( babySteps[ j - 2 ], doubleQ, babySteps[ j - 4 ] );
+		
+		// Giant steps: vG and (v+1)G where G=DQ and v is the giant index
+		final BigInteger[] giant = curve.multiply( q, D )[ 0 ];
+		long giantIndex = Math.max( 1l, ( b1 + D / 2 ) / D );
+		BigInteger[][] giantSteps = curve.multiply( giant, giantIndex );
+		
+		BigInteger product = BigInteger.ONE;
+		for ( final long prime : stage2Primes ) {
+			final long primeV = ( prime + D / 2 ) / D;
+			if ( primeV < giantIndex )
+				continue;
+			
+			if ( gcdPerGiantStep && giantIndex < primeV && !product.equals( BigInteger.ONE ) ) {
+				final BigInteger factor = product.gcd( n );
+				metrics.increment( AlgorithmMetrics.Counter.GCDS );
+				if ( !factor.equals( BigInteger.ONE ) )
+					return factor;
+				product = BigInteger.ONE;
+			}
+			
+			while ( giantIndex < primeV ) {
+				if ( isCancelled() )
+					return null;
+				workerGate.pass();
+				giantSteps = new BigInteger[][] { giantSteps[ 1 ], curve.add( giantSteps[ 1 ], giant, giantSteps[ 0 ] ) };
+				giantIndex++;
+			}
+			
+			final BigInteger[] babyStep  = babySteps[ (int) Math.abs( prime - giantIndex * D ) ];
+			final BigInteger[] giantStep = giantSteps[ 0 ];
+			product = product.multiply( giantStep[ 0 ].multiply( babyStep[ 1 ] ).subtract( babyStep[ 0 ].multiply( giantStep[ 1 ] ) ) ).mod( n );
+		}
+		
+		metrics.increment( AlgorithmMetrics.Counter.GCDS );
+		return product.gcd( n );
+	}
+	
+	/**
+	 * A Montgomery curve modulo <code>n</code> with point arithmetic in projective <code>X:Z</code> coordinates.<br>
+	 * Points are represented by 2 element arrays: <code>{ X, Z }</code>.
+	 *
+	 * @author Andras Belicza
+	 */
+	private class Curve {
+		
+		/** The curve constant <code>(A+2)/4</code>. */
+		private final BigInteger a24;
+		
+		/**
+		 * Creates a new Curve.
+		 * @param a24 the curve constant <code>(A+2)/4</code>
+		 */
+		public Curve( final BigInteger a24 ) {
+			this.a24 = a24;
+		}
+		
+		/**
+		 * Doubles a point.
+		 * @param p point to be doubled
+		 * @return <code>2P</code>
+		 */
+		public BigInteger[] doublePoint( final BigInteger[] p ) {
+			final BigInteger sum        = p[ 0 ].add( p[ 1 ] );
+			final BigInteger difference = p[ 0 ].subtract( p[ 1 ] );
+			final BigInteger sumSquare  = sum.multiply( sum ).mod( n );
+			final BigInteger diffSquare = difference.multiply( difference ).mod( n );
+			final BigInteger t          = sumSquare.subtract( diffSquare );
+			return new BigInteger[] { sumSquare.multiply( diffSquare ).mod( n ), t.multiply( diffSquare.add( a24.multiply( t ) ) ).mod( n ) };
+		}
+		
+		/**
+		 * Differential addition: adds 2 points whose difference is known.
+		 * @param p the first point
+		 * @param q the second point
+		 * @param difference the difference of the points: <code>P-Q</code>
+		 * @return <code>P+Q</code>
+		 */
+		public BigInteger[] add( final BigInteger[] p, final BigInteger[] q, final BigInteger[] difference ) {
+			final BigInteger u    = p[ 0 ].subtract( p[ 1 ] ).multiply( q[ 0 ].add( q[ 1 ] ) );
+			final BigInteger v    = p[ 0 ].add( p[ 1 ] ).multiply( q[ 0 ].subtract( q[ 1 ] ) );
+			final BigInteger sum  = u.add( v ).mod( n );
+			final BigInteger diff = u.subtract( v ).mod( n );
+			return new BigInteger[] { difference[ 1 ].multiply( sum.multiply( sum ) ).mod( n ), difference[ 0 ].multiply( diff.multiply( diff ) ).mod( n ) };
+		}
+		
+		/**
+		 * Multiplies a point by a scalar using the Montgomery ladder.
+		 * @param p point to be multiplied
+		 * @param k the scalar, must be positive
+		 * @return <code>{ kP, (k+1)P }</code>
+		 */
+		public BigInteger[][] multiply( final BigInteger[] p, final long k ) {
+			BigInteger[] r0 = p;
+			BigInteger[] r1 = doublePoint( p );
+			for ( int bit = 62 - Long.numberOfLeadingZeros( k ); bit >= 0; bit-- ) {
+				if ( ( k & 1l << bit ) != 0l ) {
+					r0 = add( r1, r0, p );
+					r1 = doublePoint( r1 );
+				}
+				else {
+					r1 = add( r1, r0, p );
+					r0 = doublePoint( r0 );
+				}
+			}
+			return new BigInteger[][] { r0, r1 };
+		}
+		
+	}
+	
+}
@@ -0,0 +1,304 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+
+import java.math.BigInteger;
+
+/**
+ * Lehman's factorization method with a pre-pass of Hart's one line factorization.<br>
+ * <br>
+ * Lehman's method is a generalization of the square number factorization ({@link SquareNumberFactorization}):
+ * instead of <code>n</code> it looks for <code>4kn=a<sup>2</sup>-b<sup>2</sup></code> for the multipliers
+ * <code>k=1..n<sup>1/3</sup></code>, where <code>a</code> only has to be checked in the short range of
+ * <code>[sqrt(4kn), sqrt(4kn)+n<sup>1/6</sup>/(4sqrt(k))]</code>. A multiplier <code>k</code> close to the
+ * ratio of the factors makes the factors of <code>kn</code> close, so unbalanced factors are found too.
+ * Then <code>gcd(a+b, n)</code> is a factor of <code>n</code>. If <code>n</code> has no factor up to
+ * <code>n<sup>1/3</sup></code>, one of the multipliers is guaranteed to find a factor, so the rest is covered by
+ * trial division up to <code>n<sup>1/3</sup></code>, and the running time is <code>O(n<sup>1/3</sup>)</code>.<br>
+ * <br>
+ * Hart's one line factorization checks if <code>ceil(sqrt(in))<sup>2</sup> mod n</code> is a square, this finds
+ * factors whose ratio is close to a fraction with small numbers very fast, so it is run first for multiples of
+ * {@link #HART_MULTIPLIER}.<br>
+ * <br>
+ * The method is meant for numbers of about 42 to 64 bits. Everything is calculated with <code>long</code>s,
+ * numbers of 64 bits are handled as unsigned <code>long</code>s, so all numbers less than 2<sup>64</sup> are handled;
+ * larger numbers are rejected with an {@link IllegalArgumentException} (returning 1 would tell that they are primes).
+ * The products <code>a<sup>2</sup></code> and <code>4kn</code> don't fit in 64 bits, but their difference does,
+ * so they are calculated with wraparound. The square roots of the multipliers are precomputed in a table
+ * shared by the instances (grown for larger numbers only), and there is no allocation in the loops.<br>
+ * <br>
+ * The checkpoints contain the phase and the next multiplier or divisor.
+ *
+ * @author Andras Belicza
+ */
+public class LehmanFactorization extends Algorithm {
+	
+	/** The multiplier of the Hart pre-pass (has many small divisors).       */
+	private static final int  HART_MULTIPLIER       = 480;
+	/** Number of iterations of the Hart pre-pass.                           */
+	private static final int  HART_ITERATIONS       = 1 << 12;
+	/** Number of multipliers (divisors) checked between 2 control countdown decrements. */
+	private static final int  CHECK_INTERVAL        = 1 << 10;
+	/** The largest cube root of an unsigned <code>long</code>.                */
+	private static final long MAX_CUBE_ROOT         = 2642245l;
+	/** Bit mask of the quadratic residues modulo 64.                        */
+	private static final long QUADRATIC_RESIDUES_64 = 1l <<  0 | 1l <<  1 | 1l <<  4 | 1l <<  9 | 1l << 16 | 1l << 17
+	                                                | 1l << 25 | 1l << 33 | 1l << 36 | 1l << 41 | 1l << 49 | 1l << 57;
+	
+	/** Square roots of the multipliers: <code>sqrtTable[k]=sqrt(k)</code>, shared by the instances. */
+	private static double[] sqrtTable = new double[ 0 ];
+	
+	/** Square roots of the multipliers of the current number: <code>sqrtK[k]=sqrt(k)</code>. */
+	private double[] sqrtK;
+	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger bigN ) {
+		if ( bigN.compareTo( BigIntegerMath.TWO ) <= 0 )
+			return bigN;
+		
+		if ( bigN.bitLength() > 64 )
+			throw new IllegalArgumentException( "Lehman's method only handles numbers less than 2^64!" );
+		
+		// Unsigned if n has 64 bits
+		final long   n       = bigN.longValue();
+		final double doubleN = bigN.doubleValue();
+		if ( ( n & 1l ) == 0l )
+			return BigIntegerMath.TWO;
+		
+		long cubeRoot = Math.min( (long) Math.cbrt( doubleN ), MAX_CUBE_ROOT );
+		while ( Long.compareUnsigned( cubeRoot * cubeRoot * cubeRoot, n ) > 0 )
+			cubeRoot--;
+		while ( cubeRoot < MAX_CUBE_ROOT && Long.compareUnsigned( ( cubeRoot + 1 ) * ( cubeRoot + 1 ) * ( cubeRoot + 1 ), n ) <= 0 )
+			cubeRoot++;
+		
+		sqrtK = getSqrtTable( (int) Math.max( cubeRoot, HART_ITERATIONS ) + 1 );
+		
+		final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+		final int  resumedPhase = checkpointReader == null ? 0  : checkpointReader.getInt();
+		final long resumedValue = checkpointReader == null ? 0l : checkpointReader.getLong();
+		
+		long factor = 0l;
+		if ( resumedPhase == 0 )
+			factor = hart( n, doubleN, checkpointReader == null ? 1 : (int) resumedValue );
+		if ( factor == 0l && resumedPhase <= 1 )
+			factor = lehman( n, doubleN, (int) cubeRoot, resumedPhase == 1 ? (int) resumedValue : 1 );
+		if ( factor == 0l )
+			factor = trialDivision( n, cubeRoot, resumedPhase == 2 ? resumedValue : 3l );
+		
+		if ( isStopRequested() )
+			return null;
+		
+		return factor == 0l ? bigN : BigInteger.valueOf( factor );
+	}
+	
+	/**
+	 * Returns the table of the square roots of the multipliers, computes it only if a larger table is requested than before.
+	 * @param size the number of multipliers needed
+	 * @return the table of the square roots, at least <code>size</code> long
+	 */
+	private static synchronized double[] getSqrtTable( final int size ) {
+		if ( size > sqrtTable.length ) {
+			final double[] table = new double[ size ];
+			for ( int k = 1; k < size; k++ )
+				table[ k ] = Math.sqrt( k );
+			sqrtTable = table;
+		}
+		
+		return sqrtTable;
+	}
+	
+	/**
+	 * Hart's one line factorization for the multipliers <code>i=HART_MULTIPLIER*j</code>.
+	 * @param n <code>n</code> to be analysed (unsigned)
+	 * @param doubleN <code>n</code> as a double
+	 * @param firstJ the first <code>j</code> to be checked (greater than 1 when resumed from a checkpoint)
+	 * @return a factor of <code>n</code> or 0 if no factor was found (or a stop was requested)
+	 */
+	private long hart( final long n, final double doubleN, final int firstJ ) {
+		final double sqrtMN = Math.sqrt( HART_MULTIPLIER * doubleN );
+		final long   mN     = HART_MULTIPLIER * n; // Wraps around
+		
+		setStage( "hart" );
+		for ( int j = firstJ; j <= HART_ITERATIONS; ) {
+			if ( --controlCountdown < 0 && handleRequests( 0, "hart", j, HART_ITERATIONS ) )
+				return 0l;
+			
+			final int checkEnd = Math.min( HART_ITERATIONS, j + CHECK_INTERVAL );
+			// Counted per batch (the batch ending with a factor is counted fully)
+			metrics.add( AlgorithmMetrics.Counter.CANDIDATES, checkEnd - j + 1 );
+			for ( ; j <= checkEnd; j++ ) {
+				long s = (long) Math.ceil( sqrtMN * sqrtK[ j ] );
+				// The difference fits in a long even if the products don't
+				long m = s * s - mN * j;
+				if ( m < 0l )
+					m += ( s++ << 1 ) + 1l;
+				
+				final long t = squareRoot( m );
+				if ( t >= 0l ) {
+					metrics.increment( AlgorithmMetrics.Counter.GCDS );
+					final long g = gcd( s - t, n );
+					if ( g > 1l && g != n )
+						return g;
+				}
+			}
+		}
+		
+		return 0l;
+	}
+	
+	/**
+	 * Lehman's method.
+	 * @param n <code>n</code> to be analysed (unsigned)
+	 * @param doubleN <code>n</code> as a double
+	 * @param kLimit the largest multiplier
+	 * @param firstK the first multiplier to be checked (greater than 1 when resumed from a checkpoint)
+	 * @return a factor of <code>n</code> or 0 if no factor was found (or a stop was requested)
+	 */
+	private long lehman( final long n, final double doubleN, final int kLimit, final int firstK ) {
+		final double sqrt4N        = Math.sqrt( 4.0 * doubleN );
+		final double sixthRootTerm = Math.pow( doubleN, 1.0 / 6.0 ) / 4.0;
+		final long   fourN         = n << 2; // Wraps around
+		
+		setStage( "lehman" );
+		for ( int k = firstK; k <= kLimit; ) {
+			if ( --controlCountdown < 0 && handleRequests( 1, "lehman", k, kLimit ) )
+				return 0l;
+			
+			final int checkEnd = Math.min( kLimit, k + CHECK_INTERVAL );
+			metrics.add( AlgorithmMetrics.Counter.CANDIDATES, checkEnd - k + 1 );
+			for ( ; k <= checkEnd; k++ ) {
+				final double sqrt4KN = sqrt4N * sqrtK[ k ];
+				final long   fourKN  = fourN * k; // Wraps around
+				long a = (long) Math.ceil( sqrt4KN );
+				if ( a * a - fourKN < 0l )
+					a++;
+				final long aLimit = (long) ( sqrt4KN + sixthRootTerm / sqrtK[ k ] ) + 1l;
+				
+				// a must be odd for even k, and a=k+n mod 4 for odd k
+				final int aStep;
+				if ( ( k & 1 ) == 0 ) {
+					a |= 1l;
+					aStep = 2;
+				}
+				else {
+					a += ( k + n - a ) & 3l;
+					aStep = 4;
+				}
+				
+				for ( ; a <= aLimit; a += aStep ) {
+					final long b = squareRoot( a * a - fourKN );
+					if ( b >= 0l ) {
+						metrics.increment( AlgorithmMetrics.Counter.GCDS );
+						final long g = gcd( a + b, n );
+						if ( g > 1l && g != n )
+							return g;
+					}
+				}
+			}
+		}
+		
+		return 0l;
+	}
+	
+	/**
+	 * Trial division by the odd numbers up to <code>limit</code>.
+	 * @param n <code>n</code> to be analysed (unsigned)
+	 * @param limit the largest divisor to be checked
+	 * @param firstI the first (odd) divisor to be checked (greater than 3 when resumed from a checkpoint)
+	 * @return a factor of <code>n</code> or 0 if no factor was found (or a stop was requested)
+	 */
+	private long trialDivision( final long n, final long limit, final long firstI ) {
+		setStage( "trialDivision" );
+		for ( long i = firstI; i <= limit; ) {
+			if ( --controlCountdown < 0 && handleRequests( 2, "trialDivision", i, limit ) )
+				return 0l;
+			
+			final long checkEnd = Math.min( limit, i + CHECK_INTERVAL );
+			metrics.add( AlgorithmMetrics.Counter.CANDIDATES, ( checkEnd - i >> 1 ) + 1l );
+			if ( n > 0l ) {
+				for ( ; i <= checkEnd; i += 2l )
+					if ( n % i == 0l )
+						return i;
+			}
+			else
+				for ( ; i <= checkEnd; i += 2l )
+					if ( Long.remainderUnsigned( n, i ) == 0l )
+						return i;
+		}
+		
+		return 0l;
+	}
+	
+	/**
+	 * Polls the control word and handles the status and checkpoint requests.<br>
+	 * The checkpoint payload: the phase index and the next multiplier or divisor.
+	 * @param phaseIndex index of the current phase (0..2)
+	 * @param phase name of the current phase
+	 * @param value the current multiplier or divisor
+	 * @param limit the last value of the phase
+	 * @return true if a stop is requested; false otherwise
+	 */
+	private boolean handleRequests( final int phaseIndex, final String phase, final long value, final long limit ) {
+		final int requests = pollControl();
+		
+		if ( ( requests & STATUS_REQUEST ) != 0 ) {
+			final StringBuilder stateBuilder = createStateBuilder();
+			stateBuilder.append( "phase=" ).append( phase ).append( '\n' );
+			stateBuilder.append( phaseIndex == 2 ? "i=" : "k=" ).append( value ).append( '\n' );
+			createStateSnapshot( (float) ( ( phaseIndex + (double) value / limit ) / 3.0 ), stateBuilder );
+		}
+		
+		if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+			createCheckpoint( createCheckpointBuilder().putInt( phaseIndex ).putLong( value ) );
+		
+		return ( requests & STOP_REQUEST ) != 0;
+	}
+	
+	/**
+	 * Returns the square root of <code>x</code> if it is a square number.
+	 * @param x number to be checked
+	 * @return the square root of <code>x</code> if it is a square number; -1 otherwise
+	 */
+	private static long squareRoot( final long x ) {
+		if ( x < 0l || ( QUADRATIC_RESIDUES_64 >>> ( x & 63l ) & 1l ) == 0l )
+			return -1l;
+		
+		final long root = (long) Math.sqrt( (double) x );
+		if ( root * root == x )
+			return root;
+		// The double square root might be one less for large x
+		if ( ( root + 1 ) * ( root + 1 ) == x )
+			return root + 1;
+		
+		return -1l;
+	}
+	
+	/**
+	 * Returns the greatest common divisor of 2 numbers (binary gcd).
+	 * @param a the first number (unsigned)
+	 * @param b the second number (unsigned), must not be 0
+	 * @return the greatest common divisor of <code>a</code> and <code>b</code>
+	 */
+	private static long gcd( long a, long b ) {
+		if ( a == 0l )
+			return b;
+		
+		final int shift = Long.numberOfTrailingZeros( a | b );
+		a >>>= Long.numberOfTrailingZeros( a );
+		do {
+			b >>>= Long.numberOfTrailingZeros( b );
+			if ( Long.compareUnsigned( a, b ) > 0 ) {
+				final long temp = a; a = b; b = temp;
+			}
+			b -= a;
+		} while ( b != 0l );
+		
+		return a << shift;
+	}
+	
+}
@@ -0,0 +1,111 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.Wheel;
+
+import java.math.BigInteger;
+
+/**
+ * Trial division engine working on primitive <code>long</code>s.<br>
+ * <br>
+ * The trial division algorithms switch to this engine when <code>n</code> fits in 63 bits.
+ * The candidates are generated by a {@link Wheel}.
+ * No objects are created in the division loop, and the control countdown of the owner {@link Algorithm}
+ * is only decremented once in every {@link #CHECK_INTERVAL} candidates.<br>
+ * <br>
+ * If the owner algorithm writes checkpoints, the checkpoints contain the current candidate and gap index.
+ *
+ * @author Andras Belicza
+ */
+class LongTrialDivision {
+	
+	/** Number of candidates to be tried between 2 decrements of the control countdown. */
+	private static final int  CHECK_INTERVAL = 1 << 12;
+	
+	/** The largest number whose square still fits in a <code>long</code>. */
+	private static final long MAX_SQUARE_ROOT = 3037000499l;
+	
+	/**
+	 * Returns the square root of <code>n</code> (rounded down).
+	 * @param n number whose square root to be returned, must not be negative
+	 * @return the square root of <code>n</code>
+	 */
+	static long sqrt( final long n ) {
+		long root = (long) Math.sqrt( (double) n );
+		
+		// The double estimate might be off by one in both directions
+		while ( root * root > n )
+			root--;
+		while ( root < MAX_SQUARE_ROOT && ( root + 1 ) * ( root + 1 ) <= n )
+			root++;
+		
+		return root;
+	}
+	
+	/**
+	 * Returns a factor of <code>n</code> by trial division.<br>
+	 * Handles the suspend, stop, status and checkpoint requests of <code>algorithm</code>,
+	 * and resumes from the checkpoint of <code>algorithm</code> if there is one.
+	 * @param algorithm the algorithm on behalf of which the division is performed
+	 * @param n <code>n</code> to be analysed, must be greater than 1
+	 * @param wheel wheel to generate the candidates
+	 * @return a factor of <code>n</code> or <code>n</code> if <code>n</code> is a prime; <code>null</code> if stopped
+	 */
+	static BigInteger getFactor( final Algorithm algorithm, final long n, final Wheel wheel ) {
+		for ( final int prime : wheel.getBasePrimes() )
+			if ( n % prime == 0l )
+				return BigInteger.valueOf( prime );
+		
+		final long  squareRoot = sqrt( n );
+		final int[] gaps       = wheel.getGaps();
+		final long  first      = wheel.getFirstCandidate();
+		
+		long i        = first;
+		int  gapIndex = wheel.getFirstGapIndex();
+		
+		final Checkpoint.Reader checkpointReader = algorithm.takeResumeCheckpoint();
+		if ( checkpointReader != null ) {
+			i        = checkpointReader.getLong();
+			gapIndex = checkpointReader.getInt();
+		}
+		
+		// Counted per check interval, added to the metrics at the polls
+		long candidates = 0l;
+		while ( i <= squareRoot ) {
+			
+			if ( --algorithm.controlCountdown < 0 ) {
+				algorithm.metrics.add( AlgorithmMetrics.Counter.CANDIDATES, candidates );
+				candidates = 0l;
+				
+				final int requests = algorithm.pollControl();
+				if ( ( requests & Algorithm.STOP_REQUEST ) != 0 )
+					return null;
+				
+				if ( ( requests & Algorithm.STATUS_REQUEST ) != 0 ) {
+					final StringBuilder stateBuilder = algorithm.createStateBuilder();
+					stateBuilder.append( "i=" ).append( i ).append( '\n' );
+					algorithm.createStateSnapshot( (float) ( (double) ( i - first ) / ( squareRoot - first + 1 ) ), stateBuilder );
+				}
+				
+				if ( ( requests & Algorithm.CHECKPOINT_REQUEST ) != 0 )
+					algorithm.createCheckpoint( algorithm.createCheckpointBuilder().putLong( i ).putInt( gapIndex ) );
+			}
+			
+			int count = CHECK_INTERVAL;
+			for ( ; count > 0 && i <= squareRoot; count-- ) {
+				if ( n % i == 0l ) {
+					algorithm.metrics.add( AlgorithmMetrics.Counter.CANDIDATES, candidates + CHECK_INTERVAL - count + 1 );
+					return BigInteger.valueOf( i );
+				}
+				
+				i += gaps[ gapIndex ];
+				if ( ++gapIndex == gaps.length )
+					gapIndex = 0;
+			}
+			candidates += CHECK_INTERVAL - count;
+		}
+		
+		algorithm.metrics.add( AlgorithmMetrics.Counter.CANDIDATES, candidates );
+		return BigInteger.valueOf( n );
+	}
+	
+}
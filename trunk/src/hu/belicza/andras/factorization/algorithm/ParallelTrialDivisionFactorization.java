@@ -0,0 +1,249 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.Wheel;
+
+import java.math.BigInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parallel trial division algorithm.<br>
+ * <br>
+ * This is the parallel version of the {@link BasicFactorization}: the candidates generated by a {@link Wheel}
+ * up to the square root of <code>n</code> are split into ranges which are checked on a {@link ForkJoinPool}.
+ * Ranges are split recursively, so idle workers can steal the remaining work of the others.<br>
+ * As soon as a worker finds a factor, the rest of the ranges are cancelled.<br>
+ * <br>
+ * The thread calling {@link #getFactor(BigInteger)} coordinates the workers: it handles the
+ * suspend, stop and status requests, and merges the progress of the workers into one state.<br>
+ * <br>
+ * The pool is kept by the instance for the next numbers; its idle (daemon) workers terminate by themselves.
+ *
+ * @author Andras Belicza
+ */
+public class ParallelTrialDivisionFactorization extends Algorithm {
+	
+	/** Number of wheel turns checked by a leaf task.                  */
+	private static final int  LEAF_TURNS           = 256;
+	/** Time between 2 polls of the control word by the coordinator.   */
+	private static final long POLL_INTERVAL_MILLIS = 10l;
+	
+	/** The wheel to generate the candidates.                      */
+	private Wheel            wheel             = Wheel.MOD_2310;
+	/** Number of worker threads.                                  */
+	private int              parallelism       = Runtime.getRuntime().availableProcessors();
+	
+	/** <code>n</code> to be analysed.                             */
+	private BigInteger       n;
+	/** <code>n</code> as a long if it fits in 63 bits.            */
+	private long             longN;
+	/** The limbs of <code>n</code> if it doesn't fit in 63 bits.  */
+	private int[]            limbs;
+	/** The last candidate to be checked.                          */
+	private long             lastCandidate;
+	/** The pool of the workers, created on the first use.        */
+	private ForkJoinPool     pool;
+	/** The gate to hold the workers during suspension.            */
+	private final WorkerGate workerGate  = new WorkerGate();
+	/** The factor found by the workers, 0 if none found yet.      */
+	private final AtomicLong foundFactor = new AtomicLong();
+	/** Tells if the workers have to stop.                         */
+	private volatile boolean cancelled;
+	
+	/**
+	 * Sets the wheel to generate the candidates.
+	 * @param wheel the wheel to generate the candidates
+	 */
+	public void setWheel( final Wheel wheel ) {
+		this.wheel = wheel;
+	}
+	
+	/**
+	 * Sets the number of worker threads.
+	 * @param parallelism the number of worker threads
+	 */
+	public void setParallelism( final int parallelism ) {
+		this.parallelism = parallelism;
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger n ) {
+		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
+			return n;
+		
+		for ( final int prime : wheel.getBasePrimes() ) {
+			final BigInteger bigPrime = BigInteger.valueOf( prime );
+			if ( n.remainder( bigPrime ).equals( BigInteger.ZERO ) )
+				return bigPrime;
+		}
+		
+		this.n = n;
+		if ( n.bitLength() < 63 ) {
+			longN = n.longValue();
+			limbs = null;
+		}
+		else
+			limbs = BigIntegerMath.toIntLimbs( n );
+		foundFactor.set( 0l );
+		cancelled = false;
+		
+		final BigInteger squareRoot = BigIntegerMath.sqrt( n );
+		// Candidates above the long range are out of reach anyway
+		lastCandidate = squareRoot.bitLength() < 62 ? squareRoot.longValue() : Long.MAX_VALUE >> 1;
+		
+		final long firstCandidate = wheel.getFirstCandidate();
+		if ( lastCandidate < firstCandidate )
+			return n;
+		
+		// For status report (completion calculation), only the candidates of this run (not the ones carried over on resume):
+		final double candidatesCount  = ( lastCandidate - firstCandidate + 1 ) * wheel.getDensity();
+		final long   candidatesBefore = metrics.get( AlgorithmMetrics.Counter.CANDIDATES );
+		
+		if ( pool == null || pool.getParallelism() != parallelism ) {
+			if ( pool != null )
+				pool.shutdown();
+			pool = new ForkJoinPool( parallelism );
+		}
+		final ForkJoinTask< ? > task = pool.submit( new RangeTask( 0l, lastCandidate / wheel.getModulus() + 1l ) );
+		
+		try {
+			while ( !task.isDone() ) {
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 ) {
+					cancelled = true;
+					break;
+				}
+				
+				if ( ( requests & STATUS_REQUEST ) != 0 ) {
+					final StringBuilder stateBuilder = createStateBuilder();
+					stateBuilder.append( "parallelism=" ).append( parallelism ).append( '\n' );
+					final long checkedCandidates = metrics.get( AlgorithmMetrics.Counter.CANDIDATES ) - candidatesBefore;
+					stateBuilder.append( "checkedCandidates=" ).append( checkedCandidates ).append( '\n' );
+					createStateSnapshot( (float) Math.min( 1.0, checkedCandidates / candidatesCount ), stateBuilder );
+				}
+				
+				try {
+					task.get( POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+				} catch ( final TimeoutException te ) {
+					// Time to poll the control word again
+				}
+			}
+			
+			task.quietlyJoin();
+		} catch ( final InterruptedException ie ) {
+			// The workers of this run must not report to the next one
+			cancelled = true;
+			task.quietlyJoin();
+			Thread.currentThread().interrupt();
+			return null;
+		} catch ( final ExecutionException ee ) {
+			throw new RuntimeException( "Trial division worker failed!", ee.getCause() );
+		} finally {
+			cancelled = true;
+		}
+		
+		if ( isStopRequested() )
+			return null;
+		
+		final long factor = foundFactor.get();
+		return factor == 0l ? n : BigInteger.valueOf( factor );
+	}
+	
+	/**
+	 * Holds the workers at the gate while suspended.
+	 */
+	@Override
+	protected void suspended() {
+		workerGate.close();
+		super.suspended();
+		workerGate.open();
+	}
+	
+	/**
+	 * Tells if <code>candidate</code> divides <code>n</code>.
+	 * @param candidate candidate to be checked
+	 * @return true if <code>candidate</code> divides <code>n</code>; false otherwise
+	 */
+	private boolean divides( final long candidate ) {
+		if ( limbs == null )
+			return longN % candidate == 0l;
+		if ( candidate <= Integer.MAX_VALUE )
+			return BigIntegerMath.remainder( limbs, (int) candidate ) == 0;
+		return n.remainder( BigInteger.valueOf( candidate ) ).equals( BigInteger.ZERO );
+	}
+	
+	/**
+	 * A task to check the candidates of a range of wheel turns.<br>
+	 * Wheel turn <code>t</code> contains the candidates in the range of
+	 * <code>[t*modulus, (t+1)*modulus)</code>.
+	 *
+	 * @author Andras Belicza
+	 */
+	private class RangeTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		/** The first wheel turn to be checked (inclusive). */
+		private final long fromTurn;
+		/** The last wheel turn to be checked (exclusive).  */
+		private final long toTurn;
+		
+		/**
+		 * Creates a new RangeTask.
+		 * @param fromTurn the first wheel turn to be checked (inclusive)
+		 * @param toTurn the last wheel turn to be checked (exclusive)
+		 */
+		public RangeTask( final long fromTurn, final long toTurn ) {
+			this.fromTurn = fromTurn;
+			this.toTurn   = toTurn;
+		}
+		
+		@Override
+		protected void compute() {
+			if ( cancelled )
+				return;
+			
+			if ( toTurn - fromTurn > LEAF_TURNS ) {
+				final long middleTurn = ( fromTurn + toTurn ) >>> 1;
+				invokeAll( new RangeTask( fromTurn, middleTurn ), new RangeTask( middleTurn, toTurn ) );
+				return;
+			}
+			
+			final int   modulus        = wheel.getModulus();
+			final int[] gaps           = wheel.getGaps();
+			final long  firstCandidate = wheel.getFirstCandidate();
+			
+			for ( long turn = fromTurn; turn < toTurn && !cancelled; turn++ ) {
+				workerGate.pass();
+				
+				final long turnStart = turn * modulus;
+				long candidate = turnStart + 1l;
+				int  checked   = 0;
+				for ( int gapIndex = 0; gapIndex < gaps.length; candidate += gaps[ gapIndex++ ] ) {
+					if ( candidate > lastCandidate )
+						break;
+					if ( candidate < firstCandidate )
+						continue;
+					
+					checked++;
+					if ( divides( candidate ) ) {
+						foundFactor.compareAndSet( 0l, candidate );
+						cancelled = true;
+						break;
+					}
+				}
+				
+				// The metrics counters are striped, the workers don't contend
+				metrics.add( AlgorithmMetrics.Counter.CANDIDATES, checked );
+			}
+		}
+		
+	}
+	
+}
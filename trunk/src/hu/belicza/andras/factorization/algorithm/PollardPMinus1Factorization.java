@@ -0,0 +1,293 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.PrimeSieve;
+
+import java.math.BigInteger;
+
+/**
+ * Pollard's <code>p-1</code> factorization algorithm.<br>
+ * <br>
+ * If <code>p</code> is a prime factor of <code>n</code>, then by Fermat's little theorem
+ * <code>a<sup>k(p-1)</sup>=1 mod p</code> and so <code>p</code> divides <code>gcd(a<sup>k(p-1)</sup>-1, n)</code>.
+ * If <code>p-1</code> is smooth, a multiple of it is easy to construct.<br>
+ * <br>
+ * <b>Stage 1</b> raises <code>a</code> to the largest powers of all primes up to the bound <code>B1</code>,
+ * this finds <code>p</code> if all prime power factors of <code>p-1</code> are at most <code>B1</code>.
+ * The prime powers are multiplied together while they fit in a <code>long</code> so one exponentiation
+ * handles several primes.<br>
+ * <b>Stage 2</b> allows one more prime factor <code>q</code> of <code>p-1</code> in the range of <code>(B1, B2]</code>.
+ * Instead of exponentiating for each <code>q</code>, the powers <code>a<sup>d</sup></code> are precomputed for the
+ * differences <code>d</code> of consecutive primes, so stepping to the next prime is one multiplication.<br>
+ * <br>
+ * The gcd is calculated once for a batch of primes; if a batch reveals all factors at once
+ * (the gcd is <code>n</code>), the batch is replayed prime by prime. If a single prime reveals all factors at once,
+ * the orders of the base modulo the prime factors can't be separated, and the stages are run again with the next base.
+ * A base sharing a factor with <code>n</code> could never reveal that factor, so the gcd of the base and <code>n</code>
+ * is checked first.<br>
+ * <br>
+ * The checkpoints contain the bounds, the base, the stage, the next prime, <code>a</code>, and in stage 2 <code>x=a<sup>q</sup></code>
+ * of the next prime <code>q</code>.<br>
+ * <br>
+ * If no factor is found, 1 is returned.
+ *
+ * @author Andras Belicza
+ */
+public class PollardPMinus1Factorization extends Algorithm {
+	
+	/** Number of primes processed between 2 gcd calculations. */
+	private static final int BATCH_SIZE = 1024;
+	/** The first base of the exponentiation.                   */
+	private static final int FIRST_BASE = 3;
+	/** The last base of the exponentiation to be tried.        */
+	private static final int LAST_BASE  = 11;
+	
+	/** The stage 1 bound.                                      */
+	private long               b1          = 100000l;
+	/** The stage 2 bound.                                      */
+	private long               b2          = 10000000l;
+	
+	/** <code>n</code> to be analysed.                          */
+	private BigInteger         n;
+	/** Primes of the current batch.                            */
+	private final long[]       batchPrimes = new long[ BATCH_SIZE ];
+	/** Powers of the stage 1 result for the prime differences. */
+	private BigInteger[]       differencePowers;
+	
+	/** Total work (for completion calculation).                */
+	private double             totalWork;
+	/** Work of a stage 1 prime (for completion calculation).   */
+	private double             stage1PrimeWork;
+	
+	/**
+	 * Sets the stage 1 bound.
+	 * @param b1 the stage 1 bound
+	 */
+	public void setB1( final long b1 ) {
+		this.b1 = b1;
+	}
+	
+	/**
+	 * Sets the stage 2 bound.
+	 * @param b2 the stage 2 bound
+	 */
+	public void setB2( final long b2 ) {
+		this.b2 = b2;
+	}
+	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger n ) {
+		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
+			return n;
+		
+		if ( !n.testBit( 0 ) )
+			return BigIntegerMath.TWO;
+		
+		this.n = n;
+		
+		Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+		int base = FIRST_BASE;
+		if ( checkpointReader != null ) {
+			// The prime powers of stage 1 depend on the bounds
+			b1   = checkpointReader.getLong();
+			b2   = checkpointReader.getLong();
+			base = checkpointReader.getInt();
+		}
+		
+		// For status report (completion calculation):
+		stage1PrimeWork = Math.log( b1 ) / Math.log( 2.0 );
+		totalWork       = PrimeSieve.estimatePrimeCount( b1 ) * stage1PrimeWork
+		                + PrimeSieve.estimatePrimeCount( b2 ) - PrimeSieve.estimatePrimeCount( b1 );
+		
+		for ( ; base <= LAST_BASE; base++ ) {
+			// a=0 modulo a factor shared with the base, so gcd(a-1, n) would never reveal it
+			final BigInteger g = BigInteger.valueOf( base ).gcd( n );
+			if ( g.compareTo( BigInteger.ONE ) > 0 && g.compareTo( n ) < 0 )
+				return g;
+			
+			final BigInteger factor = runStages( base, checkpointReader );
+			checkpointReader = null;
+			if ( factor == null || !factor.equals( n ) )
+				return factor;
+			// All factors at the same prime, their orders might be separated with another base
+		}
+		
+		return BigInteger.ONE;
+	}
+	
+	/**
+	 * Runs the stages with a base.
+	 * @param base the base of the exponentiation
+	 * @param checkpointReader reader of the checkpoint to resume from, positioned after the base; <code>null</code> if not resuming
+	 * @return a factor of <code>n</code>, 1 if no factor was found, <code>n</code> if a single prime revealed all factors at once;
+	 * <code>null</code> if a stop was requested
+	 */
+	private BigInteger runStages( final int base, final Checkpoint.Reader checkpointReader ) {
+		final int resumedStage = checkpointReader == null ? 1 : checkpointReader.getInt();
+		
+		final PrimeSieve primeSieve = checkpointReader == null ? new PrimeSieve() : new PrimeSieve( checkpointReader.getLong(), checkpointReader.getLong() );
+		
+		// Stage 1
+		setStage( "stage 1" );
+		BigInteger a     = checkpointReader == null ? BigInteger.valueOf( base ) : checkpointReader.getBigInteger();
+		long       prime = primeSieve.nextPrime();
+		while ( prime <= b1 ) {
+			if ( --controlCountdown < 0 && handleRequests( base, 1, prime, primeSieve.getPrimeIndex(), a, null ) )
+				return null;
+			
+			int count = 0;
+			for ( ; count < BATCH_SIZE && prime <= b1; prime = primeSieve.nextPrime() )
+				batchPrimes[ count++ ] = prime;
+			
+			final BigInteger batchStartA = a;
+			long exponent = 1l;
+			for ( int i = 0; i < count; i++ ) {
+				final long primePower = getPrimePower( batchPrimes[ i ] );
+				if ( exponent > Long.MAX_VALUE / primePower ) {
+					a = a.modPow( BigInteger.valueOf( exponent ), n );
+					exponent = 1l;
+				}
+				exponent *= primePower;
+			}
+			a = a.modPow( BigInteger.valueOf( exponent ), n );
+			metrics.add( AlgorithmMetrics.Counter.CANDIDATES, count );
+			
+			BigInteger g = a.subtract( BigInteger.ONE ).gcd( n );
+			metrics.increment( AlgorithmMetrics.Counter.GCDS );
+			if ( g.equals( n ) ) {
+				// All factors at once, replay the batch prime by prime
+				a = batchStartA;
+				for ( int i = 0; i < count; i++ ) {
+					a = a.modPow( BigInteger.valueOf( getPrimePower( batchPrimes[ i ] ) ), n );
+					g = a.subtract( BigInteger.ONE ).gcd( n );
+					metrics.increment( AlgorithmMetrics.Counter.GCDS );
+					if ( !g.equals( BigInteger.ONE ) )
+						break;
+				}
+			}
+			if ( !g.equals( BigInteger.ONE ) )
+				return g;
+		}
+		
+		// Stage 2
+		setStage( "stage 2" );
+		differencePowers = new BigInteger[] { BigInteger.ONE };
+		BigInteger x = resumedStage == 2 ? checkpointReader.getBigInteger() : prime <= b2 ? a.modPow( BigInteger.valueOf( prime ), n ) : null;
+		while ( prime <= b2 ) {
+			if ( --controlCountdown < 0 && handleRequests( base, 2, prime, primeSieve.getPrimeIndex(), a, x ) )
+				return null;
+			
+			final BigInteger batchStartX = x;
+			BigInteger product = BigInteger.ONE;
+			int count = 0;
+			for ( ; count < BATCH_SIZE && prime <= b2; count++ ) {
+				batchPrimes[ count ] = prime;
+				product = product.multiply( x.subtract( BigInteger.ONE ) ).mod( n );
+				
+				final long nextPrime = primeSieve.nextPrime();
+				x = x.multiply( getDifferencePower( a, (int) ( nextPrime - prime ) ) ).mod( n );
+				prime = nextPrime;
+			}
+			
+			metrics.add( AlgorithmMetrics.Counter.CANDIDATES, count );
+			
+			BigInteger g = product.gcd( n );
+			metrics.increment( AlgorithmMetrics.Counter.GCDS );
+			if ( g.equals( n ) ) {
+				// All factors at once, replay the batch prime by prime
+				BigInteger y = batchStartX;
+				for ( int i = 0; i < count; i++ ) {
+					g = y.subtract( BigInteger.ONE ).gcd( n );
+					metrics.increment( AlgorithmMetrics.Counter.GCDS );
+					if ( !g.equals( BigInteger.ONE ) )
+						break;
+					if ( i + 1 < count )
+						y = y.multiply( getDifferencePower( a, (int) ( batchPrimes[ i + 1 ] - batchPrimes[ i ] ) ) ).mod( n );
+				}
+			}
+			if ( !g.equals( BigInteger.ONE ) )
+				return g;
+		}
+		
+		return BigInteger.ONE;
+	}
+	
+	/**
+	 * Returns the largest power of <code>prime</code> not greater than the stage 1 bound.
+	 * @param prime prime whose power to be returned
+	 * @return the largest power of <code>prime</code> not greater than the stage 1 bound
+	 */
+	private long getPrimePower( final long prime ) {
+		long primePower = prime;
+		while ( primePower <= b1 / prime )
+			primePower *= prime;
+		return primePower;
+	}
+	
+	/**
+	 * Returns <code>a<sup>difference</sup> mod n</code>, the powers are cached.
+	 * @param a the stage 1 result
+	 * @param difference the (even) difference of 2 consecutive primes
+	 * @return <code>a<sup>difference</sup> mod n</code>
+	 */
+	private BigInteger getDifferencePower( final BigInteger a, final int difference ) {
+		final int index = difference >> 1;
+		if ( index >= differencePowers.length ) {
+			// Extend the table: a^(2i) = a^(2(i-1)) * a^2
+			final BigInteger[] powers = new BigInteger[ Math.max( index + 1, differencePowers.length << 1 ) ];
+			System.arraycopy( differencePowers, 0, powers, 0, differencePowers.length );
+			final BigInteger aSquare = a.multiply( a ).mod( n );
+			for ( int i = differencePowers.length; i < powers.length; i++ )
+				powers[ i ] = powers[ i - 1 ].multiply( aSquare ).mod( n );
+			differencePowers = powers;
+		}
+		
+		return differencePowers[ index ];
+	}
+	
+	/**
+	 * Polls the control word and handles the status and checkpoint requests.<br>
+	 * The checkpoint payload: <code>B1</code>, <code>B2</code>, the base, the stage, the next prime, the index of the prime before it,
+	 * <code>a</code>, and <code>x</code> in stage 2.
+	 * @param base the base of the exponentiation
+	 * @param stage the current stage
+	 * @param prime the next prime to be processed
+	 * @param primeIndex index of the next prime to be processed
+	 * @param a the current value of <code>a</code> (the result of stage 1 in stage 2)
+	 * @param x <code>a<sup>prime</sup></code> in stage 2; <code>null</code> in stage 1
+	 * @return true if a stop is requested; false otherwise
+	 */
+	private boolean handleRequests( final int base, final int stage, final long prime, final long primeIndex, final BigInteger a, final BigInteger x ) {
+		final int requests = pollControl();
+		
+		if ( ( requests & STATUS_REQUEST ) != 0 ) {
+			final StringBuilder stateBuilder = createStateBuilder();
+			stateBuilder.append( "b1=" ).append( b1 ).append( '\n' );
+			stateBuilder.append( "b2=" ).append( b2 ).append( '\n' );
+			stateBuilder.append( "base=" ).append( base ).append( '\n' );
+			stateBuilder.append( "stage=" ).append( stage ).append( '\n' );
+			stateBuilder.append( "prime=" ).append( prime ).append( '\n' );
+			stateBuilder.append( "a=" ).append( a ).append( '\n' );
+			
+			final double work = stage == 1 ? primeIndex * stage1PrimeWork
+				: PrimeSieve.estimatePrimeCount( b1 ) * stage1PrimeWork + primeIndex - PrimeSieve.estimatePrimeCount( b1 );
+			createStateSnapshot( (float) Math.max( 0.0, Math.min( 1.0, work / totalWork ) ), stateBuilder );
+		}
+		
+		if ( ( requests & CHECKPOINT_REQUEST ) != 0 ) {
+			final Checkpoint.Builder checkpointBuilder = createCheckpointBuilder().putLong( b1 ).putLong( b2 ).putInt( base ).putInt( stage )
+				.putLong( prime ).putLong( primeIndex - 1l ).putBigInteger( a );
+			if ( x != null )
+				checkpointBuilder.putBigInteger( x );
+			createCheckpoint( checkpointBuilder );
+		}
+		
+		return ( requests & STOP_REQUEST ) != 0;
+	}
+	
+}
@@ -0,0 +1,192 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.MontgomeryContext;
+
+import java.math.BigInteger;
+
+/**
+ * Pollard's rho factorization algorithm with Brent's cycle detection.<br>
+ * <br>
+ * The algorithm iterates the pseudo random function <code>f(x)=x<sup>2</sup>+c mod n</code>.
+ * Modulo a prime factor <code>p</code> of <code>n</code> the sequence gets into a cycle after about
+ * <code>sqrt(p)</code> steps, and then <code>gcd(|x-y|, n)</code> reveals <code>p</code>
+ * for 2 elements <code>x</code> and <code>y</code> of the cycle.<br>
+ * <br>
+ * Brent's variant compares <code>y</code> to the saved <code>x</code> at power of 2 positions,
+ * and accumulates the product of the <code>|x-y|</code> values so only one gcd is calculated
+ * for a batch of {@link #BATCH_SIZE} steps. If a batch overshoots (the gcd is <code>n</code>),
+ * the batch is replayed step by step. If that fails too, the algorithm restarts with a different <code>c</code>.<br>
+ * <br>
+ * The steps are calculated in Montgomery form by a {@link MontgomeryContext}, so they don't allocate any objects.
+ * The accumulated product is in Montgomery form too which doesn't affect the gcd as <code>R</code> is coprime to <code>n</code>.<br>
+ * <br>
+ * The expected number of steps is about <code>n<sup>1/4</sup></code>, so factors up to about 2<sup>40</sup>
+ * are found in seconds. The number of iterations can be limited, 1 is returned if no factor is found within the limit.<br>
+ * <br>
+ * The checkpoints contain <code>c</code>, the position in Brent's cycle detection, the number of iterations
+ * and the elements <code>x</code>, <code>y</code> and the accumulated product.
+ *
+ * @author Andras Belicza
+ */
+public class PollardRhoFactorization extends Algorithm {
+	
+	/** Number of steps whose product is accumulated before calculating a gcd. */
+	private static final int BATCH_SIZE = 100;
+	
+	/** The maximum number of iterations (over all <code>c</code> values). */
+	private long maxIterations = Long.MAX_VALUE;
+	
+	/**
+	 * Sets the maximum number of iterations.<br>
+	 * If no factor is found within (about) this many iterations, 1 is returned.
+	 * @param maxIterations the maximum number of iterations
+	 */
+	public void setMaxIterations( final long maxIterations ) {
+		this.maxIterations = maxIterations;
+	}
+	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger n ) {
+		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
+			return n;
+		
+		if ( !n.testBit( 0 ) )
+			return BigIntegerMath.TWO;
+		
+		// For status report (completion calculation):
+		final double expectedIterations = Math.sqrt( Math.sqrt( n.doubleValue() ) );
+		
+		final MontgomeryContext context = new MontgomeryContext( n );
+		final long[] y          = context.newElement();
+		final long[] x          = context.newElement();
+		final long[] q          = context.newElement();
+		final long[] ys         = context.newElement();
+		final long[] difference = context.newElement();
+		final long[] cElement   = context.newElement();
+		
+		final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+		BigInteger c          = BigInteger.ONE;
+		long       iterations = 0l;
+		// The position to resume from (the position k of the second loop is stored as r+k)
+		long       resumedR   = 1l, resumedK = 0l;
+		if ( checkpointReader != null ) {
+			c          = checkpointReader.getBigInteger();
+			resumedR   = checkpointReader.getLong();
+			resumedK   = checkpointReader.getLong();
+			iterations = checkpointReader.getLong();
+			context.toMontgomery( checkpointReader.getBigInteger(), x );
+			context.toMontgomery( checkpointReader.getBigInteger(), y );
+			context.toMontgomery( checkpointReader.getBigInteger(), q );
+		}
+		boolean resuming = checkpointReader != null;
+		
+		for ( ; ; c = c.add( BigInteger.ONE ) ) {
+			context.toMontgomery( c, cElement );
+			if ( !resuming ) {
+				context.toMontgomery( BigIntegerMath.TWO, y );
+				context.setOne( q );
+			}
+			BigInteger g = BigInteger.ONE;
+			
+			for ( long r = resuming ? resumedR : 1l; g.equals( BigInteger.ONE ); r <<= 1 ) {
+				if ( iterations >= maxIterations )
+					return BigInteger.ONE;
+				
+				final long firstK = resuming ? resumedK : 0l;
+				resuming = false;
+				
+				if ( firstK == 0l )
+					context.set( y, x );
+				for ( long k = firstK; k < r; k += BATCH_SIZE ) {
+					if ( --controlCountdown < 0 && handleRequests( c, r, k, iterations, context, x, y, q, expectedIterations ) )
+						return null;
+					
+					final long batchSize = Math.min( BATCH_SIZE, r - k );
+					for ( long i = 0l; i < batchSize; i++ ) {
+						context.square( y, y );
+						context.add( y, cElement, y );
+					}
+					iterations += batchSize;
+					metrics.add( AlgorithmMetrics.Counter.CANDIDATES, batchSize );
+				}
+				
+				for ( long k = Math.max( 0l, firstK - r ); k < r && g.equals( BigInteger.ONE ); k += BATCH_SIZE ) {
+					if ( --controlCountdown < 0 && handleRequests( c, r, r + k, iterations, context, x, y, q, expectedIterations ) )
+						return null;
+					
+					context.set( y, ys );
+					final long batchSize = Math.min( BATCH_SIZE, r - k );
+					for ( long i = 0l; i < batchSize; i++ ) {
+						context.square( y, y );
+						context.add( y, cElement, y );
+						context.subtract( x, y, difference );
+						context.multiply( q, difference, q );
+					}
+					iterations += batchSize;
+					metrics.add( AlgorithmMetrics.Counter.CANDIDATES, batchSize );
+					
+					g = context.toBigInteger( q ).gcd( n );
+					metrics.increment( AlgorithmMetrics.Counter.GCDS );
+				}
+			}
+			
+			if ( g.equals( n ) ) {
+				// The batch overshot: replay it step by step
+				do {
+					context.square( ys, ys );
+					context.add( ys, cElement, ys );
+					context.subtract( x, ys, difference );
+					g = context.toBigInteger( difference ).gcd( n );
+					metrics.increment( AlgorithmMetrics.Counter.GCDS );
+				} while ( g.equals( BigInteger.ONE ) );
+			}
+			
+			if ( !g.equals( n ) )
+				return g;
+			
+			// Failed with this c, x and y met modulo all factors at the same time
+		}
+	}
+	
+	/**
+	 * Polls the control word and handles the status and checkpoint requests.<br>
+	 * The checkpoint payload: <code>c</code>, <code>r</code>, the position, the number of iterations, <code>x</code>, <code>y</code>
+	 * and the accumulated product.
+	 * @param c the constant of the current pseudo random function
+	 * @param r the length of the current round of Brent's cycle detection
+	 * @param position the position in the current round: <code>k</code> in the first loop, <code>r+k</code> in the second
+	 * @param iterations number of iterations performed so far
+	 * @param context the Montgomery context of the elements
+	 * @param x the saved element of the sequence (in Montgomery form)
+	 * @param y the current element of the sequence (in Montgomery form)
+	 * @param q the accumulated product (in Montgomery form)
+	 * @param expectedIterations the expected number of iterations (for completion calculation)
+	 * @return true if a stop is requested; false otherwise
+	 */
+	private boolean handleRequests( final BigInteger c, final long r, final long position, final long iterations, final MontgomeryContext context,
+			final long[] x, final long[] y, final long[] q, final double expectedIterations ) {
+		final int requests = pollControl();
+		
+		if ( ( requests & STATUS_REQUEST ) != 0 ) {
+			final StringBuilder stateBuilder = createStateBuilder();
+			stateBuilder.append( "c=" ).append( c ).append( '\n' );
+			stateBuilder.append( "iterations=" ).append( iterations ).append( '\n' );
+			stateBuilder.append( "x=" ).append( context.fromMontgomery( x ) ).append( '\n' );
+			stateBuilder.append( "y=" ).append( context.fromMontgomery( y ) ).append( '\n' );
+			createStateSnapshot( (float) Math.min( 1.0, iterations / expectedIterations ), stateBuilder );
+		}
+		
+		if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+			createCheckpoint( createCheckpointBuilder().putBigInteger( c ).putLong( r ).putLong( position ).putLong( iterations )
+				.putBigInteger( context.fromMontgomery( x ) ).putBigInteger( context.fromMontgomery( y ) ).putBigInteger( context.fromMontgomery( q ) ) );
+		
+		return ( requests & STOP_REQUEST ) != 0;
+	}
+	
+}
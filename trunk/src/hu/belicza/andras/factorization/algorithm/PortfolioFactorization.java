@@ -0,0 +1,236 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Portfolio of algorithms racing on the same <code>n</code>.<br>
+ * <br>
+ * It is usually not known in advance whether <code>n</code> has a small factor (trial division wins),
+ * 2 close factors ({@link SquareNumberFactorization} wins) or neither (a general purpose algorithm wins).
+ * The algorithms of the portfolio are run in parallel, each on its own thread. The first non-trivial factor found
+ * is returned, and the other algorithms are stopped. An algorithm which gives up just leaves the race.<br>
+ * <br>
+ * Each algorithm can be given a CPU share: the fraction of the time it runs. The shares are enforced by time slicing:
+ * the coordinator suspends and resumes the algorithms so that in every {@link #SHARE_PERIOD_NANOS} nanoseconds
+ * an algorithm runs for its share of the period only.<br>
+ * <br>
+ * The winners are recorded in {@link PortfolioStatistics} per bit length of <code>n</code>.
+ *
+ * @author Andras Belicza
+ */
+public class PortfolioFactorization extends Algorithm {
+	
+	/** Time between 2 polls of the control word (and 2 time slice updates) by the coordinator. */
+	private static final long                POLL_INTERVAL_MILLIS = 10l;
+	/** Period of the time slicing of the CPU shares in nanoseconds.                            */
+	private static final long                SHARE_PERIOD_NANOS   = 1000000000l;
+	/** Statistics shared by the instances which have no statistics set.                        */
+	private static final PortfolioStatistics SHARED_STATISTICS    = new PortfolioStatistics();
+	
+	/** The classes of the algorithms of the portfolio.          */
+	private List< Class< ? extends Algorithm > > algorithmClasses = Arrays.< Class< ? extends Algorithm > >asList(
+		TryingPrimesFactorization.class, SquareNumberFactorization.class, PollardRhoFactorization.class, SiqsFactorization.class );
+	/** The CPU shares of the algorithms, <code>null</code> means all algorithms run all the time. */
+	private double[]                             shares;
+	/** The statistics to record the winners in.                 */
+	private PortfolioStatistics                  statistics       = SHARED_STATISTICS;
+	
+	/** The algorithms racing.                                   */
+	private Algorithm[]                          contestants;
+	/** Tells which algorithms are running in their time slice (the others are suspended). */
+	private boolean[]                            inTimeSlice;
+	/** Index of the winner algorithm, -1 if there is no winner yet. */
+	private final AtomicInteger                  winnerIndex      = new AtomicInteger( -1 );
+	/** The factor found by the winner.                          */
+	private volatile BigInteger                  foundFactor;
+	
+	/**
+	 * Returns the statistics shared by the instances which have no statistics set.
+	 * @return the statistics shared by the instances which have no statistics set
+	 */
+	public static PortfolioStatistics getSharedStatistics() {
+		return SHARED_STATISTICS;
+	}
+	
+	/**
+	 * Sets the algorithms of the portfolio.<br>
+	 * The algorithms are instantiated by their no-arg constructors.
+	 * @param algorithmClasses the classes of the algorithms of the portfolio
+	 */
+	public void setAlgorithms( final List< Class< ? extends Algorithm > > algorithmClasses ) {
+		this.algorithmClasses = algorithmClasses;
+	}
+	
+	/**
+	 * Sets the CPU shares of the algorithms.
+	 * @param shares the CPU shares of the algorithms in the order of the algorithms, in the range of (0..1]
+	 */
+	public void setShares( final double... shares ) {
+		for ( final double share : shares )
+			if ( !( share > 0.0 && share <= 1.0 ) ) // Rejects NaN too
+				throw new IllegalArgumentException( "The CPU shares must be in the range of (0..1]!" );
+		this.shares = shares;
+	}
+	
+	/**
+	 * Sets the statistics to record the winners in.
+	 * @param statistics the statistics to record the winners in
+	 */
+	public void setStatistics( final PortfolioStatistics statistics ) {
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Returns the class of the algorithm which won the race.
+	 * @return the class of the algorithm which won the race; <code>null</code> if there was no winner
+	 */
+	public Class< ? extends Algorithm > getWinner() {
+		final int index = winnerIndex.get();
+		return index < 0 ? null : contestants[ index ].getClass();
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger n ) {
+		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
+			return n;
+		
+		if ( shares != null && shares.length != algorithmClasses.size() )
+			throw new IllegalArgumentException( "The number of CPU shares must match the number of algorithms!" );
+		
+		// The race of a previous call is over
+		winnerIndex.set( -1 );
+		foundFactor = null;
+		
+		final Algorithm[] contestants = new Algorithm[ algorithmClasses.size() ];
+		for ( int i = 0; i < contestants.length; i++ )
+			try {
+				contestants[ i ] = algorithmClasses.get( i ).getDeclaredConstructor().newInstance();
+			} catch ( final Exception e ) {
+				throw new RuntimeException( "Could not instantiate algorithm!", e );
+			}
+		inTimeSlice = new boolean[ contestants.length ];
+		Arrays.fill( inTimeSlice, true );
+		this.contestants = contestants;
+		
+		final long            startNanos = System.nanoTime();
+		final ExecutorService executor   = Executors.newFixedThreadPool( contestants.length );
+		final CountDownLatch  finished   = new CountDownLatch( contestants.length );
+		for ( int i = 0; i < contestants.length; i++ ) {
+			final int index = i;
+			executor.execute( new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final BigInteger factor = contestants[ index ].getFactor( n );
+						if ( factor != null && factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0 && winnerIndex.compareAndSet( -1, index ) ) {
+							foundFactor = factor;
+							// The stop requests don't block, and they also end the suspensions of the time slicing
+							for ( final Algorithm contestant : contestants )
+								if ( contestant != contestants[ index ] )
+									contestant.stop();
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			} );
+		}
+		
+		try {
+			while ( !finished.await( POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS ) ) {
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 ) {
+					for ( final Algorithm contestant : contestants )
+						contestant.stop();
+					continue; // Wait for the algorithms to finish
+				}
+				
+				if ( ( requests & STATUS_REQUEST ) != 0 )
+					createStateSnapshot();
+				
+				if ( shares != null )
+					updateTimeSlices( System.nanoTime() - startNanos );
+			}
+		} catch ( final InterruptedException ie ) {
+			// Don't leave the algorithms running
+			for ( final Algorithm contestant : contestants )
+				contestant.stop();
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			executor.shutdown();
+		}
+		
+		for ( final Algorithm contestant : contestants )
+			metrics.addCounters( contestant.getMetrics() );
+		
+		if ( isStopRequested() )
+			return null;
+		
+		final int index = winnerIndex.get();
+		if ( index < 0 )
+			return BigInteger.ONE;
+		
+		statistics.recordWin( n.bitLength(), contestants[ index ].getClass() );
+		return foundFactor;
+	}
+	
+	/**
+	 * Suspends and resumes the algorithms according to their CPU shares.
+	 * @param elapsedNanos the time elapsed since the start of the race in nanoseconds
+	 */
+	private void updateTimeSlices( final long elapsedNanos ) {
+		final double phase = (double) ( elapsedNanos % SHARE_PERIOD_NANOS ) / SHARE_PERIOD_NANOS;
+		for ( int i = 0; i < contestants.length; i++ ) {
+			final boolean running = phase < shares[ i ];
+			if ( running != inTimeSlice[ i ] ) {
+				inTimeSlice[ i ] = running;
+				if ( running )
+					contestants[ i ].resume();
+				else
+					contestants[ i ].suspend();
+			}
+		}
+	}
+	
+	/**
+	 * Suspends all the algorithms while suspended.
+	 */
+	@Override
+	protected void suspended() {
+		for ( final Algorithm contestant : contestants )
+			contestant.suspend();
+		super.suspended();
+		for ( int i = 0; i < contestants.length; i++ )
+			if ( inTimeSlice[ i ] )
+				contestants[ i ].resume();
+	}
+	
+	/**
+	 * Creates a state snapshot.<br>
+	 * The completion rate is the largest completion rate of the algorithms.
+	 */
+	private void createStateSnapshot() {
+		final StringBuilder stateBuilder = createStateBuilder();
+		float completionRate = 0.0f;
+		for ( int i = 0; i < contestants.length; i++ ) {
+			// Doesn't block, returns the latest published state of the algorithm
+			final AlgorithmState state = contestants[ i ].getState();
+			stateBuilder.append( "algorithm=" ).append( contestants[ i ].getClass().getSimpleName() )
+				.append( " share=" ).append( shares == null ? 1.0 : shares[ i ] )
+				.append( " completion=" ).append( state.completionRate ).append( '\n' );
+			completionRate = Math.max( completionRate, state.completionRate );
+		}
+		createStateSnapshot( completionRate, stateBuilder );
+	}
+	
+}
@@ -0,0 +1,126 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Statistics of the races of {@link PortfolioFactorization}: the number of wins of the algorithms
+ * per bit length of <code>n</code>, to inform the choice of the default algorithms.<br>
+ * <br>
+ * The statistics can be stored in a properties file, the keys are <code>bitLength.algorithmClassName</code>,
+ * the values are the number of wins.<br>
+ * <br>
+ * The methods are thread-safe.
+ *
+ * @author Andras Belicza
+ */
+public class PortfolioStatistics {
+	
+	/** The number of wins by bit length and algorithm class name. */
+	private final Map< Integer, Map< String, Integer > > wins = new TreeMap< Integer, Map< String, Integer > >();
+	
+	/**
+	 * Records a win.
+	 * @param bitLength bit length of the number
+	 * @param algorithmClass class of the algorithm which won
+	 */
+	public synchronized void recordWin( final int bitLength, final Class< ? extends Algorithm > algorithmClass ) {
+		addWins( bitLength, algorithmClass.getName(), 1 );
+	}
+	
+	/**
+	 * Returns the number of wins of the algorithms at a bit length.
+	 * @param bitLength bit length of the numbers
+	 * @return the number of wins by algorithm class name
+	 */
+	public synchronized Map< String, Integer > getWins( final int bitLength ) {
+		final Map< String, Integer > bitLengthWins = wins.get( bitLength );
+		return bitLengthWins == null ? new HashMap< String, Integer >() : new HashMap< String, Integer >( bitLengthWins );
+	}
+	
+	/**
+	 * Returns the algorithm which won the most races at a bit length.
+	 * @param bitLength bit length of the numbers
+	 * @return the class name of the algorithm which won the most races; <code>null</code> if there were no races at the bit length
+	 */
+	public synchronized String getBestAlgorithm( final int bitLength ) {
+		String bestAlgorithm = null;
+		int    bestWins      = 0;
+		final Map< String, Integer > bitLengthWins = wins.get( bitLength );
+		if ( bitLengthWins != null )
+			for ( final Map.Entry< String, Integer > entry : bitLengthWins.entrySet() )
+				if ( entry.getValue() > bestWins ) {
+					bestAlgorithm = entry.getKey();
+					bestWins      = entry.getValue();
+				}
+				
+		return bestAlgorithm;
+	}
+	
+	/**
+	 * Adds the statistics stored in a file to the statistics.
+	 * @param file file to load the statistics from
+	 * @throws IOException if the file is not a valid statistics file or reading it fails
+	 */
+	public synchronized void load( final File file ) throws IOException {
+		final Properties properties = new Properties();
+		final InputStream input = new FileInputStream( file );
+		try {
+			properties.load( input );
+		} finally {
+			input.close();
+		}
+		
+		try {
+			for ( final String key : properties.stringPropertyNames() ) {
+				final int separatorIndex = key.indexOf( '.' );
+				addWins( Integer.parseInt( key.substring( 0, separatorIndex ) ), key.substring( separatorIndex + 1 ), Integer.parseInt( properties.getProperty( key ) ) );
+			}
+		} catch ( final RuntimeException re ) {
+			throw new IOException( "Not a portfolio statistics file: " + file );
+		}
+	}
+	
+	/**
+	 * Stores the statistics in a file.
+	 * @param file file to store the statistics in
+	 * @throws IOException if writing the file fails
+	 */
+	public synchronized void store( final File file ) throws IOException {
+		final Properties properties = new Properties();
+		for ( final Map.Entry< Integer, Map< String, Integer > > bitLengthEntry : wins.entrySet() )
+			for ( final Map.Entry< String, Integer > entry : bitLengthEntry.getValue().entrySet() )
+				properties.setProperty( bitLengthEntry.getKey() + "." + entry.getKey(), entry.getValue().toString() );
+		
+		final OutputStream output = new FileOutputStream( file );
+		try {
+			properties.store( output, "Portfolio wins: bitLength.algorithmClass=wins" );
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * Adds wins.
+	 * @param bitLength bit length of the numbers
+	 * @param algorithmClassName class name of the algorithm
+	 * @param count number of wins to be added
+	 */
+	private void addWins( final int bitLength, final String algorithmClassName, final int count ) {
+		Map< String, Integer > bitLengthWins = wins.get( bitLength );
+		if ( bitLengthWins == null )
+			wins.put( bitLength, bitLengthWins = new HashMap< String, Integer >() );
+		
+		final Integer algorithmWins = bitLengthWins.get( algorithmClassName );
+		bitLengthWins.put( algorithmClassName, algorithmWins == null ? count : algorithmWins + count );
+	}
+	
+}
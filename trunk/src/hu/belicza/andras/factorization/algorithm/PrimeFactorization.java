@@ -0,0 +1,628 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.cache.FactorCache;
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.PrimalityTest;
+import hu.belicza.andras.factorization.utils.PrimeSieve;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Complete prime factorization driver.<br>
+ * <br>
+ * The other algorithms return one factor of <code>n</code>, this one returns all the prime factors
+ * (with multiplicity, see {@link #getPrimeFactors(BigInteger)}). As an {@link Algorithm} it returns the
+ * smallest prime factor.<br>
+ * <br>
+ * First the primes up to the trial division bound are divided out of <code>n</code>. Then each composite
+ * cofactor is checked if it is a perfect power, and if not, it is pushed through the pipeline of {@link Stage}s:
+ * by default Pollard's rho with a few iterations, Pollard's <code>p-1</code>, ECM for larger numbers,
+ * and finally Lehman's method or the quadratic sieve. The first stage which splits the cofactor ends the pipeline,
+ * and the 2 parts are processed further independently.<br>
+ * <br>
+ * The cofactors are processed in parallel on a thread pool. The thread calling {@link #getFactor(BigInteger)}
+ * coordinates: it handles the suspend, stop and status requests and forwards them to the algorithms
+ * running the stages. The parallel stage algorithms (ECM, the quadratic sieve) get an equal share of the threads
+ * of the running stages, so they don't multiply the number of threads. The completion rate is the ratio of the bits of the prime factors found so far.
+ * The metrics include the counters of the running stages, and the stage is the set of the algorithms running.<br>
+ * <br>
+ * If a {@link FactorCache} is set, the cofactors are looked up in it before running the stages,
+ * and the primes and the splits found by the stages are recorded in it.<br>
+ * <br>
+ * Composite cofactors none of the stages could split are not reported as primes, they are returned by
+ * {@link #getUnfactoredCofactors()}. In that case the result as an {@link Algorithm} is the smallest prime factor found,
+ * or the smallest unfactored cofactor if no prime factor was found; if <code>n</code> itself could not be split,
+ * an {@link IllegalStateException} is thrown (returning <code>n</code> would tell that it is a prime).<br>
+ * <br>
+ * If a stage throws an exception, its cofactor is kept as an unfactored cofactor, the other cofactors are processed
+ * further, and at the end the first failure is rethrown wrapped in an {@link IllegalStateException}.
+ *
+ * @author Andras Belicza
+ */
+public class PrimeFactorization extends Algorithm {
+	
+	/**
+	 * A stage of the pipeline: creates the algorithm to be run on a cofactor.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static interface Stage {
+		/**
+		 * Creates the algorithm of the stage to be run on a cofactor.
+		 * @param n the cofactor, a composite number which is not a perfect power
+		 * @return the algorithm to be run or <code>null</code> if the stage is to be skipped for <code>n</code>
+		 */
+		Algorithm createAlgorithm( BigInteger n );
+	}
+	
+	/** Pollard's rho with a few iterations: finds the factors up to about 32 bits. */
+	public static final Stage RHO_STAGE = new Stage() {
+		@Override
+		public Algorithm createAlgorithm( final BigInteger n ) {
+			final PollardRhoFactorization algorithm = new PollardRhoFactorization();
+			algorithm.setMaxIterations( 1l << 16 );
+			return algorithm;
+		}
+	};
+	
+	/** Pollard's <code>p-1</code> with the default bounds. */
+	public static final Stage P_MINUS_1_STAGE = new Stage() {
+		@Override
+		public Algorithm createAlgorithm( final BigInteger n ) {
+			return new PollardPMinus1Factorization();
+		}
+	};
+	
+	/** ECM for factors up to about 20 digits, only for numbers where the quadratic sieve would be slow. */
+	public static final Stage ECM_STAGE = new Stage() {
+		@Override
+		public Algorithm createAlgorithm( final BigInteger n ) {
+			if ( n.bitLength() < 160 )
+				return null;
+			final EcmFactorization algorithm = new EcmFactorization();
+			algorithm.setB1( 11000l );
+			algorithm.setB2( 1100000l );
+			algorithm.setCurves( 90 );
+			return algorithm;
+		}
+	};
+	
+	/** The final stage which always finds a factor: Lehman's method below 63 bits, the quadratic sieve above. */
+	public static final Stage FINAL_STAGE = new Stage() {
+		@Override
+		public Algorithm createAlgorithm( final BigInteger n ) {
+			return n.bitLength() < 63 ? new LehmanFactorization() : new SiqsFactorization();
+		}
+	};
+	
+	/** Time between 2 polls of the control word by the coordinator.   */
+	private static final long POLL_INTERVAL_MILLIS = 10l;
+	
+	/** The primes up to {@link #trialDivisionPrimesBound}, shared by the instances: sieving them per number would cost more than factoring a small number. */
+	private static int[] trialDivisionPrimes      = new int[ 0 ];
+	/** The bound up to which {@link #trialDivisionPrimes} contains all the primes. */
+	private static long  trialDivisionPrimesBound = 0l;
+	
+	/** The stages of the pipeline.                    */
+	private List< Stage > stages             = Arrays.asList( RHO_STAGE, P_MINUS_1_STAGE, ECM_STAGE, FINAL_STAGE );
+	/** The trial division bound.                      */
+	private long          trialDivisionBound = 1l << 16;
+	/** Number of worker threads.                      */
+	private int           parallelism        = Runtime.getRuntime().availableProcessors();
+	/** Cache of the factorization results, optional.  */
+	private FactorCache   factorCache;
+	
+	/** The prime factors found (with multiplicity).   */
+	private final List< BigInteger >        primeFactors        = new ArrayList< BigInteger >();
+	/** The composite cofactors none of the stages could split (with multiplicity), guarded by the lock of the prime factors. */
+	private final List< BigInteger >        unfactoredCofactors = new ArrayList< BigInteger >();
+	/** The first exception thrown by a stage (the later ones are suppressed by it), guarded by the lock of the prime factors. */
+	private Throwable                       failure;
+	/** The algorithms running stages and their cofactors. */
+	private final Map< Algorithm, BigInteger > runningAlgorithms   = new IdentityHashMap< Algorithm, BigInteger >();
+	/** Lock guarding the task counter and signaled when all tasks are done. */
+	private final Object                    tasksLock           = new Object();
+	/** Number of the cofactors being processed.       */
+	private int                             pendingTasks;
+	/** The gate to hold the workers during suspension. */
+	private final WorkerGate                workerGate          = new WorkerGate();
+	/** The thread pool processing the cofactors.      */
+	private ExecutorService                 executor;
+	/** Number of bits of <code>n</code>.              */
+	private double                          totalBits;
+	/** Number of bits of the prime factors found and of the unfactored cofactors. */
+	private double                          factoredBits;
+	/** Tells if the workers have to stop (the coordinator was interrupted). */
+	private volatile boolean                cancelled;
+	
+	/**
+	 * Sets the stages of the pipeline.<br>
+	 * The last stage should always find a factor of a composite number; cofactors no stage could split
+	 * are returned by {@link #getUnfactoredCofactors()}.
+	 * @param stages the stages of the pipeline
+	 */
+	public void setStages( final Stage... stages ) {
+		this.stages = Arrays.asList( stages );
+	}
+	
+	/**
+	 * Sets the trial division bound.
+	 * @param trialDivisionBound the trial division bound, must be at least 2 and less than 2<sup>31</sup>
+	 * @throws IllegalArgumentException if the bound is out of range
+	 */
+	public void setTrialDivisionBound( final long trialDivisionBound ) {
+		// The bound limits the exponent of the perfect powers and the cofactors accepted as primes
+		if ( trialDivisionBound < 2l || trialDivisionBound > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "The trial division bound must be in the range of [2, 2^31)!" );
+		this.trialDivisionBound = trialDivisionBound;
+	}
+	
+	/**
+	 * Sets the number of worker threads.
+	 * @param parallelism the number of worker threads
+	 */
+	public void setParallelism( final int parallelism ) {
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Sets the cache of the factorization results.
+	 * @param factorCache the cache of the factorization results
+	 */
+	public void setFactorCache( final FactorCache factorCache ) {
+		this.factorCache = factorCache;
+	}
+	
+	/**
+	 * Returns the prime factors of <code>n</code>.<br>
+	 * If some of the cofactors could not be split, the product of the prime factors is only a divisor of <code>n</code>,
+	 * the rest is returned by {@link #getUnfactoredCofactors()}.
+	 * @param n <code>n</code> to be analysed, must be positive
+	 * @return the prime factors of <code>n</code> in increasing order with multiplicity;
+	 * <code>null</code> if the algorithm was stopped
+	 * @throws IllegalStateException if none of the stages could split <code>n</code> or a stage threw an exception
+	 */
+	public List< BigInteger > getPrimeFactors( final BigInteger n ) {
+		return getFactor( n ) == null ? null : getPrimeFactors();
+	}
+	
+	/**
+	 * Returns the prime factors found by the last run.
+	 * @return the prime factors found by the last run in increasing order with multiplicity
+	 */
+	public List< BigInteger > getPrimeFactors() {
+		synchronized ( primeFactors ) {
+			final List< BigInteger > factors = new ArrayList< BigInteger >( primeFactors );
+			Collections.sort( factors );
+			return factors;
+		}
+	}
+	
+	/**
+	 * Returns the composite cofactors none of the stages could split in the last run.
+	 * @return the composite cofactors of the last run in increasing order with multiplicity, empty if <code>n</code> was fully factored
+	 */
+	public List< BigInteger > getUnfactoredCofactors() {
+		synchronized ( primeFactors ) {
+			final List< BigInteger > cofactors = new ArrayList< BigInteger >( unfactoredCofactors );
+			Collections.sort( cofactors );
+			return cofactors;
+		}
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger n ) {
+		clearPrimeFactors();
+		cancelled = false;
+		if ( n.compareTo( BigIntegerMath.TWO ) < 0 )
+			return n;
+		
+		totalBits = bits( n );
+		
+		final BigInteger cofactor = trialDivision( n );
+		if ( cofactor == null )
+			return null;
+		
+		if ( !cofactor.equals( BigInteger.ONE ) ) {
+			executor = Executors.newFixedThreadPool( parallelism );
+			submit( cofactor, 1 );
+			
+			try {
+				while ( true ) {
+					synchronized ( tasksLock ) {
+						if ( pendingTasks == 0 )
+							break;
+						tasksLock.wait( POLL_INTERVAL_MILLIS );
+					}
+					
+					final int requests = pollControl();
+					// Repeated on every poll so algorithms started in the meantime are stopped too
+					if ( ( requests & STOP_REQUEST ) != 0 )
+						forEachRunningAlgorithm( Control.STOP );
+					
+					if ( ( requests & STATUS_REQUEST ) != 0 )
+						createStateSnapshot();
+				}
+			} catch ( final InterruptedException ie ) {
+				// The workers would add prime factors to the next run
+				cancelWorkers();
+				Thread.currentThread().interrupt();
+				return null;
+			} finally {
+				executor.shutdown();
+			}
+		}
+		
+		synchronized ( primeFactors ) {
+			if ( failure != null )
+				throw new IllegalStateException( "A stage failed to process a cofactor of " + n + "!", failure );
+		}
+		
+		if ( isStopRequested() )
+			return null;
+		
+		final List< BigInteger > factors = getPrimeFactors();
+		if ( !factors.isEmpty() )
+			return factors.get( 0 );
+		
+		final BigInteger unfactoredCofactor = getUnfactoredCofactors().get( 0 );
+		if ( unfactoredCofactor.equals( n ) )
+			throw new IllegalStateException( "None of the stages could split " + n + "!" );
+		return unfactoredCofactor;
+	}
+	
+	/**
+	 * Stops the processing of the cofactors, and waits for the workers to finish.<br>
+	 * Called if the coordinator is interrupted; further interruptions are ignored while waiting.
+	 */
+	private void cancelWorkers() {
+		cancelled = true;
+		synchronized ( tasksLock ) {
+			while ( pendingTasks > 0 ) {
+				// Repeated so algorithms started in the meantime are stopped too
+				forEachRunningAlgorithm( Control.STOP );
+				try {
+					tasksLock.wait( POLL_INTERVAL_MILLIS );
+				} catch ( final InterruptedException ie ) {
+					// The interruption is restored by the caller
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Holds the workers at the gate and suspends the running algorithms while suspended.
+	 */
+	@Override
+	protected void suspended() {
+		workerGate.close();
+		forEachRunningAlgorithm( Control.SUSPEND );
+		super.suspended();
+		forEachRunningAlgorithm( Control.RESUME );
+		workerGate.open();
+	}
+	
+	@Override
+	protected BigInteger primeFound( final BigInteger n ) {
+		clearPrimeFactors();
+		totalBits = bits( n );
+		addPrimeFactor( n, 1 );
+		return n;
+	}
+	
+	/**
+	 * Divides out the primes up to the trial division bound.
+	 * @param n <code>n</code> to be analysed
+	 * @return the cofactor having no prime factors below the bound; <code>null</code> if a stop was requested
+	 */
+	private BigInteger trialDivision( BigInteger n ) {
+		setStage( "trial division" );
+		final int[] primes = getTrialDivisionPrimes( trialDivisionBound );
+		int[] limbs = BigIntegerMath.toIntLimbs( n );
+		int i = 0;
+		for ( ; i < primes.length && primes[ i ] <= trialDivisionBound; i++ ) {
+			if ( --controlCountdown < 0 ) {
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 )
+					return null;
+				if ( ( requests & STATUS_REQUEST ) != 0 )
+					createStateSnapshot();
+			}
+			
+			final long prime = primes[ i ];
+			if ( prime * prime > n.longValue() && n.bitLength() < 63 )
+				break;
+			
+			if ( BigIntegerMath.remainder( limbs, (int) prime ) == 0 ) {
+				final BigInteger bigPrime = BigInteger.valueOf( prime );
+				do {
+					n = n.divide( bigPrime );
+					addPrimeFactor( bigPrime, 1 );
+				} while ( n.remainder( bigPrime ).signum() == 0 );
+				limbs = BigIntegerMath.toIntLimbs( n );
+			}
+		}
+		metrics.add( AlgorithmMetrics.Counter.CANDIDATES, i );
+		
+		// The cofactor is a prime if it's less than the square of the bound
+		if ( n.bitLength() < 63 && n.longValue() > 1l && n.longValue() / trialDivisionBound < trialDivisionBound ) {
+			addPrimeFactor( n, 1 );
+			return BigInteger.ONE;
+		}
+		
+		return n;
+	}
+	
+	/**
+	 * Returns the primes up to a bound, sieves them only if a larger bound is requested than before.
+	 * @param bound the bound, must be less than 2<sup>31</sup>
+	 * @return the primes, at least up to <code>bound</code>
+	 */
+	private static synchronized int[] getTrialDivisionPrimes( final long bound ) {
+		if ( bound > trialDivisionPrimesBound ) {
+			final PrimeSieve primeSieve = new PrimeSieve();
+			int[] primes = new int[ 1024 ];
+			int   count  = 0;
+			for ( long prime = primeSieve.nextPrime(); prime <= bound; prime = primeSieve.nextPrime() ) {
+				if ( count == primes.length )
+					primes = Arrays.copyOf( primes, count << 1 );
+				primes[ count++ ] = (int) prime;
+			}
+			trialDivisionPrimes      = Arrays.copyOf( primes, count );
+			trialDivisionPrimesBound = bound;
+		}
+		
+		return trialDivisionPrimes;
+	}
+	
+	/**
+	 * Submits a cofactor to be processed.
+	 * @param n the cofactor
+	 * @param multiplicity multiplicity of the cofactor in the original number
+	 */
+	private void submit( final BigInteger n, final int multiplicity ) {
+		synchronized ( tasksLock ) {
+			pendingTasks++;
+		}
+		
+		executor.execute( new Runnable() {
+			@Override
+			public void run() {
+				try {
+					process( n, multiplicity );
+				} catch ( final Throwable t ) {
+					// The cofactor must not vanish from the results
+					synchronized ( primeFactors ) {
+						addUnfactoredCofactor( n, multiplicity );
+						if ( failure == null )
+							failure = t;
+						else
+							failure.addSuppressed( t );
+					}
+				} finally {
+					synchronized ( tasksLock ) {
+						if ( --pendingTasks == 0 )
+							tasksLock.notifyAll();
+					}
+				}
+			}
+		} );
+	}
+	
+	/**
+	 * Processes a cofactor: checks if it is a prime or a perfect power, and runs it through the stages.
+	 * @param n the cofactor
+	 * @param multiplicity multiplicity of the cofactor in the original number
+	 */
+	private void process( final BigInteger n, final int multiplicity ) {
+		if ( cancelled )
+			return;
+		
+		if ( PrimalityTest.isPrime( n ) ) {
+			if ( factorCache != null )
+				factorCache.recordPrime( n );
+			addPrimeFactor( n, multiplicity );
+			return;
+		}
+		
+		// All prime factors are above the trial division bound, which limits the exponent
+		final int maxExponent = (int) ( n.bitLength() / ( Math.log( trialDivisionBound ) / Math.log( 2.0 ) ) );
+		for ( int exponent = 2; exponent <= maxExponent; exponent++ ) {
+			if ( !PrimalityTest.isPrime( exponent ) )
+				continue;
+			final BigInteger root = BigIntegerMath.root( n, exponent );
+			if ( root.pow( exponent ).equals( n ) ) {
+				submit( root, multiplicity * exponent );
+				return;
+			}
+		}
+		
+		final BigInteger knownFactor = factorCache == null ? null : factorCache.findKnownDivisor( n );
+		if ( knownFactor != null && knownFactor.compareTo( n ) < 0 ) {
+			submit( knownFactor, multiplicity );
+			submit( n.divide( knownFactor ), multiplicity );
+			return;
+		}
+		
+		for ( final Stage stage : stages ) {
+			if ( isStopRequested() || cancelled )
+				return;
+			
+			final Algorithm algorithm = stage.createAlgorithm( n );
+			if ( algorithm == null )
+				continue;
+			
+			synchronized ( runningAlgorithms ) {
+				runningAlgorithms.put( algorithm, n );
+				setStageParallelism( algorithm, Math.max( 1, parallelism / runningAlgorithms.size() ) );
+				metrics.addChild( algorithm.getMetrics() );
+				updateStage();
+			}
+			final BigInteger factor;
+			try {
+				// After the registration: either the suspension is forwarded to the algorithm or the gate is closed already
+				workerGate.pass();
+				factor = algorithm.getFactor( n );
+			} finally {
+				synchronized ( runningAlgorithms ) {
+					runningAlgorithms.remove( algorithm );
+					metrics.mergeChild( algorithm.getMetrics() );
+					updateStage();
+				}
+			}
+			
+			if ( factor == null ) // Stopped
+				return;
+			
+			if ( factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0 ) {
+				if ( factorCache != null )
+					factorCache.record( n, factor );
+				submit( factor, multiplicity );
+				submit( n.divide( factor ), multiplicity );
+				return;
+			}
+		}
+		
+		// None of the stages could split it
+		synchronized ( primeFactors ) {
+			addUnfactoredCofactor( n, multiplicity );
+		}
+	}
+	
+	/**
+	 * Adds an unfactored cofactor; must be called under the lock of the prime factors.
+	 * @param n the cofactor
+	 * @param multiplicity multiplicity of the cofactor
+	 */
+	private void addUnfactoredCofactor( final BigInteger n, final int multiplicity ) {
+		for ( int i = 0; i < multiplicity; i++ )
+			unfactoredCofactors.add( n );
+		factoredBits += multiplicity * bits( n );
+	}
+	
+	/**
+	 * Sets the number of worker threads of a parallel stage algorithm.
+	 * @param algorithm the algorithm of a stage
+	 * @param parallelism the number of worker threads
+	 */
+	private static void setStageParallelism( final Algorithm algorithm, final int parallelism ) {
+		if ( algorithm instanceof EcmFactorization )
+			( (EcmFactorization) algorithm ).setParallelism( parallelism );
+		else if ( algorithm instanceof SiqsFactorization )
+			( (SiqsFactorization) algorithm ).setParallelism( parallelism );
+	}
+	
+	/**
+	 * Clears the prime factors and the unfactored cofactors of the previous run.
+	 */
+	private void clearPrimeFactors() {
+		synchronized ( primeFactors ) {
+			primeFactors.clear();
+			unfactoredCofactors.clear();
+			failure      = null;
+			factoredBits = 0.0;
+		}
+	}
+	
+	/**
+	 * Adds a prime factor.
+	 * @param prime the prime factor
+	 * @param multiplicity multiplicity of the prime factor
+	 */
+	private void addPrimeFactor( final BigInteger prime, final int multiplicity ) {
+		synchronized ( primeFactors ) {
+			for ( int i = 0; i < multiplicity; i++ )
+				primeFactors.add( prime );
+			factoredBits += multiplicity * bits( prime );
+		}
+	}
+	
+	/**
+	 * The requests to be forwarded to the running algorithms.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static enum Control {
+		/** Stop request.    */
+		STOP,
+		/** Suspend request. */
+		SUSPEND,
+		/** Resume request.  */
+		RESUME
+	};
+	
+	/**
+	 * Forwards a request to the algorithms running the stages.<br>
+	 * The control methods of the algorithms don't block, so this is safe even if an algorithm
+	 * completes before polling the request.
+	 * @param control the request to be forwarded
+	 */
+	private void forEachRunningAlgorithm( final Control control ) {
+		synchronized ( runningAlgorithms ) {
+			for ( final Algorithm algorithm : runningAlgorithms.keySet() )
+				switch ( control ) {
+				case STOP :
+					algorithm.stop();
+					break;
+				case SUSPEND :
+					algorithm.suspend();
+					break;
+				case RESUME :
+					algorithm.resume();
+					break;
+				}
+		}
+	}
+	
+	/**
+	 * Sets the stage to the algorithms running on the cofactors (the stage is kept while none is running).<br>
+	 * Called under the lock of the running algorithms, so the stages set by the workers are not reordered.
+	 */
+	private void updateStage() {
+		final Set< String > names = new TreeSet< String >();
+		for ( final Algorithm algorithm : runningAlgorithms.keySet() )
+			names.add( algorithm.getClass().getSimpleName() );
+		if ( !names.isEmpty() )
+			setStage( String.join( "+", names ) );
+	}
+	
+	/**
+	 * Creates a state snapshot.
+	 */
+	private void createStateSnapshot() {
+		final StringBuilder stateBuilder = createStateBuilder();
+		final float completionRate;
+		synchronized ( primeFactors ) {
+			stateBuilder.append( "primeFactors=" ).append( getPrimeFactors() ).append( '\n' );
+			if ( !unfactoredCofactors.isEmpty() )
+				stateBuilder.append( "unfactoredCofactors=" ).append( getUnfactoredCofactors() ).append( '\n' );
+			completionRate = (float) ( factoredBits / totalBits );
+		}
+		synchronized ( runningAlgorithms ) {
+			for ( final Map.Entry< Algorithm, BigInteger > entry : runningAlgorithms.entrySet() )
+				stateBuilder.append( "cofactor=" ).append( entry.getValue() ).append( ' ' ).append( entry.getKey().getClass().getSimpleName() ).append( '\n' );
+		}
+		createStateSnapshot( completionRate, stateBuilder );
+	}
+	
+	/**
+	 * Returns the number of bits of a number as a double.
+	 * @param n number whose bits to be returned
+	 * @return the number of bits of <code>n</code>
+	 */
+	private static double bits( final BigInteger n ) {
+		final int shift = Math.max( 0, n.bitLength() - 64 );
+		return shift + Math.log( n.shiftRight( shift ).doubleValue() ) / Math.log( 2.0 );
+	}
+	
+}
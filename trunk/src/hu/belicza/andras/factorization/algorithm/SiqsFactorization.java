@@ -0,0 +1,1092 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.PrimalityTest;
+import hu.belicza.andras.factorization.utils.PrimeSieve;
+import hu.belicza.andras.factorization.utils.Wheel;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self-initializing quadratic sieve (SIQS).<br>
+ * <br>
+ * The algorithm collects relations <code>y<sup>2</sup>=&plusmn;p<sub>1</sub><sup>e<sub>1</sub></sup>...p<sub>k</sub><sup>e<sub>k</sub></sup> mod n</code>
+ * where the <code>p<sub>i</sub></code> primes are from a factor base. If there are more relations than primes,
+ * a subset of them can be multiplied together so that every exponent is even (linear algebra over GF(2)),
+ * which gives a congruence of squares <code>X<sup>2</sup>=Y<sup>2</sup> mod n</code> and a factor
+ * <code>gcd(X-Y, n)</code> with a probability of at least 1/2.<br>
+ * <br>
+ * The relations come from the polynomials <code>(Ax+B)<sup>2</sup>-kn=A(Ax<sup>2</sup>+2Bx+C)</code>
+ * where <code>k</code> is a small multiplier chosen by the Knuth-Schroeppel function, <code>A</code> is the product
+ * of <code>s</code> factor base primes and <code>B<sup>2</sup>=kn mod A</code>. For each <code>A</code> there are
+ * 2<sup>s-1</sup> different <code>B</code> values, and stepping through them in Gray code order makes the switch to
+ * the next polynomial an addition for each factor base prime (this is the self-initialization).<br>
+ * <br>
+ * The values of <code>Ax<sup>2</sup>+2Bx+C</code> are sieved over <code>[-M, M)</code> in cache sized blocks
+ * of bytes, adding the rounded logarithm of <code>p</code> at the positions divisible by <code>p</code>.
+ * The positions reaching the threshold are trial divided; values left with a single prime larger than
+ * the factor base (a large prime) are kept as partial relations, and 2 partials with the same large prime
+ * are combined into a relation.<br>
+ * <br>
+ * The polynomials are sieved in parallel: each worker thread generates its own <code>A</code> values.
+ * The completion rate is the number of relations found divided by the number of relations needed.<br>
+ * <br>
+ * The checkpoints contain the relations, the partial relations and the used <code>A</code> values;
+ * the factor base is rebuilt from <code>n</code> on resume.
+ *
+ * @author Andras Belicza
+ */
+public class SiqsFactorization extends Algorithm {
+	
+	/** The size of a sieve block in bytes.                                          */
+	private static final int   BLOCK_SIZE             = 32 * 1024;
+	/** Time between 2 polls of the control word by the coordinator.                 */
+	private static final long  POLL_INTERVAL_MILLIS   = 10l;
+	/** Number of relations collected beyond the number of factor base primes.       */
+	private static final int   EXTRA_RELATIONS        = 64;
+	/** Number of relation collecting rounds after which the algorithm gives up.    */
+	private static final int   MAX_ROUNDS             = 16;
+	/** The large prime bound is this multiple of the largest factor base prime.     */
+	private static final int   LARGE_PRIME_MULTIPLIER = 64;
+	/** Primes below this are not sieved (they are too expensive and add too little). */
+	private static final int   MIN_SIEVE_PRIME        = 30;
+	/** Bits of the threshold to compensate the primes not sieved.                   */
+	private static final int   SMALL_PRIME_FUDGE      = 4;
+	/** The ideal size of the primes of <code>A</code>.                              */
+	private static final double IDEAL_A_FACTOR        = 2000.0;
+	/** Bit lengths below this are factored by trial division.                       */
+	private static final int   MIN_BIT_LENGTH         = 50;
+	/** The candidate multipliers (odd and square-free).                             */
+	private static final int[] MULTIPLIERS            = new int[] { 1, 3, 5, 7, 11, 13, 15, 17, 19, 21, 23, 29, 31, 33, 35, 37, 39, 41, 43, 47, 51, 53, 55, 57, 59, 61, 65, 67, 69, 71, 73 };
+	/** Parameters for decimal digit counts: digits, factor base size, sieve blocks in the half interval. */
+	private static final int[][] PARAMETERS           = new int[][] {
+		{  15,    60,  1 },
+		{  20,   120,  1 },
+		{  30,   250,  1 },
+		{  40,   500,  1 },
+		{  50,  1200,  2 },
+		{  60,  2500,  3 },
+		{  70,  4500,  4 },
+		{  80,  8000,  6 },
+		{  90, 14000,  8 },
+		{ 100, 24000, 10 }
+	};
+	
+	/** Number of worker threads. */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	
+	/** <code>n</code> to be analysed.                                       */
+	private BigInteger       n;
+	/** <code>kn</code>, <code>n</code> multiplied by the multiplier.        */
+	private BigInteger       kn;
+	/** The multiplier.                                                      */
+	private int              multiplier;
+	/** The factor base primes. Column <code>i+1</code> of the matrix belongs to prime <code>i</code>, column 0 to -1. */
+	private int[]            primes;
+	/** Square roots of <code>kn</code> modulo the factor base primes.       */
+	private int[]            sqrtKn;
+	/** Scaled logarithms of the factor base primes.                         */
+	private byte[]           logs;
+	/** Tells if a factor base prime is sieved.                              */
+	private boolean[]        sieved;
+	/** Half width of the sieve interval: <code>M</code>.                    */
+	private int              halfWidth;
+	/** Initial value of the sieve bytes: the candidates reach 128.          */
+	private byte             sieveInit;
+	/** Bound of the large primes.                                           */
+	private long             largePrimeBound;
+	/** Number of the primes of <code>A</code>: <code>s</code>.              */
+	private int              aFactorCount;
+	/** Index range of the factor base to choose the primes of <code>A</code> from (widened by the workers). */
+	private volatile int     aFactorMinIndex, aFactorMaxIndex;
+	/** The logarithm of the ideal <code>A</code> value.                     */
+	private double           logTargetA;
+	
+	/** Lock guarding the relations.                                         */
+	private final Object                 relationsLock = new Object();
+	/** The full (and the combined) relations.                               */
+	private final List< Relation >       relations     = new ArrayList< Relation >();
+	/** The partial relations by their large primes.                         */
+	private final Map< Long, Relation >  partials      = new HashMap< Long, Relation >();
+	/** The <code>A</code> values used so far.                               */
+	private final Set< BigInteger >      usedAs        = new HashSet< BigInteger >();
+	/** Number of relations needed.                                          */
+	private volatile int                 neededRelations;
+	/** Number of polynomials sieved.                                        */
+	private final AtomicLong             polynomials   = new AtomicLong();
+	/** The gate to hold the workers during suspension.                      */
+	private final WorkerGate             workerGate    = new WorkerGate();
+	/** Tells if the workers have to stop.                                   */
+	private volatile boolean             cancelled;
+	
+	/**
+	 * Sets the number of worker threads.
+	 * @param parallelism the number of worker threads
+	 */
+	public void setParallelism( final int parallelism ) {
+		this.parallelism = parallelism;
+	}
+	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
+	@Override
+	protected BigInteger getFactorImpl( final BigInteger n ) {
+		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
+			return n;
+		
+		if ( n.bitLength() < MIN_BIT_LENGTH )
+			return LongTrialDivision.getFactor( this, n.longValue(), Wheel.MOD_2310 );
+		
+		// Perfect powers would only give trivial congruences (and n = b^k implies n = (b^(k/p))^p for any prime p dividing k)
+		for ( int exponent = 2; exponent < n.bitLength(); exponent++ ) {
+			if ( !PrimalityTest.isPrime( exponent ) )
+				continue;
+			final BigInteger root = BigIntegerMath.root( n, exponent );
+			if ( root.pow( exponent ).equals( n ) )
+				return root;
+		}
+		
+		this.n = n;
+		// The relations of a previous call belong to another n
+		synchronized ( relationsLock ) {
+			relations.clear();
+			partials .clear();
+		}
+		synchronized ( usedAs ) {
+			usedAs.clear();
+		}
+		polynomials.set( 0l );
+		cancelled = false;
+		
+		final BigInteger smallFactor = initialize();
+		if ( smallFactor != null )
+			return smallFactor;
+		
+		final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+		if ( checkpointReader != null )
+			readRelationsCheckpoint( checkpointReader );
+		
+		for ( int round = 0; round < MAX_ROUNDS; round++ ) {
+			try {
+				sieve();
+			} catch ( final InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			
+			if ( isStopRequested() )
+				return null;
+			
+			final BigInteger factor = processRelations();
+			if ( factor != null )
+				return factor;
+			if ( isStopRequested() )
+				return null;
+			
+			// Not enough independent relations, collect some more
+			neededRelations += EXTRA_RELATIONS;
+			cancelled = false;
+		}
+		
+		// Every dependency gave a trivial congruence
+		return BigInteger.ONE;
+	}
+	
+	/**
+	 * Holds the workers at the gate while suspended.
+	 */
+	@Override
+	protected void suspended() {
+		workerGate.close();
+		super.suspended();
+		workerGate.open();
+	}
+	
+	/**
+	 * Chooses the multiplier and the parameters, builds the factor base.
+	 * @return a factor of <code>n</code> if a factor base prime divides it; <code>null</code> otherwise
+	 */
+	private BigInteger initialize() {
+		multiplier = chooseMultiplier();
+		kn = n.multiply( BigInteger.valueOf( multiplier ) );
+		
+		// Parameters interpolated by the number of digits
+		final double digits = n.bitLength() * Math.log10( 2.0 );
+		int row = 0;
+		while ( row < PARAMETERS.length - 2 && digits > PARAMETERS[ row + 1 ][ 0 ] )
+			row++;
+		final double ratio = Math.max( 0.0, ( digits - PARAMETERS[ row ][ 0 ] ) / ( PARAMETERS[ row + 1 ][ 0 ] - PARAMETERS[ row ][ 0 ] ) );
+		final int factorBaseSize = (int) ( PARAMETERS[ row ][ 1 ] + ratio * ( PARAMETERS[ row + 1 ][ 1 ] - PARAMETERS[ row ][ 1 ] ) );
+		halfWidth = BLOCK_SIZE * (int) Math.round( PARAMETERS[ row ][ 2 ] + ratio * ( PARAMETERS[ row + 1 ][ 2 ] - PARAMETERS[ row ][ 2 ] ) );
+		
+		// Factor base: 2, the primes dividing the multiplier and the primes p for which kn is a quadratic residue
+		primes = new int[ factorBaseSize ];
+		sqrtKn = new int[ factorBaseSize ];
+		final int[] nLimbs  = BigIntegerMath.toIntLimbs( n );
+		final int[] knLimbs = BigIntegerMath.toIntLimbs( kn );
+		final PrimeSieve primeSieve = new PrimeSieve();
+		int count = 0;
+		while ( count < factorBaseSize ) {
+			final int prime = (int) primeSieve.nextPrime();
+			if ( BigIntegerMath.remainder( nLimbs, prime ) == 0 )
+				return BigInteger.valueOf( prime );
+			final int residue = BigIntegerMath.remainder( knLimbs, prime );
+			if ( prime == 2 || residue == 0 ) {
+				primes[ count   ] = prime;
+				sqrtKn[ count++ ] = residue & 1;
+			}
+			else if ( powMod( residue, ( prime - 1 ) >> 1, prime ) == 1 ) {
+				primes[ count   ] = prime;
+				sqrtKn[ count++ ] = sqrtMod( residue, prime );
+			}
+		}
+		
+		// Logarithms and threshold: the sieve values are scaled to fit in a byte
+		final double log2Q       = ( kn.bitLength() - 1 ) / 2.0 + Math.log( halfWidth ) / Math.log( 2.0 );
+		final double scale       = Math.min( 1.0, 120.0 / log2Q );
+		largePrimeBound = (long) primes[ factorBaseSize - 1 ] * LARGE_PRIME_MULTIPLIER;
+		final double threshold   = scale * ( log2Q - Math.log( largePrimeBound ) / Math.log( 2.0 ) - SMALL_PRIME_FUDGE );
+		sieveInit = (byte) ( 128 - (int) Math.max( 1.0, threshold ) );
+		logs   = new byte   [ factorBaseSize ];
+		sieved = new boolean[ factorBaseSize ];
+		for ( int i = 0; i < factorBaseSize; i++ ) {
+			logs  [ i ] = (byte) Math.max( 1l, Math.round( scale * Math.log( primes[ i ] ) / Math.log( 2.0 ) ) );
+			sieved[ i ] = primes[ i ] >= MIN_SIEVE_PRIME && multiplier % primes[ i ] != 0;
+		}
+		
+		chooseAFactors();
+		
+		neededRelations = factorBaseSize + 1 + EXTRA_RELATIONS;
+		return null;
+	}
+	
+	/**
+	 * Chooses the multiplier by the Knuth-Schroeppel function.
+	 * @return the multiplier
+	 */
+	private int chooseMultiplier() {
+		final double[] scores = new double[ MULTIPLIERS.length ];
+		final int[]    nLimbs = BigIntegerMath.toIntLimbs( n );
+		for ( int i = 0; i < MULTIPLIERS.length; i++ ) {
+			scores[ i ] = -0.5 * Math.log( MULTIPLIERS[ i ] );
+			// kn mod 8 decides the contribution of 2
+			final int knMod8 = BigIntegerMath.remainder( nLimbs, 8 ) * MULTIPLIERS[ i ] & 7;
+			scores[ i ] += ( knMod8 == 1 ? 2.0 : knMod8 == 5 ? 1.0 : 0.5 ) * Math.log( 2.0 );
+		}
+		
+		final PrimeSieve primeSieve = new PrimeSieve();
+		primeSieve.nextPrime(); // Skip 2
+		for ( int prime = (int) primeSieve.nextPrime(); prime < 1000; prime = (int) primeSieve.nextPrime() ) {
+			final int    nResidue = BigIntegerMath.remainder( nLimbs, prime );
+			final double logPrime = Math.log( prime );
+			for ( int i = 0; i < MULTIPLIERS.length; i++ ) {
+				final int knResidue = (int) ( (long) nResidue * MULTIPLIERS[ i ] % prime );
+				if ( knResidue == 0 )
+					scores[ i ] += logPrime / prime;
+				else if ( powMod( knResidue, ( prime - 1 ) >> 1, prime ) == 1 )
+					scores[ i ] += 2.0 * logPrime / ( prime - 1 );
+			}
+		}
+		
+		int best = 0;
+		for ( int i = 1; i < MULTIPLIERS.length; i++ )
+			if ( scores[ i ] > scores[ best ] )
+				best = i;
+		
+		return MULTIPLIERS[ best ];
+	}
+	
+	/**
+	 * Chooses the number of the primes of <code>A</code> and the factor base range to choose them from.
+	 */
+	private void chooseAFactors() {
+		// Ideal A: sqrt(2kn)/M, so the values are about M*sqrt(kn/2) on the whole interval
+		logTargetA = ( Math.log( 2.0 ) + ( kn.bitLength() - 1 ) * Math.log( 2.0 ) ) / 2.0 - Math.log( halfWidth );
+		
+		int firstUsable = 0;
+		while ( !sieved[ firstUsable ] )
+			firstUsable++;
+		final int lastUsable = primes.length - 1;
+		
+		aFactorCount = Math.max( 1, (int) Math.round( logTargetA / Math.log( IDEAL_A_FACTOR ) ) );
+		while ( Math.exp( logTargetA / aFactorCount ) > primes[ lastUsable ] * 0.8 )
+			aFactorCount++;
+		while ( aFactorCount > 1 && Math.exp( logTargetA / aFactorCount ) < primes[ firstUsable ] )
+			aFactorCount--;
+		
+		final double idealFactor = Math.exp( logTargetA / aFactorCount );
+		aFactorMinIndex = firstUsable;
+		while ( aFactorMinIndex < lastUsable && primes[ aFactorMinIndex ] < idealFactor / 1.6 )
+			aFactorMinIndex++;
+		aFactorMaxIndex = aFactorMinIndex;
+		while ( aFactorMaxIndex < lastUsable && primes[ aFactorMaxIndex ] < idealFactor * 1.6 )
+			aFactorMaxIndex++;
+		
+		// Enough room for different A values
+		while ( aFactorMaxIndex - aFactorMinIndex < aFactorCount + 8 && ( aFactorMinIndex > firstUsable || aFactorMaxIndex < lastUsable ) ) {
+			if ( aFactorMinIndex > firstUsable )
+				aFactorMinIndex--;
+			if ( aFactorMaxIndex < lastUsable )
+				aFactorMaxIndex++;
+		}
+	}
+	
+	/**
+	 * Runs the sieve workers until enough relations are collected or a stop is requested.
+	 * @throws InterruptedException if the coordinator is interrupted (the workers are finished by then)
+	 */
+	private void sieve() throws InterruptedException {
+		setStage( "sieving" );
+		final ExecutorService executor = Executors.newFixedThreadPool( parallelism );
+		final CountDownLatch  finished = new CountDownLatch( parallelism );
+		for ( int i = 0; i < parallelism; i++ ) {
+			final SieveWorker worker = new SieveWorker( new Random( polynomials.get() * 31 + i ) );
+			executor.execute( new Runnable() {
+				@Override
+				public void run() {
+					try {
+						worker.run();
+					} finally {
+						finished.countDown();
+					}
+				}
+			} );
+		}
+		
+		try {
+			while ( !finished.await( POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS ) ) {
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 ) {
+					cancelled = true;
+					continue; // Wait for the workers to finish
+				}
+				
+				if ( ( requests & STATUS_REQUEST ) != 0 )
+					createStateSnapshot( "sieving" );
+				
+				if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+					createRelationsCheckpoint();
+			}
+		} catch ( final InterruptedException ie ) {
+			// The workers would still be adding relations in the next round
+			cancelled = true;
+			awaitWorkers( finished );
+			throw ie;
+		} finally {
+			cancelled = true;
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Waits for the workers to finish; interruptions are ignored while waiting.
+	 * @param finished the latch counted down by the finishing workers
+	 */
+	private static void awaitWorkers( final CountDownLatch finished ) {
+		while ( true )
+			try {
+				finished.await();
+				return;
+			} catch ( final InterruptedException ie ) {
+				// The interruption is restored by the caller
+			}
+	}
+	
+	/**
+	 * Creates a state snapshot.
+	 * @param phase the current phase of the algorithm
+	 */
+	private void createStateSnapshot( final String phase ) {
+		final int relationsCount;
+		final int partialsCount;
+		synchronized ( relationsLock ) {
+			relationsCount = relations.size();
+			partialsCount  = partials.size();
+		}
+		
+		final StringBuilder stateBuilder = createStateBuilder();
+		stateBuilder.append( "phase=" ).append( phase ).append( '\n' );
+		stateBuilder.append( "multiplier=" ).append( multiplier ).append( '\n' );
+		stateBuilder.append( "factorBaseSize=" ).append( primes.length ).append( '\n' );
+		stateBuilder.append( "polynomials=" ).append( polynomials.get() ).append( '\n' );
+		stateBuilder.append( "relations=" ).append( relationsCount ).append( '\n' );
+		stateBuilder.append( "partialRelations=" ).append( partialsCount ).append( '\n' );
+		stateBuilder.append( "neededRelations=" ).append( neededRelations ).append( '\n' );
+		createStateSnapshot( Math.min( 1.0f, (float) relationsCount / neededRelations ), stateBuilder );
+	}
+	
+	/**
+	 * Creates a checkpoint of the collected relations.<br>
+	 * The payload: the number of polynomials sieved, the number of relations needed, the range of the primes of <code>A</code>,
+	 * the relations, the partial relations and the used <code>A</code> values (each list preceded by its size).
+	 */
+	private void createRelationsCheckpoint() {
+		final Relation[] relationArray;
+		final Relation[] partialArray;
+		synchronized ( relationsLock ) {
+			relationArray = relations.toArray( new Relation[ relations.size() ] );
+			partialArray  = partials.values().toArray( new Relation[ partials.size() ] );
+		}
+		// Taken after the relations, so the A values of all the written relations are included
+		// (an A used again on resume would give duplicate relations)
+		final BigInteger[] aArray;
+		final int          minIndex, maxIndex;
+		synchronized ( usedAs ) {
+			aArray   = usedAs.toArray( new BigInteger[ usedAs.size() ] );
+			minIndex = aFactorMinIndex;
+			maxIndex = aFactorMaxIndex;
+		}
+		
+		final Checkpoint.Builder checkpointBuilder = createCheckpointBuilder();
+		checkpointBuilder.putLong( polynomials.get() ).putInt( neededRelations ).putInt( minIndex ).putInt( maxIndex );
+		checkpointBuilder.putInt( relationArray.length );
+		for ( final Relation relation : relationArray )
+			relation.writeTo( checkpointBuilder );
+		checkpointBuilder.putInt( partialArray.length );
+		for ( final Relation partial : partialArray )
+			partial.writeTo( checkpointBuilder );
+		checkpointBuilder.putInt( aArray.length );
+		for ( final BigInteger a : aArray )
+			checkpointBuilder.putBigInteger( a );
+		
+		createCheckpoint( checkpointBuilder );
+	}
+	
+	/**
+	 * Reads the collected relations from the checkpoint to resume from.<br>
+	 * Must be called after building the factor base, the factors of the relations are indices of it.
+	 * @param checkpointReader reader of the checkpoint to resume from
+	 * @see #createRelationsCheckpoint()
+	 */
+	private void readRelationsCheckpoint( final Checkpoint.Reader checkpointReader ) {
+		polynomials.set( checkpointReader.getLong() );
+		neededRelations = checkpointReader.getInt();
+		aFactorMinIndex = checkpointReader.getInt();
+		aFactorMaxIndex = checkpointReader.getInt();
+		
+		synchronized ( relationsLock ) {
+			for ( int count = checkpointReader.getInt(); count > 0; count-- )
+				relations.add( Relation.readFrom( checkpointReader ) );
+			for ( int count = checkpointReader.getInt(); count > 0; count-- ) {
+				final Relation partial = Relation.readFrom( checkpointReader );
+				partials.put( partial.largePrime, partial );
+			}
+			
+			// The workers would sieve until the next relation
+			cancelled = relations.size() >= neededRelations;
+		}
+		synchronized ( usedAs ) {
+			for ( int count = checkpointReader.getInt(); count > 0; count-- )
+				usedAs.add( checkpointReader.getBigInteger() );
+		}
+	}
+	
+	/**
+	 * Adds a relation found by a worker.
+	 * @param relation relation to be added
+	 */
+	private void addRelation( final Relation relation ) {
+		synchronized ( relationsLock ) {
+			if ( relation.largePrime == 1l ) {
+				relations.add( relation );
+				metrics.increment( AlgorithmMetrics.Counter.RELATIONS );
+			}
+			else {
+				final Relation partial = partials.get( relation.largePrime );
+				if ( partial == null )
+					partials.put( relation.largePrime, relation );
+				else {
+					// The large prime appears squared in the product of the 2 partials
+					final int[] factors = Arrays.copyOf( partial.factors, partial.factors.length + relation.factors.length );
+					System.arraycopy( relation.factors, 0, factors, partial.factors.length, relation.factors.length );
+					relations.add( new Relation( partial.y.multiply( relation.y ).mod( n ), factors,
+						partial.largePrimes.multiply( BigInteger.valueOf( relation.largePrime ) ), 1l ) );
+					metrics.increment( AlgorithmMetrics.Counter.RELATIONS );
+				}
+			}
+			
+			if ( relations.size() >= neededRelations )
+				cancelled = true;
+		}
+	}
+	
+	/**
+	 * Finds the dependencies among the relations and tries them.
+	 * @return a factor of <code>n</code> or <code>null</code> if no factor was found (or a stop was requested)
+	 */
+	private BigInteger processRelations() {
+		setStage( "linear algebra" );
+		final Relation[] relationArray;
+		synchronized ( relationsLock ) {
+			relationArray = relations.toArray( new Relation[ relations.size() ] );
+		}
+		
+		// Parity vectors of the exponents
+		final int columns = primes.length + 1;
+		final List< int[] > oddColumns = new ArrayList< int[] >( relationArray.length );
+		final int[] exponents = new int[ columns ];
+		for ( final Relation relation : relationArray ) {
+			Arrays.fill( exponents, 0 );
+			for ( final int column : relation.factors )
+				exponents[ column ]++;
+			int count = 0;
+			for ( int column = 0; column < columns; column++ )
+				if ( ( exponents[ column ] & 1 ) != 0 )
+					count++;
+			final int[] odd = new int[ count ];
+			count = 0;
+			for ( int column = 0; column < columns; column++ )
+				if ( ( exponents[ column ] & 1 ) != 0 )
+					odd[ count++ ] = column;
+			oddColumns.add( odd );
+		}
+		
+		// Remove the relations having a column which appears only in them (they can't be part of a dependency)
+		final boolean[] active = new boolean[ relationArray.length ];
+		Arrays.fill( active, true );
+		final int[] weights = new int[ columns ];
+		boolean changed = true;
+		while ( changed ) {
+			changed = false;
+			Arrays.fill( weights, 0 );
+			for ( int i = 0; i < relationArray.length; i++ )
+				if ( active[ i ] )
+					for ( final int column : oddColumns.get( i ) )
+						weights[ column ]++;
+			for ( int i = 0; i < relationArray.length; i++ )
+				if ( active[ i ] )
+					for ( final int column : oddColumns.get( i ) )
+						if ( weights[ column ] == 1 ) {
+							active[ i ] = false;
+							changed = true;
+							break;
+						}
+		}
+		
+		// Remap the used columns
+		final int[] columnMap = new int[ columns ];
+		int usedColumns = 0;
+		for ( int column = 0; column < columns; column++ )
+			columnMap[ column ] = weights[ column ] > 0 ? usedColumns++ : -1;
+		int rows = 0;
+		for ( final boolean isActive : active )
+			if ( isActive )
+				rows++;
+		if ( rows <= usedColumns )
+			return null;
+		
+		// Gaussian elimination with history
+		final int   columnWords  = ( usedColumns + 63 ) >> 6;
+		final int   historyWords = ( rows + 63 ) >> 6;
+		final long[][] matrix  = new long[ rows ][ columnWords ];
+		final long[][] history = new long[ rows ][ historyWords ];
+		final int[]    rowRelations = new int[ rows ];
+		rows = 0;
+		for ( int i = 0; i < relationArray.length; i++ )
+			if ( active[ i ] ) {
+				for ( final int column : oddColumns.get( i ) ) {
+					final int mapped = columnMap[ column ];
+					matrix[ rows ][ mapped >> 6 ] |= 1l << mapped;
+				}
+				history[ rows ][ rows >> 6 ] |= 1l << rows;
+				rowRelations[ rows++ ] = i;
+			}
+			
+		int rank = 0;
+		for ( int column = 0; column < usedColumns && rank < rows; column++ ) {
+			if ( --controlCountdown < 0 ) {
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 )
+					return null;
+				if ( ( requests & STATUS_REQUEST ) != 0 )
+					createStateSnapshot( "linear algebra" );
+				if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+					createRelationsCheckpoint();
+			}
+			
+			final int  word = column >> 6;
+			final long mask = 1l << column;
+			int pivot = rank;
+			while ( pivot < rows && ( matrix[ pivot ][ word ] & mask ) == 0l )
+				pivot++;
+			if ( pivot == rows )
+				continue;
+			
+			long[] temp = matrix[ pivot ]; matrix[ pivot ] = matrix[ rank ]; matrix[ rank ] = temp;
+			temp = history[ pivot ]; history[ pivot ] = history[ rank ]; history[ rank ] = temp;
+			
+			final long[] pivotRow     = matrix [ rank ];
+			final long[] pivotHistory = history[ rank ];
+			for ( int row = rank + 1; row < rows; row++ )
+				if ( ( matrix[ row ][ word ] & mask ) != 0l ) {
+					final long[] matrixRow  = matrix [ row ];
+					final long[] historyRow = history[ row ];
+					for ( int i = word; i < columnWords; i++ )
+						matrixRow[ i ] ^= pivotRow[ i ];
+					for ( int i = 0; i < historyWords; i++ )
+						historyRow[ i ] ^= pivotHistory[ i ];
+				}
+			rank++;
+		}
+		
+		// The zero rows are the dependencies
+		for ( int row = rank; row < rows; row++ ) {
+			if ( isStopRequested() )
+				return null;
+			
+			BigInteger x            = BigInteger.ONE;
+			BigInteger largePrimes  = BigInteger.ONE;
+			Arrays.fill( exponents, 0 );
+			for ( int i = 0; i < rows; i++ )
+				if ( ( history[ row ][ i >> 6 ] & 1l << i ) != 0l ) {
+					final Relation relation = relationArray[ rowRelations[ i ] ];
+					x = x.multiply( relation.y ).mod( n );
+					largePrimes = largePrimes.multiply( relation.largePrimes ).mod( n );
+					for ( final int column : relation.factors )
+						exponents[ column ]++;
+				}
+				
+			BigInteger y = largePrimes;
+			for ( int column = 1; column < columns; column++ )
+				if ( exponents[ column ] > 0 )
+					y = y.multiply( BigInteger.valueOf( primes[ column - 1 ] ).modPow( BigInteger.valueOf( exponents[ column ] >> 1 ), n ) ).mod( n );
+			
+			final BigInteger factor = x.subtract( y ).gcd( n );
+			metrics.increment( AlgorithmMetrics.Counter.GCDS );
+			if ( !factor.equals( BigInteger.ONE ) && !factor.equals( n ) )
+				return factor;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns <code>base<sup>exponent</sup> mod modulus</code>.
+	 * @param base the base
+	 * @param exponent the exponent
+	 * @param modulus the modulus, less than 2<sup>31</sup>
+	 * @return <code>base<sup>exponent</sup> mod modulus</code>
+	 */
+	private static int powMod( final long base, int exponent, final int modulus ) {
+		long result = 1l;
+		long power  = base % modulus;
+		for ( ; exponent > 0; exponent >>= 1 ) {
+			if ( ( exponent & 1 ) != 0 )
+				result = result * power % modulus;
+			power = power * power % modulus;
+		}
+		return (int) result;
+	}
+	
+	/**
+	 * Returns the inverse of <code>a</code> modulo <code>modulus</code>.
+	 * @param a number to be inverted, coprime to the modulus
+	 * @param modulus the modulus
+	 * @return the inverse of <code>a</code> modulo <code>modulus</code>
+	 */
+	private static int inverseMod( final int a, final int modulus ) {
+		int r0 = modulus, r1 = a;
+		int t0 = 0,       t1 = 1;
+		while ( r1 != 0 ) {
+			final int quotient = r0 / r1;
+			int temp = r0 - quotient * r1; r0 = r1; r1 = temp;
+			temp = t0 - quotient * t1; t0 = t1; t1 = temp;
+		}
+		return t0 < 0 ? t0 + modulus : t0;
+	}
+	
+	/**
+	 * Returns a square root of a quadratic residue modulo an odd prime (Tonelli-Shanks algorithm).
+	 * @param a a quadratic residue modulo <code>prime</code>
+	 * @param prime an odd prime
+	 * @return a square root of <code>a</code> modulo <code>prime</code>
+	 */
+	private static int sqrtMod( final int a, final int prime ) {
+		if ( ( prime & 3 ) == 3 )
+			return powMod( a, ( prime + 1 ) >> 2, prime );
+		
+		int q = prime - 1;
+		int s = 0;
+		while ( ( q & 1 ) == 0 ) {
+			q >>= 1;
+			s++;
+		}
+		int z = 2;
+		while ( powMod( z, ( prime - 1 ) >> 1, prime ) != prime - 1 )
+			z++;
+		
+		long c = powMod( z, q, prime );
+		long r = powMod( a, ( q + 1 ) >> 1, prime );
+		long t = powMod( a, q, prime );
+		int  m = s;
+		while ( t != 1l ) {
+			int  i  = 0;
+			long t2 = t;
+			while ( t2 != 1l ) {
+				t2 = t2 * t2 % prime;
+				i++;
+			}
+			long b = c;
+			for ( int j = 0; j < m - i - 1; j++ )
+				b = b * b % prime;
+			r = r * b % prime;
+			c = b * b % prime;
+			t = t * c % prime;
+			m = i;
+		}
+		return (int) r;
+	}
+	
+	/**
+	 * A relation: <code>y<sup>2</sup>=product of the factors * largePrimes<sup>2</sup> mod n</code>.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class Relation {
+		/** The value to be squared.                                                        */
+		public final BigInteger y;
+		/** Matrix columns of the factors with multiplicity (0 is -1, <code>i+1</code> is prime <code>i</code>). */
+		public final int[]      factors;
+		/** Product of the large primes appearing squared (of combined partial relations). */
+		public final BigInteger largePrimes;
+		/** The large prime of a partial relation, 1 for a full relation.                   */
+		public final long       largePrime;
+		
+		public Relation( final BigInteger y, final int[] factors, final BigInteger largePrimes, final long largePrime ) {
+			this.y           = y;
+			this.factors     = factors;
+			this.largePrimes = largePrimes;
+			this.largePrime  = largePrime;
+		}
+		
+		/**
+		 * Writes the relation to a checkpoint.
+		 * @param checkpointBuilder builder of the checkpoint
+		 */
+		public void writeTo( final Checkpoint.Builder checkpointBuilder ) {
+			checkpointBuilder.putBigInteger( y ).putInt( factors.length );
+			for ( final int factor : factors )
+				checkpointBuilder.putInt( factor );
+			checkpointBuilder.putBigInteger( largePrimes ).putLong( largePrime );
+		}
+		
+		/**
+		 * Reads a relation from a checkpoint.
+		 * @param checkpointReader reader of the checkpoint
+		 * @return the relation read
+		 */
+		public static Relation readFrom( final Checkpoint.Reader checkpointReader ) {
+			final BigInteger y       = checkpointReader.getBigInteger();
+			final int[]      factors = new int[ checkpointReader.getInt() ];
+			for ( int i = 0; i < factors.length; i++ )
+				factors[ i ] = checkpointReader.getInt();
+			return new Relation( y, factors, checkpointReader.getBigInteger(), checkpointReader.getLong() );
+		}
+	}
+	
+	/**
+	 * A sieve worker: generates polynomials and sieves them.
+	 *
+	 * @author Andras Belicza
+	 */
+	private class SieveWorker {
+		
+		/** Random generator to choose the <code>A</code> values. */
+		private final Random       random;
+		/** The sieve block.                                      */
+		private final byte[]       block         = new byte[ BLOCK_SIZE ];
+		/** The sieve roots (shifted by <code>M</code>).          */
+		private final int[]        roots1        = new int[ primes.length ], roots2 = new int[ primes.length ];
+		/** The next sieve positions.                             */
+		private final int[]        next1         = new int[ primes.length ], next2  = new int[ primes.length ];
+		/** <code>2*B<sub>l</sub>/A mod p</code> for the root updates. */
+		private final int[][]      bAInverses2   = new int[ aFactorCount ][ primes.length ];
+		/** Factor base indices of the primes of <code>A</code>.  */
+		private final int[]        aIndices      = new int[ aFactorCount ];
+		/** Tells if a factor base prime divides <code>A</code>.  */
+		private final boolean[]    dividesA      = new boolean[ primes.length ];
+		/** The <code>B<sub>l</sub></code> values.                */
+		private final BigInteger[] bParts        = new BigInteger[ aFactorCount ];
+		/** The signs of the <code>B<sub>l</sub></code> values in <code>B</code>. */
+		private final boolean[]    bPartNegative = new boolean[ aFactorCount ];
+		/** Buffer of the factors of a candidate.                 */
+		private int[]              factorBuffer  = new int[ 64 ];
+		
+		/** The current <code>A</code>.                           */
+		private BigInteger a;
+		/** The current <code>B</code>.                           */
+		private BigInteger b;
+		/** The current <code>C</code>.                           */
+		private BigInteger c;
+		
+		/**
+		 * Creates a new SieveWorker.
+		 * @param random random generator to choose the <code>A</code> values
+		 */
+		public SieveWorker( final Random random ) {
+			this.random = random;
+		}
+		
+		/**
+		 * Sieves polynomials until enough relations are collected or a stop is requested.
+		 */
+		public void run() {
+			while ( !cancelled ) {
+				chooseA();
+				initializePolynomials();
+				
+				final int polynomialCount = 1 << ( aFactorCount - 1 );
+				for ( int i = 0; i < polynomialCount && !cancelled; i++ ) {
+					workerGate.pass();
+					if ( i > 0 )
+						nextPolynomial( i );
+					sievePolynomial();
+					polynomials.incrementAndGet();
+				}
+			}
+		}
+		
+		/**
+		 * Chooses a new, not yet used <code>A</code>.
+		 */
+		private void chooseA() {
+			for ( int attempts = 0; ; attempts++ ) {
+				// The range may have been widened (by any worker)
+				final int minIndex = aFactorMinIndex;
+				final int range    = aFactorMaxIndex - minIndex + 1;
+				Arrays.fill( dividesA, false );
+				double logA = 0.0;
+				for ( int l = 0; l < aFactorCount - 1; l++ ) {
+					int index;
+					do {
+						index = minIndex + random.nextInt( range );
+					} while ( dividesA[ index ] );
+					dividesA[ index ] = true;
+					aIndices[ l ]     = index;
+					logA += Math.log( primes[ index ] );
+				}
+				
+				// The last prime is chosen to get the closest to the ideal A
+				final double idealLast = Math.exp( logTargetA - logA );
+				int best = -1;
+				for ( int index = 0; index < primes.length; index++ )
+					if ( sieved[ index ] && !dividesA[ index ]
+							&& ( best < 0 || Math.abs( primes[ index ] - idealLast ) < Math.abs( primes[ best ] - idealLast ) ) )
+						best = index;
+				dividesA[ best ] = true;
+				aIndices[ aFactorCount - 1 ] = best;
+				
+				BigInteger candidateA = BigInteger.ONE;
+				for ( final int index : aIndices )
+					candidateA = candidateA.multiply( BigInteger.valueOf( primes[ index ] ) );
+				
+				synchronized ( usedAs ) {
+					if ( usedAs.add( candidateA ) ) {
+						a = candidateA;
+						return;
+					}
+					// Running out of A values: widen the range
+					final boolean canWidenDown = aFactorMinIndex > 0 && sieved[ aFactorMinIndex - 1 ];
+					if ( attempts > 100 && ( canWidenDown || aFactorMaxIndex < primes.length - 1 ) ) {
+						attempts = 0;
+						if ( canWidenDown )
+							aFactorMinIndex--;
+						if ( aFactorMaxIndex < primes.length - 1 )
+							aFactorMaxIndex++;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Calculates the <code>B<sub>l</sub></code> values and the roots for the first polynomial of <code>A</code>.
+		 */
+		private void initializePolynomials() {
+			b = BigInteger.ZERO;
+			for ( int l = 0; l < aFactorCount; l++ ) {
+				final int        index = aIndices[ l ];
+				final int        q     = primes[ index ];
+				final BigInteger aPerQ = a.divide( BigInteger.valueOf( q ) );
+				long gamma = (long) sqrtKn[ index ] * inverseMod( aPerQ.mod( BigInteger.valueOf( q ) ).intValue(), q ) % q;
+				if ( gamma > q >> 1 )
+					gamma = q - gamma;
+				bParts       [ l ] = aPerQ.multiply( BigInteger.valueOf( gamma ) );
+				bPartNegative[ l ] = false;
+				b = b.add( bParts[ l ] );
+			}
+			c = b.multiply( b ).subtract( kn ).divide( a );
+			
+			for ( int i = 0; i < primes.length; i++ ) {
+				if ( !sieved[ i ] || dividesA[ i ] )
+					continue;
+				final int p = primes[ i ];
+				
+				// A mod p and B_l mod p from the primes of A, no big division needed
+				long aModP = 1l;
+				for ( final int index : aIndices )
+					aModP = aModP * primes[ index ] % p;
+				final long aInverse = inverseMod( (int) aModP, p );
+				
+				long bModP = 0l;
+				for ( int l = 0; l < aFactorCount; l++ ) {
+					final long bPartModP = bParts[ l ].mod( BigInteger.valueOf( p ) ).longValue();
+					bAInverses2[ l ][ i ] = (int) ( 2l * bPartModP % p * aInverse % p );
+					bModP += bPartModP;
+				}
+				bModP %= p;
+				
+				final long shift = halfWidth % p;
+				roots1[ i ] = (int) ( ( aInverse * ( ( sqrtKn[ i ] - bModP + p ) % p ) + shift ) % p );
+				roots2[ i ] = (int) ( ( aInverse * ( ( 2l * p - sqrtKn[ i ] - bModP ) % p ) + shift ) % p );
+			}
+		}
+		
+		/**
+		 * Switches to the next polynomial in Gray code order.
+		 * @param i index of the next polynomial
+		 */
+		private void nextPolynomial( final int i ) {
+			// The Gray code of i differs from the previous one in the bit of the lowest set bit of i
+			final int l = Integer.numberOfTrailingZeros( i ) + 1;
+			final boolean wasNegative = bPartNegative[ l ];
+			bPartNegative[ l ] = !wasNegative;
+			// B' = B -+ 2B_l, so the roots ainv*(+-t-B) change by +- 2*B_l*ainv
+			b = wasNegative ? b.add( bParts[ l ].shiftLeft( 1 ) ) : b.subtract( bParts[ l ].shiftLeft( 1 ) );
+			c = b.multiply( b ).subtract( kn ).divide( a );
+			
+			final int[] delta = bAInverses2[ l ];
+			for ( int j = 0; j < primes.length; j++ ) {
+				if ( !sieved[ j ] || dividesA[ j ] )
+					continue;
+				final int p = primes[ j ];
+				if ( wasNegative ) {
+					roots1[ j ] -= delta[ j ];
+					if ( roots1[ j ] < 0 ) roots1[ j ] += p;
+					roots2[ j ] -= delta[ j ];
+					if ( roots2[ j ] < 0 ) roots2[ j ] += p;
+				}
+				else {
+					roots1[ j ] += delta[ j ];
+					if ( roots1[ j ] >= p ) roots1[ j ] -= p;
+					roots2[ j ] += delta[ j ];
+					if ( roots2[ j ] >= p ) roots2[ j ] -= p;
+				}
+			}
+		}
+		
+		/**
+		 * Sieves the current polynomial over the interval, block by block.
+		 */
+		private void sievePolynomial() {
+			for ( int j = 0; j < primes.length; j++ ) {
+				next1[ j ] = roots1[ j ];
+				next2[ j ] = roots2[ j ];
+			}
+			
+			final int width = halfWidth << 1;
+			int candidates = 0;
+			for ( int blockStart = 0; blockStart < width; blockStart += BLOCK_SIZE ) {
+				Arrays.fill( block, sieveInit );
+				for ( int j = 0; j < primes.length; j++ ) {
+					if ( !sieved[ j ] || dividesA[ j ] )
+						continue;
+					final int  p   = primes[ j ];
+					final byte log = logs[ j ];
+					
+					int position = next1[ j ] - blockStart;
+					for ( ; position < BLOCK_SIZE; position += p )
+						block[ position ] += log;
+					next1[ j ] = position + blockStart;
+					
+					if ( roots2[ j ] != roots1[ j ] ) {
+						position = next2[ j ] - blockStart;
+						for ( ; position < BLOCK_SIZE; position += p )
+							block[ position ] += log;
+						next2[ j ] = position + blockStart;
+					}
+				}
+				
+				for ( int j = 0; j < BLOCK_SIZE; j++ )
+					if ( block[ j ] < 0 ) {
+						checkCandidate( blockStart + j );
+						candidates++;
+					}
+			}
+			
+			metrics.add( AlgorithmMetrics.Counter.SIEVE_BLOCKS, width / BLOCK_SIZE );
+			metrics.add( AlgorithmMetrics.Counter.CANDIDATES, candidates );
+		}
+		
+		/**
+		 * Trial divides a candidate and adds it as a relation if it is smooth enough.
+		 * @param position position of the candidate in the sieve interval
+		 */
+		private void checkCandidate( final int position ) {
+			final BigInteger x     = BigInteger.valueOf( position - halfWidth );
+			BigInteger       value = a.multiply( x ).add( b.shiftLeft( 1 ) ).multiply( x ).add( c );
+			if ( value.signum() == 0 )
+				return;
+			
+			int count = 0;
+			if ( value.signum() < 0 ) {
+				factorBuffer[ count++ ] = 0;
+				value = value.negate();
+			}
+			// A*value is the right side of the relation
+			for ( final int index : aIndices )
+				count = addFactor( count, index + 1 );
+			
+			for ( int j = 0; j < primes.length; j++ ) {
+				final int p = primes[ j ];
+				if ( sieved[ j ] && !dividesA[ j ] ) {
+					final int residue = position % p;
+					if ( residue != roots1[ j ] && residue != roots2[ j ] )
+						continue;
+				}
+				
+				final BigInteger bigP = BigInteger.valueOf( p );
+				BigInteger[] quotientAndRemainder;
+				while ( ( quotientAndRemainder = value.divideAndRemainder( bigP ) )[ 1 ].signum() == 0 ) {
+					value = quotientAndRemainder[ 0 ];
+					count = addFactor( count, j + 1 );
+				}
+			}
+			
+			if ( value.equals( BigInteger.ONE ) )
+				addRelation( new Relation( a.multiply( x ).add( b ), Arrays.copyOf( factorBuffer, count ), BigInteger.ONE, 1l ) );
+			else if ( value.bitLength() < 63 && value.longValue() < largePrimeBound )
+				addRelation( new Relation( a.multiply( x ).add( b ), Arrays.copyOf( factorBuffer, count ), BigInteger.ONE, value.longValue() ) );
+		}
+		
+		/**
+		 * Adds a factor to the factor buffer.
+		 * @param count number of factors in the buffer
+		 * @param column matrix column of the factor
+		 * @return the new number of factors in the buffer
+		 */
+		private int addFactor( final int count, final int column ) {
+			if ( count == factorBuffer.length )
+				factorBuffer = Arrays.copyOf( factorBuffer, count << 1 );
+			factorBuffer[ count ] = column;
+			return count + 1;
+		}
+		
+	}
+	
+}
@@ -2,45 +2,55 @@ package hu.belicza.andras.factorization.algorithm;
 
 import hu.belicza.andras.factorization.utils.BigIntegerMath;
 
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.MathContext;
 
 /**
- * Square number factorization.<br>
+ * Square number factorization (Fermat's method).<br>
  * <br>
- * The basis of this algorithm is to write the <code>n</code> number in the form of 
- * <code>(d+c)*(d-c)</code> in which case
- * <code>n=d<sup>2</sup>-c<sup>2</sup></code>.<br>
- * This is equivalient with this form:
- * <code>n<sup>2</sup>+c<sup>2</sup>=d<sup>2</sup></code><br>
- * So we go on a quest to find a square number that added to <code>n</code> gives another square number.<br>
+ * The basis of this algorithm is to write the odd number <code>n</code> as the difference of 2 squares:
+ * <code>n=x<sup>2</sup>-y<sup>2</sup>=(x-y)(x+y)</code>. So we look for an <code>x</code> for which
+ * <code>r=x<sup>2</sup>-n</code> is a square number <code>y<sup>2</sup></code>, and then <code>x-y</code> is a factor
+ * of <code>n</code>. If <code>n=ab</code>, then <code>x=(a+b)/2</code> is the middle of the 2 factors.<br>
  * <br>
- * To avoid calculating squares and square roots this algorithm uses my idea that square numbers can easily
- * be recognized: they go on a pattern where if <code>n<sup>2</sup>=(n-1)<sup>2</sup>+a</code> then
- * <code>(n+1)<sup>2</sup>=n<sup>2</sup>+a+2</code>.<br>
+ * The search steps <code>x=x<sub>0</sub>+k</code> for <code>k=0, 1, 2, ...</code> from <code>x<sub>0</sub>=sqrt(n)+1</code>,
+ * then <code>r</code> grows by <code>2x+1</code> with each step. Most of the values can be rejected without
+ * calculating <code>r</code>: a square number is a quadratic residue modulo any number, so only the residues of
+ * <code>r</code> and of the increment <code>2x+1</code> modulo {@link #MODULI} are stepped (with int additions),
+ * and the residues of <code>r</code> are looked up in precomputed quadratic residue tables.
+ * Only about 1 in 120 values passes all the tables, only those are calculated as
+ * <code>r=r<sub>0</sub>+k(2x<sub>0</sub>+k)</code> and checked by a square root.<br>
  * <br>
- * Using this we just have to perform additions and substractions to test if we found a square number.<br>
+ * The search ends at the largest possible middle of 2 factors: <code>n</code> is odd, so its smallest possible
+ * factor is 3, and <code>x=(n/3+3)/2&lt;n/6+3</code>, so the last step is <code>k=n/6+3-x<sub>0</sub></code>.
+ * If no square is found up to there, <code>n</code> is a prime and 1 is returned.<br>
  * <br>
- * Back to our formula: <code>n<sup>2</sup>+c<sup>2</sup>=d<sup>2</sup></code> where <code>n=a*b</code>.<br>
- * If we have a <code>c</code> and a <code>d</code> that satisfy the equation,
- * the factors of <code>n</code> are in the form of:<br>
- * <code>a=c-sqrt(c-n)</code><br>
- * <code>b=c+sqrt(c-n)</code><br>
- * We start from <code>n</code> incrementing with the proper value to get square numbers, and we quit 
- * if we found a factor or reached a limit which tells us that <code>n</code> is a prime.<br>
+ * This algorithm is most effective when the 2 factors are close to each other.<br>
  * <br>
- * This limit can easily be determined: it is the square of the middle of the 2 factors.
- * This middle's highest value is when one of the factor is the smallest (and therefore it results
- * in the highest factor pair). This limit is: <code>((n/2 + 2)/2)<sup>2</sup></code>
- * (this limit will be fine tuned based on the current implementation)<br>
- * <br>
- * This algorithm is most effective when the 2 factors are close to each other.
+ * The checkpoints contain <code>k</code> only, the residues of <code>r</code> and of the increment
+ * are recalculated from it when resumed.
  * 
  * @author Andras Belicza
  */
 public class SquareNumberFactorization extends Algorithm {
 	
+	/** The moduli of the quadratic residue filters.                                            */
+	private static final int[]       MODULI              = new int[] { 64, 63, 65, 11 };
+	/** Quadratic residue tables of the moduli: <code>QUADRATIC_RESIDUES[i][r]</code> tells if r is a square modulo <code>MODULI[i]</code>. */
+	private static final boolean[][] QUADRATIC_RESIDUES  = new boolean[ MODULI.length ][];
+	
+	static {
+		for ( int i = 0; i < MODULI.length; i++ ) {
+			QUADRATIC_RESIDUES[ i ] = new boolean[ MODULI[ i ] ];
+			for ( int j = 0; j < MODULI[ i ]; j++ )
+				QUADRATIC_RESIDUES[ i ][ j * j % MODULI[ i ] ] = true;
+		}
+	}
+	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
 	@Override
 	protected BigInteger getFactorImpl( final BigInteger n ) {
 		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
@@ -52,51 +62,82 @@ public class SquareNumberFactorization extends Algorithm {
 		
 		// Square numbers are not handled by the rest of the algorithm:
 		final BigInteger sqrtn = BigIntegerMath.sqrt( n );
-		if ( sqrtn.pow( 2 ).equals ( n ) )
+		if ( sqrtn.multiply( sqrtn ).equals( n ) )
 			return sqrtn;
 		
-		BigInteger origSquare = n.add( BigInteger.ONE );
-		BigInteger origInc    = BigInteger.ONE;
+		// x = x0 + k, r = x^2 - n = r0 + k*(2*x0 + k)
+		final BigInteger x0    = sqrtn.add( BigInteger.ONE );
+		final BigInteger r0    = x0.multiply( x0 ).subtract( n );
+		final BigInteger twoX0 = x0.shiftLeft( 1 );
 		
-		final BigInteger squareRootPlusOne = BigIntegerMath.sqrt( n ).add( BigInteger.ONE );
-		BigInteger rootSquare = squareRootPlusOne.pow( 2 );
-		BigInteger rootInc    = rootSquare.subtract( squareRootPlusOne.subtract( BigInteger.ONE ).pow( 2 ) );
+		// Limit is the greatest possible middle of the 2 factors of n: (a+b)/2.
+		// Since we already checked the division by 2, this cannot be larger than (n/3 + 3)/2 < n/6+3.
+		final BigInteger maxK  = n.divide( BigInteger.valueOf( 6l ) ).add( BigInteger.valueOf( 3l ) ).subtract( x0 );
+		final long       limit = maxK.bitLength() < 63 ? maxK.longValue() : Long.MAX_VALUE;
 		
-		// Limit is the square of the number which is the square
-		// of the greatest possible middle of the 2 factors of n: ((a+b)/2+1)^2
-		// Since we already checked the division by 2, this cannot be larger than ((n/3+1 + 3 )/2+1)^2 = (n/6+3)^2.
-		final BigInteger limit = n.divide( BigInteger.valueOf( 6l ) ).add( BigInteger.valueOf( 3l ) ).pow( 2 );
-		// For status report (completion calculation):
-		final BigDecimal limitMinusN = new BigDecimal( limit.subtract( n ) );
+		final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+		final long              kStart           = checkpointReader == null ? 0l : checkpointReader.getLong();
 		
-		while ( !origSquare.equals( rootSquare ) && origSquare.compareTo( limit ) < 0 && !requestingStop ) {
-			
-			if ( requestingSuspension )
-				suspended();
-			
-			if ( requestingStatus ) {
-				final StringBuilder stateBuilder = createStateBuilder();
-				stateBuilder.append( "origSquare=" ).append( origSquare ).append( '\n' );
-				stateBuilder.append( "rootSquare=" ).append( rootSquare ).append( '\n' );
-				final float completionRate = (float) Math.sqrt( new BigDecimal( origSquare.subtract( n ) ).divide( limitMinusN, MathContext.DECIMAL32 ).doubleValue() );
-				createStateSnapshot( completionRate, stateBuilder );
+		// Residues of r and of the increment 2x+1 modulo the moduli
+		final BigInteger bigKStart = BigInteger.valueOf( kStart );
+		final BigInteger rStart    = r0.add( bigKStart.multiply( twoX0.add( bigKStart ) ) );
+		final BigInteger incStart  = twoX0.add( bigKStart.shiftLeft( 1 ) ).add( BigInteger.ONE );
+		final int m0 = MODULI[ 0 ], m1 = MODULI[ 1 ], m2 = MODULI[ 2 ], m3 = MODULI[ 3 ];
+		final boolean[] qr0 = QUADRATIC_RESIDUES[ 0 ], qr1 = QUADRATIC_RESIDUES[ 1 ], qr2 = QUADRATIC_RESIDUES[ 2 ], qr3 = QUADRATIC_RESIDUES[ 3 ];
+		int rMod0 = rStart.mod( BigInteger.valueOf( m0 ) ).intValue(), inc0 = incStart.mod( BigInteger.valueOf( m0 ) ).intValue();
+		int rMod1 = rStart.mod( BigInteger.valueOf( m1 ) ).intValue(), inc1 = incStart.mod( BigInteger.valueOf( m1 ) ).intValue();
+		int rMod2 = rStart.mod( BigInteger.valueOf( m2 ) ).intValue(), inc2 = incStart.mod( BigInteger.valueOf( m2 ) ).intValue();
+		int rMod3 = rStart.mod( BigInteger.valueOf( m3 ) ).intValue(), inc3 = incStart.mod( BigInteger.valueOf( m3 ) ).intValue();
+		
+		// Added to the metrics at the polls
+		long countedK = kStart;
+		long k        = kStart;
+		while ( k <= limit ) {
+			if ( controlCountdown < 0 ) {
+				metrics.add( AlgorithmMetrics.Counter.CANDIDATES, k - countedK );
+				countedK = k;
+				
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 )
+					return null;
+				
+				if ( ( requests & STATUS_REQUEST ) != 0 ) {
+					final StringBuilder stateBuilder = createStateBuilder();
+					stateBuilder.append( "x=" ).append( x0.add( BigInteger.valueOf( k ) ) ).append( '\n' );
+					stateBuilder.append( "k=" ).append( k ).append( '\n' );
+					createStateSnapshot( (float) ( (double) k / limit ), stateBuilder );
+				}
+				
+				if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+					createCheckpoint( createCheckpointBuilder().putLong( k ) );
 			}
 			
-			while ( origSquare.compareTo( rootSquare ) < 0 )
-				origSquare = origSquare.add( origInc = origInc.add( BigIntegerMath.TWO ) );
-			while ( rootSquare.compareTo( origSquare ) < 0 )
-				rootSquare = rootSquare.add( rootInc = rootInc.add( BigIntegerMath.TWO ) );
-		}
-		
-		if ( requestingStop ) {
-			stopping();
-			return null;
+			// Every step counts down, the loop breaks out to poll the control word
+			for ( ; k <= limit && --controlCountdown >= 0; k++ ) {
+				if ( qr0[ rMod0 ] && qr1[ rMod1 ] && qr2[ rMod2 ] && qr3[ rMod3 ] ) {
+					final BigInteger bigK = BigInteger.valueOf( k );
+					final BigInteger r    = r0.add( bigK.multiply( twoX0.add( bigK ) ) );
+					final BigInteger root = BigIntegerMath.sqrt( r );
+					if ( root.multiply( root ).equals( r ) ) {
+						metrics.add( AlgorithmMetrics.Counter.CANDIDATES, k + 1l - countedK );
+						return x0.add( bigK ).subtract( root );
+					}
+				}
+				
+				// r += 2x+1, x++
+				if ( ( rMod0 += inc0 ) >= m0 ) rMod0 -= m0;
+				if ( ( rMod1 += inc1 ) >= m1 ) rMod1 -= m1;
+				if ( ( rMod2 += inc2 ) >= m2 ) rMod2 -= m2;
+				if ( ( rMod3 += inc3 ) >= m3 ) rMod3 -= m3;
+				if ( ( inc0 += 2 ) >= m0 ) inc0 -= m0;
+				if ( ( inc1 += 2 ) >= m1 ) inc1 -= m1;
+				if ( ( inc2 += 2 ) >= m2 ) inc2 -= m2;
+				if ( ( inc3 += 2 ) >= m3 ) inc3 -= m3;
+			}
 		}
 		
-		if ( origSquare.compareTo( limit ) >= 0 )
-			return BigInteger.ONE;
-		
-		return BigIntegerMath.sqrt( origSquare ).subtract( BigIntegerMath.sqrt( origSquare.subtract( n ) ) );
+		metrics.add( AlgorithmMetrics.Counter.CANDIDATES, k - countedK );
+		return BigInteger.ONE;
 	}
 	
 }
@@ -1,52 +1,97 @@
 package hu.belicza.andras.factorization.algorithm;
 
 import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.PrimeSieve;
+import hu.belicza.andras.factorization.utils.PrimeTable;
 
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.MathContext;
 
 /**
  * This factorization algorithm starts from 2, and tries all prime numbers less than the square root of n,
- * obtained by {@link BigInteger#nextProbablePrime()} method.<br>
+ * obtained by a {@link PrimeSieve}.<br>
  * <br>
- * This algorithm is here only for demonstration. The {@link BigInteger#nextProbablePrime()} method
- * doesn't seem to be effective at all.
+ * Earlier versions of this algorithm used the {@link BigInteger#nextProbablePrime()} method
+ * which doesn't seem to be effective at all: it runs a probabilistic primality test on each step.
+ * The segmented sieve produces the primes with a few bit operations each, and with a {@link PrimeTable}
+ * the segments are just copied from the mapped table.<br>
+ * <br>
+ * Since the exact index of the current prime is known, the completion rate is calculated
+ * from the estimated number of primes up to the square root of <code>n</code>.<br>
+ * <br>
+ * If <code>n</code> fits in 63 bits, the division is performed on primitive <code>long</code>s,
+ * else the remainders are calculated from the 32-bit limbs of <code>n</code> (while the primes fit in an <code>int</code>).<br>
+ * <br>
+ * The checkpoints contain the current prime and its index, the sieve is restarted from there when resumed.
  * 
  * @author Andras Belicza
  */
 public class TryingPrimesFactorization extends Algorithm {
 	
+	@Override
+	protected boolean writesCheckpoints() {
+		return true;
+	}
+	
 	@Override
 	protected BigInteger getFactorImpl( final BigInteger n ) {
 		if ( n.compareTo( BigIntegerMath.TWO ) <= 0 )
 			return n;
 		
-		final BigInteger squareRoot = BigIntegerMath.sqrt( n );
+		final boolean    isLong         = n.bitLength() < 63;
+		final long       longN          = n.longValue();
+		final int[]      limbs          = isLong ? null : BigIntegerMath.toIntLimbs( n );
+		final BigInteger squareRoot     = BigIntegerMath.sqrt( n );
+		// Primes above the long range are out of reach anyway
+		final long       longSquareRoot = squareRoot.bitLength() < 63 ? squareRoot.longValue() : Long.MAX_VALUE;
 		
-		for ( BigInteger i = BigInteger.valueOf( 2l ); i.compareTo( squareRoot ) <= 0 && !requestingStop; i = i.nextProbablePrime() ) {
-			
-			if ( requestingSuspension )
-				suspended();
+		// For status report (completion calculation):
+		final double     primesCount    = PrimeSieve.estimatePrimeCount( squareRoot.doubleValue() );
+		
+		final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+		final PrimeSieve primeSieve = checkpointReader == null ? new PrimeSieve() : new PrimeSieve( checkpointReader.getLong(), checkpointReader.getLong() );
+		// Added to the metrics at the polls
+		long countedPrimeIndex = primeSieve.getPrimeIndex(), countedSegments = 0l;
+		for ( long i = primeSieve.nextPrime(); i <= longSquareRoot; i = primeSieve.nextPrime() ) {
 			
-			if ( requestingStatus ) {
-				final StringBuilder stateBuilder = createStateBuilder();
-				stateBuilder.append( "i=" ).append( i ).append( '\n' );
+			if ( --controlCountdown < 0 ) {
+				metrics.add( AlgorithmMetrics.Counter.CANDIDATES  , primeSieve.getPrimeIndex() - countedPrimeIndex );
+				metrics.add( AlgorithmMetrics.Counter.SIEVE_BLOCKS, primeSieve.getSegmentCount() - countedSegments );
+				countedPrimeIndex = primeSieve.getPrimeIndex();
+				countedSegments   = primeSieve.getSegmentCount();
+				
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 )
+					return null;
 				
-				// This is an inaccurate estimation of completion rate!
-				// (But I didn't want to implement the log function: pi(x)=x/log(x); a better approximation: pi(x) ~ x/log(x-1) ).
-				createStateSnapshot( new BigDecimal( i ).divide( new BigDecimal( squareRoot ), MathContext.DECIMAL32 ).floatValue(), stateBuilder );
+				if ( ( requests & STATUS_REQUEST ) != 0 ) {
+					final StringBuilder stateBuilder = createStateBuilder();
+					stateBuilder.append( "i=" ).append( i ).append( '\n' );
+					stateBuilder.append( "primeIndex=" ).append( primeSieve.getPrimeIndex() ).append( '\n' );
+					createStateSnapshot( (float) Math.min( 1.0, primeSieve.getPrimeIndex() / primesCount ), stateBuilder );
+				}
+				
+				if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+					createCheckpoint( createCheckpointBuilder().putLong( i ).putLong( primeSieve.getPrimeIndex() - 1l ) );
 			}
 			
-			if ( n.remainder( i ).equals( BigInteger.ZERO ) )
-				return i;
-		}
-		
-		if ( requestingStop ) {
-			stopping();
-			return null;
+			final boolean divides;
+			if ( isLong )
+				divides = longN % i == 0l;
+			else if ( i <= Integer.MAX_VALUE )
+				divides = BigIntegerMath.remainder( limbs, (int) i ) == 0;
+			else
+				divides = n.remainder( BigInteger.valueOf( i ) ).equals( BigInteger.ZERO );
+			
+			if ( divides ) {
+				metrics.add( AlgorithmMetrics.Counter.CANDIDATES  , primeSieve.getPrimeIndex() - countedPrimeIndex );
+				metrics.add( AlgorithmMetrics.Counter.SIEVE_BLOCKS, primeSieve.getSegmentCount() - countedSegments );
+				return BigInteger.valueOf( i );
+			}
 		}
 		
+		// The last prime returned by the sieve is beyond the square root
+		metrics.add( AlgorithmMetrics.Counter.CANDIDATES  , primeSieve.getPrimeIndex() - countedPrimeIndex - 1l );
+		metrics.add( AlgorithmMetrics.Counter.SIEVE_BLOCKS, primeSieve.getSegmentCount() - countedSegments );
 		return n;
 	}
 	
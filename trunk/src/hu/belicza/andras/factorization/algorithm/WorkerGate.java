@@ -0,0 +1,53 @@
+package hu.belicza.andras.factorization.algorithm;
+
+/**
+ * A gate to hold the worker threads of a parallel algorithm.<br>
+ * <br>
+ * The thread running {@link Algorithm#getFactorImpl(java.math.BigInteger)} of a parallel algorithm
+ * handles the suspension requests: its {@link Algorithm#suspended()} closes the gate before suspending and
+ * opens it after resume. The workers call {@link #pass()} regularly which blocks while the gate is closed.
+ * 
+ * @author Andras Belicza
+ */
+class WorkerGate {
+	
+	/** Tells if the gate is closed. */
+	private volatile boolean closed;
+	
+	/**
+	 * Closes the gate: workers will be held at their next {@link #pass()} call.
+	 */
+	void close() {
+		closed = true;
+	}
+	
+	/**
+	 * Opens the gate, releases the workers being held.
+	 */
+	synchronized void open() {
+		closed = false;
+		notifyAll();
+	}
+	
+	/**
+	 * Passes the gate: blocks while the gate is closed.<br>
+	 * An interruption doesn't open the gate: the worker keeps waiting, and its interrupted status is restored
+	 * when it passes, so the work is not continued during the suspension.
+	 */
+	void pass() {
+		if ( closed ) {
+			boolean interrupted = false;
+			synchronized ( this ) {
+				while ( closed )
+					try {
+						wait();
+					} catch ( final InterruptedException ie ) {
+						interrupted = true;
+					}
+			}
+			if ( interrupted )
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+}
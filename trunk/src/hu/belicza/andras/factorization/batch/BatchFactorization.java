@@ -0,0 +1,385 @@
+package hu.belicza.andras.factorization.batch;
+
+import hu.belicza.andras.factorization.algorithm.Algorithm;
+import hu.belicza.andras.factorization.algorithm.PortfolioFactorization;
+import hu.belicza.andras.factorization.algorithm.PortfolioStatistics;
+import hu.belicza.andras.factorization.algorithm.PrimeFactorization;
+import hu.belicza.andras.factorization.cache.FactorCache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless batch factorization.<br>
+ * <br>
+ * Reads numbers one per line from a file or from the standard input, factors them with an algorithm
+ * on a pool of worker threads, and writes the results to a file or to the standard output as they complete,
+ * either in the order of the input or in the order of completion.<br>
+ * The lines are streamed: the number of lines read but not yet written is limited, when the limit is reached
+ * reading waits for the workers (backpressure), so the memory usage doesn't depend on the size of the input.<br>
+ * <br>
+ * The result line of a number is <code>n: factor</code>; with {@link PrimeFactorization} (the default)
+ * it contains all the prime factors: <code>n: p1 p2 ...</code>, followed by <code>unfactored: c1 c2 ...</code>
+ * if some composite cofactors could not be split. Lines which are not positive numbers and numbers whose
+ * factorization fails result in an error line, the processing continues.<br>
+ * <br>
+ * With a cache file the found factors are persisted in a {@link FactorCache}, so resubmitted numbers
+ * (and numbers sharing factors with earlier ones) are not factored from scratch.<br>
+ * <br>
+ * With a portfolio several algorithms race on each number in a {@link PortfolioFactorization},
+ * and the number of wins per bit length can be accumulated in a file across runs.
+ *
+ * @author Andras Belicza
+ */
+public class BatchFactorization {
+	
+	/** Package of the algorithms, can be omitted from the algorithm names. */
+	private static final String ALGORITHM_PACKAGE = "hu.belicza.andras.factorization.algorithm.";
+	
+	/** The usage of the command line tool. */
+	private static final String USAGE =
+		  "Usage: BatchFactorization [options]\n"
+		+ "Options:\n"
+		+ "  -algorithm <name>  algorithm class (simple name or fully qualified), default: PrimeFactorization\n"
+		+ "  -threads <count>   number of worker threads, default: number of processors\n"
+		+ "  -input <file>      file to read the numbers from, default: standard input\n"
+		+ "  -output <file>     file to write the results to, default: standard output\n"
+		+ "  -unordered         write the results in the order of completion instead of the input order\n"
+		+ "  -pending <count>   maximum number of lines read but not yet written, default: 1024 per thread\n"
+		+ "  -cache <file>      file of the persistent factor cache, default: no cache\n"
+		+ "  -portfolio <list>  race algorithms on each number, comma separated names with optional CPU shares\n"
+		+ "                     (e.g. TryingPrimesFactorization:0.5,SiqsFactorization), overrides -algorithm\n"
+		+ "  -wins <file>       file to accumulate the wins of the portfolio algorithms in, default: none";
+	
+	/** Number of the recently used numbers kept in memory by the cache. */
+	private static final int CACHE_CAPACITY = 1 << 16;
+	
+	/** Class of the algorithm to be used.                      */
+	private final Class< ? extends Algorithm > algorithmClass;
+	/** Number of worker threads.                               */
+	private final int                          threads;
+	/** Tells if the results are to be written in input order.  */
+	private final boolean                      ordered;
+	/** Maximum number of lines read but not yet written.       */
+	private final int                          maxPending;
+	/** Cache of the factorization results, optional.           */
+	private FactorCache                        factorCache;
+	/** Classes of the portfolio algorithms, optional.          */
+	private List< Class< ? extends Algorithm > > portfolioClasses;
+	/** CPU shares of the portfolio algorithms.                 */
+	private double[]                           portfolioShares;
+	/** Statistics of the portfolio races.                      */
+	private PortfolioStatistics                portfolioStatistics = PortfolioFactorization.getSharedStatistics();
+	
+	/** Permits of the lines which can be read (backpressure).  */
+	private final Semaphore                    pendingPermits;
+	/** The completed but not yet written results by their sequence numbers (in ordered mode). */
+	private final Map< Long, String >          completedResults = new HashMap< Long, String >();
+	/** Sequence number of the next result to be written (in ordered mode). */
+	private long                               nextSequence;
+	/** The output to write the results to.                     */
+	private PrintWriter                        output;
+	
+	/**
+	 * Creates a new BatchFactorization.
+	 * @param algorithmClass class of the algorithm to be used
+	 * @param threads number of worker threads
+	 * @param ordered tells if the results are to be written in input order
+	 * @param maxPending maximum number of lines read but not yet written
+	 */
+	public BatchFactorization( final Class< ? extends Algorithm > algorithmClass, final int threads, final boolean ordered, final int maxPending ) {
+		this.algorithmClass = algorithmClass;
+		this.threads        = threads;
+		this.ordered        = ordered;
+		this.maxPending     = maxPending;
+		pendingPermits      = new Semaphore( maxPending );
+	}
+	
+	/**
+	 * Sets the cache of the factorization results.
+	 * @param factorCache the cache of the factorization results
+	 */
+	public void setFactorCache( final FactorCache factorCache ) {
+		this.factorCache = factorCache;
+	}
+	
+	/**
+	 * Sets the portfolio: the algorithms racing on each number in a {@link PortfolioFactorization}.
+	 * @param portfolioClasses classes of the portfolio algorithms
+	 * @param portfolioShares CPU shares of the portfolio algorithms
+	 * @param portfolioStatistics statistics to record the winners in
+	 */
+	public void setPortfolio( final List< Class< ? extends Algorithm > > portfolioClasses, final double[] portfolioShares, final PortfolioStatistics portfolioStatistics ) {
+		this.portfolioClasses    = portfolioClasses;
+		this.portfolioShares     = portfolioShares;
+		this.portfolioStatistics = portfolioStatistics;
+	}
+	
+	/**
+	 * Factors the numbers of the input and writes the results to the output.
+	 * @param input input to read the numbers from, one per line
+	 * @param output output to write the results to
+	 * @throws IOException if reading the input fails
+	 * @throws InterruptedException if the thread is interrupted while waiting for the workers
+	 */
+	public void run( final BufferedReader input, final PrintWriter output ) throws IOException, InterruptedException {
+		this.output = output;
+		
+		final ExecutorService executor = Executors.newFixedThreadPool( threads );
+		try {
+			long sequence = 0l;
+			String line;
+			while ( ( line = input.readLine() ) != null ) {
+				final String number = line.trim();
+				if ( number.length() == 0 )
+					continue;
+				
+				pendingPermits.acquire();
+				final long lineSequence = sequence++;
+				executor.execute( new Runnable() {
+					@Override
+					public void run() {
+						String result;
+						try {
+							result = factorize( number );
+						} catch ( final Throwable t ) {
+							// Errors too: the result must be completed, or the results after it would never be written
+							result = number + ": error: " + t;
+						}
+						complete( lineSequence, result );
+					}
+				} );
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+			output.flush();
+		}
+	}
+	
+	/**
+	 * Factors a number.
+	 * @param number the number as it was read
+	 * @return the result line of the number
+	 */
+	private String factorize( final String number ) {
+		final BigInteger n;
+		try {
+			n = new BigInteger( number );
+		} catch ( final NumberFormatException nfe ) {
+			return number + ": error: not a number";
+		}
+		if ( n.signum() <= 0 )
+			return number + ": error: not a positive number";
+		
+		final Algorithm algorithm;
+		try {
+			algorithm = algorithmClass.getDeclaredConstructor().newInstance();
+		} catch ( final Exception e ) {
+			throw new RuntimeException( "Could not instantiate algorithm!", e );
+		}
+		
+		if ( algorithm instanceof PortfolioFactorization ) {
+			final PortfolioFactorization portfolioFactorization = (PortfolioFactorization) algorithm;
+			if ( portfolioClasses != null )
+				portfolioFactorization.setAlgorithms( portfolioClasses );
+			if ( portfolioShares != null )
+				portfolioFactorization.setShares( portfolioShares );
+			portfolioFactorization.setStatistics( portfolioStatistics );
+		}
+		
+		final StringBuilder resultBuilder = new StringBuilder( n.toString() ).append( ':' );
+		if ( algorithm instanceof PrimeFactorization ) {
+			final PrimeFactorization primeFactorization = (PrimeFactorization) algorithm;
+			// The batch is parallel already
+			primeFactorization.setParallelism( 1 );
+			primeFactorization.setFactorCache( factorCache );
+			final List< BigInteger > primeFactors = primeFactorization.getPrimeFactors( n );
+			for ( final BigInteger primeFactor : primeFactors )
+				resultBuilder.append( ' ' ).append( primeFactor );
+			final List< BigInteger > unfactoredCofactors = primeFactorization.getUnfactoredCofactors();
+			if ( !unfactoredCofactors.isEmpty() ) {
+				resultBuilder.append( " unfactored:" );
+				for ( final BigInteger cofactor : unfactoredCofactors )
+					resultBuilder.append( ' ' ).append( cofactor );
+			}
+		}
+		else {
+			BigInteger factor = factorCache == null ? null : factorCache.findKnownDivisor( n );
+			if ( factor == null ) {
+				factor = algorithm.getFactor( n );
+				if ( factorCache != null )
+					factorCache.record( n, factor );
+			}
+			resultBuilder.append( ' ' ).append( factor );
+		}
+		
+		return resultBuilder.toString();
+	}
+	
+	/**
+	 * Writes a result or stores it until the results before it are written (in ordered mode).
+	 * @param sequence sequence number of the result
+	 * @param result the result line
+	 */
+	private synchronized void complete( final long sequence, final String result ) {
+		if ( ordered ) {
+			completedResults.put( sequence, result );
+			String nextResult;
+			while ( ( nextResult = completedResults.remove( nextSequence ) ) != null ) {
+				output.println( nextResult );
+				nextSequence++;
+				pendingPermits.release();
+			}
+		}
+		else {
+			output.println( result );
+			pendingPermits.release();
+		}
+		
+		// Nothing else is in progress: make the results visible
+		if ( pendingPermits.availablePermits() == maxPending )
+			output.flush();
+	}
+	
+	/**
+	 * Entry point of the batch factorization.
+	 * @param arguments the command line arguments, see {@link #USAGE}
+	 */
+	public static void main( final String[] arguments ) {
+		String  algorithmName = "PrimeFactorization";
+		int     threads       = Runtime.getRuntime().availableProcessors();
+		String  inputName     = null;
+		String  outputName    = null;
+		boolean ordered       = true;
+		int     maxPending    = -1;
+		String  cacheName     = null;
+		String  portfolio     = null;
+		String  winsName      = null;
+		
+		try {
+			for ( int i = 0; i < arguments.length; i++ ) {
+				if ( "-algorithm".equals( arguments[ i ] ) )
+					algorithmName = arguments[ ++i ];
+				else if ( "-threads".equals( arguments[ i ] ) )
+					threads = Integer.parseInt( arguments[ ++i ] );
+				else if ( "-input".equals( arguments[ i ] ) )
+					inputName = arguments[ ++i ];
+				else if ( "-output".equals( arguments[ i ] ) )
+					outputName = arguments[ ++i ];
+				else if ( "-unordered".equals( arguments[ i ] ) )
+					ordered = false;
+				else if ( "-pending".equals( arguments[ i ] ) )
+					maxPending = Integer.parseInt( arguments[ ++i ] );
+				else if ( "-cache".equals( arguments[ i ] ) )
+					cacheName = arguments[ ++i ];
+				else if ( "-portfolio".equals( arguments[ i ] ) )
+					portfolio = arguments[ ++i ];
+				else if ( "-wins".equals( arguments[ i ] ) )
+					winsName = arguments[ ++i ];
+				else
+					throw new IllegalArgumentException( "Unknown option: " + arguments[ i ] );
+			}
+			if ( threads < 1 )
+				throw new IllegalArgumentException( "The number of threads must be positive!" );
+		} catch ( final RuntimeException re ) {
+			System.err.println( re instanceof ArrayIndexOutOfBoundsException ? "Missing option value!" : re.getMessage() );
+			System.err.println( USAGE );
+			System.exit( 1 );
+			return;
+		}
+		if ( maxPending < 1 )
+			maxPending = 1024 * threads;
+		
+		final Class< ? extends Algorithm > algorithmClass = findAlgorithmClass( portfolio == null ? algorithmName : "PortfolioFactorization" );
+		if ( algorithmClass == null )
+			return;
+		
+		List< Class< ? extends Algorithm > > portfolioClasses = null;
+		double[]                             portfolioShares  = null;
+		if ( portfolio != null ) {
+			final String[] entries = portfolio.split( "," );
+			portfolioClasses = new ArrayList< Class< ? extends Algorithm > >( entries.length );
+			portfolioShares  = new double[ entries.length ];
+			for ( int i = 0; i < entries.length; i++ ) {
+				final int separatorIndex = entries[ i ].indexOf( ':' );
+				final Class< ? extends Algorithm > portfolioClass = findAlgorithmClass( separatorIndex < 0 ? entries[ i ] : entries[ i ].substring( 0, separatorIndex ) );
+				if ( portfolioClass == null )
+					return;
+				portfolioClasses.add( portfolioClass );
+				try {
+					portfolioShares[ i ] = separatorIndex < 0 ? 1.0 : Double.parseDouble( entries[ i ].substring( separatorIndex + 1 ) );
+				} catch ( final NumberFormatException nfe ) {
+					portfolioShares[ i ] = -1.0;
+				}
+				if ( portfolioShares[ i ] <= 0.0 || portfolioShares[ i ] > 1.0 ) {
+					System.err.println( "Invalid CPU share: " + entries[ i ] );
+					System.exit( 1 );
+					return;
+				}
+			}
+		}
+		
+		final PortfolioStatistics portfolioStatistics = new PortfolioStatistics();
+		final File                winsFile            = winsName == null ? null : new File( winsName );
+		
+		try {
+			final BufferedReader input  = new BufferedReader( new InputStreamReader( inputName == null ? System.in : new FileInputStream( inputName ), "UTF-8" ) );
+			final PrintWriter    output = new PrintWriter( new OutputStreamWriter( outputName == null ? System.out : new FileOutputStream( outputName ), "UTF-8" ), false );
+			final FactorCache    factorCache = cacheName == null ? null : new FactorCache( CACHE_CAPACITY, new File( cacheName ) );
+			try {
+				if ( winsFile != null && winsFile.exists() )
+					portfolioStatistics.load( winsFile );
+				final BatchFactorization batchFactorization = new BatchFactorization( algorithmClass, threads, ordered, maxPending );
+				batchFactorization.setFactorCache( factorCache );
+				batchFactorization.setPortfolio( portfolioClasses, portfolioShares, portfolioStatistics );
+				batchFactorization.run( input, output );
+				if ( winsFile != null )
+					portfolioStatistics.store( winsFile );
+			} finally {
+				input.close();
+				output.close();
+				if ( factorCache != null )
+					factorCache.close();
+			}
+			if ( output.checkError() ) {
+				System.err.println( "Failed to write the results!" );
+				System.exit( 1 );
+			}
+		} catch ( final Exception e ) {
+			e.printStackTrace();
+			System.exit( 1 );
+		}
+	}
+	
+	/**
+	 * Returns the algorithm class of a name, exits with an error message if the algorithm is unknown.
+	 * @param algorithmName name of the algorithm (simple name or fully qualified)
+	 * @return the algorithm class; <code>null</code> if the algorithm is unknown
+	 */
+	private static Class< ? extends Algorithm > findAlgorithmClass( final String algorithmName ) {
+		try {
+			return Class.forName( algorithmName.indexOf( '.' ) < 0 ? ALGORITHM_PACKAGE + algorithmName : algorithmName ).asSubclass( Algorithm.class );
+		} catch ( final Exception e ) {
+			System.err.println( "Unknown algorithm: " + algorithmName );
+			System.exit( 1 );
+			return null;
+		}
+	}
+	
+}
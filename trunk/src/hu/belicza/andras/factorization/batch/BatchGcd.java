@@ -0,0 +1,540 @@
+package hu.belicza.andras.factorization.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Batch gcd: finds the moduli which share a factor with another modulus of a (large) set.<br>
+ * <br>
+ * Factoring the moduli one by one can't reveal shared factors, and the pairwise gcds would take quadratic time.
+ * Following Bernstein, a product tree of the moduli is built (each level has the products of the pairs of the level below),
+ * then a remainder tree from the root product <code>P</code> down: each node is the remainder of its parent modulo
+ * the square of the node of the product tree. The leaves of the remainder tree are <code>z_i = P mod n_i<sup>2</sup></code>,
+ * and <code>gcd( z_i / n_i, n_i )</code> is the product of the prime factors <code>n_i</code> shares with the other moduli.<br>
+ * <br>
+ * The products can't exceed the size limit of {@link BigInteger}, so the moduli are split into sub-batches whose products
+ * have at most {@link #MAX_BATCH_PRODUCT_BITS} bits. Each sub-batch has its own product and remainder tree; the root of
+ * its remainder tree is the product of the products of all the sub-batches modulo the square of its own product,
+ * so the leaves still get <code>P mod n_i<sup>2</sup></code>. The product trees are computed twice if there are more sub-batches:
+ * first for the products of the sub-batches, then for the remainder trees.<br>
+ * <br>
+ * The levels of the trees are computed in parallel on a {@link ForkJoinPool}. A level is spilled to a memory-mapped file
+ * (see {@link TreeLevel}) if it doesn't fit in the remaining memory budget; the levels of the product tree are kept
+ * until the remainder tree passes them, so the memory budget is shared by the levels being kept.<br>
+ * <br>
+ * As a command line tool it reads the moduli one per line, and writes a line <code>n: divisor</code> for each modulus
+ * which shares a factor, in the order of the input. The divisor is a shared proper factor of <code>n</code>,
+ * or <code>n</code> itself if it has a duplicate.
+ *
+ * @author Andras Belicza
+ */
+public class BatchGcd {
+	
+	/**
+	 * A modulus which shares a factor with other moduli.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class SharedFactor {
+		/** Index of the modulus in the input.       */
+		public final int        index;
+		/** The modulus.                             */
+		public final BigInteger modulus;
+		/** A shared proper factor of the modulus, or the modulus itself if it has a duplicate. */
+		public final BigInteger divisor;
+		
+		/**
+		 * Creates a new SharedFactor.
+		 * @param index index of the modulus in the input
+		 * @param modulus the modulus
+		 * @param divisor a shared proper factor of the modulus, or the modulus itself if it has a duplicate
+		 */
+		public SharedFactor( final int index, final BigInteger modulus, final BigInteger divisor ) {
+			this.index   = index;
+			this.modulus = modulus;
+			this.divisor = divisor;
+		}
+	}
+	
+	/** The usage of the command line tool. */
+	private static final String USAGE =
+		  "Usage: BatchGcd [options]\n"
+		+ "Options:\n"
+		+ "  -threads <count>   number of worker threads, default: number of processors\n"
+		+ "  -input <file>      file to read the moduli from, default: standard input\n"
+		+ "  -output <file>     file to write the moduli sharing factors to, default: standard output\n"
+		+ "  -memory <MB>       memory budget of the tree levels, default: quarter of the maximum heap\n"
+		+ "  -spill <dir>       directory of the tree level files exceeding the memory budget, default: temporary directory";
+	
+	/** Number of tree nodes computed by a leaf task. */
+	private static final int  LEAF_NODES             = 16;
+	/**
+	 * Maximum number of bits of the product of a sub-batch.<br>
+	 * The remainder trees square the products, and multiply the remainders modulo the squares (4 times the bits),
+	 * which stays well below the size limit of {@link BigInteger} (2<sup>31</sup> bits).
+	 */
+	private static final long MAX_BATCH_PRODUCT_BITS = 1l << 28;
+	
+	/** Number of worker threads.                                  */
+	private final int          parallelism;
+	/** Memory budget of the tree levels in bytes.                 */
+	private final long         memoryBudget;
+	/** Directory of the spill files, <code>null</code> for the default temporary directory. */
+	private final File         spillDirectory;
+	
+	/** The memory budget not used by the in-memory levels.        */
+	private long               remainingMemory;
+	/** The pool computing the tree levels.                        */
+	private ForkJoinPool       pool;
+	/** The levels not yet disposed, disposed if the search fails.  */
+	private List< TreeLevel >  levels;
+	
+	/**
+	 * Creates a new BatchGcd.
+	 * @param parallelism number of worker threads
+	 * @param memoryBudget memory budget of the tree levels in bytes
+	 * @param spillDirectory directory of the spill files, <code>null</code> for the default temporary directory
+	 */
+	public BatchGcd( final int parallelism, final long memoryBudget, final File spillDirectory ) {
+		this.parallelism    = parallelism;
+		this.memoryBudget   = memoryBudget;
+		this.spillDirectory = spillDirectory;
+	}
+	
+	/**
+	 * Finds the moduli which share a factor with another modulus.
+	 * @param moduli the moduli, must be greater than 1; iterated once
+	 * @return the moduli which share a factor with another modulus, in the order of the input
+	 * @throws IOException if writing or mapping a spill file fails
+	 */
+	public List< SharedFactor > findSharedFactors( final Iterator< BigInteger > moduli ) throws IOException {
+		remainingMemory = memoryBudget;
+		pool            = new ForkJoinPool( parallelism );
+		levels          = new ArrayList< TreeLevel >();
+		try {
+			final TreeLevel       leaves    = createLevel();
+			final List< Integer > batchEnds = new ArrayList< Integer >();
+			long batchBits = 0l;
+			while ( moduli.hasNext() ) {
+				final BigInteger modulus = moduli.next();
+				if ( modulus.compareTo( BigInteger.ONE ) <= 0 )
+					throw new IllegalArgumentException( "The moduli must be greater than 1: " + modulus );
+				if ( batchBits > 0l && batchBits + modulus.bitLength() > MAX_BATCH_PRODUCT_BITS ) {
+					batchEnds.add( leaves.size() );
+					batchBits = 0l;
+				}
+				leaves.add( modulus );
+				batchBits += modulus.bitLength();
+			}
+			batchEnds.add( leaves.size() );
+			finishLevel( leaves );
+			if ( leaves.size() < 2 )
+				return new ArrayList< SharedFactor >();
+			
+			// The products of the sub-batches, only needed to cross them
+			final TreeLevel batchProducts = createLevel();
+			if ( batchEnds.size() > 1 )
+				for ( int batch = 0; batch < batchEnds.size(); batch++ ) {
+					final int               from        = batch == 0 ? 0 : batchEnds.get( batch - 1 );
+					final List< TreeLevel > productTree = computeProductTree( leaves, from, batchEnds.get( batch ) );
+					batchProducts.add( productTree.isEmpty() ? leaves.get( from ) : productTree.get( productTree.size() - 1 ).get( 0 ) );
+					for ( final TreeLevel level : productTree )
+						disposeLevel( level );
+				}
+			finishLevel( batchProducts );
+			
+			final List< SharedFactor > sharedFactors = new ArrayList< SharedFactor >();
+			for ( int batch = 0; batch < batchEnds.size(); batch++ )
+				findSharedFactors( leaves, batch == 0 ? 0 : batchEnds.get( batch - 1 ), batchEnds.get( batch ), batchProducts, sharedFactors );
+			disposeLevel( batchProducts );
+			disposeLevel( leaves );
+			
+			return splitFullyShared( sharedFactors );
+		} finally {
+			// The levels left on failure
+			for ( final TreeLevel level : levels )
+				level.dispose();
+			levels = null;
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	
+	/**
+	 * Finds the moduli of a sub-batch which share a factor with another modulus.<br>
+	 * The root of the remainder tree is the product of all the moduli modulo the square of the product of the sub-batch,
+	 * calculated from the products of the sub-batches.
+	 * @param leaves the moduli
+	 * @param from index of the first modulus of the sub-batch (inclusive)
+	 * @param to index of the last modulus of the sub-batch (exclusive)
+	 * @param batchProducts the products of the sub-batches; empty if there is only one sub-batch
+	 * @param sharedFactors list to add the moduli sharing a factor to
+	 * @throws IOException if writing or mapping a spill file fails
+	 */
+	private void findSharedFactors( final TreeLevel leaves, final int from, final int to, final TreeLevel batchProducts,
+			final List< SharedFactor > sharedFactors ) throws IOException {
+		final List< TreeLevel > productTree = computeProductTree( leaves, from, to );
+		
+		TreeLevel remainders;
+		if ( batchProducts.size() == 0 )
+			// The product modulo the square of the root is the root itself
+			remainders = productTree.remove( productTree.size() - 1 );
+		else {
+			final BigInteger root       = productTree.isEmpty() ? leaves.get( from ) : productTree.get( productTree.size() - 1 ).get( 0 );
+			final BigInteger rootSquare = root.multiply( root );
+			BigInteger product = BigInteger.ONE;
+			for ( int i = 0; i < batchProducts.size(); i++ )
+				product = product.multiply( batchProducts.get( i ).mod( rootSquare ) ).mod( rootSquare );
+			if ( !productTree.isEmpty() )
+				disposeLevel( productTree.remove( productTree.size() - 1 ) );
+			remainders = createLevel();
+			remainders.add( product );
+			finishLevel( remainders );
+		}
+		
+		// Remainder tree, down to the leaves; a product level is released once the remainder tree passed it
+		while ( !productTree.isEmpty() ) {
+			final TreeLevel level       = productTree.remove( productTree.size() - 1 );
+			final TreeLevel parentLevel = remainders;
+			remainders = computeLevel( level.size(), new NodeFunction() {
+				@Override
+				public BigInteger compute( final int index ) {
+					final BigInteger node = level.get( index );
+					return parentLevel.get( index >> 1 ).mod( node.multiply( node ) );
+				}
+			} );
+			disposeLevel( parentLevel );
+			disposeLevel( level );
+		}
+		
+		// gcd( z_i / n_i, n_i ) at the leaves, where z_i is the remainder modulo n_i^2
+		final TreeLevel parentLevel = remainders;
+		final TreeLevel gcds = computeLevel( to - from, new NodeFunction() {
+			@Override
+			public BigInteger compute( final int index ) {
+				final BigInteger modulus = leaves.get( from + index );
+				return parentLevel.get( index >> 1 ).mod( modulus.multiply( modulus ) ).divide( modulus ).gcd( modulus );
+			}
+		} );
+		disposeLevel( parentLevel );
+		
+		for ( int i = 0; i < gcds.size(); i++ ) {
+			final BigInteger gcd = gcds.get( i );
+			if ( !gcd.equals( BigInteger.ONE ) )
+				sharedFactors.add( new SharedFactor( from + i, leaves.get( from + i ), gcd ) );
+		}
+		disposeLevel( gcds );
+	}
+	
+	/**
+	 * Computes the product tree of a sub-batch of the moduli.<br>
+	 * Each level has the products of the pairs of the level below, the moduli themselves are not copied to the tree.
+	 * @param leaves the moduli
+	 * @param from index of the first modulus of the sub-batch (inclusive)
+	 * @param to index of the last modulus of the sub-batch (exclusive)
+	 * @return the levels of the product tree above the moduli, the last one is the root; empty if the sub-batch has a single modulus
+	 * @throws IOException if writing or mapping a spill file fails
+	 */
+	private List< TreeLevel > computeProductTree( final TreeLevel leaves, final int from, final int to ) throws IOException {
+		final List< TreeLevel > productTree = new ArrayList< TreeLevel >();
+		if ( to - from < 2 )
+			return productTree;
+		
+		productTree.add( computeLevel( ( to - from + 1 ) >> 1, new NodeFunction() {
+			@Override
+			public BigInteger compute( final int index ) {
+				final int left = from + ( index << 1 );
+				return left + 1 < to ? leaves.get( left ).multiply( leaves.get( left + 1 ) ) : leaves.get( left );
+			}
+		} ) );
+		
+		while ( productTree.get( productTree.size() - 1 ).size() > 1 ) {
+			final TreeLevel level = productTree.get( productTree.size() - 1 );
+			productTree.add( computeLevel( ( level.size() + 1 ) >> 1, new NodeFunction() {
+				@Override
+				public BigInteger compute( final int index ) {
+					final int left = index << 1;
+					return left + 1 < level.size() ? level.get( left ).multiply( level.get( left + 1 ) ) : level.get( left );
+				}
+			} ) );
+		}
+		
+		return productTree;
+	}
+	
+	/**
+	 * Replaces the divisors which are the moduli themselves (each prime factor is shared, maybe with different moduli)
+	 * by the pairwise gcds with the other sharing moduli where that gives a proper factor.
+	 * @param sharedFactors the moduli sharing factors
+	 * @return the moduli sharing factors with proper divisors where possible
+	 */
+	private static List< SharedFactor > splitFullyShared( final List< SharedFactor > sharedFactors ) {
+		for ( int i = 0; i < sharedFactors.size(); i++ ) {
+			final SharedFactor sharedFactor = sharedFactors.get( i );
+			if ( !sharedFactor.divisor.equals( sharedFactor.modulus ) )
+				continue;
+			
+			// The moduli sharing a factor with this one are among the sharing moduli
+			for ( final SharedFactor other : sharedFactors ) {
+				final BigInteger gcd = sharedFactor.modulus.gcd( other.modulus );
+				if ( !gcd.equals( BigInteger.ONE ) && !gcd.equals( sharedFactor.modulus ) ) {
+					sharedFactors.set( i, new SharedFactor( sharedFactor.index, sharedFactor.modulus, gcd ) );
+					break;
+				}
+			}
+		}
+		
+		return sharedFactors;
+	}
+	
+	/**
+	 * Function computing a node of a tree level.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static interface NodeFunction {
+		/**
+		 * Computes a node of the level.
+		 * @param index index of the node in the level
+		 * @return the node
+		 */
+		BigInteger compute( int index );
+	}
+	
+	/**
+	 * Computes a tree level in parallel.<br>
+	 * The nodes are computed in batches of a few nodes per worker, so the level doesn't have to fit in the memory.
+	 * @param size number of nodes of the level
+	 * @param nodeFunction function computing the nodes
+	 * @return the computed level
+	 * @throws IOException if writing or mapping the spill file fails
+	 */
+	private TreeLevel computeLevel( final int size, final NodeFunction nodeFunction ) throws IOException {
+		final TreeLevel    level = createLevel();
+		final BigInteger[] batch = new BigInteger[ Math.min( size, parallelism * LEAF_NODES * 16 ) ];
+		for ( int batchStart = 0; batchStart < size; batchStart += batch.length ) {
+			final int batchSize = Math.min( batch.length, size - batchStart );
+			pool.invoke( new NodesTask( nodeFunction, batch, batchStart, 0, batchSize ) );
+			for ( int i = 0; i < batchSize; i++ ) {
+				level.add( batch[ i ] );
+				batch[ i ] = null;
+			}
+		}
+		finishLevel( level );
+		
+		return level;
+	}
+	
+	/**
+	 * Task computing a range of nodes of a batch, splits the range if it is larger than {@link BatchGcd#LEAF_NODES}.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class NodesTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		/** Function computing the nodes.         */
+		private final NodeFunction nodeFunction;
+		/** The batch to store the nodes in.      */
+		private final BigInteger[] batch;
+		/** Index of the first node of the batch in the level. */
+		private final int          batchStart;
+		/** First index of the range in the batch (inclusive). */
+		private final int          from;
+		/** Last index of the range in the batch (exclusive).  */
+		private final int          to;
+		
+		/**
+		 * Creates a new NodesTask.
+		 * @param nodeFunction function computing the nodes
+		 * @param batch the batch to store the nodes in
+		 * @param batchStart index of the first node of the batch in the level
+		 * @param from first index of the range in the batch (inclusive)
+		 * @param to last index of the range in the batch (exclusive)
+		 */
+		public NodesTask( final NodeFunction nodeFunction, final BigInteger[] batch, final int batchStart, final int from, final int to ) {
+			this.nodeFunction = nodeFunction;
+			this.batch        = batch;
+			this.batchStart   = batchStart;
+			this.from         = from;
+			this.to           = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if ( to - from > LEAF_NODES ) {
+				final int middle = ( from + to ) >>> 1;
+				invokeAll( new NodesTask( nodeFunction, batch, batchStart, from, middle ), new NodesTask( nodeFunction, batch, batchStart, middle, to ) );
+				return;
+			}
+			
+			for ( int i = from; i < to; i++ )
+				batch[ i ] = nodeFunction.compute( batchStart + i );
+		}
+		
+	}
+	
+	/**
+	 * Creates a level with the remaining memory budget.
+	 * @return the created level
+	 */
+	private TreeLevel createLevel() {
+		final TreeLevel level = new TreeLevel( remainingMemory, spillDirectory );
+		levels.add( level );
+		return level;
+	}
+	
+	/**
+	 * Finishes a level, and charges its memory to the budget if it is in memory.
+	 * @param level level to be finished
+	 * @throws IOException if mapping the spill file fails
+	 */
+	private void finishLevel( final TreeLevel level ) throws IOException {
+		level.finish();
+		if ( !level.isSpilled() )
+			remainingMemory -= level.getBytes();
+	}
+	
+	/**
+	 * Disposes a level, and returns its memory to the budget if it is in memory.
+	 * @param level level to be disposed
+	 */
+	private void disposeLevel( final TreeLevel level ) {
+		if ( !level.isSpilled() )
+			remainingMemory += level.getBytes();
+		levels.remove( level );
+		level.dispose();
+	}
+	
+	/**
+	 * Entry point of the batch gcd.
+	 * @param arguments the command line arguments, see {@link #USAGE}
+	 */
+	public static void main( final String[] arguments ) {
+		int    threads      = Runtime.getRuntime().availableProcessors();
+		String inputName    = null;
+		String outputName   = null;
+		long   memoryBudget = Runtime.getRuntime().maxMemory() >> 2;
+		String spillName    = null;
+		
+		try {
+			for ( int i = 0; i < arguments.length; i++ ) {
+				if ( "-threads".equals( arguments[ i ] ) )
+					threads = Integer.parseInt( arguments[ ++i ] );
+				else if ( "-input".equals( arguments[ i ] ) )
+					inputName = arguments[ ++i ];
+				else if ( "-output".equals( arguments[ i ] ) )
+					outputName = arguments[ ++i ];
+				else if ( "-memory".equals( arguments[ i ] ) )
+					memoryBudget = Long.parseLong( arguments[ ++i ] ) << 20;
+				else if ( "-spill".equals( arguments[ i ] ) )
+					spillName = arguments[ ++i ];
+				else
+					throw new IllegalArgumentException( "Unknown option: " + arguments[ i ] );
+			}
+			if ( threads < 1 )
+				throw new IllegalArgumentException( "The number of threads must be positive!" );
+		} catch ( final RuntimeException re ) {
+			System.err.println( re instanceof ArrayIndexOutOfBoundsException ? "Missing option value!" : re.getMessage() );
+			System.err.println( USAGE );
+			System.exit( 1 );
+			return;
+		}
+		
+		try {
+			final BufferedReader input  = new BufferedReader( new InputStreamReader( inputName == null ? System.in : new FileInputStream( inputName ), "UTF-8" ) );
+			final PrintWriter    output = new PrintWriter( new OutputStreamWriter( outputName == null ? System.out : new FileOutputStream( outputName ), "UTF-8" ), false );
+			try {
+				final BatchGcd batchGcd = new BatchGcd( threads, memoryBudget, spillName == null ? null : new File( spillName ) );
+				for ( final SharedFactor sharedFactor : batchGcd.findSharedFactors( new LineIterator( input ) ) )
+					output.println( sharedFactor.modulus + ": " + sharedFactor.divisor );
+			} finally {
+				input.close();
+				output.close();
+			}
+			if ( output.checkError() ) {
+				System.err.println( "Failed to write the results!" );
+				System.exit( 1 );
+			}
+		} catch ( final IllegalArgumentException iae ) {
+			System.err.println( iae.getMessage() );
+			System.exit( 1 );
+		} catch ( final Exception e ) {
+			e.printStackTrace();
+			System.exit( 1 );
+		}
+	}
+	
+	/**
+	 * Iterator of the numbers of the lines of a reader, skips the empty lines.
+	 *
+	 * @author Andras Belicza
+	 */
+	static class LineIterator implements Iterator< BigInteger > {
+		
+		/** The reader to read the lines from.  */
+		private final BufferedReader input;
+		/** The next number, <code>null</code> if not yet read. */
+		private BigInteger           next;
+		/** Number of the last line read.       */
+		private int                  lineNumber;
+		
+		/**
+		 * Creates a new LineIterator.
+		 * @param input the reader to read the lines from
+		 */
+		public LineIterator( final BufferedReader input ) {
+			this.input = input;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			try {
+				String line;
+				while ( next == null && ( line = input.readLine() ) != null ) {
+					lineNumber++;
+					line = line.trim();
+					if ( line.length() > 0 )
+						next = new BigInteger( line );
+				}
+			} catch ( final NumberFormatException nfe ) {
+				throw new IllegalArgumentException( "Not a number in line " + lineNumber + "!" );
+			} catch ( final IOException ie ) {
+				throw new RuntimeException( "Failed to read the input!", ie );
+			}
+			
+			return next != null;
+		}
+		
+		@Override
+		public BigInteger next() {
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			
+			final BigInteger number = next;
+			next = null;
+			return number;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,478 @@
+package hu.belicza.andras.factorization.batch;
+
+import hu.belicza.andras.factorization.utils.BigIntegerMath;
+import hu.belicza.andras.factorization.utils.PrimalityTest;
+import hu.belicza.andras.factorization.utils.PrimeSieve;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch trial division: finds the prime factors up to a bound of many numbers.<br>
+ * <br>
+ * Calling an algorithm per number generates the same candidates for each number. Here the primes up to the bound
+ * are walked once, in blocks whose products have about {@link #BLOCK_PRODUCT_BITS} bits (the blocks are kept for all the numbers).
+ * The numbers are processed in chunks: a product tree of the chunk is built, and for each prime block <code>Q</code>
+ * a remainder tree gives <code>Q mod n_i</code> for all the numbers of the chunk at the cost of a few big multiplications
+ * instead of dividing by each prime. <code>gcd( Q mod n_i, n_i )</code> is the product of the primes of the block dividing
+ * <code>n_i</code>, and only these primes are divided out. The numbers whose cofactors are proven 1 or prime
+ * (less than the square of the next prime) are dropped from the chunk, and the trees are rebuilt when half of the numbers
+ * are dropped.<br>
+ * <br>
+ * The chunks are processed in parallel, and the results are streamed out in the order of the input.<br>
+ * <br>
+ * As a command line tool it reads the numbers one per line, and writes a line <code>n: p1 p2 ...</code> for each number,
+ * followed by <code>cofactor: c</code> if the cofactor is not proven to be 1 or a prime.
+ *
+ * @author Andras Belicza
+ */
+public class BatchTrialDivision {
+	
+	/**
+	 * The result of the trial division of a number.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class Result {
+		/** Index of the number in the input.                   */
+		public final long               index;
+		/** The number.                                         */
+		public final BigInteger         n;
+		/** The prime factors up to the bound, in ascending order with multiplicity. */
+		public final List< BigInteger > primeFactors;
+		/** The cofactor: <code>n</code> divided by the prime factors up to the bound. */
+		public final BigInteger         cofactor;
+		/** Tells if the cofactor is proven to be 1 or a prime. */
+		public final boolean            fullyFactored;
+		
+		/**
+		 * Creates a new Result.
+		 * @param index index of the number in the input
+		 * @param n the number
+		 * @param primeFactors the prime factors up to the bound, in ascending order with multiplicity
+		 * @param cofactor the cofactor
+		 * @param fullyFactored tells if the cofactor is proven to be 1 or a prime
+		 */
+		public Result( final long index, final BigInteger n, final List< BigInteger > primeFactors, final BigInteger cofactor, final boolean fullyFactored ) {
+			this.index         = index;
+			this.n             = n;
+			this.primeFactors  = primeFactors;
+			this.cofactor      = cofactor;
+			this.fullyFactored = fullyFactored;
+		}
+		
+		/**
+		 * Returns the smooth part of the number: the product of the prime factors up to the bound.
+		 * @return the smooth part of the number
+		 */
+		public BigInteger getSmoothPart() {
+			return n.divide( cofactor );
+		}
+	}
+	
+	/**
+	 * Listener of the results.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static interface ResultListener {
+		/**
+		 * Called for each number in the order of the input.
+		 * @param result the result of the trial division of the number
+		 */
+		void resultFound( Result result );
+	}
+	
+	/** The usage of the command line tool. */
+	private static final String USAGE =
+		  "Usage: BatchTrialDivision [options]\n"
+		+ "Options:\n"
+		+ "  -bound <bound>     the bound of the prime factors, default: 1000000\n"
+		+ "  -threads <count>   number of worker threads, default: number of processors\n"
+		+ "  -input <file>      file to read the numbers from, default: standard input\n"
+		+ "  -output <file>     file to write the results to, default: standard output";
+	
+	/** Number of bits of the products of the prime blocks.           */
+	private static final int BLOCK_PRODUCT_BITS = 1 << 20;
+	/** Number of bits of the numbers of a chunk (a chunk is closed when exceeding it). */
+	private static final int CHUNK_BITS         = 1 << 21;
+	/** Maximum number of numbers in a chunk.                          */
+	private static final int MAX_CHUNK_SIZE     = 1 << 14;
+	
+	/**
+	 * A block of consecutive primes.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class PrimeBlock {
+		/** The primes of the block.       */
+		public final int[]      primes;
+		/** The product of the primes.     */
+		public final BigInteger product;
+		/** The first prime after the block, squared: smaller cofactors are 1 or primes after the block. */
+		public final BigInteger nextPrimeSquare;
+		
+		/**
+		 * Creates a new PrimeBlock.
+		 * @param primes the primes of the block
+		 * @param nextPrime the first prime after the block
+		 */
+		public PrimeBlock( final int[] primes, final long nextPrime ) {
+			this.primes     = primes;
+			product         = product( primes, 0, primes.length );
+			nextPrimeSquare = BigInteger.valueOf( nextPrime ).multiply( BigInteger.valueOf( nextPrime ) );
+		}
+		
+		/**
+		 * Returns the product of a range of primes, computed by a product tree.
+		 * @param primes the primes
+		 * @param from first index of the range (inclusive)
+		 * @param to last index of the range (exclusive)
+		 * @return the product of the range of primes
+		 */
+		private static BigInteger product( final int[] primes, final int from, final int to ) {
+			if ( to - from <= 16 ) {
+				BigInteger product = BigInteger.ONE;
+				for ( int i = from; i < to; i++ )
+					product = product.multiply( BigInteger.valueOf( primes[ i ] ) );
+				return product;
+			}
+			
+			final int middle = ( from + to ) >>> 1;
+			return product( primes, from, middle ).multiply( product( primes, middle, to ) );
+		}
+	}
+	
+	/** The bound of the prime factors.                     */
+	private final int                bound;
+	/** Number of worker threads.                           */
+	private final int                parallelism;
+	
+	/** The prime blocks generated so far.                  */
+	private final List< PrimeBlock > primeBlocks = new ArrayList< PrimeBlock >();
+	/** The sieve generating the primes of the blocks.      */
+	private final PrimeSieve         primeSieve  = new PrimeSieve();
+	/** The next prime not in the generated blocks.         */
+	private long                     nextPrime   = primeSieve.nextPrime();
+	
+	/**
+	 * Creates a new BatchTrialDivision.
+	 * @param bound the bound of the prime factors, the primes up to the bound (inclusive) are divided out
+	 * @param parallelism number of worker threads
+	 */
+	public BatchTrialDivision( final int bound, final int parallelism ) {
+		if ( bound < 2 )
+			throw new IllegalArgumentException( "The bound must be at least 2!" );
+		if ( parallelism < 1 )
+			throw new IllegalArgumentException( "The parallelism must be positive!" );
+		
+		this.bound       = bound;
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Returns a prime block, generates the blocks up to it if needed.
+	 * @param index index of the block
+	 * @return the prime block; <code>null</code> if the primes up to the bound are in the blocks before
+	 */
+	private synchronized PrimeBlock getPrimeBlock( final int index ) {
+		while ( primeBlocks.size() <= index && nextPrime <= bound ) {
+			int[] primes = new int[ 1024 ];
+			int   count  = 0;
+			// Products of primes have about log2(p) bits per prime
+			for ( double productBits = 0.0; nextPrime <= bound && productBits < BLOCK_PRODUCT_BITS; nextPrime = primeSieve.nextPrime() ) {
+				if ( count == primes.length )
+					primes = Arrays.copyOf( primes, count << 1 );
+				primes[ count++ ] = (int) nextPrime;
+				productBits += Math.log( nextPrime ) * 1.4426950408889634; // 1 / ln(2)
+			}
+			primeBlocks.add( new PrimeBlock( Arrays.copyOf( primes, count ), nextPrime ) );
+		}
+		
+		return index < primeBlocks.size() ? primeBlocks.get( index ) : null;
+	}
+	
+	/**
+	 * Trial divides the numbers.
+	 * @param numbers the numbers to be trial divided, must be positive; iterated once
+	 * @param listener listener to be called with the results in the order of the input
+	 * @throws InterruptedException if the thread is interrupted while waiting for the workers
+	 */
+	public void run( final Iterator< BigInteger > numbers, final ResultListener listener ) throws InterruptedException {
+		final ExecutorService             executor = Executors.newFixedThreadPool( parallelism );
+		// The chunks in progress, limited to keep the memory usage independent of the input size
+		final Deque< Future< Result[] > > chunks   = new ArrayDeque< Future< Result[] > >();
+		try {
+			long index = 0l;
+			while ( numbers.hasNext() ) {
+				final List< BigInteger > chunk = new ArrayList< BigInteger >();
+				for ( long chunkBits = 0l; chunkBits < CHUNK_BITS && chunk.size() < MAX_CHUNK_SIZE && numbers.hasNext(); ) {
+					final BigInteger n = numbers.next();
+					if ( n.signum() <= 0 )
+						throw new IllegalArgumentException( "The numbers must be positive: " + n );
+					chunk.add( n );
+					chunkBits += n.bitLength();
+				}
+				
+				final long firstIndex = index;
+				index += chunk.size();
+				chunks.add( executor.submit( new Callable< Result[] >() {
+					@Override
+					public Result[] call() {
+						return processChunk( firstIndex, chunk );
+					}
+				} ) );
+				
+				if ( chunks.size() > parallelism << 1 )
+					emitResults( chunks.remove(), listener );
+			}
+			
+			while ( !chunks.isEmpty() )
+				emitResults( chunks.remove(), listener );
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Waits for the results of a chunk, and passes them to the listener.
+	 * @param chunk the chunk in progress
+	 * @param listener listener to be called with the results
+	 * @throws InterruptedException if the thread is interrupted while waiting for the chunk
+	 */
+	private static void emitResults( final Future< Result[] > chunk, final ResultListener listener ) throws InterruptedException {
+		try {
+			for ( final Result result : chunk.get() )
+				listener.resultFound( result );
+		} catch ( final ExecutionException ee ) {
+			throw new RuntimeException( "Failed to process a chunk!", ee.getCause() );
+		}
+	}
+	
+	/**
+	 * Trial divides the numbers of a chunk.
+	 * @param firstIndex index of the first number of the chunk in the input
+	 * @param chunk the numbers of the chunk
+	 * @return the results of the numbers of the chunk
+	 */
+	private Result[] processChunk( final long firstIndex, final List< BigInteger > chunk ) {
+		final BigInteger[]               cofactors     = chunk.toArray( new BigInteger[ chunk.size() ] );
+		final boolean[]                  fullyFactored = new boolean[ cofactors.length ];
+		final List< List< BigInteger > > primeFactors  = new ArrayList< List< BigInteger > >( chunk.size() );
+		for ( int i = 0; i < cofactors.length; i++ )
+			primeFactors.add( new ArrayList< BigInteger >( 4 ) );
+		
+		// Indices of the numbers in the trees, and the product tree of the numbers
+		int[]          active      = null;
+		BigInteger[][] productTree = null;
+		int            activeCount = cofactors.length;
+		
+		PrimeBlock block;
+		for ( int blockIndex = 0; activeCount > 0 && ( block = getPrimeBlock( blockIndex ) ) != null; blockIndex++ ) {
+			if ( productTree == null || activeCount <= active.length >> 1 ) {
+				active = new int[ activeCount ];
+				for ( int i = 0, j = 0; i < cofactors.length; i++ )
+					if ( !fullyFactored[ i ] )
+						active[ j++ ] = i;
+				productTree = buildProductTree( cofactors, active );
+			}
+			
+			final BigInteger[] remainders = remainderTree( block.product, productTree );
+			for ( int i = 0; i < active.length; i++ ) {
+				final int numberIndex = active[ i ];
+				if ( fullyFactored[ numberIndex ] )
+					continue;
+				
+				// The cofactor divides the number of the product tree, so the gcd can be taken with the cofactor
+				final BigInteger gcd = remainders[ i ].gcd( cofactors[ numberIndex ] );
+				if ( !gcd.equals( BigInteger.ONE ) )
+					cofactors[ numberIndex ] = divideOut( cofactors[ numberIndex ], gcd, block, primeFactors.get( numberIndex ) );
+				
+				if ( cofactors[ numberIndex ].compareTo( block.nextPrimeSquare ) < 0 ) {
+					fullyFactored[ numberIndex ] = true;
+					activeCount--;
+				}
+			}
+		}
+		
+		final Result[]   results  = new Result[ cofactors.length ];
+		final BigInteger bigBound = BigInteger.valueOf( bound );
+		for ( int i = 0; i < results.length; i++ ) {
+			// A cofactor proven to be a prime before the block of its prime is still a prime factor up to the bound
+			if ( fullyFactored[ i ] && !cofactors[ i ].equals( BigInteger.ONE ) && cofactors[ i ].compareTo( bigBound ) <= 0 ) {
+				primeFactors.get( i ).add( cofactors[ i ] );
+				cofactors[ i ] = BigInteger.ONE;
+			}
+			results[ i ] = new Result( firstIndex + i, chunk.get( i ), primeFactors.get( i ), cofactors[ i ], fullyFactored[ i ] );
+		}
+		return results;
+	}
+	
+	/**
+	 * Builds the product tree of the cofactors of the active numbers.
+	 * @param cofactors the cofactors of the numbers
+	 * @param active indices of the active numbers
+	 * @return the levels of the product tree, the leaves first
+	 */
+	private static BigInteger[][] buildProductTree( final BigInteger[] cofactors, final int[] active ) {
+		final List< BigInteger[] > levels = new ArrayList< BigInteger[] >();
+		BigInteger[] level = new BigInteger[ active.length ];
+		for ( int i = 0; i < active.length; i++ )
+			level[ i ] = cofactors[ active[ i ] ];
+		levels.add( level );
+		
+		while ( level.length > 1 ) {
+			final BigInteger[] lowerLevel = level;
+			level = new BigInteger[ ( lowerLevel.length + 1 ) >> 1 ];
+			for ( int i = 0; i < level.length; i++ )
+				level[ i ] = 2 * i + 1 < lowerLevel.length ? lowerLevel[ 2 * i ].multiply( lowerLevel[ 2 * i + 1 ] ) : lowerLevel[ 2 * i ];
+			levels.add( level );
+		}
+		
+		return levels.toArray( new BigInteger[ levels.size() ][] );
+	}
+	
+	/**
+	 * Computes the remainders of a number modulo the leaves of a product tree.
+	 * @param number the number
+	 * @param productTree the levels of the product tree, the leaves first
+	 * @return the remainders of the number modulo the leaves
+	 */
+	private static BigInteger[] remainderTree( final BigInteger number, final BigInteger[][] productTree ) {
+		BigInteger[] remainders = new BigInteger[] { number.mod( productTree[ productTree.length - 1 ][ 0 ] ) };
+		for ( int k = productTree.length - 2; k >= 0; k-- ) {
+			final BigInteger[] level = productTree[ k ];
+			final BigInteger[] upperRemainders = remainders;
+			remainders = new BigInteger[ level.length ];
+			for ( int i = 0; i < level.length; i++ )
+				remainders[ i ] = upperRemainders[ i >> 1 ].mod( level[ i ] );
+		}
+		
+		return remainders;
+	}
+	
+	/**
+	 * Divides the primes of a block out of a cofactor.
+	 * @param cofactor the cofactor
+	 * @param gcd the product of the primes of the block dividing the cofactor
+	 * @param block the prime block
+	 * @param primeFactors list to add the prime factors to
+	 * @return the cofactor without the primes of the block
+	 */
+	private static BigInteger divideOut( BigInteger cofactor, final BigInteger gcd, final PrimeBlock block, final List< BigInteger > primeFactors ) {
+		final List< BigInteger > primes = new ArrayList< BigInteger >( 2 );
+		if ( PrimalityTest.isPrime( gcd ) )
+			primes.add( gcd ); // The most common case: a single prime of the block
+		else if ( gcd.bitLength() < 63 ) {
+			final long longGcd = gcd.longValue();
+			for ( final int prime : block.primes )
+				if ( longGcd % prime == 0l )
+					primes.add( BigInteger.valueOf( prime ) );
+		}
+		else {
+			final int[] limbs = BigIntegerMath.toIntLimbs( gcd );
+			for ( final int prime : block.primes )
+				if ( BigIntegerMath.remainder( limbs, prime ) == 0 )
+					primes.add( BigInteger.valueOf( prime ) );
+		}
+		
+		Collections.sort( primes );
+		for ( final BigInteger prime : primes ) {
+			BigInteger[] quotientAndRemainder;
+			while ( ( quotientAndRemainder = cofactor.divideAndRemainder( prime ) )[ 1 ].signum() == 0 ) {
+				cofactor = quotientAndRemainder[ 0 ];
+				primeFactors.add( prime );
+			}
+		}
+		
+		return cofactor;
+	}
+	
+	/**
+	 * Entry point of the batch trial division.
+	 * @param arguments the command line arguments, see {@link #USAGE}
+	 */
+	public static void main( final String[] arguments ) {
+		int    bound      = 1000000;
+		int    threads    = Runtime.getRuntime().availableProcessors();
+		String inputName  = null;
+		String outputName = null;
+		
+		try {
+			for ( int i = 0; i < arguments.length; i++ ) {
+				if ( "-bound".equals( arguments[ i ] ) )
+					bound = Integer.parseInt( arguments[ ++i ] );
+				else if ( "-threads".equals( arguments[ i ] ) )
+					threads = Integer.parseInt( arguments[ ++i ] );
+				else if ( "-input".equals( arguments[ i ] ) )
+					inputName = arguments[ ++i ];
+				else if ( "-output".equals( arguments[ i ] ) )
+					outputName = arguments[ ++i ];
+				else
+					throw new IllegalArgumentException( "Unknown option: " + arguments[ i ] );
+			}
+			if ( threads < 1 )
+				throw new IllegalArgumentException( "The number of threads must be positive!" );
+			if ( bound < 2 )
+				throw new IllegalArgumentException( "The bound must be at least 2!" );
+		} catch ( final RuntimeException re ) {
+			System.err.println( re instanceof ArrayIndexOutOfBoundsException ? "Missing option value!" : re.getMessage() );
+			System.err.println( USAGE );
+			System.exit( 1 );
+			return;
+		}
+		
+		try {
+			final BufferedReader input  = new BufferedReader( new InputStreamReader( inputName == null ? System.in : new FileInputStream( inputName ), "UTF-8" ) );
+			final PrintWriter    output = new PrintWriter( new OutputStreamWriter( outputName == null ? System.out : new FileOutputStream( outputName ), "UTF-8" ), false );
+			try {
+				new BatchTrialDivision( bound, threads ).run( new BatchGcd.LineIterator( input ), new ResultListener() {
+					@Override
+					public void resultFound( final Result result ) {
+						final StringBuilder resultBuilder = new StringBuilder( result.n.toString() ).append( ':' );
+						for ( final BigInteger primeFactor : result.primeFactors )
+							resultBuilder.append( ' ' ).append( primeFactor );
+						if ( result.fullyFactored ) {
+							if ( !result.cofactor.equals( BigInteger.ONE ) )
+								resultBuilder.append( ' ' ).append( result.cofactor );
+						}
+						else
+							resultBuilder.append( " cofactor: " ).append( result.cofactor );
+						output.println( resultBuilder );
+					}
+				} );
+			} finally {
+				input.close();
+				output.close();
+			}
+			if ( output.checkError() ) {
+				System.err.println( "Failed to write the results!" );
+				System.exit( 1 );
+			}
+		} catch ( final IllegalArgumentException iae ) {
+			System.err.println( iae.getMessage() );
+			System.exit( 1 );
+		} catch ( final Exception e ) {
+			e.printStackTrace();
+			System.exit( 1 );
+		}
+	}
+	
+}
@@ -0,0 +1,198 @@
+package hu.belicza.andras.factorization.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A level of a product or remainder tree of {@link BatchGcd}: a list of numbers which is appended sequentially,
+ * and read randomly (concurrently) after {@link #finish()}.<br>
+ * <br>
+ * The numbers are kept in memory until their size exceeds the memory budget of the level, then they are spilled
+ * to a temporary file, and the rest of the numbers are appended to the file. A spilled level is memory-mapped read-only
+ * when finished, so it is paged in and out by the operating system instead of occupying the heap.
+ * The file is mapped in regions of at most {@link #REGION_SIZE} bytes, the numbers may span regions.
+ *
+ * @author Andras Belicza
+ */
+class TreeLevel {
+	
+	/** Maximum size of a mapped region of the spill file. */
+	private static final int REGION_SIZE = 1 << 30;
+	
+	/** Memory budget of the level in bytes.                  */
+	private final long                 memoryBudget;
+	/** Directory of the spill file, <code>null</code> for the default temporary directory. */
+	private final File                 spillDirectory;
+	
+	/** The numbers of the level while in memory.             */
+	private List< BigInteger >         numbers = new ArrayList< BigInteger >();
+	/** Total size of the numbers in bytes.                   */
+	private long                       bytes;
+	/** Number of numbers.                                    */
+	private int                        size;
+	
+	/** The spill file, <code>null</code> if the level is in memory. */
+	private File                       spillFile;
+	/** Output of the spill file while appending.             */
+	private OutputStream               spillOutput;
+	/** Offsets of the numbers in the spill file, the last one is the end of the file. */
+	private long[]                     offsets;
+	/** The mapped regions of the spill file.                 */
+	private MappedByteBuffer[]         regions;
+	
+	/**
+	 * Creates a new TreeLevel.
+	 * @param memoryBudget memory budget of the level in bytes
+	 * @param spillDirectory directory of the spill file, <code>null</code> for the default temporary directory
+	 */
+	public TreeLevel( final long memoryBudget, final File spillDirectory ) {
+		this.memoryBudget   = memoryBudget;
+		this.spillDirectory = spillDirectory;
+	}
+	
+	/**
+	 * Appends a number.
+	 * @param number number to be appended
+	 * @throws IOException if writing the spill file fails
+	 */
+	public void add( final BigInteger number ) throws IOException {
+		final int numberBytes = ( number.bitLength() >> 3 ) + 1;
+		
+		if ( spillFile == null && bytes + numberBytes > memoryBudget )
+			spill();
+		
+		if ( spillFile == null )
+			numbers.add( number );
+		else {
+			if ( size + 1 == offsets.length )
+				offsets = Arrays.copyOf( offsets, offsets.length << 1 );
+			spillOutput.write( number.toByteArray() );
+			offsets[ size + 1 ] = offsets[ size ] + numberBytes;
+		}
+		
+		bytes += numberBytes;
+		size++;
+	}
+	
+	/**
+	 * Writes the numbers in memory to a new spill file.
+	 * @throws IOException if creating or writing the spill file fails
+	 */
+	private void spill() throws IOException {
+		spillFile   = File.createTempFile( "tree-level-", ".bin", spillDirectory );
+		spillOutput = new BufferedOutputStream( new FileOutputStream( spillFile ), 1 << 16 );
+		offsets     = new long[ Math.max( 1024, size << 1 ) ];
+		
+		final List< BigInteger > numbers = this.numbers;
+		this.numbers = null;
+		bytes = 0l;
+		size  = 0;
+		for ( final BigInteger number : numbers )
+			add( number );
+	}
+	
+	/**
+	 * Finishes appending, the numbers can be read after this.
+	 * @throws IOException if mapping the spill file fails
+	 */
+	public void finish() throws IOException {
+		if ( spillFile == null )
+			return;
+		
+		spillOutput.close();
+		spillOutput = null;
+		
+		final RandomAccessFile file = new RandomAccessFile( spillFile, "r" );
+		try {
+			final FileChannel channel = file.getChannel();
+			regions = new MappedByteBuffer[ (int) ( ( bytes + REGION_SIZE - 1 ) / REGION_SIZE ) ];
+			for ( int i = 0; i < regions.length; i++ ) {
+				final long position = (long) i * REGION_SIZE;
+				regions[ i ] = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( REGION_SIZE, bytes - position ) );
+			}
+		} finally {
+			// The mappings stay valid after closing the file
+			file.close();
+		}
+	}
+	
+	/**
+	 * Returns the number of numbers.
+	 * @return the number of numbers
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the total size of the numbers in bytes.
+	 * @return the total size of the numbers in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Tells if the level is spilled to a file.
+	 * @return true if the level is spilled to a file; false if it is in memory
+	 */
+	public boolean isSpilled() {
+		return spillFile != null;
+	}
+	
+	/**
+	 * Returns a number. Can be called by multiple threads concurrently.
+	 * @param index index of the number
+	 * @return the number at the index
+	 */
+	public BigInteger get( final int index ) {
+		if ( spillFile == null )
+			return numbers.get( index );
+		
+		long offset = offsets[ index ];
+		final byte[] numberBytes = new byte[ (int) ( offsets[ index + 1 ] - offset ) ];
+		for ( int copied = 0; copied < numberBytes.length; ) {
+			// Views of the regions are used as the positions of the regions are shared
+			final ByteBuffer region = regions[ (int) ( offset / REGION_SIZE ) ].duplicate();
+			region.position( (int) ( offset % REGION_SIZE ) );
+			final int length = Math.min( numberBytes.length - copied, region.remaining() );
+			region.get( numberBytes, copied, length );
+			copied += length;
+			offset += length;
+		}
+		
+		return new BigInteger( numberBytes );
+	}
+	
+	/**
+	 * Releases the numbers, and deletes the spill file.<br>
+	 * Can be called before {@link #finish()} (if building the level failed).
+	 */
+	public void dispose() {
+		numbers = null;
+		regions = null;
+		if ( spillOutput != null ) {
+			try {
+				spillOutput.close();
+			} catch ( final IOException ie ) {
+				// The file is deleted anyway
+			}
+			spillOutput = null;
+		}
+		if ( spillFile != null && !spillFile.delete() )
+			// Mapped files can't be deleted on some platforms until the mapping is garbage collected
+			spillFile.deleteOnExit();
+	}
+	
+}
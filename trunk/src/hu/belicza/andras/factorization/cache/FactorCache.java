@@ -0,0 +1,285 @@
+package hu.belicza.andras.factorization.cache;
+
+import hu.belicza.andras.factorization.utils.PrimalityTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the factorization results.<br>
+ * <br>
+ * A bounded in-memory LRU map of the recently used numbers is in front of an optional persistent {@link FactorStore}.
+ * Every found factor is recorded, including the factors which only split a number into 2 composite parts,
+ * and the primes are recorded as their own factors.<br>
+ * <br>
+ * Besides the exact lookups of {@link #getFactor(BigInteger)}, {@link #findKnownDivisor(BigInteger)} finds the known
+ * divisors of the multiples of the recently recorded numbers: the recorded numbers and factors are kept in chunks
+ * whose products have about {@link #DIVISOR_PRODUCT_BITS} bits, and the gcd of the products and the number is calculated.
+ * The chunks are bounded like the LRU map: the oldest chunks are dropped when they hold more than
+ * {@link #DIVISORS_PER_ENTRY} divisors per entry of the capacity, the dropped records are only found by exact lookups.
+ * The cost of this search is linear in the total size of the kept chunks, so the gcds are calculated outside of the lock
+ * on the immutable chunks.<br>
+ * <br>
+ * The methods are thread-safe.
+ *
+ * @author Andras Belicza
+ */
+public class FactorCache {
+	
+	/** Number of bits of the divisor products.                                  */
+	private static final int DIVISOR_PRODUCT_BITS = 1 << 14;
+	/** Number of known divisors kept per entry of the capacity (a record gives 3). */
+	private static final int DIVISORS_PER_ENTRY   = 3;
+	
+	/** The recently used numbers and their factors.   */
+	private final Map< BigInteger, BigInteger > recentFactors;
+	/** The persistent store, optional.                 */
+	private final FactorStore                   store;
+	
+	/** The known divisors in chunks, the oldest first. */
+	private final Deque< DivisorChunk >         divisorChunks = new ArrayDeque< DivisorChunk >();
+	/** Number of divisors in the chunks.               */
+	private long                                divisorCount;
+	/** Maximum number of divisors in the chunks.       */
+	private final long                          maxDivisorCount;
+	
+	/**
+	 * Creates a new in-memory FactorCache.
+	 * @param capacity maximum number of the recently used numbers kept in memory
+	 */
+	public FactorCache( final int capacity ) {
+		recentFactors   = createLruMap( capacity );
+		store           = null;
+		maxDivisorCount = (long) capacity * DIVISORS_PER_ENTRY;
+	}
+	
+	/**
+	 * Creates a new FactorCache backed by a persistent store.
+	 * @param capacity maximum number of the recently used numbers kept in memory
+	 * @param storeFile file of the persistent store, created if it doesn't exist
+	 * @throws IOException if opening the store fails
+	 */
+	public FactorCache( final int capacity, final File storeFile ) throws IOException {
+		recentFactors   = createLruMap( capacity );
+		store           = new FactorStore( storeFile );
+		maxDivisorCount = (long) capacity * DIVISORS_PER_ENTRY;
+		
+		// Only the chunks of the latest records are kept
+		store.visitRecords( new FactorStore.RecordVisitor() {
+			@Override
+			public void visit( final BigInteger n, final BigInteger factor ) {
+				addKnownDivisors( n, factor );
+			}
+		} );
+	}
+	
+	/**
+	 * Creates a map which keeps the <code>capacity</code> most recently used entries.
+	 * @param capacity maximum number of entries
+	 * @return the created map
+	 */
+	private static Map< BigInteger, BigInteger > createLruMap( final int capacity ) {
+		return new LinkedHashMap< BigInteger, BigInteger >( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< BigInteger, BigInteger > eldest ) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the recorded factor of <code>n</code>.
+	 * @param n number whose factor to be returned
+	 * @return a proper factor of <code>n</code>, or <code>n</code> if it is a prime; <code>null</code> if nothing is recorded for <code>n</code>
+	 */
+	public synchronized BigInteger getFactor( final BigInteger n ) {
+		BigInteger factor = recentFactors.get( n );
+		if ( factor == null && store != null ) {
+			for ( final BigInteger storedFactor : store.getFactors( n ) )
+				// A proper factor is more useful than the knowledge that n is a prime (which can't happen with a proper factor)
+				if ( factor == null || storedFactor.compareTo( n ) < 0 )
+					factor = storedFactor;
+			if ( factor != null )
+				recentFactors.put( n, factor );
+		}
+		
+		return factor;
+	}
+	
+	/**
+	 * Returns a known divisor of <code>n</code>: the recorded factor of <code>n</code> or a recorded number or factor
+	 * which divides <code>n</code>.<br>
+	 * Only the chunks are taken under the lock, the gcds are calculated outside of it.
+	 * @param n number whose divisor to be returned
+	 * @return a proper factor of <code>n</code>, or <code>n</code> if it is a prime; <code>null</code> if no divisor is known
+	 */
+	public BigInteger findKnownDivisor( final BigInteger n ) {
+		final DivisorChunk[] chunks;
+		synchronized ( this ) {
+			final BigInteger factor = getFactor( n );
+			if ( factor != null )
+				return factor;
+			
+			if ( n.compareTo( BigInteger.ONE ) <= 0 )
+				return null;
+			
+			chunks = divisorChunks.toArray( new DivisorChunk[ divisorChunks.size() ] );
+		}
+		
+		for ( final DivisorChunk chunk : chunks ) {
+			final BigInteger gcd = n.gcd( chunk.product.mod( n ) );
+			if ( gcd.compareTo( BigInteger.ONE ) > 0 && gcd.compareTo( n ) < 0 )
+				return gcd;
+			
+			// n divides the product: the divisors of the chunk are to be checked one by one
+			if ( gcd.equals( n ) )
+				for ( final BigInteger divisor : chunk.divisors ) {
+					final BigInteger divisorGcd = n.gcd( divisor );
+					if ( divisorGcd.compareTo( BigInteger.ONE ) > 0 && divisorGcd.compareTo( n ) < 0 )
+						return divisorGcd;
+				}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Records a factor of <code>n</code>.<br>
+	 * Algorithms which give up also return <code>n</code> or 1, so these are only recorded if <code>n</code> is a prime.
+	 * @param n the number
+	 * @param factor a factor of <code>n</code>; <code>n</code> or 1 means <code>n</code> is a prime
+	 */
+	public synchronized void record( final BigInteger n, BigInteger factor ) {
+		if ( factor.equals( BigInteger.ONE ) )
+			factor = n;
+		if ( n.compareTo( BigInteger.ONE ) <= 0 || factor.equals( recentFactors.get( n ) ) )
+			return;
+		if ( factor.equals( n ) && !PrimalityTest.isPrime( n ) )
+			return;
+		
+		put( n, factor );
+	}
+	
+	/**
+	 * Records a prime.
+	 * @param prime the prime, must be a prime (it is not tested)
+	 */
+	public synchronized void recordPrime( final BigInteger prime ) {
+		if ( !prime.equals( recentFactors.get( prime ) ) )
+			put( prime, prime );
+	}
+	
+	/**
+	 * Puts a factor into the recent factors, the known divisors and the store.<br>
+	 * A record evicted from the recent factors may be recorded again, it is only appended to the store if it isn't there yet.
+	 * @param n the number
+	 * @param factor a factor of <code>n</code>
+	 */
+	private void put( final BigInteger n, final BigInteger factor ) {
+		recentFactors.put( n, factor );
+		addKnownDivisors( n, factor );
+		
+		if ( store != null && !store.getFactors( n ).contains( factor ) ) {
+			try {
+				store.append( n, factor );
+			} catch ( final IOException ie ) {
+				// The result is still cached in memory
+				System.err.println( "Failed to store the factor: " + ie.getMessage() );
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of records in the persistent store.
+	 * @return the number of records in the persistent store; 0 if the cache is in-memory only
+	 */
+	public synchronized int getStoredCount() {
+		return store == null ? 0 : store.size();
+	}
+	
+	/**
+	 * Closes the persistent store.
+	 * @throws IOException if closing the store fails
+	 */
+	public synchronized void close() throws IOException {
+		if ( store != null )
+			store.close();
+	}
+	
+	/**
+	 * Adds <code>n</code> and its factor to the known divisors.
+	 * @param n the number
+	 * @param factor a factor of <code>n</code>
+	 */
+	private void addKnownDivisors( final BigInteger n, final BigInteger factor ) {
+		addKnownDivisor( n );
+		if ( !factor.equals( n ) ) {
+			addKnownDivisor( factor );
+			addKnownDivisor( n.divide( factor ) );
+		}
+	}
+	
+	/**
+	 * Adds a known divisor to the last chunk, and starts a new chunk if its product is full.<br>
+	 * The chunks are immutable (the last one is replaced), so the lookups can use them outside of the lock.
+	 * The oldest chunks are dropped if there are more than {@link #maxDivisorCount} divisors.
+	 * @param divisor the divisor to be added
+	 */
+	private void addKnownDivisor( final BigInteger divisor ) {
+		final DivisorChunk last = divisorChunks.peekLast();
+		if ( last == null || last.product.bitLength() >= DIVISOR_PRODUCT_BITS )
+			divisorChunks.addLast( new DivisorChunk( new BigInteger[] { divisor }, divisor ) );
+		else {
+			divisorChunks.pollLast();
+			divisorChunks.addLast( last.add( divisor ) );
+		}
+		
+		divisorCount++;
+		// The last chunk is never dropped
+		while ( divisorCount > maxDivisorCount && divisorChunks.size() > 1 )
+			divisorCount -= divisorChunks.pollFirst().divisors.length;
+	}
+	
+	/**
+	 * An immutable chunk of known divisors and their product.
+	 * 
+	 * @author Andras Belicza
+	 */
+	private static class DivisorChunk {
+		
+		/** The divisors of the chunk.   */
+		public final BigInteger[] divisors;
+		/** The product of the divisors. */
+		public final BigInteger   product;
+		
+		/**
+		 * Creates a new DivisorChunk.
+		 * @param divisors the divisors of the chunk
+		 * @param product the product of the divisors
+		 */
+		public DivisorChunk( final BigInteger[] divisors, final BigInteger product ) {
+			this.divisors = divisors;
+			this.product  = product;
+		}
+		
+		/**
+		 * Returns a new chunk with a divisor added.
+		 * @param divisor the divisor to be added
+		 * @return a new chunk with the divisor added
+		 */
+		public DivisorChunk add( final BigInteger divisor ) {
+			final BigInteger[] newDivisors = Arrays.copyOf( divisors, divisors.length + 1 );
+			newDivisors[ divisors.length ] = divisor;
+			return new DivisorChunk( newDivisors, product.multiply( divisor ) );
+		}
+		
+	}
+	
+}
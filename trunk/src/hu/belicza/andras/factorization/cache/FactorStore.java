@@ -0,0 +1,279 @@
+package hu.belicza.andras.factorization.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only, memory-mapped store of factors.<br>
+ * <br>
+ * The file consists of a header (magic number, version and the end of the valid records) and the records:
+ * <code>n</code> and a factor of <code>n</code> as length prefixed two's complement bytes. Records are never modified,
+ * more records may exist for the same <code>n</code>. The end in the header is updated after a record is written,
+ * so a record interrupted by a crash is ignored and overwritten.<br>
+ * <br>
+ * The records are located by an in-memory open addressing hash index of the record offsets, keyed by <code>n</code>.
+ * The index is rebuilt by a single sequential scan of the mapped file when the store is opened.
+ * The offsets are <code>int</code>s, so the size of the store is limited to 2 GB.<br>
+ * <br>
+ * This class is not thread-safe, {@link FactorCache} synchronizes the access.
+ *
+ * @author Andras Belicza
+ */
+public class FactorStore {
+	
+	/**
+	 * Visitor of the records of the store.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static interface RecordVisitor {
+		/**
+		 * Called for each record of the store.
+		 * @param n the number of the record
+		 * @param factor the factor of the record
+		 */
+		void visit( BigInteger n, BigInteger factor );
+	}
+	
+	/** Magic number at the beginning of the store file. */
+	private static final int  MAGIC            = 0x46535452; // "FSTR"
+	/** Version of the store file format.               */
+	private static final int  VERSION          = 1;
+	/** Size of the header in bytes.                    */
+	private static final int  HEADER_SIZE      = 16;
+	/** Position of the end of the records in the header. */
+	private static final int  END_POSITION     = 8;
+	/** Initial size of the mapping in bytes.           */
+	private static final long INITIAL_CAPACITY = 1l << 20;
+	
+	/** The file of the store.                             */
+	private final RandomAccessFile file;
+	/** The channel of the file.                           */
+	private final FileChannel      channel;
+	/** The mapped region of the file.                     */
+	private MappedByteBuffer       buffer;
+	/** The end of the valid records.                      */
+	private int                    end;
+	
+	/** The hash index: offsets of the records, 0 means an empty slot. */
+	private int[]                  index;
+	/** Number of records in the index.                    */
+	private int                    size;
+	
+	/**
+	 * Opens a store, creates it if the file doesn't exist.
+	 * @param storeFile file of the store
+	 * @throws IOException if the file is not a valid store file or opening it fails
+	 */
+	public FactorStore( final File storeFile ) throws IOException {
+		file    = new RandomAccessFile( storeFile, "rw" );
+		channel = file.getChannel();
+		
+		final long    length  = channel.size();
+		final boolean created = length == 0l;
+		map( Math.max( INITIAL_CAPACITY, length ) );
+		
+		if ( created ) {
+			buffer.putInt( 0, MAGIC );
+			buffer.putInt( 4, VERSION );
+			buffer.putLong( END_POSITION, HEADER_SIZE );
+		}
+		else if ( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION ) {
+			close();
+			throw new IOException( "Not a factor store file: " + storeFile );
+		}
+		final long end = buffer.getLong( END_POSITION );
+		if ( end < HEADER_SIZE || !created && end > length ) {
+			// The records would be read from the zeros mapped beyond the end of a truncated file
+			close();
+			throw new IOException( "Invalid end of the records (" + end + ", file size: " + length + "): " + storeFile );
+		}
+		this.end = (int) end;
+		
+		index = new int[ 1024 ];
+		for ( int offset = HEADER_SIZE; offset < end; offset = nextRecord( offset ) )
+			addToIndex( offset );
+	}
+	
+	/**
+	 * Returns the factors recorded for <code>n</code>.
+	 * @param n number whose factors to be returned
+	 * @return the factors recorded for <code>n</code> (in no particular order)
+	 */
+	public List< BigInteger > getFactors( final BigInteger n ) {
+		final byte[] nBytes = n.toByteArray();
+		final List< BigInteger > factors = new ArrayList< BigInteger >( 2 );
+		
+		for ( int slot = hash( nBytes ) & index.length - 1; index[ slot ] != 0; slot = slot + 1 & index.length - 1 )
+			if ( equalsN( index[ slot ], nBytes ) )
+				factors.add( readBigInteger( index[ slot ] + 4 + nBytes.length ) );
+		
+		return factors;
+	}
+	
+	/**
+	 * Appends a record.
+	 * @param n the number of the record
+	 * @param factor the factor of the record
+	 * @throws IOException if growing the file fails
+	 */
+	public void append( final BigInteger n, final BigInteger factor ) throws IOException {
+		final byte[] nBytes      = n.toByteArray();
+		final byte[] factorBytes = factor.toByteArray();
+		final int    recordSize  = 8 + nBytes.length + factorBytes.length;
+		
+		if ( (long) end + recordSize > Integer.MAX_VALUE )
+			throw new IOException( "The factor store is full!" );
+		if ( end + recordSize > buffer.capacity() )
+			map( Math.max( (long) buffer.capacity() << 1, end + recordSize ) );
+		
+		final int offset = end;
+		buffer.putInt( offset, nBytes.length );
+		for ( int i = 0; i < nBytes.length; i++ )
+			buffer.put( offset + 4 + i, nBytes[ i ] );
+		buffer.putInt( offset + 4 + nBytes.length, factorBytes.length );
+		for ( int i = 0; i < factorBytes.length; i++ )
+			buffer.put( offset + 8 + nBytes.length + i, factorBytes[ i ] );
+		
+		end = offset + recordSize;
+		buffer.putLong( END_POSITION, end );
+		addToIndex( offset );
+	}
+	
+	/**
+	 * Visits all the records of the store in the order they were recorded.
+	 * @param visitor visitor to be called for each record
+	 */
+	public void visitRecords( final RecordVisitor visitor ) {
+		for ( int offset = HEADER_SIZE; offset < end; offset = nextRecord( offset ) ) {
+			final BigInteger n = readBigInteger( offset );
+			visitor.visit( n, readBigInteger( offset + 4 + buffer.getInt( offset ) ) );
+		}
+	}
+	
+	/**
+	 * Returns the number of records.
+	 * @return the number of records
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Flushes the mapped region to the file and closes the store.
+	 * @throws IOException if closing the file fails
+	 */
+	public void close() throws IOException {
+		buffer.force();
+		file.close();
+	}
+	
+	/**
+	 * Maps the first <code>capacity</code> bytes of the file (which extends the file if needed).
+	 * @param capacity number of bytes to be mapped
+	 * @throws IOException if mapping fails
+	 */
+	private void map( final long capacity ) throws IOException {
+		buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0l, Math.min( capacity, Integer.MAX_VALUE ) );
+	}
+	
+	/**
+	 * Returns the offset of the record following a record.
+	 * @param offset offset of the record
+	 * @return the offset of the next record
+	 */
+	private int nextRecord( final int offset ) {
+		final int factorOffset = offset + 4 + buffer.getInt( offset );
+		return factorOffset + 4 + buffer.getInt( factorOffset );
+	}
+	
+	/**
+	 * Reads a length prefixed {@link BigInteger}.
+	 * @param offset offset of the length
+	 * @return the {@link BigInteger} read
+	 */
+	private BigInteger readBigInteger( final int offset ) {
+		final byte[] bytes = new byte[ buffer.getInt( offset ) ];
+		for ( int i = 0; i < bytes.length; i++ )
+			bytes[ i ] = buffer.get( offset + 4 + i );
+		return new BigInteger( bytes );
+	}
+	
+	/**
+	 * Tells if the number of a record equals to the number given by its bytes.
+	 * @param offset offset of the record
+	 * @param nBytes bytes of the number
+	 * @return true if the number of the record equals to the given number; false otherwise
+	 */
+	private boolean equalsN( final int offset, final byte[] nBytes ) {
+		if ( buffer.getInt( offset ) != nBytes.length )
+			return false;
+		for ( int i = 0; i < nBytes.length; i++ )
+			if ( buffer.get( offset + 4 + i ) != nBytes[ i ] )
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Adds a record to the index, grows the index if it is half full.
+	 * @param offset offset of the record
+	 */
+	private void addToIndex( final int offset ) {
+		if ( ++size > index.length >> 1 ) {
+			final int[] oldIndex = index;
+			index = new int[ oldIndex.length << 1 ];
+			for ( final int oldOffset : oldIndex )
+				if ( oldOffset != 0 )
+					insert( oldOffset );
+		}
+		insert( offset );
+	}
+	
+	/**
+	 * Inserts a record into the first free slot of its probe sequence.
+	 * @param offset offset of the record
+	 */
+	private void insert( final int offset ) {
+		int hash = 1;
+		final int length = buffer.getInt( offset );
+		for ( int i = 0; i < length; i++ )
+			hash = 31 * hash + buffer.get( offset + 4 + i );
+		
+		int slot = mix( hash ) & index.length - 1;
+		while ( index[ slot ] != 0 )
+			slot = slot + 1 & index.length - 1;
+		index[ slot ] = offset;
+	}
+	
+	/**
+	 * Returns the hash of a number given by its bytes.
+	 * @param nBytes bytes of the number
+	 * @return the hash of the number
+	 */
+	private static int hash( final byte[] nBytes ) {
+		int hash = 1;
+		for ( final byte b : nBytes )
+			hash = 31 * hash + b;
+		return mix( hash );
+	}
+	
+	/**
+	 * Mixes the bits of a hash so that the low bits depend on all the bits (finalizer of MurmurHash3).
+	 * @param hash hash to be mixed
+	 * @return the mixed hash
+	 */
+	private static int mix( int hash ) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		return hash ^ hash >>> 16;
+	}
+	
+}
@@ -11,7 +11,7 @@ public interface AlgorithmCompletionListener {
 	
 	/**
 	 * Called when the execution of an algorithm finishes.
-	 * @param factor the result of the algorithm, a factor of the input number
+	 * @param factor the result of the algorithm, a factor of the input number; <code>null</code> if the algorithm failed
 	 */
 	void algorithmCompleted( final BigInteger factor );
 	
@@ -0,0 +1,201 @@
+package hu.belicza.andras.factorization.control;
+
+import hu.belicza.andras.factorization.algorithm.Algorithm;
+import hu.belicza.andras.factorization.algorithm.Checkpoint;
+
+import java.math.BigInteger;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor of many concurrent factorization jobs.<br>
+ * <br>
+ * Unlike {@link AlgorithmRunner} which is a thread per algorithm, the jobs ({@link AlgorithmJob}) are executed
+ * by a bounded pool of worker threads (by default one per processor), the other jobs wait in the queue of the pool.
+ * A single monitor thread does the periodic work of all the jobs (writing the checkpoints, evicting the suspended jobs),
+ * and the control methods of the jobs never block, so thousands of jobs can be controlled without a thread each.<br>
+ * <br>
+ * A queued job is a small object, and a suspended job which writes checkpoints is evicted from its worker:
+ * it is stopped at a checkpoint, and resumed from the checkpoint by a new algorithm instance.
+ * Suspended jobs of algorithms which don't write checkpoints (the algorithms which would restart their search)
+ * keep their worker parked, and an extra worker is added to the pool for each parked one, so the queued jobs
+ * are not blocked by the suspended ones. The extra workers terminate when the parked ones continue
+ * (after finishing their current job, so for a short time more jobs may run than the parallelism).
+ * The number of extra workers is limited (by default to the parallelism); beyond the limit the suspended jobs
+ * keep their worker without a replacement, and the queued jobs wait for the remaining workers.
+ * 
+ * @author Andras Belicza
+ */
+public class AlgorithmExecutor {
+	
+	/** Counter of the executors, used to name the threads. */
+	private static final AtomicInteger executorCounter = new AtomicInteger();
+	
+	/** Number of worker threads running the jobs.               */
+	private final int                      parallelism;
+	/** The pool of the worker threads executing the algorithms. */
+	private final ThreadPoolExecutor       workerPool;
+	/** The monitor thread doing the periodic work of the jobs.  */
+	private final ScheduledExecutorService monitor;
+	/** Number of workers parked by suspended jobs.               */
+	private int                            parkedWorkers;
+	/** Maximum number of extra workers replacing parked ones.    */
+	private int                            maxParkedWorkers;
+	
+	/**
+	 * Creates a new AlgorithmExecutor with one worker thread per processor.
+	 */
+	public AlgorithmExecutor() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+	
+	/**
+	 * Creates a new AlgorithmExecutor.
+	 * @param parallelism number of worker threads
+	 */
+	public AlgorithmExecutor( final int parallelism ) {
+		if ( parallelism < 1 )
+			throw new IllegalArgumentException( "The parallelism must be positive!" );
+		
+		this.parallelism = parallelism;
+		maxParkedWorkers = parallelism;
+		final int executorId = executorCounter.incrementAndGet();
+		workerPool = new ThreadPoolExecutor( parallelism, parallelism, 0l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue< Runnable >(),
+			createThreadFactory( "Algorithm executor " + executorId + " worker " ) );
+		monitor    = new ScheduledThreadPoolExecutor( 1, createThreadFactory( "Algorithm executor " + executorId + " monitor " ) );
+	}
+	
+	/**
+	 * Creates a factory of daemon threads with normal priority.
+	 * @param namePrefix prefix of the names of the threads
+	 * @return the created thread factory
+	 */
+	private static ThreadFactory createThreadFactory( final String namePrefix ) {
+		final AtomicInteger threadCounter = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread( final Runnable runnable ) {
+				final Thread thread = new Thread( runnable, namePrefix + threadCounter.incrementAndGet() );
+				thread.setDaemon( true );
+				// This might be called form a swing dispatcher thread which has a higher priority than the normal
+				thread.setPriority( Thread.NORM_PRIORITY );
+				return thread;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a new job. The job is not started.
+	 * @param algorithmClass class of the algorithm
+	 * @param n the number to be factorized
+	 * @return the created job
+	 */
+	public AlgorithmJob createJob( final Class< ? extends Algorithm > algorithmClass, final BigInteger n ) {
+		return new AlgorithmJob( this, algorithmClass, n, null );
+	}
+	
+	/**
+	 * Creates a new job which resumes an algorithm from a checkpoint. The job is not started.
+	 * @param resumeCheckpoint checkpoint to resume the algorithm from
+	 * @return the created job
+	 */
+	public AlgorithmJob createJob( final Checkpoint resumeCheckpoint ) {
+		return new AlgorithmJob( this, AlgorithmRunner.getAlgorithmClass( resumeCheckpoint ), resumeCheckpoint.n, resumeCheckpoint );
+	}
+	
+	/**
+	 * Returns the number of jobs waiting for a worker.
+	 * @return the number of jobs waiting for a worker
+	 */
+	public int getQueuedJobCount() {
+		return workerPool.getQueue().size();
+	}
+	
+	/**
+	 * Returns the number of workers executing a job (including the parked workers of the suspended jobs).
+	 * @return the number of workers executing a job
+	 */
+	public int getActiveWorkerCount() {
+		return workerPool.getActiveCount();
+	}
+	
+	/**
+	 * Sets the maximum number of extra workers added to the pool to replace the workers parked by suspended jobs.<br>
+	 * Applies to the workers parked after the call.
+	 * @param maxParkedWorkers the maximum number of extra workers
+	 */
+	public synchronized void setMaxParkedWorkers( final int maxParkedWorkers ) {
+		if ( maxParkedWorkers < 0 )
+			throw new IllegalArgumentException( "The maximum number of parked workers must not be negative!" );
+		
+		this.maxParkedWorkers = maxParkedWorkers;
+	}
+	
+	/**
+	 * Shuts down the executor, to be called when all the jobs have finished or have been stopped.<br>
+	 * The threads are daemon threads, an executor which is not shut down doesn't keep the JVM alive.
+	 */
+	public void shutdown() {
+		workerPool.shutdown();
+		monitor.shutdown();
+	}
+	
+	/**
+	 * Called when a suspended job parks its worker: an extra worker is added to the pool unless the limit is reached.
+	 * @return true if an extra worker is added (to be given back by {@link #workerUnparked()}); false otherwise
+	 */
+	synchronized boolean workerParked() {
+		if ( parkedWorkers >= maxParkedWorkers )
+			return false;
+		
+		parkedWorkers++;
+		resizeWorkerPool();
+		return true;
+	}
+	
+	/**
+	 * Called when a parked worker continues (or its job is stopped): the extra worker is removed from the pool.
+	 */
+	synchronized void workerUnparked() {
+		parkedWorkers--;
+		resizeWorkerPool();
+	}
+	
+	/**
+	 * Sets the size of the worker pool to the parallelism plus the number of parked workers.<br>
+	 * The core size is never set above the maximum size, so the order of the 2 settings depends on the direction.
+	 */
+	private void resizeWorkerPool() {
+		final int size = parallelism + parkedWorkers;
+		if ( size > workerPool.getMaximumPoolSize() ) {
+			workerPool.setMaximumPoolSize( size );
+			workerPool.setCorePoolSize( size );
+		}
+		else {
+			workerPool.setCorePoolSize( size );
+			workerPool.setMaximumPoolSize( size );
+		}
+	}
+	
+	/**
+	 * Returns the pool of the worker threads.
+	 * @return the pool of the worker threads
+	 */
+	ThreadPoolExecutor getWorkerPool() {
+		return workerPool;
+	}
+	
+	/**
+	 * Returns the monitor executor.
+	 * @return the monitor executor
+	 */
+	ScheduledExecutorService getMonitor() {
+		return monitor;
+	}
+	
+}
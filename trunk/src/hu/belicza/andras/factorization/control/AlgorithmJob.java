@@ -0,0 +1,479 @@
+package hu.belicza.andras.factorization.control;
+
+import hu.belicza.andras.factorization.algorithm.Algorithm;
+import hu.belicza.andras.factorization.algorithm.AlgorithmMetrics;
+import hu.belicza.andras.factorization.algorithm.AlgorithmState;
+import hu.belicza.andras.factorization.algorithm.Checkpoint;
+import hu.belicza.andras.factorization.cache.FactorCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A factorization job executed by an {@link AlgorithmExecutor}.<br>
+ * The job can be controlled and monitored the same way as an {@link AlgorithmRunner}, none of the methods block.<br>
+ * <br>
+ * When a running job is suspended, a checkpoint is requested from the algorithm. If the checkpoint has a payload,
+ * the algorithm is stopped, which frees its worker, and only the checkpoint is kept; when the job is resumed,
+ * a new instance of the algorithm continues from the checkpoint in the queue of the executor. Otherwise the algorithm
+ * is suspended on its worker, and the executor adds an extra worker while it is parked (up to the limit of the executor).
+ * A job suspended before getting a worker simply doesn't take a worker.<br>
+ * <br>
+ * If the algorithm throws an exception, the job fails: the completion listeners are called with <code>null</code>,
+ * and {@link #getFailure()} returns the exception.<br>
+ * <br>
+ * The completion listeners are called by the worker thread.
+ * 
+ * @author Andras Belicza
+ */
+public class AlgorithmJob implements Runnable {
+	
+	/**
+	 * The states of the job.
+	 * 
+	 * @author Andras Belicza
+	 */
+	private static enum JobStates {
+		/** Initial state, the job has not yet been started.                 */
+		INITIAL,
+		/** The job is queued or being executed.                             */
+		RUNNING,
+		/** The job is suspended.                                            */
+		SUSPENDED,
+		/** The job is stopped.                                              */
+		STOPPED,
+		/** The job has finished.                                            */
+		FINISHED,
+		/** The algorithm of the job threw an exception.                     */
+		FAILED
+	};
+	
+	/** Time between 2 checks of the checkpoint of a job being evicted in milliseconds. */
+	private static final long EVICTION_CHECK_INTERVAL_MILLIS = 1l;
+	
+	/** The executor of the job.                         */
+	private final AlgorithmExecutor  executor;
+	/** Class of the algorithm.                          */
+	private final Class< ? extends Algorithm > algorithmClass;
+	/** The number to be factorized.                     */
+	private final BigInteger         n;
+	/** The internal state of the job.                   */
+	private JobStates                jobState = JobStates.INITIAL;
+	
+	/** Algorithm instance executing the job, replaced after an eviction. */
+	private Algorithm                algorithm;
+	/** The checkpoint to resume the algorithm from.     */
+	private Checkpoint               resumeCheckpoint;
+	/** Tells if the job is submitted to or being executed by a worker. */
+	private boolean                  onWorker;
+	/** Tells if the job has been executed by a worker already. */
+	private boolean                  executed;
+	/** Tells if the algorithm is stopped to evict the job from its worker. */
+	private boolean                  evicted;
+	/** Tells if the suspended algorithm is parked on its worker and replaced by an extra worker. */
+	private boolean                  parked;
+	/** The periodic check of the checkpoint of the job being evicted. */
+	private ScheduledFuture< ? >     evictionCheck;
+	/** The result of the algorithm.                     */
+	private BigInteger               factor;
+	/** The exception thrown by the algorithm.           */
+	private Throwable                failure;
+	
+	/** File to write the checkpoints to.                */
+	private File                     checkpointFile;
+	/** Time between 2 checkpoints in milliseconds.      */
+	private long                     checkpointIntervalMillis;
+	/** The periodic checkpoint writing.                 */
+	private ScheduledFuture< ? >     checkpointWriting;
+	/** The last checkpoint written to the file.         */
+	private Checkpoint               writtenCheckpoint;
+	/** Cache of the factorization results, optional.    */
+	private FactorCache              factorCache;
+	
+	/** List of algorithm completion listeners.          */
+	private final List< AlgorithmCompletionListener > completionListeners = new CopyOnWriteArrayList< AlgorithmCompletionListener >();
+	
+	/**
+	 * Creates a new AlgorithmJob.
+	 * @param executor the executor of the job
+	 * @param algorithmClass class of the algorithm
+	 * @param n the number to be factorized
+	 * @param resumeCheckpoint checkpoint to resume the algorithm from, optional
+	 */
+	AlgorithmJob( final AlgorithmExecutor executor, final Class< ? extends Algorithm > algorithmClass, final BigInteger n, final Checkpoint resumeCheckpoint ) {
+		this.executor         = executor;
+		this.algorithmClass   = algorithmClass;
+		this.n                = n;
+		this.resumeCheckpoint = resumeCheckpoint;
+		algorithm             = createAlgorithm();
+	}
+	
+	/**
+	 * Instantiates the algorithm.
+	 * @return the new algorithm instance
+	 */
+	private Algorithm createAlgorithm() {
+		try {
+			return algorithmClass.getDeclaredConstructor().newInstance();
+		} catch ( final Exception e ) {
+			throw new RuntimeException( "Could not instantiate algorithm!" );
+		}
+	}
+	
+	/**
+	 * Enables checkpointing: the latest checkpoint of the algorithm will be written to <code>checkpointFile</code>
+	 * in every <code>checkpointIntervalMillis</code> milliseconds (by the monitor thread of the executor).<br>
+	 * Must be called before starting the job.
+	 * @param checkpointFile file to write the checkpoints to
+	 * @param checkpointIntervalMillis time between 2 checkpoints in milliseconds
+	 */
+	public synchronized void setCheckpointing( final File checkpointFile, final long checkpointIntervalMillis ) {
+		if ( jobState != JobStates.INITIAL )
+			throw new IllegalStateException();
+		if ( checkpointIntervalMillis <= 0l )
+			throw new IllegalArgumentException( "The checkpoint interval must be positive!" );
+		
+		this.checkpointFile           = checkpointFile;
+		this.checkpointIntervalMillis = checkpointIntervalMillis;
+	}
+	
+	/**
+	 * Sets the cache of the factorization results.<br>
+	 * Must be called before starting the job.
+	 * @param factorCache the cache of the factorization results
+	 */
+	public synchronized void setFactorCache( final FactorCache factorCache ) {
+		if ( jobState != JobStates.INITIAL )
+			throw new IllegalStateException();
+		
+		this.factorCache = factorCache;
+	}
+	
+	/**
+	 * Adds a new {@link AlgorithmCompletionListener} to this job.
+	 * @param listener listener to be added
+	 */
+	public void addAlgorithmCompletionListener( final AlgorithmCompletionListener listener ) {
+		completionListeners.add( listener );
+	}
+	
+	/**
+	 * Removes an {@link AlgorithmCompletionListener} from this job.
+	 * @param listener listener to be removed
+	 */
+	public void removeAlgorithmCompletionListener( final AlgorithmCompletionListener listener ) {
+		completionListeners.remove( listener );
+	}
+	
+	/**
+	 * Starts the job: submits it to the executor.
+	 */
+	public synchronized void startAlgorithm() {
+		if ( jobState != JobStates.INITIAL )
+			throw new IllegalStateException();
+		
+		if ( checkpointFile != null )
+			checkpointWriting = executor.getMonitor().scheduleWithFixedDelay( new Runnable() {
+				@Override
+				public void run() {
+					writeCheckpoint();
+				}
+			}, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS );
+			
+		jobState = JobStates.RUNNING;
+		submit();
+	}
+	
+	/**
+	 * Suspends the job.
+	 */
+	public synchronized void suspendAlgorithm() {
+		if ( jobState != JobStates.RUNNING )
+			throw new IllegalStateException();
+		
+		jobState = JobStates.SUSPENDED;
+		
+		// A queued job will leave its worker when it gets one
+		if ( onWorker ) {
+			final Checkpoint previousCheckpoint = algorithm.getCheckpoint();
+			algorithm.requestCheckpoint();
+			evictionCheck = executor.getMonitor().scheduleWithFixedDelay( new Runnable() {
+				@Override
+				public void run() {
+					checkEviction( previousCheckpoint );
+				}
+			}, EVICTION_CHECK_INTERVAL_MILLIS, EVICTION_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+		}
+	}
+	
+	/**
+	 * Resumes a suspended job.
+	 */
+	public synchronized void resumeAlgorithm() {
+		if ( jobState != JobStates.SUSPENDED )
+			throw new IllegalStateException();
+		
+		jobState = JobStates.RUNNING;
+		cancelEvictionCheck();
+		
+		if ( !onWorker )
+			submit();
+		else if ( !evicted ) {
+			algorithm.resume();
+			unparkWorker();
+		}
+		// else the worker resubmits the job when the evicted algorithm returns
+	}
+	
+	/**
+	 * Stops the job.
+	 */
+	public synchronized void stopAlgorithm() {
+		if ( jobState != JobStates.RUNNING && jobState != JobStates.SUSPENDED )
+			return;
+		
+		jobState = JobStates.STOPPED;
+		cancelEvictionCheck();
+		
+		if ( onWorker ) {
+			algorithm.stop();
+			unparkWorker();
+		}
+		else
+			finish( null, false );
+	}
+	
+	/**
+	 * Submits the job to the workers of the executor.
+	 */
+	private void submit() {
+		onWorker = true;
+		executor.getWorkerPool().execute( this );
+	}
+	
+	/**
+	 * Executes the algorithm of the job, called by a worker of the executor.
+	 */
+	@Override
+	public void run() {
+		final Algorithm  algorithm;
+		final Checkpoint resumeCheckpoint;
+		final boolean    firstExecution;
+		synchronized ( this ) {
+			if ( jobState != JobStates.RUNNING ) {
+				// Suspended or stopped while queued
+				onWorker = false;
+				if ( jobState == JobStates.STOPPED )
+					finish( null, false );
+				return;
+			}
+			algorithm        = this.algorithm;
+			resumeCheckpoint = this.resumeCheckpoint;
+			firstExecution   = !executed;
+			executed         = true;
+		}
+		
+		BigInteger knownFactor = null;
+		BigInteger factor      = null;
+		Throwable  failure     = null;
+		try {
+			// Not checked again when continuing after an eviction
+			knownFactor = factorCache == null || !firstExecution ? null : factorCache.findKnownDivisor( n );
+			if ( knownFactor != null )
+				factor = knownFactor;
+			else if ( resumeCheckpoint == null )
+				factor = algorithm.getFactor( n );
+			else
+				factor = algorithm.getFactor( resumeCheckpoint );
+		} catch ( final Throwable t ) {
+			failure = t;
+		}
+		
+		if ( failure != null ) {
+			synchronized ( this ) {
+				onWorker = false;
+				evicted  = false;
+				unparkWorker();
+				cancelEvictionCheck();
+				finish( null, false );
+				this.failure = failure;
+				jobState     = JobStates.FAILED;
+			}
+			
+			for ( final AlgorithmCompletionListener listener : completionListeners )
+				listener.algorithmCompleted( null );
+			// The worker pool replaces the worker
+			if ( failure instanceof Error )
+				throw (Error) failure;
+			return;
+		}
+		
+		final boolean completed;
+		synchronized ( this ) {
+			onWorker = false;
+			unparkWorker();
+			
+			// An evicted algorithm which found the factor before seeing the stop request just finishes the job
+			if ( evicted && factor == null && jobState != JobStates.STOPPED ) {
+				// Replace the stopped algorithm by a new instance which continues from the checkpoint
+				evicted               = false;
+				this.resumeCheckpoint = algorithm.getCheckpoint();
+				this.algorithm        = createAlgorithm();
+				this.algorithm.getMetrics().addCounters( algorithm.getMetrics() );
+				if ( jobState == JobStates.RUNNING )
+					submit();
+				return;
+			}
+			
+			evicted   = false;
+			completed = jobState != JobStates.STOPPED;
+			finish( factor, completed );
+		}
+		
+		if ( factorCache != null && factor != null && knownFactor == null )
+			factorCache.record( n, factor );
+		
+		if ( completed )
+			for ( final AlgorithmCompletionListener listener : completionListeners )
+				listener.algorithmCompleted( factor );
+	}
+	
+	/**
+	 * Finishes the job.<br>
+	 * The completion listeners are called by the caller, outside of the lock of the job.
+	 * @param factor the result of the algorithm
+	 * @param completed tells if the algorithm completed (and was not stopped)
+	 */
+	private void finish( final BigInteger factor, final boolean completed ) {
+		if ( checkpointWriting != null ) {
+			checkpointWriting.cancel( false );
+			// A stopped job might be resumed later from its last checkpoint
+			if ( completed )
+				checkpointFile.delete();
+		}
+		
+		this.factor = factor;
+		jobState    = completed ? JobStates.FINISHED : JobStates.STOPPED;
+	}
+	
+	/**
+	 * Checks if the algorithm of the job being evicted has created its checkpoint, called by the monitor thread.<br>
+	 * If the checkpoint has a payload, the algorithm is stopped, otherwise it is suspended.
+	 * @param previousCheckpoint the checkpoint of the algorithm before the eviction
+	 */
+	private synchronized void checkEviction( final Checkpoint previousCheckpoint ) {
+		if ( jobState != JobStates.SUSPENDED || !onWorker ) {
+			cancelEvictionCheck();
+			return;
+		}
+		
+		final Checkpoint checkpoint = algorithm.getCheckpoint();
+		if ( checkpoint == previousCheckpoint )
+			return;
+		
+		cancelEvictionCheck();
+		if ( checkpoint.hasPayload() ) {
+			evicted = true;
+			algorithm.stop();
+		}
+		else {
+			algorithm.suspend();
+			parked = executor.workerParked();
+		}
+	}
+	
+	/**
+	 * Gives back the extra worker of the executor if the algorithm is parked on its worker.
+	 */
+	private void unparkWorker() {
+		if ( parked ) {
+			parked = false;
+			executor.workerUnparked();
+		}
+	}
+	
+	/**
+	 * Cancels the eviction check if there is one.
+	 */
+	private void cancelEvictionCheck() {
+		if ( evictionCheck != null ) {
+			evictionCheck.cancel( false );
+			evictionCheck = null;
+		}
+	}
+	
+	/**
+	 * Writes the latest checkpoint of the algorithm to the checkpoint file, and requests a new one.<br>
+	 * Called by the monitor thread, a checkpoint is written in the next period after it was requested,
+	 * so the algorithm is never waited for.
+	 */
+	private void writeCheckpoint() {
+		final Algorithm  algorithm;
+		final Checkpoint checkpoint;
+		synchronized ( this ) {
+			if ( jobState == JobStates.FINISHED || jobState == JobStates.FAILED || jobState == JobStates.STOPPED && !onWorker )
+				return;
+			algorithm = this.algorithm;
+			// An evicted job has its checkpoint only
+			checkpoint = onWorker ? algorithm.getCheckpoint() : resumeCheckpoint;
+		}
+		
+		if ( checkpoint != null && checkpoint != writtenCheckpoint ) {
+			try {
+				checkpoint.writeTo( checkpointFile );
+				writtenCheckpoint = checkpoint;
+			} catch ( final IOException ie ) {
+				System.err.println( "Failed to write the checkpoint: " + ie.getMessage() );
+			}
+		}
+		
+		algorithm.requestCheckpoint();
+	}
+	
+	/**
+	 * Returns the state of the algorithm.
+	 * @return the state of the algorithm
+	 */
+	public synchronized AlgorithmState getAlgorithmState() {
+		return algorithm.getState();
+	}
+	
+	/**
+	 * Returns the runtime metrics of the algorithm.<br>
+	 * Reading the metrics doesn't involve the algorithm.
+	 * @return the runtime metrics of the algorithm
+	 */
+	public synchronized AlgorithmMetrics getAlgorithmMetrics() {
+		return algorithm.getMetrics();
+	}
+	
+	/**
+	 * Tells if the job is done: it has finished, failed or has been stopped.
+	 * @return true if the job is done; false otherwise
+	 */
+	public synchronized boolean isDone() {
+		return jobState == JobStates.FINISHED || jobState == JobStates.FAILED || jobState == JobStates.STOPPED && !onWorker;
+	}
+	
+	/**
+	 * Returns the exception thrown by the algorithm of the job.
+	 * @return the exception thrown by the algorithm; <code>null</code> if the job has not failed
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+	
+	/**
+	 * Returns the result of the job.
+	 * @return the result of the job; <code>null</code> if the job is not finished or has been stopped
+	 */
+	public synchronized BigInteger getFactor() {
+		return jobState == JobStates.FINISHED ? factor : null;
+	}
+	
+}
@@ -1,20 +1,52 @@
 package hu.belicza.andras.factorization.control;
 
 import hu.belicza.andras.factorization.algorithm.Algorithm;
+import hu.belicza.andras.factorization.algorithm.AlgorithmMetrics;
 import hu.belicza.andras.factorization.algorithm.AlgorithmState;
+import hu.belicza.andras.factorization.algorithm.Checkpoint;
+import hu.belicza.andras.factorization.cache.FactorCache;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * A runner class which can run, control and monitor a factorization algorithm.<br>
- * The algorithm execution is done asynchronously in a new thread.
+ * The algorithm execution is done asynchronously in a new thread.<br>
+ * <br>
+ * If checkpointing is enabled, a timer thread requests a checkpoint from the algorithm periodically,
+ * and writes the latest one to the checkpoint file. The algorithm thread only serializes its loop variables,
+ * the file is written by the timer thread. The checkpoint file is deleted when the algorithm finishes.
+ * A stop is delayed until the algorithm creates a new checkpoint (at most {@link #STOP_CHECKPOINT_TIMEOUT_MILLIS}),
+ * which is written when the algorithm ends, so the progress since the last periodic checkpoint isn't lost.<br>
+ * <br>
+ * If the algorithm throws an exception, the completion listeners are called with <code>null</code>,
+ * and {@link #getFailure()} returns the exception.<br>
+ * <br>
+ * If a {@link FactorCache} is set, a known divisor of <code>n</code> is returned without running the algorithm,
+ * and the result of the algorithm is recorded in the cache.<br>
+ * <br>
+ * While the algorithm is running, an {@link AlgorithmRunnerMXBean} is registered in the platform MBean server
+ * under the name <code>hu.belicza.andras.factorization:type=AlgorithmRunner,id=&lt;thread id&gt;</code>.
  * 
  * @author Andras Belicza
  */
 public class AlgorithmRunner extends Thread {
 	
+	/** The longest time to wait for the final checkpoint before stopping the algorithm. */
+	private static final long STOP_CHECKPOINT_TIMEOUT_MILLIS = 5000l;
+	/** Time between 2 checks of the final checkpoint.                                   */
+	private static final long STOP_CHECK_INTERVAL_MILLIS     = 10l;
+	
 	/**
 	 * The internal states of the algorithm runner.
 	 * 
@@ -40,10 +72,21 @@ public class AlgorithmRunner extends Thread {
 	
 	/** The number to be factorized.            */
 	private final BigInteger n;
-	/** The state to resume the algorithm from. */
-	private final String     resumeFromState;
+	/** The checkpoint to resume the algorithm from. */
+	private final Checkpoint resumeCheckpoint;
 	/** The result of the algorithm.            */
 	private BigInteger       factor;
+	/** The exception thrown by the algorithm.  */
+	private volatile Throwable failure;
+	
+	/** File to write the checkpoints to.       */
+	private File             checkpointFile;
+	/** Time between 2 checkpoints in milliseconds. */
+	private long             checkpointIntervalMillis;
+	/** Cache of the factorization results, optional. */
+	private FactorCache      factorCache;
+	/** Writer of the checkpoints, if checkpointing is enabled. */
+	private CheckpointWriter checkpointWriter;
 	
 	/** List of algorithm completion listeners. */
 	private final List< AlgorithmCompletionListener > completionListeners = new ArrayList< AlgorithmCompletionListener >( 2 );
@@ -59,29 +102,28 @@ public class AlgorithmRunner extends Thread {
 	
 	/**
 	 * Creates a new AlgorithmRunner.
-	 * @param algorithmClass class of the algorithm
-	 * @param resumeFromState state to resume the algorithm from
+	 * @param resumeCheckpoint checkpoint to resume the algorithm from
 	 */
-	public AlgorithmRunner( final Class< ? extends Algorithm > algorithmClass, final String resumeFromState ) {
-		this( algorithmClass, null, resumeFromState );
+	public AlgorithmRunner( final Checkpoint resumeCheckpoint ) {
+		this( getAlgorithmClass( resumeCheckpoint ), null, resumeCheckpoint );
 	}
 	
 	/**
 	 * Instantiates the algorithm.
 	 * @param algorithmClass class of the algorithm
 	 * @param n the number to be factorized
-	 * @param resumeFromState state to resume the algorithm from
+	 * @param resumeCheckpoint checkpoint to resume the algorithm from
 	 */
-	private AlgorithmRunner( final Class< ? extends Algorithm > algorithmClass, final BigInteger n, final String resumeFromState ) {
-		if ( n == null && resumeFromState == null || n != null && resumeFromState != null )
-			throw new IllegalArgumentException( "One, and only one of n or the resume state must be specified!" );
-		this.n               = n;
-		this.resumeFromState = resumeFromState;
+	private AlgorithmRunner( final Class< ? extends Algorithm > algorithmClass, final BigInteger n, final Checkpoint resumeCheckpoint ) {
+		if ( n == null && resumeCheckpoint == null || n != null && resumeCheckpoint != null )
+			throw new IllegalArgumentException( "One, and only one of n or the resume checkpoint must be specified!" );
+		this.n                = n;
+		this.resumeCheckpoint = resumeCheckpoint;
 		
 		try {
-			algorithm = algorithmClass.newInstance();
+			algorithm = algorithmClass.getDeclaredConstructor().newInstance();
 		} catch ( final Exception e ) {
-			throw new RuntimeException( "Could not instantiate algorithm!" );
+			throw new RuntimeException( "Could not instantiate algorithm!", e );
 		}
 		
 		// This might be run form a swing dispatcher thread which has a higher priority than the normal,
@@ -90,6 +132,48 @@ public class AlgorithmRunner extends Thread {
 		runnerState = RunnerStates.INITIAL;
 	}
 	
+	/**
+	 * Returns the class of the algorithm which created a checkpoint.
+	 * @param checkpoint checkpoint whose algorithm class to be returned
+	 * @return the class of the algorithm which created the checkpoint
+	 */
+	static Class< ? extends Algorithm > getAlgorithmClass( final Checkpoint checkpoint ) {
+		try {
+			return Class.forName( checkpoint.algorithmClassName ).asSubclass( Algorithm.class );
+		} catch ( final Exception e ) {
+			throw new IllegalArgumentException( "Unknown algorithm in the checkpoint: " + checkpoint.algorithmClassName );
+		}
+	}
+	
+	/**
+	 * Enables checkpointing: the latest checkpoint of the algorithm will be written to <code>checkpointFile</code>
+	 * in every <code>checkpointIntervalMillis</code> milliseconds.<br>
+	 * Must be called before starting the algorithm.
+	 * @param checkpointFile file to write the checkpoints to
+	 * @param checkpointIntervalMillis time between 2 checkpoints in milliseconds
+	 */
+	public synchronized void setCheckpointing( final File checkpointFile, final long checkpointIntervalMillis ) {
+		if ( runnerState != RunnerStates.INITIAL )
+			throw new IllegalStateException();
+		if ( checkpointIntervalMillis <= 0l )
+			throw new IllegalArgumentException( "The checkpoint interval must be positive!" );
+		
+		this.checkpointFile           = checkpointFile;
+		this.checkpointIntervalMillis = checkpointIntervalMillis;
+	}
+	
+	/**
+	 * Sets the cache of the factorization results.<br>
+	 * Must be called before starting the algorithm.
+	 * @param factorCache the cache of the factorization results
+	 */
+	public synchronized void setFactorCache( final FactorCache factorCache ) {
+		if ( runnerState != RunnerStates.INITIAL )
+			throw new IllegalStateException();
+		
+		this.factorCache = factorCache;
+	}
+	
 	/**
 	 * Adds a new {@link AlgorithmCompletionListener} to this runner.
 	 * @param listener listener to be added
@@ -113,6 +197,8 @@ public class AlgorithmRunner extends Thread {
 		if ( runnerState != RunnerStates.INITIAL )
 			throw new IllegalStateException();
 		
+		if ( checkpointFile != null )
+			checkpointWriter = new CheckpointWriter();
 		start();
 		
 		runnerState = RunnerStates.RUNNING;
@@ -151,22 +237,260 @@ public class AlgorithmRunner extends Thread {
 		
 		if ( runnerState == RunnerStates.RUNNING ) {
 			runnerState = RunnerStates.STOPPED;
-			algorithm.stop();
+			if ( checkpointWriter != null )
+				checkpointWriter.stopAfterCheckpoint();
+			else
+				algorithm.stop();
 		}
 	}
 	
 	@Override
 	public void run() {
-		if ( n != null )
-			factor = algorithm.getFactor( n );
-		else
-			factor = new BigInteger( "-1" );
+		final ObjectName mxBeanName = registerMXBean();
 		
-		if ( runnerState != RunnerStates.STOPPED )
-			for ( final AlgorithmCompletionListener listener : completionListeners )
-				listener.algorithmCompleted( factor );
+		try {
+			try {
+				final BigInteger knownFactor = factorCache == null ? null : factorCache.findKnownDivisor( n != null ? n : resumeCheckpoint.n );
+				if ( knownFactor != null )
+					factor = knownFactor;
+				else if ( n != null )
+					factor = algorithm.getFactor( n );
+				else
+					factor = algorithm.getFactor( resumeCheckpoint );
+				
+				if ( factorCache != null && factor != null && knownFactor == null )
+					factorCache.record( n != null ? n : resumeCheckpoint.n, factor );
+			} catch ( final Throwable t ) {
+				factor  = null;
+				failure = t;
+			}
+			
+			// A stopped or failed algorithm might be resumed later from its last checkpoint
+			if ( checkpointWriter != null )
+				checkpointWriter.finish( failure == null && runnerState != RunnerStates.STOPPED );
+			
+			if ( runnerState != RunnerStates.STOPPED )
+				for ( final AlgorithmCompletionListener listener : completionListeners )
+					listener.algorithmCompleted( factor );
+			
+			runnerState = RunnerStates.FINISHED;
+		} finally {
+			if ( mxBeanName != null )
+				unregisterMXBean( mxBeanName );
+		}
+		
+		// The default handler of the thread reports it
+		if ( failure instanceof Error )
+			throw (Error) failure;
+	}
+	
+	/**
+	 * Returns the exception thrown by the algorithm.
+	 * @return the exception thrown by the algorithm; <code>null</code> if the algorithm has not failed
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+	
+	/**
+	 * Registers the management interface of this runner in the platform MBean server.
+	 * @return the name of the registered MXBean; <code>null</code> if the registration failed
+	 */
+	private ObjectName registerMXBean() {
+		try {
+			final ObjectName mxBeanName = new ObjectName( "hu.belicza.andras.factorization:type=AlgorithmRunner,id=" + getId() );
+			ManagementFactory.getPlatformMBeanServer().registerMBean( new Management(), mxBeanName );
+			return mxBeanName;
+		} catch ( final JMException je ) {
+			// The algorithm runs fine without it
+			System.err.println( "Failed to register the algorithm runner MXBean: " + je.getMessage() );
+			return null;
+		}
+	}
+	
+	/**
+	 * Unregisters the management interface of this runner.
+	 * @param mxBeanName name of the registered MXBean
+	 */
+	private static void unregisterMXBean( final ObjectName mxBeanName ) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( mxBeanName );
+		} catch ( final JMException je ) {
+			System.err.println( "Failed to unregister the algorithm runner MXBean: " + je.getMessage() );
+		}
+	}
+	
+	/**
+	 * The management interface of the runner, reads the metrics of the algorithm.
+	 * 
+	 * @author Andras Belicza
+	 */
+	private class Management implements AlgorithmRunnerMXBean {
+		
+		/** The metrics of the algorithm. */
+		private final AlgorithmMetrics metrics = algorithm.getMetrics();
+		
+		@Override
+		public String getAlgorithmClass() {
+			return algorithm.getClass().getName();
+		}
+		
+		@Override
+		public int getBitLength() {
+			return ( n != null ? n : resumeCheckpoint.n ).bitLength();
+		}
+		
+		@Override
+		public String getRunnerState() {
+			synchronized ( AlgorithmRunner.this ) {
+				return runnerState.name();
+			}
+		}
+		
+		@Override
+		public String getStage() {
+			return metrics.getStage();
+		}
+		
+		@Override
+		public long getExecutionTimeNanos() {
+			return metrics.getExecutionTimeNanos();
+		}
+		
+		@Override
+		public long getCandidates() {
+			return metrics.get( AlgorithmMetrics.Counter.CANDIDATES );
+		}
+		
+		@Override
+		public double getCandidatesPerSecond() {
+			return metrics.getCandidatesPerSecond();
+		}
+		
+		@Override
+		public long getGcds() {
+			return metrics.get( AlgorithmMetrics.Counter.GCDS );
+		}
+		
+		@Override
+		public long getSieveBlocks() {
+			return metrics.get( AlgorithmMetrics.Counter.SIEVE_BLOCKS );
+		}
+		
+		@Override
+		public long getRelations() {
+			return metrics.get( AlgorithmMetrics.Counter.RELATIONS );
+		}
+		
+		@Override
+		public long getCurves() {
+			return metrics.get( AlgorithmMetrics.Counter.CURVES );
+		}
+		
+		@Override
+		public int getSuspensions() {
+			return metrics.getSuspensions();
+		}
+		
+		@Override
+		public long getSuspendedNanos() {
+			return metrics.getSuspendedNanos();
+		}
+		
+		@Override
+		public long getAllocatedBytes() {
+			final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+			if ( threadMXBean instanceof com.sun.management.ThreadMXBean )
+				return ( (com.sun.management.ThreadMXBean) threadMXBean ).getThreadAllocatedBytes( getId() );
+			return -1l;
+		}
+		
+	}
+	
+	/**
+	 * Timer task which requests and writes the checkpoints.<br>
+	 * A checkpoint is written in the next period after it was requested, so the algorithm is never waited for.
+	 * 
+	 * @author Andras Belicza
+	 */
+	private class CheckpointWriter extends TimerTask {
+		
+		/** The timer executing this task.           */
+		private final Timer timer = new Timer( "Checkpoint writer", true );
+		/** The last checkpoint written to the file. */
+		private Checkpoint  writtenCheckpoint;
+		/** Tells if the algorithm has finished.     */
+		private boolean     finished;
+		
+		/**
+		 * Creates a new CheckpointWriter, and schedules it.
+		 */
+		public CheckpointWriter() {
+			timer.schedule( this, checkpointIntervalMillis, checkpointIntervalMillis );
+		}
+		
+		@Override
+		public synchronized void run() {
+			if ( finished )
+				return;
+			
+			writeLatestCheckpoint();
+			algorithm.requestCheckpoint();
+		}
+		
+		/**
+		 * Requests a checkpoint, and stops the algorithm when the checkpoint is created
+		 * (or if it isn't created in {@link #STOP_CHECKPOINT_TIMEOUT_MILLIS}).
+		 */
+		public synchronized void stopAfterCheckpoint() {
+			if ( finished ) {
+				algorithm.stop();
+				return;
+			}
+			
+			final Checkpoint previousCheckpoint = algorithm.getCheckpoint();
+			final long       deadline           = System.currentTimeMillis() + STOP_CHECKPOINT_TIMEOUT_MILLIS;
+			algorithm.requestCheckpoint();
+			timer.schedule( new TimerTask() {
+				@Override
+				public void run() {
+					if ( algorithm.getCheckpoint() != previousCheckpoint || System.currentTimeMillis() >= deadline ) {
+						cancel();
+						algorithm.stop();
+					}
+				}
+			}, STOP_CHECK_INTERVAL_MILLIS, STOP_CHECK_INTERVAL_MILLIS );
+		}
+		
+		/**
+		 * Stops writing the checkpoints.<br>
+		 * If the file is kept, the latest checkpoint is written to it.
+		 * @param deleteFile tells if the checkpoint file is to be deleted
+		 */
+		public synchronized void finish( final boolean deleteFile ) {
+			finished = true;
+			timer.cancel();
+			if ( deleteFile )
+				checkpointFile.delete();
+			else
+				writeLatestCheckpoint();
+		}
+		
+		/**
+		 * Writes the latest checkpoint of the algorithm to the checkpoint file if it hasn't been written yet.
+		 */
+		private void writeLatestCheckpoint() {
+			final Checkpoint checkpoint = algorithm.getCheckpoint();
+			if ( checkpoint != null && checkpoint != writtenCheckpoint ) {
+				try {
+					checkpoint.writeTo( checkpointFile );
+					writtenCheckpoint = checkpoint;
+				} catch ( final IOException ie ) {
+					System.err.println( "Failed to write the checkpoint: " + ie.getMessage() );
+				}
+			}
+		}
 		
-		runnerState = RunnerStates.FINISHED;
 	}
 	
 	/**
@@ -177,4 +501,13 @@ public class AlgorithmRunner extends Thread {
 		return algorithm.getState();
 	}
 	
+	/**
+	 * Returns the runtime metrics of the algorithm.<br>
+	 * Reading the metrics doesn't involve the algorithm.
+	 * @return the runtime metrics of the algorithm
+	 */
+	public AlgorithmMetrics getAlgorithmMetrics() {
+		return algorithm.getMetrics();
+	}
+	
 }
@@ -0,0 +1,96 @@
+package hu.belicza.andras.factorization.control;
+
+/**
+ * Management interface of a running {@link AlgorithmRunner}.<br>
+ * <br>
+ * The attributes are read from the metrics of the algorithm, reading them doesn't involve (or pause) the algorithm.
+ * 
+ * @author Andras Belicza
+ */
+public interface AlgorithmRunnerMXBean {
+	
+	/**
+	 * Returns the name of the algorithm class.
+	 * @return the name of the algorithm class
+	 */
+	String getAlgorithmClass();
+	
+	/**
+	 * Returns the bit length of the number being factorized.
+	 * @return the bit length of the number being factorized
+	 */
+	int getBitLength();
+	
+	/**
+	 * Returns the state of the runner.
+	 * @return the state of the runner
+	 */
+	String getRunnerState();
+	
+	/**
+	 * Returns the current stage of the algorithm.
+	 * @return the current stage of the algorithm; <code>null</code> if the algorithm has no stages
+	 */
+	String getStage();
+	
+	/**
+	 * Returns the execution time of the algorithm.
+	 * @return the execution time of the algorithm in nanoseconds
+	 */
+	long getExecutionTimeNanos();
+	
+	/**
+	 * Returns the number of candidates tested.
+	 * @return the number of candidates tested
+	 */
+	long getCandidates();
+	
+	/**
+	 * Returns the number of candidates tested per second of execution time.
+	 * @return the number of candidates tested per second of execution time
+	 */
+	double getCandidatesPerSecond();
+	
+	/**
+	 * Returns the number of gcds calculated.
+	 * @return the number of gcds calculated
+	 */
+	long getGcds();
+	
+	/**
+	 * Returns the number of sieve blocks processed.
+	 * @return the number of sieve blocks processed
+	 */
+	long getSieveBlocks();
+	
+	/**
+	 * Returns the number of relations found.
+	 * @return the number of relations found
+	 */
+	long getRelations();
+	
+	/**
+	 * Returns the number of elliptic curves tried.
+	 * @return the number of elliptic curves tried
+	 */
+	long getCurves();
+	
+	/**
+	 * Returns the number of suspensions.
+	 * @return the number of suspensions
+	 */
+	int getSuspensions();
+	
+	/**
+	 * Returns the time the algorithm spent suspended.
+	 * @return the time the algorithm spent suspended in nanoseconds
+	 */
+	long getSuspendedNanos();
+	
+	/**
+	 * Returns the number of bytes allocated by the runner thread (not including the worker threads of parallel algorithms).
+	 * @return the number of bytes allocated by the runner thread; -1 if not supported by the JVM
+	 */
+	long getAllocatedBytes();
+
+}
@@ -11,25 +11,130 @@ public class BigIntegerMath {
 	/** BigInteger constant of the value 2. */
 	public static final BigInteger TWO = BigInteger.valueOf( 2l );
 	
+	/** Quadratic residue tables of the filter moduli of {@link #isPerfectSquare(BigInteger)}. */
+	private static final boolean[] QUADRATIC_RESIDUES_64 = quadraticResidues( 64 ), QUADRATIC_RESIDUES_63 = quadraticResidues( 63 ),
+	                               QUADRATIC_RESIDUES_65 = quadraticResidues( 65 ), QUADRATIC_RESIDUES_11 = quadraticResidues( 11 );
+	/** Product of the odd filter moduli: 63*65*11.                                                */
+	private static final BigInteger ODD_FILTER_MODULUS = BigInteger.valueOf( 63l * 65l * 11l );
+	
+	/**
+	 * Returns the quadratic residue table of a modulus.
+	 * @param modulus the modulus
+	 * @return an array telling for each residue if it is a square modulo <code>modulus</code>
+	 */
+	private static boolean[] quadraticResidues( final int modulus ) {
+		final boolean[] residues = new boolean[ modulus ];
+		for ( int i = 0; i < modulus; i++ )
+			residues[ i * i % modulus ] = true;
+		return residues;
+	}
+	
 	/**
-	 * Returns the square root of <code>n</code>.
-	 * @param n number whose suqre root to be returned
+	 * Returns the square root of <code>n</code> (rounded down).<br>
+	 * The root is calculated by Newton's iteration seeded from the double square root of the top bits of <code>n</code>,
+	 * so only a few divisions are needed.
+	 * @param n number whose square root to be returned, must not be negative
 	 * @return the square root of <code>n</code>
 	 */
 	public static BigInteger sqrt( final BigInteger n ) {
-		BigInteger min = BigInteger.ONE;
-		BigInteger max = n;
+		if ( n.signum() < 0 )
+			throw new ArithmeticException( "Square root of a negative number!" );
+		
+		if ( n.bitLength() < 63 ) {
+			final long longN = n.longValue();
+			long root = (long) Math.sqrt( (double) longN );
+			// The double estimate might be off by one in both directions
+			while ( root * root > longN )
+				root--;
+			while ( ( root + 1 ) * ( root + 1 ) <= longN )
+				root++;
+			return BigInteger.valueOf( root );
+		}
+		
+		// Seed from the top 62 or 63 bits: (floor(sqrt(top))+2)*2^shift is above the root
+		final int  shift = ( n.bitLength() - 62 ) >> 1;
+		final long top   = n.shiftRight( shift << 1 ).longValue();
+		BigInteger root  = BigInteger.valueOf( (long) Math.sqrt( (double) top ) + 2l ).shiftLeft( shift );
+		
+		// Newton's iteration is decreasing from above the root until it reaches the floor of the root
+		while ( true ) {
+			final BigInteger next = root.add( n.divide( root ) ).shiftRight( 1 );
+			if ( next.compareTo( root ) >= 0 )
+				return root;
+			root = next;
+		}
+	}
+	
+	/**
+	 * Returns the <code>k</code>-th root of <code>n</code> (rounded down).<br>
+	 * The root is calculated by Newton's iteration started from a power of 2 above the root.
+	 * @param n number whose root to be returned, must not be negative
+	 * @param k the degree of the root, must be positive
+	 * @return the <code>k</code>-th root of <code>n</code>
+	 */
+	public static BigInteger root( final BigInteger n, final int k ) {
+		if ( k == 1 || n.signum() == 0 )
+			return n;
+		if ( k == 2 )
+			return sqrt( n );
 		
+		final BigInteger bigK      = BigInteger.valueOf( k );
+		final BigInteger kMinusOne = BigInteger.valueOf( k - 1 );
+		BigInteger root = BigInteger.ONE.shiftLeft( ( n.bitLength() + k - 1 ) / k );
 		while ( true ) {
-			final BigInteger middle = min.add( max ).shiftRight( 1 );
-			if ( middle.equals( min ) )
-				return min;
-			
-			if ( middle.pow( 2 ).compareTo( n ) > 0 )
-				max = middle;
-			else
-				min = middle;
+			final BigInteger next = kMinusOne.multiply( root ).add( n.divide( root.pow( k - 1 ) ) ).divide( bigK );
+			if ( next.compareTo( root ) >= 0 )
+				return root;
+			root = next;
 		}
 	}
 	
+	/**
+	 * Tells if <code>n</code> is a square number.<br>
+	 * Most non-squares are rejected by quadratic residue tables modulo 64, 63, 65 and 11 without calculating any root.
+	 * @param n number to be checked
+	 * @return true if <code>n</code> is a square number; false otherwise
+	 */
+	public static boolean isPerfectSquare( final BigInteger n ) {
+		if ( n.signum() < 0 )
+			return false;
+		
+		if ( !QUADRATIC_RESIDUES_64[ n.intValue() & 63 ] )
+			return false;
+		
+		final int residue = n.remainder( ODD_FILTER_MODULUS ).intValue();
+		if ( !QUADRATIC_RESIDUES_63[ residue % 63 ] || !QUADRATIC_RESIDUES_65[ residue % 65 ] || !QUADRATIC_RESIDUES_11[ residue % 11 ] )
+			return false;
+		
+		final BigInteger root = sqrt( n );
+		return root.multiply( root ).equals( n );
+	}
+	
+	/**
+	 * Returns the magnitude of <code>n</code> as 32-bit limbs in big-endian order.<br>
+	 * The limbs can be used to calculate remainders without creating new objects: {@link #remainder(int[], int)}.
+	 * @param n number whose limbs to be returned
+	 * @return the magnitude of <code>n</code> as 32-bit limbs in big-endian order
+	 */
+	public static int[] toIntLimbs( final BigInteger n ) {
+		final BigInteger magnitude = n.abs();
+		final int[]      limbs     = new int[ ( magnitude.bitLength() + 31 ) >> 5 ];
+		for ( int i = limbs.length - 1, shift = 0; i >= 0; i--, shift += 32 )
+			limbs[ i ] = magnitude.shiftRight( shift ).intValue();
+		return limbs;
+	}
+	
+	/**
+	 * Returns the remainder of a number given by its 32-bit limbs divided by <code>divisor</code>.
+	 * @param limbs the magnitude of the number as 32-bit limbs in big-endian order
+	 * @param divisor the divisor, must be positive
+	 * @return the remainder of the number divided by <code>divisor</code>
+	 */
+	public static int remainder( final int[] limbs, final int divisor ) {
+		long remainder = 0l;
+		for ( final int limb : limbs )
+			remainder = ( ( remainder << 32 ) | ( limb & 0xffffffffl ) ) % divisor;
+		return (int) remainder;
+	}
+	
 }
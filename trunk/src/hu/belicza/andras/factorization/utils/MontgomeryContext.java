@@ -0,0 +1,418 @@
+package hu.belicza.andras.factorization.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Montgomery modular arithmetic modulo an odd <code>n</code> on 64-bit limbs, without creating objects.<br>
+ * <br>
+ * Every modular multiplication through {@link BigInteger} creates new objects, the garbage collection of which dominates
+ * the long loops of the modular algorithms. A context is created once per <code>n</code>, and the elements are
+ * <code>long[]</code>s of {@link #getLimbCount()} little-endian limbs (limb 0 is the least significant) created by
+ * {@link #newElement()}; the operations write their results into a given element in place, which may be one of the operands.<br>
+ * <br>
+ * The elements are in Montgomery form: <code>a</code> is represented by <code>aR mod n</code> where <code>R=2<sup>64k</sup></code>
+ * for <code>k</code> limbs, so the product <code>aR*bR</code> is reduced to <code>abR</code> by Montgomery's reduction
+ * instead of a division. The multiplication uses the Coarsely Integrated Operand Scanning (CIOS) method with a scratch
+ * buffer of the context. Single-limb (<code>n</code> &lt; 2<sup>64</sup>) and two-limb (<code>n</code> &lt; 2<sup>128</sup>)
+ * moduli have unrolled paths on local variables.<br>
+ * <br>
+ * Since <code>R</code> is coprime to <code>n</code>, <code>gcd(aR mod n, n) = gcd(a, n)</code>: the gcds can be taken
+ * of the raw elements ({@link #toBigInteger(long[])}) without converting them back.<br>
+ * <br>
+ * A context uses a scratch buffer, so it must be used by one thread at a time.
+ *
+ * @author Andras Belicza
+ */
+public class MontgomeryContext {
+	
+	/** The modulus.                                                   */
+	private final BigInteger n;
+	/** The limbs of the modulus.                                      */
+	private final long[]     nLimbs;
+	/** Number of limbs.                                               */
+	private final int        k;
+	/** <code>-n<sup>-1</sup> mod 2<sup>64</sup></code>.               */
+	private final long       nPrime;
+	/** <code>R mod n</code>: 1 in Montgomery form.                    */
+	private final long[]     one;
+	/** <code>R<sup>2</sup> mod n</code> for the conversion.           */
+	private final long[]     rSquare;
+	/** Scratch buffer of the multiplication (<code>k+2</code> limbs). */
+	private final long[]     scratch;
+	
+	/**
+	 * Creates a new MontgomeryContext.
+	 * @param n the modulus, must be odd and greater than 1
+	 */
+	public MontgomeryContext( final BigInteger n ) {
+		if ( !n.testBit( 0 ) || n.compareTo( BigInteger.ONE ) <= 0 )
+			throw new IllegalArgumentException( "The modulus must be odd and greater than 1!" );
+		
+		this.n  = n;
+		k       = ( n.bitLength() + 63 ) >> 6;
+		nLimbs  = new long[ k ];
+		toLimbs( n, nLimbs );
+		
+		// Newton's iteration doubles the correct low bits: n*n=1 mod 8 is a 3 bit start
+		long inverse = nLimbs[ 0 ];
+		for ( int i = 0; i < 5; i++ )
+			inverse *= 2l - nLimbs[ 0 ] * inverse;
+		nPrime = -inverse;
+		
+		one     = new long[ k ];
+		rSquare = new long[ k ];
+		scratch = new long[ k + 2 ];
+		toLimbs( BigInteger.ONE.shiftLeft( 64 * k ).mod( n ), one );
+		toLimbs( BigInteger.ONE.shiftLeft( 128 * k ).mod( n ), rSquare );
+	}
+	
+	/**
+	 * Returns the modulus.
+	 * @return the modulus
+	 */
+	public BigInteger getModulus() {
+		return n;
+	}
+	
+	/**
+	 * Returns the number of limbs of the elements.
+	 * @return the number of limbs of the elements
+	 */
+	public int getLimbCount() {
+		return k;
+	}
+	
+	/**
+	 * Creates a new element, initialized to 0.
+	 * @return a new element
+	 */
+	public long[] newElement() {
+		return new long[ k ];
+	}
+	
+	/**
+	 * Converts a number to Montgomery form.
+	 * @param a number to be converted
+	 * @param result element to store the Montgomery form in
+	 */
+	public void toMontgomery( final BigInteger a, final long[] result ) {
+		toLimbs( a.mod( n ), result );
+		multiply( result, rSquare, result );
+	}
+	
+	/**
+	 * Converts an element from Montgomery form.
+	 * @param a element to be converted
+	 * @return the number represented by the element
+	 */
+	public BigInteger fromMontgomery( final long[] a ) {
+		final long[] unit = newElement();
+		unit[ 0 ] = 1l;
+		final long[] result = newElement();
+		multiply( a, unit, result );
+		return toBigInteger( result );
+	}
+	
+	/**
+	 * Returns an element as a non-negative {@link BigInteger} without converting it from Montgomery form.
+	 * @param a the element
+	 * @return the element as a non-negative number
+	 */
+	public BigInteger toBigInteger( final long[] a ) {
+		final byte[] bytes = new byte[ ( k << 3 ) + 1 ]; // Leading 0 byte for the sign
+		for ( int i = 0; i < k; i++ )
+			for ( int j = 0; j < 8; j++ )
+				bytes[ bytes.length - 1 - ( i << 3 ) - j ] = (byte) ( a[ i ] >>> ( j << 3 ) );
+		return new BigInteger( bytes );
+	}
+	
+	/**
+	 * Sets an element to 1 (in Montgomery form).
+	 * @param result element to be set
+	 */
+	public void setOne( final long[] result ) {
+		System.arraycopy( one, 0, result, 0, k );
+	}
+	
+	/**
+	 * Copies an element.
+	 * @param a element to be copied
+	 * @param result element to copy to
+	 */
+	public void set( final long[] a, final long[] result ) {
+		System.arraycopy( a, 0, result, 0, k );
+	}
+	
+	/**
+	 * Tells if 2 elements are equal.
+	 * @param a the first element
+	 * @param b the second element
+	 * @return true if the elements are equal; false otherwise
+	 */
+	public boolean equals( final long[] a, final long[] b ) {
+		for ( int i = 0; i < k; i++ )
+			if ( a[ i ] != b[ i ] )
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Tells if an element is 0.
+	 * @param a the element
+	 * @return true if the element is 0; false otherwise
+	 */
+	public boolean isZero( final long[] a ) {
+		for ( int i = 0; i < k; i++ )
+			if ( a[ i ] != 0l )
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Calculates <code>a+b mod n</code>.
+	 * @param a the first operand
+	 * @param b the second operand
+	 * @param result element to store the sum in
+	 */
+	public void add( final long[] a, final long[] b, final long[] result ) {
+		long carry = 0l;
+		for ( int i = 0; i < k; i++ ) {
+			final long sum = a[ i ] + b[ i ];
+			final long sumWithCarry = sum + carry;
+			carry = ( Long.compareUnsigned( sum, a[ i ] ) < 0 ? 1l : 0l ) + ( Long.compareUnsigned( sumWithCarry, sum ) < 0 ? 1l : 0l );
+			result[ i ] = sumWithCarry;
+		}
+		
+		if ( carry != 0l || !lessThanN( result ) )
+			subtractN( result );
+	}
+	
+	/**
+	 * Calculates <code>a-b mod n</code>.
+	 * @param a the first operand
+	 * @param b the second operand
+	 * @param result element to store the difference in
+	 */
+	public void subtract( final long[] a, final long[] b, final long[] result ) {
+		long borrow = 0l;
+		for ( int i = 0; i < k; i++ ) {
+			final long difference = a[ i ] - b[ i ];
+			final long differenceWithBorrow = difference - borrow;
+			borrow = ( Long.compareUnsigned( a[ i ], b[ i ] ) < 0 ? 1l : 0l ) + ( Long.compareUnsigned( difference, borrow ) < 0 ? 1l : 0l );
+			result[ i ] = differenceWithBorrow;
+		}
+		
+		if ( borrow != 0l ) {
+			long carry = 0l;
+			for ( int i = 0; i < k; i++ ) {
+				final long sum = result[ i ] + nLimbs[ i ];
+				final long sumWithCarry = sum + carry;
+				carry = ( Long.compareUnsigned( sum, nLimbs[ i ] ) < 0 ? 1l : 0l ) + ( Long.compareUnsigned( sumWithCarry, sum ) < 0 ? 1l : 0l );
+				result[ i ] = sumWithCarry;
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the Montgomery product <code>a*b/R mod n</code>.
+	 * @param a the first operand
+	 * @param b the second operand
+	 * @param result element to store the product in
+	 */
+	public void multiply( final long[] a, final long[] b, final long[] result ) {
+		if ( k == 1 )
+			result[ 0 ] = multiply1( a[ 0 ], b[ 0 ] );
+		else if ( k == 2 )
+			multiply2( a[ 0 ], a[ 1 ], b[ 0 ], b[ 1 ], result );
+		else
+			multiplyK( a, b, result );
+	}
+	
+	/**
+	 * Calculates the Montgomery square <code>a*a/R mod n</code>.
+	 * @param a the operand
+	 * @param result element to store the square in
+	 */
+	public void square( final long[] a, final long[] result ) {
+		multiply( a, a, result );
+	}
+	
+	/**
+	 * Single-limb Montgomery product: <code>(ab - mn) / 2<sup>64</sup></code> where <code>m = ab * n<sup>-1</sup></code>
+	 * has the same low word as <code>ab</code>, so only the high words are needed.
+	 * @param a the first operand
+	 * @param b the second operand
+	 * @return <code>a*b/R mod n</code>
+	 */
+	private long multiply1( final long a, final long b ) {
+		final long n0     = nLimbs[ 0 ];
+		final long high   = unsignedMultiplyHigh( a, b );
+		final long m      = a * b * -nPrime;
+		final long mnHigh = unsignedMultiplyHigh( m, n0 );
+		final long result = high - mnHigh;
+		return Long.compareUnsigned( high, mnHigh ) < 0 ? result + n0 : result;
+	}
+	
+	/**
+	 * Two-limb Montgomery product (CIOS unrolled on local variables).
+	 * @param a0 the low limb of the first operand
+	 * @param a1 the high limb of the first operand
+	 * @param b0 the low limb of the second operand
+	 * @param b1 the high limb of the second operand
+	 * @param result element to store the product in
+	 */
+	private void multiply2( final long a0, final long a1, final long b0, final long b1, final long[] result ) {
+		final long n0 = nLimbs[ 0 ], n1 = nLimbs[ 1 ];
+		long t0, t1, t2, t3, low, high, sum, carry, m;
+		
+		// t = a * b0
+		t0    = a0 * b0;
+		high  = unsignedMultiplyHigh( a0, b0 );
+		low   = a1 * b0;
+		t1    = low + high;
+		t2    = unsignedMultiplyHigh( a1, b0 ) + ( Long.compareUnsigned( t1, low ) < 0 ? 1l : 0l );
+		
+		// t = ( t + m * n ) / 2^64; the low word of t0 + m * n0 is 0, with a carry unless t0 is 0
+		m     = t0 * nPrime;
+		high  = unsignedMultiplyHigh( m, n0 ) + ( t0 != 0l ? 1l : 0l );
+		low   = m * n1;
+		sum   = t1 + low;
+		carry = unsignedMultiplyHigh( m, n1 ) + ( Long.compareUnsigned( sum, low ) < 0 ? 1l : 0l );
+		t0    = sum + high;
+		carry += Long.compareUnsigned( t0, sum ) < 0 ? 1l : 0l;
+		t1    = t2 + carry;
+		t2    = Long.compareUnsigned( t1, carry ) < 0 ? 1l : 0l;
+		
+		// t += a * b1
+		low   = a0 * b1;
+		sum   = t0 + low;
+		high  = unsignedMultiplyHigh( a0, b1 ) + ( Long.compareUnsigned( sum, low ) < 0 ? 1l : 0l );
+		t0    = sum;
+		low   = a1 * b1;
+		sum   = t1 + low;
+		carry = unsignedMultiplyHigh( a1, b1 ) + ( Long.compareUnsigned( sum, low ) < 0 ? 1l : 0l );
+		t1    = sum + high;
+		carry += Long.compareUnsigned( t1, sum ) < 0 ? 1l : 0l;
+		t2   += carry;
+		t3    = Long.compareUnsigned( t2, carry ) < 0 ? 1l : 0l;
+		
+		// t = ( t + m * n ) / 2^64
+		m     = t0 * nPrime;
+		high  = unsignedMultiplyHigh( m, n0 ) + ( t0 != 0l ? 1l : 0l );
+		low   = m * n1;
+		sum   = t1 + low;
+		carry = unsignedMultiplyHigh( m, n1 ) + ( Long.compareUnsigned( sum, low ) < 0 ? 1l : 0l );
+		t0    = sum + high;
+		carry += Long.compareUnsigned( t0, sum ) < 0 ? 1l : 0l;
+		t1    = t2 + carry;
+		t2    = t3 + ( Long.compareUnsigned( t1, carry ) < 0 ? 1l : 0l );
+		
+		// The result is less than 2n
+		if ( t2 != 0l || Long.compareUnsigned( t1, n1 ) > 0 || t1 == n1 && Long.compareUnsigned( t0, n0 ) >= 0 ) {
+			final long borrow = Long.compareUnsigned( t0, n0 ) < 0 ? 1l : 0l;
+			t0 -= n0;
+			t1 -= n1 + borrow;
+		}
+		result[ 0 ] = t0;
+		result[ 1 ] = t1;
+	}
+	
+	/**
+	 * Multi-limb Montgomery product (CIOS).
+	 * @param a the first operand
+	 * @param b the second operand
+	 * @param result element to store the product in
+	 */
+	private void multiplyK( final long[] a, final long[] b, final long[] result ) {
+		final long[] t = scratch;
+		for ( int i = 0; i < t.length; i++ )
+			t[ i ] = 0l;
+		
+		for ( int i = 0; i < k; i++ ) {
+			// t += a * b[i]
+			final long bi = b[ i ];
+			long carry = 0l;
+			for ( int j = 0; j < k; j++ ) {
+				final long low  = a[ j ] * bi;
+				long       high = unsignedMultiplyHigh( a[ j ], bi );
+				final long sum  = t[ j ] + low;
+				high += Long.compareUnsigned( sum, low ) < 0 ? 1l : 0l;
+				t[ j ] = sum + carry;
+				high += Long.compareUnsigned( t[ j ], sum ) < 0 ? 1l : 0l;
+				carry = high;
+			}
+			long sum = t[ k ] + carry;
+			t[ k + 1 ] = Long.compareUnsigned( sum, carry ) < 0 ? 1l : 0l;
+			t[ k ] = sum;
+			
+			// t = ( t + m * n ) / 2^64
+			// The low word of t[0] + m * n[0] is 0, with a carry unless t[0] is 0
+			final long m = t[ 0 ] * nPrime;
+			carry = unsignedMultiplyHigh( m, nLimbs[ 0 ] ) + ( t[ 0 ] != 0l ? 1l : 0l );
+			for ( int j = 1; j < k; j++ ) {
+				final long low  = m * nLimbs[ j ];
+				long       high = unsignedMultiplyHigh( m, nLimbs[ j ] );
+				sum = t[ j ] + low;
+				high += Long.compareUnsigned( sum, low ) < 0 ? 1l : 0l;
+				t[ j - 1 ] = sum + carry;
+				high += Long.compareUnsigned( t[ j - 1 ], sum ) < 0 ? 1l : 0l;
+				carry = high;
+			}
+			sum = t[ k ] + carry;
+			t[ k - 1 ] = sum;
+			t[ k ] = t[ k + 1 ] + ( Long.compareUnsigned( sum, carry ) < 0 ? 1l : 0l );
+		}
+		
+		System.arraycopy( t, 0, result, 0, k );
+		// The result is less than 2n
+		if ( t[ k ] != 0l || !lessThanN( result ) )
+			subtractN( result );
+	}
+	
+	/**
+	 * Tells if an element is less than <code>n</code>.
+	 * @param a the element
+	 * @return true if the element is less than <code>n</code>; false otherwise
+	 */
+	private boolean lessThanN( final long[] a ) {
+		for ( int i = k - 1; i >= 0; i-- )
+			if ( a[ i ] != nLimbs[ i ] )
+				return Long.compareUnsigned( a[ i ], nLimbs[ i ] ) < 0;
+		return false;
+	}
+	
+	/**
+	 * Subtracts <code>n</code> from an element (modulo 2<sup>64k</sup>).
+	 * @param a the element
+	 */
+	private void subtractN( final long[] a ) {
+		long borrow = 0l;
+		for ( int i = 0; i < k; i++ ) {
+			final long difference = a[ i ] - nLimbs[ i ];
+			final long newBorrow  = ( Long.compareUnsigned( a[ i ], nLimbs[ i ] ) < 0 ? 1l : 0l ) + ( Long.compareUnsigned( difference, borrow ) < 0 ? 1l : 0l );
+			a[ i ]   = difference - borrow;
+			borrow = newBorrow;
+		}
+	}
+	
+	/**
+	 * Returns the high word of the unsigned 128-bit product of 2 unsigned 64-bit numbers.
+	 * @param a the first factor
+	 * @param b the second factor
+	 * @return the high word of the unsigned product
+	 */
+	private static long unsignedMultiplyHigh( final long a, final long b ) {
+		return Math.multiplyHigh( a, b ) + ( ( a >> 63 ) & b ) + ( ( b >> 63 ) & a );
+	}
+	
+	/**
+	 * Stores the low 64k bits of a non-negative number in limbs.
+	 * @param a the number
+	 * @param limbs the limbs to store the number in
+	 */
+	private static void toLimbs( final BigInteger a, final long[] limbs ) {
+		for ( int i = 0; i < limbs.length; i++ )
+			limbs[ i ] = a.shiftRight( i << 6 ).longValue();
+	}
+	
+}
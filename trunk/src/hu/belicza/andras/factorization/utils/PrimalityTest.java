@@ -0,0 +1,337 @@
+package hu.belicza.andras.factorization.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Primality tests.<br>
+ * <br>
+ * Numbers less than 2<sup>63</sup> are tested by a deterministic Miller-Rabin test: the bases 2, 7 and 61 prove
+ * primality below 4,759,123,141, and the 7 bases of Jim Sinclair prove it for all 64-bit numbers.
+ * The modular multiplications use Montgomery's reduction on <code>long</code>s, so no objects are created.<br>
+ * <br>
+ * Larger numbers are tested by the Baillie-PSW test: a strong probable prime test to base 2 followed by a
+ * strong Lucas probable prime test with Selfridge's parameters. No composite number is known to pass it.
+ *
+ * @author Andras Belicza
+ */
+public class PrimalityTest {
+	
+	/** Bases proving primality below 4,759,123,141.   */
+	private static final long[] SMALL_BASES      = new long[] { 2l, 7l, 61l };
+	/** Bases proving primality of all 64-bit numbers. */
+	private static final long[] LARGE_BASES      = new long[] { 2l, 325l, 9375l, 28178l, 450775l, 9780504l, 1795265022l };
+	/** Below this the product of 2 residues fits in a <code>long</code>. */
+	private static final long   MAX_SIMPLE_N     = 3037000499l;
+	/** The small primes checked by division first.    */
+	private static final int[]  SMALL_PRIMES     = new int[] { 2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89, 97 };
+	
+	/**
+	 * Tells if <code>n</code> is a prime.<br>
+	 * The result is exact below 2<sup>63</sup>, and the result of the Baillie-PSW test above.
+	 * @param n number to be tested
+	 * @return true if <code>n</code> is a prime; false otherwise
+	 */
+	public static boolean isPrime( final BigInteger n ) {
+		if ( n.bitLength() < 64 )
+			return isPrime( n.longValue() );
+		
+		final int[] limbs = BigIntegerMath.toIntLimbs( n );
+		for ( final int prime : SMALL_PRIMES )
+			if ( BigIntegerMath.remainder( limbs, prime ) == 0 )
+				return false;
+		
+		return isStrongProbablePrime( n, BigIntegerMath.TWO ) && isStrongLucasProbablePrime( n );
+	}
+	
+	/**
+	 * Tells if <code>n</code> is a prime by a deterministic Miller-Rabin test.
+	 * @param n number to be tested
+	 * @return true if <code>n</code> is a prime; false otherwise
+	 */
+	public static boolean isPrime( final long n ) {
+		if ( n < 2l )
+			return false;
+		
+		for ( final int prime : SMALL_PRIMES ) {
+			if ( n % prime == 0l )
+				return n == prime;
+		}
+		if ( n < 97l * 97l )
+			return true;
+		
+		final long d = ( n - 1 ) >> Long.numberOfTrailingZeros( n - 1 );
+		final int  s = Long.numberOfTrailingZeros( n - 1 );
+		
+		if ( n <= MAX_SIMPLE_N ) {
+			for ( final long base : SMALL_BASES )
+				if ( !isStrongProbablePrime( n, base, d, s ) )
+					return false;
+			return true;
+		}
+		
+		final Montgomery montgomery = new Montgomery( n );
+		for ( final long base : LARGE_BASES ) {
+			final long a = base % n;
+			if ( a != 0l && !montgomery.isStrongProbablePrime( a, d, s ) )
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Strong probable prime test with simple modular multiplication (for <code>n</code> up to {@link #MAX_SIMPLE_N}).
+	 * @param n number to be tested
+	 * @param base base of the test
+	 * @param d the odd part of <code>n-1</code>
+	 * @param s the exponent of 2 in <code>n-1</code>
+	 * @return true if <code>n</code> is a strong probable prime to <code>base</code>; false otherwise
+	 */
+	private static boolean isStrongProbablePrime( final long n, final long base, final long d, final int s ) {
+		long x = 1l;
+		long power = base % n;
+		for ( long e = d; e > 0l; e >>= 1 ) {
+			if ( ( e & 1l ) != 0l )
+				x = x * power % n;
+			power = power * power % n;
+		}
+		
+		if ( x == 1l || x == n - 1 )
+			return true;
+		for ( int r = 1; r < s; r++ ) {
+			x = x * x % n;
+			if ( x == n - 1 )
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Montgomery arithmetic modulo an odd <code>n</code> less than 2<sup>63</sup>, with <code>R=2<sup>64</sup></code>.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class Montgomery {
+		
+		/** The modulus.                                         */
+		private final long n;
+		/** <code>n<sup>-1</sup> mod 2<sup>64</sup></code>.       */
+		private final long nInverse;
+		/** <code>R mod n</code>: 1 in Montgomery form.           */
+		private final long one;
+		/** <code>R<sup>2</sup> mod n</code> for the conversion.  */
+		private final long rSquare;
+		
+		/**
+		 * Creates a new Montgomery.
+		 * @param n the modulus, odd and less than 2<sup>63</sup>
+		 */
+		public Montgomery( final long n ) {
+			this.n = n;
+			
+			// Newton's iteration doubles the correct low bits: n*n=1 mod 8 is a 3 bit start
+			long inverse = n;
+			for ( int i = 0; i < 5; i++ )
+				inverse *= 2l - n * inverse;
+			nInverse = inverse;
+			
+			one = Long.remainderUnsigned( -n, n );
+			long r = one;
+			for ( int i = 0; i < 64; i++ ) {
+				r <<= 1; // Doesn't overflow as an unsigned number since r < n < 2^63
+				if ( Long.compareUnsigned( r, n ) >= 0 )
+					r -= n;
+			}
+			rSquare = r;
+		}
+		
+		/**
+		 * Returns <code>a*b/R mod n</code>.
+		 * @param a the first factor, less than <code>n</code>
+		 * @param b the second factor, less than <code>n</code>
+		 * @return <code>a*b/R mod n</code>
+		 */
+		public long multiply( final long a, final long b ) {
+			final long high = Math.multiplyHigh( a, b ); // a, b < 2^63, so the signed high word is the unsigned one
+			final long low  = a * b;
+			final long m    = low * nInverse;
+			// m*n has the same low word as a*b, so the difference is exact in the high words
+			final long mnHigh = Math.multiplyHigh( m, n ) + ( ( m >> 63 ) & n );
+			final long result = high - mnHigh;
+			return result < 0l ? result + n : result;
+		}
+		
+		/**
+		 * Strong probable prime test.
+		 * @param base base of the test, less than <code>n</code>
+		 * @param d the odd part of <code>n-1</code>
+		 * @param s the exponent of 2 in <code>n-1</code>
+		 * @return true if <code>n</code> is a strong probable prime to <code>base</code>; false otherwise
+		 */
+		public boolean isStrongProbablePrime( final long base, final long d, final int s ) {
+			final long minusOne = n - one;
+			long x     = one;
+			long power = multiply( base, rSquare );
+			for ( long e = d; e > 0l; e >>= 1 ) {
+				if ( ( e & 1l ) != 0l )
+					x = multiply( x, power );
+				power = multiply( power, power );
+			}
+			
+			if ( x == one || x == minusOne )
+				return true;
+			for ( int r = 1; r < s; r++ ) {
+				x = multiply( x, x );
+				if ( x == minusOne )
+					return true;
+			}
+			return false;
+		}
+		
+	}
+	
+	/**
+	 * Strong probable prime test (one round of the Miller-Rabin test).
+	 * @param n odd number to be tested
+	 * @param base base of the test
+	 * @return true if <code>n</code> is a strong probable prime to <code>base</code>; false otherwise
+	 */
+	public static boolean isStrongProbablePrime( final BigInteger n, final BigInteger base ) {
+		final BigInteger nMinusOne = n.subtract( BigInteger.ONE );
+		final int        s         = nMinusOne.getLowestSetBit();
+		
+		BigInteger x = base.modPow( nMinusOne.shiftRight( s ), n );
+		if ( x.equals( BigInteger.ONE ) || x.equals( nMinusOne ) )
+			return true;
+		for ( int r = 1; r < s; r++ ) {
+			x = x.multiply( x ).mod( n );
+			if ( x.equals( nMinusOne ) )
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Strong Lucas probable prime test with Selfridge's parameters: <code>D</code> is the first of 5, -7, 9, -11, ...
+	 * with the Jacobi symbol <code>(D/n)=-1</code>, <code>P=1</code>, <code>Q=(1-D)/4</code>.
+	 * @param n odd number to be tested, not divisible by the small primes
+	 * @return true if <code>n</code> is a strong Lucas probable prime; false otherwise
+	 */
+	public static boolean isStrongLucasProbablePrime( final BigInteger n ) {
+		// No suitable D exists for squares
+		if ( BigIntegerMath.isPerfectSquare( n ) )
+			return false;
+		
+		long d = 5l;
+		while ( true ) {
+			final int jacobi = jacobi( d, n );
+			if ( jacobi == -1 )
+				break;
+			if ( jacobi == 0 && n.compareTo( BigInteger.valueOf( Math.abs( d ) ) ) > 0 )
+				return false;
+			d = d > 0l ? -d - 2l : -d + 2l;
+		}
+		
+		final BigInteger bigD = BigInteger.valueOf( d );
+		final BigInteger q    = BigInteger.valueOf( ( 1l - d ) / 4l );
+		
+		// n+1 = k*2^s with k odd
+		final BigInteger nPlusOne = n.add( BigInteger.ONE );
+		final int        s        = nPlusOne.getLowestSetBit();
+		final BigInteger k        = nPlusOne.shiftRight( s );
+		
+		// U_1=1, V_1=P=1, Q^1
+		BigInteger u  = BigInteger.ONE;
+		BigInteger v  = BigInteger.ONE;
+		BigInteger qk = q.mod( n );
+		for ( int bit = k.bitLength() - 2; bit >= 0; bit-- ) {
+			// Doubling: U_2j=U_j*V_j, V_2j=V_j^2-2Q^j
+			u  = u.multiply( v ).mod( n );
+			v  = v.multiply( v ).subtract( qk.shiftLeft( 1 ) ).mod( n );
+			qk = qk.multiply( qk ).mod( n );
+			if ( k.testBit( bit ) ) {
+				// Increment: U_j+1=(P*U_j+V_j)/2, V_j+1=(D*U_j+P*V_j)/2
+				final BigInteger newU = half( u.add( v ), n );
+				v  = half( bigD.multiply( u ).add( v ), n );
+				u  = newU;
+				qk = qk.multiply( q ).mod( n );
+			}
+		}
+		
+		if ( u.signum() == 0 || v.signum() == 0 )
+			return true;
+		for ( int r = 1; r < s; r++ ) {
+			v  = v.multiply( v ).subtract( qk.shiftLeft( 1 ) ).mod( n );
+			if ( v.signum() == 0 )
+				return true;
+			qk = qk.multiply( qk ).mod( n );
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns <code>x/2 mod n</code>.
+	 * @param x number to be halved
+	 * @param n odd modulus
+	 * @return <code>x/2 mod n</code>
+	 */
+	private static BigInteger half( BigInteger x, final BigInteger n ) {
+		x = x.mod( n );
+		if ( x.testBit( 0 ) )
+			x = x.add( n );
+		return x.shiftRight( 1 );
+	}
+	
+	/**
+	 * Returns the Jacobi symbol <code>(a/n)</code>.
+	 * @param a the numerator
+	 * @param n the denominator, odd and positive
+	 * @return the Jacobi symbol <code>(a/n)</code>
+	 */
+	private static int jacobi( long a, final BigInteger n ) {
+		int result = 1;
+		final int nMod8 = n.intValue() & 7;
+		if ( a < 0l ) {
+			a = -a;
+			// (-1/n)=-1 if n=3 mod 4
+			if ( ( nMod8 & 3 ) == 3 )
+				result = -result;
+		}
+		while ( ( a & 1l ) == 0l ) {
+			a >>= 1;
+			// (2/n)=-1 if n=3,5 mod 8
+			if ( nMod8 == 3 || nMod8 == 5 )
+				result = -result;
+		}
+		if ( a == 1l )
+			return result;
+		
+		// Reciprocity: (a/n)=(n/a) unless both are 3 mod 4
+		if ( ( a & 3l ) == 3l && ( nMod8 & 3 ) == 3 )
+			result = -result;
+		return result * jacobi( n.mod( BigInteger.valueOf( a ) ).longValue(), a );
+	}
+	
+	/**
+	 * Returns the Jacobi symbol <code>(a/n)</code>.
+	 * @param a the numerator, non-negative
+	 * @param n the denominator, odd and positive
+	 * @return the Jacobi symbol <code>(a/n)</code>
+	 */
+	private static int jacobi( long a, long n ) {
+		int result = 1;
+		while ( a != 0l ) {
+			while ( ( a & 1l ) == 0l ) {
+				a >>= 1;
+				final long nMod8 = n & 7l;
+				if ( nMod8 == 3l || nMod8 == 5l )
+					result = -result;
+			}
+			final long temp = a; a = n; n = temp;
+			if ( ( a & 3l ) == 3l && ( n & 3l ) == 3l )
+				result = -result;
+			a %= n;
+		}
+		return n == 1l ? result : 0;
+	}
+	
+}
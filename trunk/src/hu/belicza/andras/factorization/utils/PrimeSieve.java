@@ -0,0 +1,240 @@
+package hu.belicza.andras.factorization.utils;
+
+import java.util.Arrays;
+
+/**
+ * Segmented Sieve of Eratosthenes, an iterator over the prime numbers in ascending order.<br>
+ * <br>
+ * Only odd numbers are sieved, one bit per number in a cache sized segment. The memory used is
+ * the segment plus the base primes up to the square root of the current segment's end
+ * (and their next multiples), so the primes can be walked with bounded memory.<br>
+ * <br>
+ * The sieve produces primes up to about 2<sup>62</sup>.<br>
+ * <br>
+ * The segments covered by the default {@link PrimeTable} are copied from the table instead of being sieved,
+ * the base primes are only needed above the table.
+ *
+ * @author Andras Belicza
+ */
+public class PrimeSieve {
+	
+	/** Number of odd numbers sieved in a segment (32 KB of bits). */
+	private static final int   SEGMENT_BITS  = 32 * 1024 * 8;
+	/** Bound of the small primes sieved directly.                  */
+	private static final int   SMALL_BOUND   = 1 << 16;
+	/** Odd primes less than {@link #SMALL_BOUND}.                  */
+	private static final int[] SMALL_PRIMES  = sieveSmallPrimes( SMALL_BOUND );
+	
+	/** The bits of the current segment: a set bit means a composite. */
+	private final long[] segment = new long[ SEGMENT_BITS >> 6 ];
+	/** The first (odd) number of the current segment.                */
+	private long         segmentStart;
+	/** Index of the next bit to be examined in the current segment.   */
+	private int          bitIndex;
+	
+	/** Base primes used to sieve the segments.                        */
+	private long[]       basePrimes     = new long[ 64 ];
+	/** The next odd multiple of the base primes to be crossed out.    */
+	private long[]       nextMultiples  = new long[ 64 ];
+	/** Number of base primes used.                                    */
+	private int          basePrimesCount;
+	/** Source of the base primes above {@link #SMALL_BOUND}.          */
+	private PrimeSieve   largeBasePrimeSource;
+	/** The next base prime candidate not yet added to the base primes. */
+	private long         nextBasePrime  = -1l;
+	/** Index of the next small prime to be used as base prime.         */
+	private int          smallPrimeIndex;
+	
+	/** Number of primes returned so far.                              */
+	private long         primeIndex;
+	/** Number of segments sieved so far.                              */
+	private long         segmentCount;
+	
+	/** The prime table to copy the segments from, optional.           */
+	private final PrimeTable primeTable;
+	
+	/**
+	 * Creates a new PrimeSieve starting from 2.
+	 */
+	public PrimeSieve() {
+		this( 2l, 0l );
+	}
+	
+	/**
+	 * Creates a new PrimeSieve starting from <code>start</code>: the first returned prime is the smallest prime
+	 * greater than or equal to <code>start</code>.
+	 * @param start the number to start from
+	 * @param primeIndex number of primes less than <code>start</code> (to continue the prime index)
+	 */
+	public PrimeSieve( final long start, final long primeIndex ) {
+		this( start, primeIndex, PrimeTable.getDefault() );
+	}
+	
+	/**
+	 * Creates a new PrimeSieve starting from <code>start</code> which copies the segments from the given table instead of the default one.
+	 * @param start the number to start from
+	 * @param primeIndex number of primes less than <code>start</code> (to continue the prime index)
+	 * @param primeTable the prime table to copy the segments from, optional
+	 */
+	PrimeSieve( final long start, final long primeIndex, final PrimeTable primeTable ) {
+		this.primeTable = primeTable;
+		segmentStart    = 3l - 2l * SEGMENT_BITS;
+		bitIndex        = SEGMENT_BITS;
+		if ( start > 2l ) {
+			segmentStart    = ( start | 1l ) - 2l * SEGMENT_BITS;
+			this.primeIndex = primeIndex;
+		}
+	}
+	
+	/**
+	 * Returns the next prime.
+	 * @return the next prime
+	 */
+	public long nextPrime() {
+		if ( primeIndex == 0l ) {
+			primeIndex++;
+			return 2l;
+		}
+		
+		while ( true ) {
+			int wordIndex = bitIndex >> 6;
+			if ( wordIndex < segment.length ) {
+				// Examine the rest of the current word first
+				long word = ~segment[ wordIndex ] & ( -1l << ( bitIndex & 63 ) );
+				while ( word == 0l && ++wordIndex < segment.length )
+					word = ~segment[ wordIndex ];
+				
+				if ( word != 0l ) {
+					final int bit = ( wordIndex << 6 ) + Long.numberOfTrailingZeros( word );
+					bitIndex = bit + 1;
+					primeIndex++;
+					return segmentStart + 2l * bit;
+				}
+			}
+			
+			sieveNextSegment();
+		}
+	}
+	
+	/**
+	 * Returns the number of primes returned so far, which is the index of the last returned prime
+	 * (starting from 1): <code>pi(p)</code> where <code>p</code> is the last returned prime.
+	 * @return the number of primes returned so far
+	 */
+	public long getPrimeIndex() {
+		return primeIndex;
+	}
+	
+	/**
+	 * Returns the number of segments sieved so far (not counting the base prime sources).
+	 * @return the number of segments sieved so far
+	 */
+	public long getSegmentCount() {
+		return segmentCount;
+	}
+	
+	/**
+	 * Sieves the next segment.
+	 */
+	private void sieveNextSegment() {
+		segmentStart += 2l * SEGMENT_BITS;
+		bitIndex      = 0;
+		segmentCount++;
+		final long segmentEnd = segmentStart + 2l * SEGMENT_BITS; // Exclusive
+		
+		if ( primeTable != null && segmentEnd - 2l <= primeTable.getBound() ) {
+			primeTable.copyCompositeBits( ( segmentStart - 3l ) >> 1, segment );
+			return;
+		}
+		
+		// Extend the base primes up to the square root of the segment end
+		if ( nextBasePrime < 0l )
+			nextBasePrime = nextBasePrimeCandidate();
+		while ( nextBasePrime * nextBasePrime < segmentEnd ) {
+			if ( basePrimesCount == basePrimes.length ) {
+				basePrimes    = Arrays.copyOf( basePrimes   , basePrimesCount << 1 );
+				nextMultiples = Arrays.copyOf( nextMultiples, basePrimesCount << 1 );
+			}
+			// The first segment of a sieve not started from 2 might be above the square of the base prime
+			long firstMultiple = Math.max( nextBasePrime * nextBasePrime, ( segmentStart + nextBasePrime - 1l ) / nextBasePrime * nextBasePrime );
+			if ( ( firstMultiple & 1l ) == 0l )
+				firstMultiple += nextBasePrime;
+			basePrimes   [ basePrimesCount   ] = nextBasePrime;
+			nextMultiples[ basePrimesCount++ ] = firstMultiple;
+			nextBasePrime = nextBasePrimeCandidate();
+		}
+		
+		Arrays.fill( segment, 0l );
+		
+		for ( int i = 0; i < basePrimesCount; i++ ) {
+			final long prime    = basePrimes[ i ];
+			long       multiple = nextMultiples[ i ];
+			
+			final long step = prime << 1;
+			for ( ; multiple < segmentEnd; multiple += step ) {
+				final int bit = (int) ( ( multiple - segmentStart ) >> 1 );
+				segment[ bit >> 6 ] |= 1l << bit;
+			}
+			nextMultiples[ i ] = multiple;
+		}
+	}
+	
+	/**
+	 * Returns the next odd prime to be used as a base prime.
+	 * @return the next odd prime to be used as a base prime
+	 */
+	private long nextBasePrimeCandidate() {
+		if ( smallPrimeIndex < SMALL_PRIMES.length )
+			return SMALL_PRIMES[ smallPrimeIndex++ ];
+		
+		if ( largeBasePrimeSource == null ) {
+			largeBasePrimeSource = new PrimeSieve();
+			long prime;
+			while ( ( prime = largeBasePrimeSource.nextPrime() ) < SMALL_BOUND )
+				;
+			return prime;
+		}
+		
+		return largeBasePrimeSource.nextPrime();
+	}
+	
+	/**
+	 * Returns the odd primes less than <code>bound</code> using a simple Sieve of Eratosthenes.
+	 * @param bound the bound of the primes
+	 * @return the odd primes less than <code>bound</code>
+	 */
+	private static int[] sieveSmallPrimes( final int bound ) {
+		final boolean[] composite = new boolean[ bound ];
+		int count = 0;
+		for ( int i = 3; i < bound; i += 2 )
+			if ( !composite[ i ] ) {
+				count++;
+				for ( long j = (long) i * i; j < bound; j += i << 1 )
+					composite[ (int) j ] = true;
+			}
+			
+		final int[] primes = new int[ count ];
+		count = 0;
+		for ( int i = 3; i < bound; i += 2 )
+			if ( !composite[ i ] )
+				primes[ count++ ] = i;
+		
+		return primes;
+	}
+	
+	/**
+	 * Returns an estimation of the number of primes less than or equal to <code>x</code>: <code>pi(x)</code>.<br>
+	 * Uses Legendre's approximation: <code>pi(x) ~ x/(ln(x)-1.08366)</code>.
+	 * @param x the upper bound of the primes to be counted
+	 * @return an estimation of the number of primes less than or equal to <code>x</code>
+	 */
+	public static double estimatePrimeCount( final double x ) {
+		if ( x < 2.0 )
+			return 0.0;
+		if ( x < 11.0 )
+			return x < 3.0 ? 1.0 : x < 5.0 ? 2.0 : x < 7.0 ? 3.0 : 4.0;
+		
+		return x / ( Math.log( x ) - 1.08366 );
+	}
+	
+}
@@ -0,0 +1,252 @@
+package hu.belicza.andras.factorization.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A precomputed prime table file, memory-mapped read-only.<br>
+ * <br>
+ * The table is a bitmap of the odd numbers from 3 up to the bound in the layout of the segments of {@link PrimeSieve}:
+ * bit <code>i</code> (bit <code>i &amp; 63</code> of the little-endian word <code>i &gt;&gt; 6</code>) stands for
+ * <code>3 + 2i</code>, and a set bit means a composite. The table up to 2<sup>32</sup> is 256 MB, the maximum bound is 2<sup>34</sup>.
+ * The file starts with a header: magic number, version, the bound and the number of primes up to the bound.<br>
+ * <br>
+ * {@link PrimeSieve} copies its segments from the default table instead of sieving them while they are covered by the table,
+ * so every prime iteration (trial division stages, factor bases, stage bounds) walks the table with no allocation per prime.
+ * Mapping takes no time regardless of the size, and the processes mapping the same file share one copy in the page cache.<br>
+ * <br>
+ * The default table is the file given by the {@value #TABLE_FILE_PROPERTY} system property.
+ * The table files are created by the {@link #main(String[])} tool.
+ *
+ * @author Andras Belicza
+ */
+public class PrimeTable {
+	
+	/** Name of the system property of the default table file. */
+	public static final String TABLE_FILE_PROPERTY = "hu.belicza.andras.factorization.primeTable";
+	
+	/** Magic number at the beginning of the table file.  */
+	private static final int  MAGIC       = 0x5054424c; // "PTBL"
+	/** Version of the table file format.                 */
+	private static final int  VERSION     = 1;
+	/** Size of the header in bytes.                      */
+	private static final int  HEADER_SIZE = 32;
+	/** Maximum bound (the table is mapped as a whole, a mapping is limited to 2 GB). */
+	private static final long MAX_BOUND   = 1l << 34;
+	
+	/**
+	 * Holder of the default table, opened when first used.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class DefaultHolder {
+		/** The default table, <code>null</code> if there is none. */
+		public static final PrimeTable DEFAULT_TABLE = openDefault();
+	}
+	
+	/** The mapped table file.                */
+	private final MappedByteBuffer buffer;
+	/** The bound of the table.               */
+	private final long             bound;
+	/** Number of primes up to the bound.     */
+	private final long             primeCount;
+	/** Number of words of the bitmap.        */
+	private final long             wordCount;
+	
+	/**
+	 * Creates a new PrimeTable.
+	 * @param buffer the mapped table file
+	 */
+	private PrimeTable( final MappedByteBuffer buffer ) {
+		this.buffer = buffer;
+		bound       = buffer.getLong( 8 );
+		primeCount  = buffer.getLong( 16 );
+		wordCount   = ( buffer.capacity() - HEADER_SIZE ) >> 3;
+	}
+	
+	/**
+	 * Returns the default table.
+	 * @return the default table; <code>null</code> if the {@value #TABLE_FILE_PROPERTY} system property is not set or the table can't be opened
+	 */
+	public static PrimeTable getDefault() {
+		return DefaultHolder.DEFAULT_TABLE;
+	}
+	
+	/**
+	 * Opens the default table.
+	 * @return the default table; <code>null</code> if there is none
+	 */
+	private static PrimeTable openDefault() {
+		final String tableFileName = System.getProperty( TABLE_FILE_PROPERTY );
+		if ( tableFileName == null )
+			return null;
+		
+		try {
+			return open( new File( tableFileName ) );
+		} catch ( final IOException ie ) {
+			// The primes are sieved without it
+			System.err.println( "Failed to open the prime table: " + ie.getMessage() );
+			return null;
+		}
+	}
+	
+	/**
+	 * Opens a table file.
+	 * @param tableFile the table file
+	 * @return the opened table
+	 * @throws IOException if the file is not a valid table file or opening it fails
+	 */
+	public static PrimeTable open( final File tableFile ) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile( tableFile, "r" );
+		try {
+			final FileChannel channel = file.getChannel();
+			if ( channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE )
+				throw new IOException( "Not a prime table file: " + tableFile );
+			
+			final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0l, channel.size() );
+			buffer.order( ByteOrder.LITTLE_ENDIAN );
+			if ( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION || ( channel.size() - HEADER_SIZE & 7 ) != 0 )
+				throw new IOException( "Not a prime table file: " + tableFile );
+			
+			// A truncated bitmap would make the primes beyond its end disappear silently
+			final long bound = buffer.getLong( 8 );
+			if ( bound < 3l || bound > MAX_BOUND || channel.size() - HEADER_SIZE >> 3 < ( ( bound - 1l >> 1 ) + 63l ) >> 6 )
+				throw new IOException( "Corrupt prime table file, the bitmap doesn't cover the bound " + bound + ": " + tableFile );
+			
+			return new PrimeTable( buffer );
+		} finally {
+			// The mapping stays valid after closing the file
+			file.close();
+		}
+	}
+	
+	/**
+	 * Returns the bound of the table: the primes up to the bound are in the table.
+	 * @return the bound of the table
+	 */
+	public long getBound() {
+		return bound;
+	}
+	
+	/**
+	 * Returns the number of primes up to the bound.
+	 * @return the number of primes up to the bound
+	 */
+	public long getPrimeCount() {
+		return primeCount;
+	}
+	
+	/**
+	 * Copies the composite bits of consecutive odd numbers into words, in the layout of the segments of {@link PrimeSieve}.<br>
+	 * The bits of the numbers above the bound are undefined.
+	 * @param firstBit index of the bit of the first odd number: <code>(first - 3) / 2</code>
+	 * @param words the words to copy the bits into
+	 */
+	void copyCompositeBits( final long firstBit, final long[] words ) {
+		final long firstWord = firstBit >> 6;
+		final int  shift     = (int) ( firstBit & 63 );
+		
+		if ( shift == 0 )
+			for ( int i = 0; i < words.length; i++ )
+				words[ i ] = getWord( firstWord + i );
+		else
+			for ( int i = 0; i < words.length; i++ )
+				words[ i ] = getWord( firstWord + i ) >>> shift | getWord( firstWord + i + 1 ) << 64 - shift;
+	}
+	
+	/**
+	 * Returns a word of the bitmap.
+	 * @param index index of the word
+	 * @return the word of the bitmap; all composites beyond the bitmap
+	 */
+	private long getWord( final long index ) {
+		return index < wordCount ? buffer.getLong( HEADER_SIZE + (int) ( index << 3 ) ) : -1l;
+	}
+	
+	/**
+	 * Writes a table file.<br>
+	 * The table is written to <code>file.tmp</code> first, which is then moved to <code>file</code>.
+	 * @param tableFile file to write the table to
+	 * @param bound the bound of the table
+	 * @throws IOException if writing the file fails
+	 */
+	public static void write( final File tableFile, final long bound ) throws IOException {
+		if ( bound < 3l || bound > MAX_BOUND )
+			throw new IllegalArgumentException( "The bound must be in the range of 3.." + MAX_BOUND + "!" );
+		
+		final File             tempFile  = new File( tableFile.getPath() + ".tmp" );
+		final long             wordCount = ( ( bound - 1l >> 1 ) + 63l ) >> 6;
+		final DataOutputStream output    = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ), 1 << 16 ) );
+		long primeCount = 1l; // 2 is not in the table
+		try {
+			output.writeInt( Integer.reverseBytes( MAGIC ) );
+			output.writeInt( Integer.reverseBytes( VERSION ) );
+			output.writeLong( Long.reverseBytes( bound ) );
+			output.writeLong( 0l ); // Prime count, written at the end
+			output.writeLong( 0l );
+			
+			final PrimeSieve primeSieve = new PrimeSieve();
+			primeSieve.nextPrime();
+			long wordIndex = 0l;
+			long word      = -1l;
+			for ( long prime = primeSieve.nextPrime(); prime <= bound; prime = primeSieve.nextPrime() ) {
+				final long bit = ( prime - 3l ) >> 1;
+				for ( ; wordIndex < bit >> 6; wordIndex++, word = -1l )
+					output.writeLong( Long.reverseBytes( word ) );
+				word &= ~( 1l << bit );
+				primeCount++;
+			}
+			for ( ; wordIndex < wordCount; wordIndex++, word = -1l )
+				output.writeLong( Long.reverseBytes( word ) );
+		} finally {
+			output.close();
+		}
+		
+		final RandomAccessFile file = new RandomAccessFile( tempFile, "rw" );
+		try {
+			file.seek( 16 );
+			file.writeLong( Long.reverseBytes( primeCount ) );
+		} finally {
+			file.close();
+		}
+		
+		Files.move( tempFile.toPath(), tableFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+	
+	/**
+	 * Entry point of the table file tool.
+	 * @param arguments the command line arguments: <code>&lt;bound&gt; &lt;file&gt;</code>
+	 */
+	public static void main( final String[] arguments ) {
+		if ( arguments.length != 2 ) {
+			System.err.println( "Usage: PrimeTable <bound> <file>" );
+			System.exit( 1 );
+			return;
+		}
+		
+		try {
+			final long startNanos = System.nanoTime();
+			final File tableFile  = new File( arguments[ 1 ] );
+			write( tableFile, Long.parseLong( arguments[ 0 ] ) );
+			final PrimeTable primeTable = open( tableFile );
+			System.out.println( "Written " + primeTable.getPrimeCount() + " primes up to " + primeTable.getBound() + " in "
+				+ ( System.nanoTime() - startNanos ) / 1000000l + " ms (" + tableFile.length() + " bytes)." );
+		} catch ( final IllegalArgumentException iae ) {
+			System.err.println( iae.getMessage() );
+			System.exit( 1 );
+		} catch ( final IOException ie ) {
+			ie.printStackTrace();
+			System.exit( 1 );
+		}
+	}
+	
+}
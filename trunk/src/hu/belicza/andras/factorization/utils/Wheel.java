@@ -0,0 +1,159 @@
+package hu.belicza.andras.factorization.utils;
+
+import java.math.BigInteger;
+
+/**
+ * A factorization wheel to generate trial division candidates.<br>
+ * <br>
+ * A wheel is built from the first few primes (the base primes). The candidates generated by the wheel
+ * are the numbers coprime to the product of the base primes (the modulus), so multiples of the base primes
+ * are skipped. The candidates are generated by adding precomputed gaps.<br>
+ * <br>
+ * Usage: test the {@link #getBasePrimes()} first, then start from {@link #getFirstCandidate()} with
+ * gap index {@link #getFirstGapIndex()}, and add the gaps returned by {@link #getGaps()} cyclically.
+ *
+ * @author Andras Belicza
+ */
+public class Wheel {
+	
+	/** The primes the wheels can be built from. */
+	private static final int[] SMALL_PRIMES = new int[] { 2, 3, 5, 7, 11, 13 };
+	
+	/** Wheel skipping the multiples of 2, 3 and 5.         */
+	public static final Wheel MOD_30   = new Wheel( 3 );
+	/** Wheel skipping the multiples of 2, 3, 5 and 7.      */
+	public static final Wheel MOD_210  = new Wheel( 4 );
+	/** Wheel skipping the multiples of 2, 3, 5, 7 and 11. */
+	public static final Wheel MOD_2310 = new Wheel( 5 );
+	
+	/** The base primes of the wheel.                                     */
+	private final int[]        basePrimes;
+	/** The modulus of the wheel, the product of the base primes.         */
+	private final int          modulus;
+	/** The residues coprime to the modulus in ascending order.           */
+	private final int[]        residues;
+	/** The gaps between the consecutive residues (cyclically).           */
+	private final int[]        gaps;
+	/** The gaps as {@link BigInteger}s to avoid conversion in the loops. */
+	private final BigInteger[] bigGaps;
+	
+	/**
+	 * Creates a new Wheel.
+	 * @param basePrimeCount number of the base primes (the first <code>basePrimeCount</code> primes are used)
+	 */
+	public Wheel( final int basePrimeCount ) {
+		if ( basePrimeCount < 2 || basePrimeCount > SMALL_PRIMES.length )
+			throw new IllegalArgumentException( "Base prime count must be between 2 and " + SMALL_PRIMES.length + "!" );
+		
+		basePrimes = new int[ basePrimeCount ];
+		int modulus = 1;
+		int phi     = 1;
+		for ( int i = 0; i < basePrimeCount; i++ ) {
+			basePrimes[ i ] = SMALL_PRIMES[ i ];
+			modulus *= SMALL_PRIMES[ i ];
+			phi     *= SMALL_PRIMES[ i ] - 1;
+		}
+		this.modulus = modulus;
+		
+		residues = new int[ phi ];
+		int count = 0;
+		for ( int r = 1; r < modulus; r++ ) {
+			boolean coprime = true;
+			for ( final int prime : basePrimes )
+				if ( r % prime == 0 ) {
+					coprime = false;
+					break;
+				}
+			if ( coprime )
+				residues[ count++ ] = r;
+		}
+		
+		gaps    = new int       [ phi ];
+		bigGaps = new BigInteger[ phi ];
+		for ( int i = 0; i < phi; i++ ) {
+			gaps   [ i ] = ( i + 1 < phi ? residues[ i + 1 ] : modulus + residues[ 0 ] ) - residues[ i ];
+			bigGaps[ i ] = BigInteger.valueOf( gaps[ i ] );
+		}
+	}
+	
+	/**
+	 * Returns the base primes of the wheel. The returned array must not be modified.
+	 * @return the base primes of the wheel
+	 */
+	public int[] getBasePrimes() {
+		return basePrimes;
+	}
+	
+	/**
+	 * Returns the modulus of the wheel (the product of the base primes).
+	 * @return the modulus of the wheel
+	 */
+	public int getModulus() {
+		return modulus;
+	}
+	
+	/**
+	 * Returns the gaps between the consecutive candidates. The returned array must not be modified.
+	 * @return the gaps between the consecutive candidates
+	 */
+	public int[] getGaps() {
+		return gaps;
+	}
+	
+	/**
+	 * Returns the gaps between the consecutive candidates as {@link BigInteger}s.
+	 * The returned array must not be modified.
+	 * @return the gaps between the consecutive candidates as {@link BigInteger}s
+	 */
+	public BigInteger[] getBigGaps() {
+		return bigGaps;
+	}
+	
+	/**
+	 * Returns the first candidate after the base primes (which is the next prime after the base primes).
+	 * @return the first candidate after the base primes
+	 */
+	public int getFirstCandidate() {
+		return residues[ 1 ];
+	}
+	
+	/**
+	 * Returns the gap index belonging to the first candidate.
+	 * @return the gap index belonging to the first candidate
+	 */
+	public int getFirstGapIndex() {
+		return 1;
+	}
+	
+	/**
+	 * Returns the gap index belonging to a candidate.
+	 * @param candidate candidate whose gap index to be returned
+	 * @return the gap index belonging to the candidate or -1 if <code>candidate</code> is not generated by this wheel
+	 */
+	public int getGapIndex( final long candidate ) {
+		final int residue = (int) ( candidate % modulus );
+		
+		int min = 0;
+		int max = residues.length - 1;
+		while ( min <= max ) {
+			final int middle = ( min + max ) >>> 1;
+			if ( residues[ middle ] < residue )
+				min = middle + 1;
+			else if ( residues[ middle ] > residue )
+				max = middle - 1;
+			else
+				return middle;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Returns the density of the candidates: the ratio of the candidates among all numbers.
+	 * @return the density of the candidates
+	 */
+	public double getDensity() {
+		return (double) gaps.length / modulus;
+	}
+	
+}
@@ -2,6 +2,7 @@ package hu.belicza.andras.factorization.view;
 
 import hu.belicza.andras.factorization.algorithm.Algorithm;
 import hu.belicza.andras.factorization.algorithm.AlgorithmState;
+import hu.belicza.andras.factorization.algorithm.Checkpoint;
 import hu.belicza.andras.factorization.control.AlgorithmCompletionListener;
 import hu.belicza.andras.factorization.control.AlgorithmRunner;
 
@@ -12,6 +13,8 @@ import java.awt.Container;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Random;
 import java.util.Timer;
@@ -30,6 +33,7 @@ import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
 import javax.swing.JSpinner;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.UIManager;
 
@@ -75,16 +79,28 @@ public class FactorizationFrame extends JFrame {
 	
 	private static final AlgorithmSpecifier[] availableAlgorithms = new AlgorithmSpecifier[] {
 		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.SquareNumberFactorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.LehmanFactorization.class ),
 		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.BasicFactorization.class ),
 		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.TryingPrimesFactorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.ParallelTrialDivisionFactorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.PollardRhoFactorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.PollardPMinus1Factorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.EcmFactorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.SiqsFactorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.PrimeFactorization.class ),
+		new AlgorithmSpecifier( hu.belicza.andras.factorization.algorithm.PortfolioFactorization.class ),
 	};
 	
-	private static final int COMPLETION_PROGRESS_BAR_MAX = 1000;
+	private static final int  COMPLETION_PROGRESS_BAR_MAX = 1000;
+	/** Time between 2 checkpoints in milliseconds. */
+	private static final long CHECKPOINT_INTERVAL_MILLIS  = 60000l;
 	
 	/** Option to start a new algorithm.                   */
 	private final JRadioButton startNewAlgorithmRadioButton        = new JRadioButton( "Start a new algorithm" );
-	/** Option to resume an algorithm from a state.        */
-	private final JRadioButton resumeAlgorithmRadioButton          = new JRadioButton( "Resume algorithm from a state" );
+	/** Option to resume an algorithm from a checkpoint.   */
+	private final JRadioButton resumeAlgorithmRadioButton          = new JRadioButton( "Resume algorithm from the checkpoint file" );
+	/** Checkpoint file to write and resume from.          */
+	private final JTextField   checkpointFileTextField             = new JTextField( 25 );
 	/** Suspend algorithm execution button.                */
 	private final JButton      suspendAlgorithmButton              = new JButton( "Suspend execution" );
 	/** Text area to get and set the algorithm state.      */
@@ -146,6 +162,10 @@ public class FactorizationFrame extends JFrame {
 		panel = new JPanel();
 		panel.add( taskBox2 );
 		taskBox.add( panel );
+		panel = new JPanel();
+		panel.add( new JLabel( "Checkpoint file (optional):" ) );
+		panel.add( checkpointFileTextField );
+		taskBox.add( panel );
 		final ButtonGroup taskButtonGroup = new ButtonGroup();
 		taskButtonGroup.add( startNewAlgorithmRadioButton );
 		taskButtonGroup.add( resumeAlgorithmRadioButton );
@@ -250,10 +270,10 @@ public class FactorizationFrame extends JFrame {
 		resumeAlgorithmRadioButton.addActionListener( new ActionListener() {
 			@Override
 			public void actionPerformed( final ActionEvent event ) {
-				algorithmStateTextArea.setEditable( true );
-				algorithmStateTextArea.setBackground( Color.WHITE );
+				algorithmStateTextArea.setEditable( false );
+				algorithmStateTextArea.setBackground( INACTIVE_TEXT_AREA_BACKGROUND );
 				disableContainer( algorithmParamsBox );
-				algorithmStateTextArea.requestFocusInWindow();
+				checkpointFileTextField.requestFocusInWindow();
 			}
 		} );
 		factorizeRandomNumberRadioButton.addActionListener( new ActionListener() {
@@ -300,6 +320,7 @@ public class FactorizationFrame extends JFrame {
 				
 				startNewAlgorithmRadioButton.setEnabled( true );
 				resumeAlgorithmRadioButton.setEnabled( true );
+				checkpointFileTextField.setEnabled( true );
 				if ( startNewAlgorithmRadioButton.isSelected() )
 					startNewAlgorithmRadioButton.doClick();
 				else if ( resumeAlgorithmRadioButton.isSelected() )
@@ -328,7 +349,7 @@ public class FactorizationFrame extends JFrame {
 			
 			if ( component instanceof Box || component instanceof JPanel )
 				disableContainer( (Container) component );
-			else if ( component instanceof JRadioButton || component instanceof JSpinner || component instanceof JComboBox )
+			else if ( component instanceof JRadioButton || component instanceof JSpinner || component instanceof JComboBox || component instanceof JTextField )
 				component.setEnabled( false );
 			else if ( component instanceof JTextArea ) {
 				( (JTextArea) component ).setEditable( false );
@@ -343,6 +364,7 @@ public class FactorizationFrame extends JFrame {
 	private void startOrResumeAlgorithm() {
 		if ( algorithmRunner == null ) {
 			final Class< ? extends Algorithm> algorithmClass = ( (AlgorithmSpecifier) algorithmComboBox.getSelectedItem() ).algorithmClass;
+			final File checkpointFile = checkpointFileTextField.getText().length() == 0 ? null : new File( checkpointFileTextField.getText() );
 			
 			if ( startNewAlgorithmRadioButton.isSelected() ) {
 				BigInteger n = null;
@@ -356,14 +378,29 @@ public class FactorizationFrame extends JFrame {
 				algorithmRunner = new AlgorithmRunner( algorithmClass, n );
 			}
 			else if ( resumeAlgorithmRadioButton.isSelected() ) {
-				algorithmRunner = new AlgorithmRunner( algorithmClass, algorithmStateTextArea.getText() );
+				final Checkpoint checkpoint;
+				try {
+					if ( checkpointFile == null )
+						throw new IOException( "No checkpoint file specified!" );
+					checkpoint = Checkpoint.readFrom( checkpointFile );
+				} catch ( final IOException ie ) {
+					resultTextArea.setText( "Could not read the checkpoint: " + ie.getMessage() );
+					suspendAlgorithmButton.setEnabled( false );
+					return;
+				}
+				inputNumberTextArea.setText( checkpoint.n.toString() );
+				algorithmRunner = new AlgorithmRunner( checkpoint );
 			}
 			
+			if ( checkpointFile != null )
+				algorithmRunner.setCheckpointing( checkpointFile, CHECKPOINT_INTERVAL_MILLIS );
+			
+			final AlgorithmRunner runner = algorithmRunner;
 			algorithmRunner.addAlgorithmCompletionListener( new AlgorithmCompletionListener() {
 				@Override
 				public void algorithmCompleted( final BigInteger factor ) {
 					suspendAlgorithmButton.setEnabled( false );
-					resultTextArea.setText( factor.toString() );
+					resultTextArea.setText( factor == null ? "The algorithm failed: " + runner.getFailure() : factor.toString() );
 					refreshDisplayedAlgorithmState();
 					algorithmRunner = null;
 				}
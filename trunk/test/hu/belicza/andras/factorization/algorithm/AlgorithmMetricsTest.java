@@ -0,0 +1,51 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link AlgorithmMetrics}.
+ *
+ * @author Andras Belicza
+ */
+public class AlgorithmMetricsTest {
+	
+	/**
+	 * Checks that the counters of a reused algorithm belong to the last call only.
+	 */
+	@Test
+	public void resetOnReuse() {
+		final BigInteger n = BigInteger.valueOf( 10007l ).multiply( BigInteger.valueOf( 1000003l ) );
+		
+		final SquareNumberFactorization algorithm = new SquareNumberFactorization();
+		algorithm.getFactor( n );
+		final long candidates = algorithm.getMetrics().get( AlgorithmMetrics.Counter.CANDIDATES );
+		assertTrue( candidates > 0l );
+		
+		algorithm.getFactor( n );
+		assertEquals( candidates, algorithm.getMetrics().get( AlgorithmMetrics.Counter.CANDIDATES ) );
+	}
+	
+	/**
+	 * Checks that the counters carried over to a resumed algorithm are kept.
+	 */
+	@Test
+	public void keptOnResume() {
+		final BigInteger n = BigInteger.valueOf( 10007l ).multiply( BigInteger.valueOf( 1000003l ) );
+		
+		final SquareNumberFactorization algorithm = new SquareNumberFactorization();
+		algorithm.getFactor( n );
+		final long candidates = algorithm.getMetrics().get( AlgorithmMetrics.Counter.CANDIDATES );
+		
+		// A checkpoint without payload restarts the search
+		final SquareNumberFactorization resumed = new SquareNumberFactorization();
+		resumed.getMetrics().addCounters( algorithm.getMetrics() );
+		resumed.getFactor( new Checkpoint( SquareNumberFactorization.class.getName(), n, 0l, new byte[ 0 ] ) );
+		assertEquals( 2l * candidates, resumed.getMetrics().get( AlgorithmMetrics.Counter.CANDIDATES ) );
+	}
+	
+}
@@ -0,0 +1,259 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link Checkpoint}: the file round trip, and resuming the algorithms writing checkpoints.<br>
+ * <br>
+ * The algorithms are stopped after a few checkpoints, so the last checkpoint is taken in the middle of the search.
+ * A new instance resumed from that checkpoint (read back from a file) has to write the same payload at its first poll,
+ * that is it has to continue at the same position, and another one has to find a factor.
+ *
+ * @author Andras Belicza
+ */
+public class CheckpointTest {
+	
+	/** Number of checkpoints the stopped runs write before they are stopped. */
+	private static final int STOPPED_CHECKPOINTS = 3;
+	
+	/** Directory of the checkpoint files. */
+	@TempDir
+	File tempDirectory;
+	
+	/**
+	 * Checks that the header and the payload values are read back from a checkpoint file.
+	 * @throws IOException if writing or reading the checkpoint fails
+	 */
+	@Test
+	public void fileRoundTrip() throws IOException {
+		final BigInteger n     = new BigInteger( "340282366920938463463374607431768211507" );
+		final BigInteger large = BigInteger.ONE.shiftLeft( 1000 ).subtract( BigInteger.ONE );
+		final Checkpoint.Builder builder = new Checkpoint.Builder().putInt( -1 ).putLong( Long.MIN_VALUE ).putBigInteger( BigInteger.ZERO )
+			.putBigInteger( large ).putBigInteger( large.negate() ).putLong( 42l );
+		final Checkpoint checkpoint = new Checkpoint( PollardRhoFactorization.class.getName(), n, 123456789l, builder.toByteArray() );
+		
+		final File file = new File( tempDirectory, "checkpoint" );
+		checkpoint.writeTo( file );
+		assertFalse( new File( tempDirectory, "checkpoint.tmp" ).exists(), "temporary file left" );
+		final Checkpoint readCheckpoint = Checkpoint.readFrom( file );
+		
+		assertEquals( checkpoint.algorithmClassName, readCheckpoint.algorithmClassName );
+		assertEquals( n, readCheckpoint.n );
+		assertEquals( 123456789l, readCheckpoint.executionTimeNanos );
+		assertTrue( readCheckpoint.hasPayload() );
+		
+		final Checkpoint.Reader reader = readCheckpoint.createReader();
+		assertEquals( -1, reader.getInt() );
+		assertEquals( Long.MIN_VALUE, reader.getLong() );
+		assertEquals( BigInteger.ZERO, reader.getBigInteger() );
+		assertEquals( large, reader.getBigInteger() );
+		assertEquals( large.negate(), reader.getBigInteger() );
+		assertEquals( 42l, reader.getLong() );
+	}
+	
+	/**
+	 * Checks that files which are not checkpoints are rejected.
+	 * @throws IOException if writing the test file fails
+	 */
+	@Test
+	public void rejectsInvalidFile() throws IOException {
+		final File file = new File( tempDirectory, "invalid" );
+		final FileOutputStream output = new FileOutputStream( file );
+		try {
+			output.write( new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 } );
+		} finally {
+			output.close();
+		}
+		
+		assertThrows( IOException.class, () -> Checkpoint.readFrom( file ) );
+	}
+	
+	/**
+	 * Checks that a checkpoint of another algorithm is rejected.
+	 */
+	@Test
+	public void rejectsCheckpointOfAnotherAlgorithm() {
+		final Checkpoint checkpoint = new Checkpoint( PollardRhoFactorization.class.getName(), BigInteger.valueOf( 91l ), 0l, new byte[ 0 ] );
+		assertThrows( IllegalArgumentException.class, () -> new SquareNumberFactorization().getFactor( checkpoint ) );
+	}
+	
+	/**
+	 * Checks resuming Pollard's rho.
+	 * @throws IOException if writing or reading the checkpoint fails
+	 */
+	@Test
+	public void pollardRho() throws IOException {
+		checkResume( BigInteger.valueOf( 1000000007l ).multiply( BigInteger.valueOf( 1000000009l ) ), SteppingRho::new );
+	}
+	
+	/**
+	 * Checks resuming Pollard's <code>p-1</code>, the factor is found in stage 2.
+	 * @throws IOException if writing or reading the checkpoint fails
+	 */
+	@Test
+	public void pollardPMinus1() throws IOException {
+		// 1000667-1 = 2*500333, 100000127-1 = 2*50000063
+		checkResume( BigInteger.valueOf( 1000667l ).multiply( BigInteger.valueOf( 100000127l ) ), SteppingPMinus1::new );
+	}
+	
+	/**
+	 * Checks resuming the square number factorization.
+	 * @throws IOException if writing or reading the checkpoint fails
+	 */
+	@Test
+	public void squareNumber() throws IOException {
+		checkResume( BigInteger.valueOf( 10007l ).multiply( BigInteger.valueOf( 1000003l ) ), SteppingSquareNumber::new );
+	}
+	
+	/**
+	 * Stops an algorithm after a few checkpoints, and resumes new instances from its last checkpoint.
+	 * @param n the number to be factorized, a product of 2 primes
+	 * @param factory creates the algorithm reporting its checkpoints to a stepper
+	 * @throws IOException if writing or reading the checkpoint fails
+	 */
+	private void checkResume( final BigInteger n, final Function< Stepper, Algorithm > factory ) throws IOException {
+		final Stepper   stoppedStepper = new Stepper( STOPPED_CHECKPOINTS );
+		final Algorithm stopped        = factory.apply( stoppedStepper );
+		stopped.requestCheckpoint();
+		assertNull( stopped.getFactor( n ), "the run was not stopped, n=" + n );
+		
+		final File file = new File( tempDirectory, "checkpoint" );
+		stopped.getCheckpoint().writeTo( file );
+		final Checkpoint checkpoint = Checkpoint.readFrom( file );
+		assertEquals( n, checkpoint.n );
+		assertEquals( stopped.getCheckpoint().executionTimeNanos, checkpoint.executionTimeNanos );
+		
+		final Stepper   resumedStepper = new Stepper( 1 );
+		final Algorithm resumed        = factory.apply( resumedStepper );
+		resumed.requestCheckpoint();
+		resumed.getFactor( checkpoint );
+		assertNotNull( resumedStepper.lastPayload, "no checkpoint of the resumed run, n=" + n );
+		assertArrayEquals( stoppedStepper.lastPayload, resumedStepper.lastPayload, "position of the resumed run, n=" + n );
+		assertTrue( resumed.getCheckpoint().executionTimeNanos >= checkpoint.executionTimeNanos, "execution time went back, n=" + n );
+		
+		final BigInteger factor = factory.apply( new Stepper( 0 ) ).getFactor( checkpoint );
+		assertTrue( factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0, "not a proper factor: " + factor + ", n=" + n );
+		assertEquals( BigInteger.ZERO, n.mod( factor ), "not a factor: " + factor + ", n=" + n );
+	}
+	
+	/**
+	 * Receives the checkpoints of an algorithm: requests the next one, and stops the algorithm after a given number of them.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class Stepper {
+		/** Number of checkpoints to be written before stopping. */
+		private int    checkpointsLeft;
+		/** The payload of the last checkpoint.                  */
+		private byte[] lastPayload;
+		
+		/**
+		 * Creates a new Stepper.
+		 * @param checkpoints number of checkpoints to be written before stopping
+		 */
+		public Stepper( final int checkpoints ) {
+			checkpointsLeft = checkpoints;
+		}
+		
+		/**
+		 * Called when the algorithm created a checkpoint.
+		 * @param algorithm the algorithm
+		 * @param checkpointBuilder the builder of the checkpoint payload
+		 */
+		public void checkpointCreated( final Algorithm algorithm, final Checkpoint.Builder checkpointBuilder ) {
+			lastPayload = checkpointBuilder.toByteArray();
+			if ( --checkpointsLeft > 0 )
+				algorithm.requestCheckpoint();
+			else
+				algorithm.stop();
+		}
+	}
+	
+	/**
+	 * Pollard's rho reporting its checkpoints to a stepper.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class SteppingRho extends PollardRhoFactorization {
+		/** The stepper receiving the checkpoints. */
+		private final Stepper stepper;
+		
+		/**
+		 * Creates a new SteppingRho.
+		 * @param stepper the stepper receiving the checkpoints
+		 */
+		public SteppingRho( final Stepper stepper ) {
+			this.stepper = stepper;
+		}
+		
+		@Override
+		protected void createCheckpoint( final Checkpoint.Builder checkpointBuilder ) {
+			super.createCheckpoint( checkpointBuilder );
+			stepper.checkpointCreated( this, checkpointBuilder );
+		}
+	}
+	
+	/**
+	 * Pollard's <code>p-1</code> reporting its checkpoints to a stepper.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class SteppingPMinus1 extends PollardPMinus1Factorization {
+		/** The stepper receiving the checkpoints. */
+		private final Stepper stepper;
+		
+		/**
+		 * Creates a new SteppingPMinus1.
+		 * @param stepper the stepper receiving the checkpoints
+		 */
+		public SteppingPMinus1( final Stepper stepper ) {
+			this.stepper = stepper;
+		}
+		
+		@Override
+		protected void createCheckpoint( final Checkpoint.Builder checkpointBuilder ) {
+			super.createCheckpoint( checkpointBuilder );
+			stepper.checkpointCreated( this, checkpointBuilder );
+		}
+	}
+	
+	/**
+	 * Square number factorization reporting its checkpoints to a stepper.
+	 *
+	 * @author Andras Belicza
+	 */
+	private static class SteppingSquareNumber extends SquareNumberFactorization {
+		/** The stepper receiving the checkpoints. */
+		private final Stepper stepper;
+		
+		/**
+		 * Creates a new SteppingSquareNumber.
+		 * @param stepper the stepper receiving the checkpoints
+		 */
+		public SteppingSquareNumber( final Stepper stepper ) {
+			this.stepper = stepper;
+		}
+		
+		@Override
+		protected void createCheckpoint( final Checkpoint.Builder checkpointBuilder ) {
+			super.createCheckpoint( checkpointBuilder );
+			stepper.checkpointCreated( this, checkpointBuilder );
+		}
+	}
+	
+}
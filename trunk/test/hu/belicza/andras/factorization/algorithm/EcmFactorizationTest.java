@@ -0,0 +1,56 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link EcmFactorization}.
+ *
+ * @author Andras Belicza
+ */
+public class EcmFactorizationTest {
+	
+	/**
+	 * Checks numbers with a small and a large factor.
+	 */
+	@Test
+	public void smallFactors() {
+		final EcmFactorization algorithm = new EcmFactorization();
+		algorithm.setParallelism( 2 );
+		checkSplit( algorithm, BigInteger.valueOf( 1000000007l ).multiply( new BigInteger( "1000000000000000000000000000057" ) ) );
+		checkSplit( algorithm, BigInteger.valueOf( 1000000000039l ).multiply( new BigInteger( "1000000000000000000000000000057" ) ) );
+		// Small primes are divided out before the curves
+		assertEquals( BigInteger.valueOf( 7l ), algorithm.getFactor( new BigInteger( "7000000000000000000000000000399" ) ) );
+	}
+	
+	/**
+	 * Checks that the number of curves run is limited, and that all are counted if no factor is found.
+	 */
+	@Test
+	public void curvesLimit() {
+		final EcmFactorization algorithm = new EcmFactorization();
+		algorithm.setParallelism( 2 );
+		algorithm.setB1( 100l );
+		algorithm.setB2( 1000l );
+		algorithm.setCurves( 10 );
+		final BigInteger n = new BigInteger( "10000000000000000051" ).multiply( new BigInteger( "30000000000000000041" ) );
+		assertEquals( BigInteger.ONE, algorithm.getFactor( n ) );
+		assertEquals( 10l, algorithm.getMetrics().get( AlgorithmMetrics.Counter.CURVES ) );
+	}
+	
+	/**
+	 * Checks that the algorithm returns a proper factor of <code>n</code>.
+	 * @param algorithm the algorithm to be checked
+	 * @param n the number to be split
+	 */
+	private static void checkSplit( final Algorithm algorithm, final BigInteger n ) {
+		final BigInteger factor = algorithm.getFactor( n );
+		assertTrue( factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0, "not a proper factor: " + factor + ", n=" + n );
+		assertEquals( BigInteger.ZERO, n.mod( factor ), "not a factor: " + factor + ", n=" + n );
+	}
+	
+}
@@ -0,0 +1,70 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link LehmanFactorization} on the whole supported range, including the numbers of 64 bits.
+ *
+ * @author Andras Belicza
+ */
+public class LehmanFactorizationTest {
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Checks random products of 2 primes of various sizes.
+	 */
+	@Test
+	public void randomSemiprimes() {
+		final LehmanFactorization algorithm = new LehmanFactorization();
+		for ( int bits = 8; bits <= 64; bits++ )
+			for ( int i = 0; i < 5; i++ ) {
+				final int        smallBits = 2 + random.nextInt( bits / 2 - 1 );
+				final BigInteger p         = BigInteger.probablePrime( smallBits, random );
+				final BigInteger q         = BigInteger.probablePrime( bits - smallBits, random );
+				checkSplit( algorithm, p.multiply( q ) );
+			}
+	}
+	
+	/**
+	 * Checks numbers of 64 bits (negative as signed <code>long</code>s): balanced factors found by the multipliers,
+	 * and unbalanced ones around the cube root found by the trial division.
+	 */
+	@Test
+	public void sixtyFourBits() {
+		final LehmanFactorization algorithm = new LehmanFactorization();
+		checkSplit( algorithm, BigInteger.valueOf( 4294967291l ).multiply( BigInteger.valueOf( 4294967279l ) ) );
+		checkSplit( algorithm, BigInteger.valueOf( 1000003l ).multiply( BigInteger.valueOf( 10000000000037l ) ) );
+		checkSplit( algorithm, BigInteger.valueOf( 2642257l ).multiply( BigInteger.valueOf( 4000000000039l ) ) );
+		checkSplit( algorithm, new BigInteger( "18446744073709551615" ) );
+	}
+	
+	/**
+	 * Checks that the numbers larger than 64 bits are rejected.
+	 */
+	@Test
+	public void rejectsLargeNumbers() {
+		final BigInteger n = BigInteger.valueOf( 4294967311l ).multiply( BigInteger.valueOf( 4294967357l ) );
+		assertThrows( IllegalArgumentException.class, () -> new LehmanFactorization().getFactor( n ) );
+	}
+	
+	/**
+	 * Checks that the algorithm returns a proper factor of <code>n</code>.
+	 * @param algorithm the algorithm to be checked
+	 * @param n the number to be split
+	 */
+	private static void checkSplit( final Algorithm algorithm, final BigInteger n ) {
+		final BigInteger factor = algorithm.getFactor( n );
+		assertTrue( factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0, "not a proper factor: " + factor + ", n=" + n );
+		assertEquals( BigInteger.ZERO, n.mod( factor ), "not a factor: " + factor + ", n=" + n );
+	}
+	
+}
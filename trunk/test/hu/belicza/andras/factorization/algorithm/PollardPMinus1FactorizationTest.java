@@ -0,0 +1,71 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link PollardPMinus1Factorization}.
+ *
+ * @author Andras Belicza
+ */
+public class PollardPMinus1FactorizationTest {
+	
+	/**
+	 * Checks the numbers sharing a factor with the base: the powers of the base would be 0 modulo that factor.
+	 */
+	@Test
+	public void factorOfTheBase() {
+		assertEquals( BigInteger.valueOf( 3l ), new PollardPMinus1Factorization().getFactor( BigInteger.valueOf( 9l ) ) );
+		assertEquals( BigInteger.valueOf( 3l ), new PollardPMinus1Factorization().getFactor( BigInteger.valueOf( 27l ) ) );
+		// 3 * 999999999989
+		assertEquals( BigInteger.valueOf( 3l ), new PollardPMinus1Factorization().getFactor( BigInteger.valueOf( 2999999999967l ) ) );
+	}
+	
+	/**
+	 * Checks a number whose factors are revealed by the same prime of stage 1 with the first base,
+	 * it has to be split with another base.
+	 */
+	@Test
+	public void factorsAtTheSamePrime() {
+		// 12251-1 = 2*5^3*7^2, 56701-1 = 2^2*3^4*5^2*7
+		checkSplit( new PollardPMinus1Factorization(), BigInteger.valueOf( 12251l ).multiply( BigInteger.valueOf( 56701l ) ) );
+	}
+	
+	/**
+	 * Checks factors found in stage 1 and in stage 2.
+	 */
+	@Test
+	public void stages() {
+		// 1000667-1 = 2*500333, 100000127-1 = 2*50000063
+		final BigInteger n = BigInteger.valueOf( 1000667l ).multiply( BigInteger.valueOf( 100000127l ) );
+		
+		final PollardPMinus1Factorization algorithm = new PollardPMinus1Factorization();
+		algorithm.setB1( 1000000l );
+		algorithm.setB2( 1000000l );
+		assertEquals( BigInteger.valueOf( 1000667l ), algorithm.getFactor( n ) );
+		
+		algorithm.setB1( 1000l );
+		algorithm.setB2( 1000000l );
+		assertEquals( BigInteger.valueOf( 1000667l ), algorithm.getFactor( n ) );
+		
+		algorithm.setB1( 1000l );
+		algorithm.setB2( 100000l );
+		assertEquals( BigInteger.ONE, algorithm.getFactor( n ) );
+	}
+	
+	/**
+	 * Checks that the algorithm returns a proper factor of <code>n</code>.
+	 * @param algorithm the algorithm to be checked
+	 * @param n the number to be split
+	 */
+	private static void checkSplit( final Algorithm algorithm, final BigInteger n ) {
+		final BigInteger factor = algorithm.getFactor( n );
+		assertTrue( factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0, "not a proper factor: " + factor + ", n=" + n );
+		assertEquals( BigInteger.ZERO, n.mod( factor ), "not a factor: " + factor + ", n=" + n );
+	}
+	
+}
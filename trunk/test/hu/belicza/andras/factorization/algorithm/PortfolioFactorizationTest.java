@@ -0,0 +1,174 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Tests of {@link PortfolioFactorization} with test algorithms: the first factor wins and the other algorithms are stopped
+ * (an algorithm which is not stopped would never return, so the race would not end), the invalid CPU shares are rejected,
+ * and a race without a winner returns 1.
+ *
+ * @author Andras Belicza
+ */
+public class PortfolioFactorizationTest {
+	
+	/** The factor returned by {@link FastAlgorithm}. */
+	private static final BigInteger P = BigInteger.valueOf( 1000000007l );
+	/** The factor returned by {@link SlowAlgorithm}. */
+	private static final BigInteger Q = BigInteger.valueOf( 1000000009l );
+	/** The number to be factorized.                  */
+	private static final BigInteger N = P.multiply( Q );
+	
+	/**
+	 * Checks that the first factor found wins, the algorithms giving up don't win, and the others are stopped,
+	 * also with CPU shares (the stop ends the suspensions of the time slicing).
+	 */
+	@Test
+	@Timeout( 10 )
+	public void firstFactorWins() {
+		final PortfolioStatistics    statistics = new PortfolioStatistics();
+		final PortfolioFactorization portfolio  = new PortfolioFactorization();
+		portfolio.setStatistics( statistics );
+		portfolio.setAlgorithms( Arrays.< Class< ? extends Algorithm > >asList( GivingUpAlgorithm.class, EndlessAlgorithm.class, SlowAlgorithm.class,
+			FastAlgorithm.class ) );
+			
+		assertEquals( P, portfolio.getFactor( N ) );
+		assertEquals( FastAlgorithm.class, portfolio.getWinner() );
+		
+		portfolio.setShares( 1.0, 0.25, 0.5, 1.0 );
+		assertEquals( P, portfolio.getFactor( N ) );
+		assertEquals( FastAlgorithm.class, portfolio.getWinner() );
+		assertEquals( Collections.singletonMap( FastAlgorithm.class.getName(), 2 ), statistics.getWins( N.bitLength() ) );
+		
+		// Without the fast one the slow one wins
+		final PortfolioFactorization slowPortfolio = new PortfolioFactorization();
+		slowPortfolio.setStatistics( statistics );
+		slowPortfolio.setAlgorithms( Arrays.< Class< ? extends Algorithm > >asList( GivingUpAlgorithm.class, EndlessAlgorithm.class, SlowAlgorithm.class ) );
+		assertEquals( Q, slowPortfolio.getFactor( N ) );
+		assertEquals( SlowAlgorithm.class, slowPortfolio.getWinner() );
+	}
+	
+	/**
+	 * Checks that the CPU shares out of range and a share count not matching the algorithm count are rejected.
+	 */
+	@Test
+	public void rejectsInvalidShares() {
+		final PortfolioFactorization portfolio = new PortfolioFactorization();
+		for ( final double share : new double[] { 0.0, -0.5, 1.5, Double.NaN, Double.POSITIVE_INFINITY } )
+			assertThrows( IllegalArgumentException.class, () -> portfolio.setShares( 0.5, share ), "share=" + share );
+			
+		portfolio.setAlgorithms( Arrays.< Class< ? extends Algorithm > >asList( GivingUpAlgorithm.class, FastAlgorithm.class ) );
+		portfolio.setShares( 0.5 );
+		assertThrows( IllegalArgumentException.class, () -> portfolio.getFactor( N ) );
+		portfolio.setShares( 0.5, 1.0 );
+		assertEquals( P, portfolio.getFactor( N ) );
+	}
+	
+	/**
+	 * Checks that the race without a winner returns 1, and no win is recorded.
+	 */
+	@Test
+	public void noWinner() {
+		final PortfolioStatistics    statistics = new PortfolioStatistics();
+		final PortfolioFactorization portfolio  = new PortfolioFactorization();
+		portfolio.setStatistics( statistics );
+		portfolio.setAlgorithms( Arrays.< Class< ? extends Algorithm > >asList( GivingUpAlgorithm.class, TrivialFactorAlgorithm.class ) );
+		
+		assertEquals( BigInteger.ONE, portfolio.getFactor( N ) );
+		assertNull( portfolio.getWinner() );
+		assertTrue( statistics.getWins( N.bitLength() ).isEmpty() );
+	}
+	
+	/**
+	 * Waits while polling the control word.
+	 * @param algorithm the waiting algorithm
+	 * @param millis time to wait in milliseconds
+	 * @return true if the wait was stopped; false otherwise
+	 */
+	private static boolean waitPolling( final Algorithm algorithm, final long millis ) {
+		final long deadline = System.currentTimeMillis() + millis;
+		while ( System.currentTimeMillis() < deadline ) {
+			if ( ( algorithm.pollControl() & Algorithm.STOP_REQUEST ) != 0 )
+				return true;
+			try {
+				Thread.sleep( 1l );
+			} catch ( final InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns {@link #P} after a short time.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class FastAlgorithm extends Algorithm {
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			return waitPolling( this, 20l ) ? null : P;
+		}
+	}
+	
+	/**
+	 * Returns {@link #Q} after a longer time.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class SlowAlgorithm extends Algorithm {
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			return waitPolling( this, 500l ) ? null : Q;
+		}
+	}
+	
+	/**
+	 * Never finds a factor, returns only when stopped.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class EndlessAlgorithm extends Algorithm {
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			while ( !waitPolling( this, 1000l ) )
+				;
+			return null;
+		}
+	}
+	
+	/**
+	 * Gives up at once, returns 1.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class GivingUpAlgorithm extends Algorithm {
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			return BigInteger.ONE;
+		}
+	}
+	
+	/**
+	 * Returns the trivial factor <code>n</code>.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class TrivialFactorAlgorithm extends Algorithm {
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			return n;
+		}
+	}
+	
+}
@@ -0,0 +1,128 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link PrimeFactorization}.
+ *
+ * @author Andras Belicza
+ */
+public class PrimeFactorizationTest {
+	
+	/** 2 primes of 50 bits, too large for the rho stage. */
+	private static final BigInteger P = BigInteger.valueOf( 1125899906842597l ), Q = BigInteger.valueOf( 1125899906842679l );
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Checks the factorization of products of random primes of various sizes (with repeated factors), reusing the instance.
+	 */
+	@Test
+	public void randomProducts() {
+		final PrimeFactorization algorithm = new PrimeFactorization();
+		algorithm.setParallelism( 2 );
+		for ( int i = 0; i < 20; i++ ) {
+			final List< BigInteger > primes = new ArrayList< BigInteger >();
+			BigInteger n = BigInteger.ONE;
+			for ( int j = 1 + random.nextInt( 5 ); j > 0; j-- ) {
+				final BigInteger prime = BigInteger.probablePrime( 2 + random.nextInt( 32 ), random );
+				for ( int k = 1 + random.nextInt( 2 ); k > 0; k-- ) {
+					primes.add( prime );
+					n = n.multiply( prime );
+				}
+			}
+			Collections.sort( primes );
+			
+			assertEquals( primes, algorithm.getPrimeFactors( n ), "n=" + n );
+			assertTrue( algorithm.getUnfactoredCofactors().isEmpty(), "n=" + n );
+			assertEquals( primes.get( 0 ), algorithm.getFactor( n ), "n=" + n );
+		}
+	}
+	
+	/**
+	 * Checks that a cofactor none of the stages could split is not reported as a prime.
+	 */
+	@Test
+	public void unfactoredCofactor() {
+		final PrimeFactorization algorithm = new PrimeFactorization();
+		algorithm.setParallelism( 2 );
+		algorithm.setStages( PrimeFactorization.RHO_STAGE );
+		
+		final BigInteger n = BigInteger.valueOf( 7l * 7l ).multiply( P ).multiply( Q );
+		assertEquals( BigInteger.valueOf( 7l ), algorithm.getFactor( n ) );
+		assertEquals( Arrays.asList( BigInteger.valueOf( 7l ), BigInteger.valueOf( 7l ) ), algorithm.getPrimeFactors() );
+		assertEquals( Arrays.asList( P.multiply( Q ) ), algorithm.getUnfactoredCofactors() );
+		
+		// Returning n would tell that it is a prime
+		assertThrows( IllegalStateException.class, () -> algorithm.getFactor( P.multiply( Q ) ) );
+		assertTrue( algorithm.getPrimeFactors().isEmpty() );
+		assertEquals( Arrays.asList( P.multiply( Q ) ), algorithm.getUnfactoredCofactors() );
+		
+		// The default stages can split it
+		algorithm.setStages( PrimeFactorization.RHO_STAGE, PrimeFactorization.P_MINUS_1_STAGE, PrimeFactorization.FINAL_STAGE );
+		assertEquals( Arrays.asList( P, Q ), algorithm.getPrimeFactors( P.multiply( Q ) ) );
+		assertTrue( algorithm.getUnfactoredCofactors().isEmpty() );
+	}
+	
+	/**
+	 * Checks that the cofactor of a failing stage is kept, and the failure is rethrown at the end.
+	 */
+	@Test
+	public void failingStage() {
+		final PrimeFactorization algorithm = new PrimeFactorization();
+		algorithm.setParallelism( 2 );
+		final RuntimeException failure = new RuntimeException( "stage failure" );
+		algorithm.setStages( new PrimeFactorization.Stage() {
+			@Override
+			public Algorithm createAlgorithm( final BigInteger n ) {
+				throw failure;
+			}
+		} );
+		
+		final BigInteger n = BigInteger.valueOf( 7l * 7l ).multiply( P ).multiply( Q );
+		final IllegalStateException ise = assertThrows( IllegalStateException.class, () -> algorithm.getFactor( n ) );
+		assertSame( failure, ise.getCause() );
+		assertEquals( Arrays.asList( BigInteger.valueOf( 7l ), BigInteger.valueOf( 7l ) ), algorithm.getPrimeFactors() );
+		assertEquals( Arrays.asList( P.multiply( Q ) ), algorithm.getUnfactoredCofactors() );
+		
+		// The failure is not carried over to the next run
+		algorithm.setStages( PrimeFactorization.FINAL_STAGE );
+		assertEquals( Arrays.asList( P, Q ), algorithm.getPrimeFactors( P.multiply( Q ) ) );
+		assertTrue( algorithm.getUnfactoredCofactors().isEmpty() );
+	}
+	
+	/**
+	 * Checks the trial division bounds: the small ones (down to 2) work, the ones out of range are rejected.
+	 */
+	@Test
+	public void trialDivisionBound() {
+		final PrimeFactorization algorithm = new PrimeFactorization();
+		algorithm.setParallelism( 2 );
+		
+		final BigInteger n = BigInteger.valueOf( 2l * 2l * 3l * 1000003l * 1000003l );
+		final List< BigInteger > primes = Arrays.asList( BigInteger.valueOf( 2l ), BigInteger.valueOf( 2l ), BigInteger.valueOf( 3l ),
+			BigInteger.valueOf( 1000003l ), BigInteger.valueOf( 1000003l ) );
+		for ( final long bound : new long[] { 2l, 3l, 10l, 1000l } ) {
+			algorithm.setTrialDivisionBound( bound );
+			assertEquals( primes, algorithm.getPrimeFactors( n ), "bound=" + bound );
+		}
+		
+		assertThrows( IllegalArgumentException.class, () -> algorithm.setTrialDivisionBound( 1l ) );
+		assertThrows( IllegalArgumentException.class, () -> algorithm.setTrialDivisionBound( 0l ) );
+		assertThrows( IllegalArgumentException.class, () -> algorithm.setTrialDivisionBound( 1l << 31 ) );
+	}
+	
+}
@@ -0,0 +1,67 @@
+package hu.belicza.andras.factorization.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link SiqsFactorization}.
+ *
+ * @author Andras Belicza
+ */
+public class SiqsFactorizationTest {
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Checks products of 2 random primes of equal size, reusing the instance.
+	 */
+	@Test
+	public void balancedSemiprimes() {
+		final SiqsFactorization algorithm = new SiqsFactorization();
+		algorithm.setParallelism( 2 );
+		for ( int bits = 40; bits <= 100; bits += 20 )
+			checkSplit( algorithm, BigInteger.probablePrime( bits / 2, random ).multiply( BigInteger.probablePrime( bits / 2, random ) ) );
+		checkSplit( algorithm, new BigInteger( "10000000000000000051" ).multiply( new BigInteger( "30000000000000000041" ) ) );
+	}
+	
+	/**
+	 * Checks a number with more than 2 prime factors.
+	 */
+	@Test
+	public void threeFactors() {
+		final SiqsFactorization algorithm = new SiqsFactorization();
+		algorithm.setParallelism( 2 );
+		checkSplit( algorithm, BigInteger.valueOf( 1000000007l ).multiply( BigInteger.valueOf( 1000000009l ) ).multiply( BigInteger.valueOf( 1000000021l ) ) );
+	}
+	
+	/**
+	 * Checks that prime powers are recognized before sieving (they only give trivial congruences).
+	 */
+	@Test
+	public void primePowers() {
+		final SiqsFactorization algorithm = new SiqsFactorization();
+		algorithm.setParallelism( 2 );
+		assertEquals( BigInteger.valueOf( 1048573l ), algorithm.getFactor( new BigInteger( "1152911609030508517" ) ) );
+		assertEquals( BigInteger.valueOf( 1000003l ), algorithm.getFactor( BigInteger.valueOf( 1000003l ).pow( 5 ) ) );
+		final BigInteger prime = BigInteger.probablePrime( 40, random );
+		assertEquals( prime, algorithm.getFactor( prime.pow( 2 ) ) );
+	}
+	
+	/**
+	 * Checks that the algorithm returns a proper factor of <code>n</code>.
+	 * @param algorithm the algorithm to be checked
+	 * @param n the number to be split
+	 */
+	private static void checkSplit( final Algorithm algorithm, final BigInteger n ) {
+		final BigInteger factor = algorithm.getFactor( n );
+		assertTrue( factor.compareTo( BigInteger.ONE ) > 0 && factor.compareTo( n ) < 0, "not a proper factor: " + factor + ", n=" + n );
+		assertEquals( BigInteger.ZERO, n.mod( factor ), "not a factor: " + factor + ", n=" + n );
+	}
+	
+}
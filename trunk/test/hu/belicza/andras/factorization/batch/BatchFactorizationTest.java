@@ -0,0 +1,199 @@
+package hu.belicza.andras.factorization.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hu.belicza.andras.factorization.algorithm.Algorithm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link BatchFactorization}: the results in input order and in completion order, the error lines,
+ * and the bound of the lines read but not yet written (backpressure).
+ *
+ * @author Andras Belicza
+ */
+public class BatchFactorizationTest {
+	
+	/**
+	 * Checks that the results are written in the order of the input even if the numbers complete in another order.
+	 * @throws IOException if reading the input fails
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	@Test
+	public void ordered() throws IOException, InterruptedException {
+		final List< String > lines    = createLines();
+		final List< String > expected = createExpectedResults( lines );
+		
+		final StringWriter output = new StringWriter();
+		new BatchFactorization( DelayedFactorization.class, 4, true, 8 ).run( createInput( lines ), new PrintWriter( output ) );
+		assertEquals( expected, readLines( output ) );
+	}
+	
+	/**
+	 * Checks that all the results are written in the order of completion: the slow numbers are written after the fast ones.
+	 * @throws IOException if reading the input fails
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	@Test
+	public void unordered() throws IOException, InterruptedException {
+		final List< String > lines    = createLines();
+		final List< String > expected = createExpectedResults( lines );
+		
+		final StringWriter output = new StringWriter();
+		new BatchFactorization( DelayedFactorization.class, 4, false, 8 ).run( createInput( lines ), new PrintWriter( output ) );
+		final List< String > results = readLines( output );
+		assertTrue( !expected.equals( results ), "the results are in input order" );
+		Collections.sort( expected );
+		Collections.sort( results );
+		assertEquals( expected, results );
+	}
+	
+	/**
+	 * Checks that the number of lines read but not yet written never exceeds the limit, and reaches it
+	 * when a slow number holds back the results after it.
+	 * @throws IOException if reading the input fails
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	@Test
+	public void backpressure() throws IOException, InterruptedException {
+		for ( final boolean ordered : new boolean[] { true, false } ) {
+			final int maxPending = 5;
+			final List< String > lines = new ArrayList< String >();
+			// The slow number first
+			lines.add( Long.toString( DelayedFactorization.SLOW_NUMBER ) );
+			for ( int i = 0; i < 50; i++ )
+				lines.add( Integer.toString( 1000 + i ) );
+				
+			final AtomicInteger written        = new AtomicInteger();
+			final AtomicInteger maxPendingSeen = new AtomicInteger();
+			final BufferedReader input = new BufferedReader( new StringReader( String.join( "\n", lines ) ) ) {
+				/** Number of lines read. */
+				private int read;
+				
+				@Override
+				public String readLine() throws IOException {
+					// All the lines read before are submitted
+					maxPendingSeen.accumulateAndGet( read - written.get(), Math::max );
+					final String line = super.readLine();
+					if ( line != null )
+						read++;
+					return line;
+				}
+			};
+			final PrintWriter output = new PrintWriter( new StringWriter() ) {
+				@Override
+				public void println( final String line ) {
+					super.println( line );
+					written.incrementAndGet();
+				}
+			};
+			
+			new BatchFactorization( DelayedFactorization.class, 2, ordered, maxPending ).run( input, output );
+			assertEquals( lines.size(), written.get(), "ordered=" + ordered );
+			if ( ordered )
+				assertEquals( maxPending, maxPendingSeen.get(), "ordered=" + ordered );
+			else
+				assertTrue( maxPendingSeen.get() <= maxPending, "pending lines: " + maxPendingSeen.get() + ", ordered=" + ordered );
+		}
+	}
+	
+	/**
+	 * Creates the input lines: numbers with various delays, blank lines and invalid lines.
+	 * @return the input lines
+	 */
+	private static List< String > createLines() {
+		final List< String > lines = new ArrayList< String >();
+		lines.add( Long.toString( DelayedFactorization.SLOW_NUMBER ) );
+		for ( int i = 0; i < 40; i++ )
+			lines.add( Integer.toString( 1000 + 37 * i ) );
+		lines.addAll( Arrays.asList( "", "  ", " 1001 ", "not a number", "-15", "0", "1", "2" ) );
+		return lines;
+	}
+	
+	/**
+	 * Creates the expected result lines of the input lines, in input order.
+	 * @param lines the input lines
+	 * @return the expected result lines
+	 */
+	private static List< String > createExpectedResults( final List< String > lines ) {
+		final List< String > results = new ArrayList< String >();
+		for ( final String line : lines ) {
+			final String number = line.trim();
+			if ( number.isEmpty() )
+				continue;
+			if ( !number.matches( "-?[0-9]+" ) )
+				results.add( number + ": error: not a number" );
+			else if ( Long.parseLong( number ) <= 0l )
+				results.add( number + ": error: not a positive number" );
+			else
+				results.add( number + ": " + DelayedFactorization.smallestFactor( Long.parseLong( number ) ) );
+		}
+		return results;
+	}
+	
+	/**
+	 * Creates an input of lines.
+	 * @param lines the lines
+	 * @return the input
+	 */
+	private static BufferedReader createInput( final List< String > lines ) {
+		return new BufferedReader( new StringReader( String.join( "\n", lines ) ) );
+	}
+	
+	/**
+	 * Returns the lines written to an output.
+	 * @param output the output
+	 * @return the lines written to the output
+	 */
+	private static List< String > readLines( final StringWriter output ) {
+		final String content = output.toString();
+		return content.isEmpty() ? new ArrayList< String >() : new ArrayList< String >( Arrays.asList( content.split( "\\R" ) ) );
+	}
+	
+	/**
+	 * Returns the smallest prime factor of <code>n</code> after a delay depending on <code>n</code>, so the numbers complete out of order.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class DelayedFactorization extends Algorithm {
+		/** A number whose factorization takes a long time. */
+		static final long SLOW_NUMBER = 999l;
+		
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			try {
+				Thread.sleep( n.longValue() == SLOW_NUMBER ? 300l : n.longValue() % 5l * 5l );
+			} catch ( final InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			return BigInteger.valueOf( smallestFactor( n.longValue() ) );
+		}
+		
+		/**
+		 * Returns the smallest prime factor of <code>n</code> by trial division.
+		 * @param n the number
+		 * @return the smallest prime factor of <code>n</code>; <code>n</code> if it is 1 or a prime
+		 */
+		static long smallestFactor( final long n ) {
+			for ( long p = 2l; p * p <= n; p++ )
+				if ( n % p == 0l )
+					return p;
+			return n;
+		}
+	}
+	
+}
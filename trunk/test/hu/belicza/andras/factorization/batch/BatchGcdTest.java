@@ -0,0 +1,157 @@
+package hu.belicza.andras.factorization.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link BatchGcd} against the pairwise gcds, in memory and with spilled tree levels.
+ *
+ * @author Andras Belicza
+ */
+public class BatchGcdTest {
+	
+	/** Number of the moduli. */
+	private static final int MODULI = 300;
+	
+	/** Directory of the spill files. */
+	@TempDir
+	File tempDirectory;
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Checks moduli sharing primes and duplicate moduli with the tree levels kept in memory.
+	 * @throws IOException if a spill file fails
+	 */
+	@Test
+	public void inMemory() throws IOException {
+		check( new BatchGcd( 2, 1l << 30, tempDirectory ), createModuli() );
+	}
+	
+	/**
+	 * Checks moduli sharing primes and duplicate moduli with the tree levels spilled to files.
+	 * @throws IOException if a spill file fails
+	 */
+	@Test
+	public void spilled() throws IOException {
+		check( new BatchGcd( 2, 0l, tempDirectory ), createModuli() );
+		assertEquals( 0, tempDirectory.listFiles().length, "spill files left" );
+	}
+	
+	/**
+	 * Checks that the spill files are deleted if the batch gcd fails after the levels are spilled.
+	 */
+	@Test
+	public void spilledFailure() {
+		final List< BigInteger > moduli = createModuli();
+		moduli.add( BigInteger.ONE );
+		assertThrows( IllegalArgumentException.class, () -> new BatchGcd( 2, 0l, tempDirectory ).findSharedFactors( moduli.iterator() ) );
+		assertEquals( 0, tempDirectory.listFiles().length, "spill files left" );
+	}
+	
+	/**
+	 * Checks the edge cases: no moduli, a single modulus, and a modulus not greater than 1.
+	 * @throws IOException if a spill file fails
+	 */
+	@Test
+	public void edgeCases() throws IOException {
+		final BatchGcd batchGcd = new BatchGcd( 2, 1l << 30, tempDirectory );
+		assertTrue( batchGcd.findSharedFactors( new ArrayList< BigInteger >().iterator() ).isEmpty() );
+		assertTrue( batchGcd.findSharedFactors( Arrays.asList( BigInteger.valueOf( 91l ) ).iterator() ).isEmpty() );
+		check( batchGcd, Arrays.asList( BigInteger.valueOf( 91l ), BigInteger.valueOf( 91l ) ) );
+		assertThrows( IllegalArgumentException.class,
+			() -> batchGcd.findSharedFactors( Arrays.asList( BigInteger.valueOf( 91l ), BigInteger.ONE ).iterator() ) );
+	}
+	
+	/**
+	 * Creates products of 2 random primes, some of them sharing a prime, some of them duplicated.
+	 * @return the moduli
+	 */
+	private List< BigInteger > createModuli() {
+		final List< BigInteger > moduli = new ArrayList< BigInteger >( MODULI );
+		final List< BigInteger > primes = new ArrayList< BigInteger >();
+		while ( moduli.size() < MODULI ) {
+			final int        choice = moduli.isEmpty() ? 9 : random.nextInt( 10 );
+			final BigInteger prime  = BigInteger.probablePrime( 64, random );
+			if ( choice == 0 )
+				moduli.add( moduli.get( random.nextInt( moduli.size() ) ) );
+			else if ( choice == 1 )
+				moduli.add( primes.get( random.nextInt( primes.size() ) ).multiply( prime ) );
+			else {
+				final BigInteger otherPrime = BigInteger.probablePrime( 64, random );
+				moduli.add( prime.multiply( otherPrime ) );
+				primes.add( otherPrime );
+			}
+			primes.add( prime );
+		}
+		return moduli;
+	}
+	
+	/**
+	 * Checks the result of the batch gcd against the pairwise gcds.<br>
+	 * The divisor is the product of the shared primes, except if all the primes of a modulus are shared:
+	 * then it is a proper factor shared with another modulus if there is one, and the modulus itself otherwise (duplicates only).
+	 * @param batchGcd the batch gcd to be checked
+	 * @param moduli the moduli
+	 * @throws IOException if a spill file fails
+	 */
+	private static void check( final BatchGcd batchGcd, final List< BigInteger > moduli ) throws IOException {
+		final List< BatchGcd.SharedFactor > sharedFactors = batchGcd.findSharedFactors( moduli.iterator() );
+		
+		int next = 0;
+		for ( int i = 0; i < moduli.size(); i++ ) {
+			final BigInteger         modulus = moduli.get( i );
+			final List< BigInteger > gcds = new ArrayList< BigInteger >();
+			BigInteger product = BigInteger.ONE;
+			for ( int j = 0; j < moduli.size(); j++ )
+				if ( j != i ) {
+					final BigInteger gcd = modulus.gcd( moduli.get( j ) );
+					gcds.add( gcd );
+					product = product.multiply( gcd );
+				}
+			final BigInteger shared = modulus.gcd( product );
+			
+			if ( shared.equals( BigInteger.ONE ) )
+				continue;
+			
+			final BatchGcd.SharedFactor sharedFactor = sharedFactors.get( next++ );
+			final String message = "modulus " + i + ": " + modulus;
+			assertEquals( i, sharedFactor.index, message );
+			assertEquals( modulus, sharedFactor.modulus, message );
+			if ( !shared.equals( modulus ) )
+				assertEquals( shared, sharedFactor.divisor, message );
+			else if ( hasProperGcd( modulus, gcds ) )
+				assertTrue( gcds.contains( sharedFactor.divisor ) && !sharedFactor.divisor.equals( modulus ), message );
+			else
+				assertEquals( modulus, sharedFactor.divisor, message );
+		}
+		assertEquals( next, sharedFactors.size() );
+	}
+	
+	/**
+	 * Tells if any of the gcds is a proper factor of the modulus.
+	 * @param modulus the modulus
+	 * @param gcds the gcds of the modulus and the other moduli
+	 * @return true if any of the gcds is a proper factor of the modulus; false otherwise
+	 */
+	private static boolean hasProperGcd( final BigInteger modulus, final List< BigInteger > gcds ) {
+		for ( final BigInteger gcd : gcds )
+			if ( !gcd.equals( BigInteger.ONE ) && !gcd.equals( modulus ) )
+				return true;
+		return false;
+	}
+	
+}
@@ -0,0 +1,158 @@
+package hu.belicza.andras.factorization.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link BatchTrialDivision} against a naive trial division: the prime factors, the cofactors,
+ * the <code>fullyFactored</code> flags and the order of the results.
+ *
+ * @author Andras Belicza
+ */
+public class BatchTrialDivisionTest {
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Checks a mixed batch (1, primes below and above the bound, prime powers, smooth numbers, duplicates)
+	 * with a bound spanning several prime blocks.
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	@Test
+	public void mixedBatch() throws InterruptedException {
+		final int        bound      = 2000000;
+		final BigInteger firstAbove = BigInteger.valueOf( bound ).nextProbablePrime();
+		final BigInteger lastBelow  = findPrimeBelow( bound );
+		final BigInteger secondBlockPrime = BigInteger.valueOf( 1500000l ).nextProbablePrime();
+		
+		final List< BigInteger > numbers = new ArrayList< BigInteger >();
+		for ( final long n : new long[] { 1l, 2l, 3l, 4l, 7l, 1024l, 1000003l, 2l * 3l * 5l * 7l * 11l * 13l } )
+			numbers.add( BigInteger.valueOf( n ) );
+		numbers.addAll( Arrays.asList( lastBelow, firstAbove, secondBlockPrime, secondBlockPrime.multiply( BigInteger.valueOf( 3l ) ),
+			secondBlockPrime.pow( 2 ), lastBelow.multiply( firstAbove ), firstAbove.pow( 2 ), firstAbove.pow( 2 ).subtract( BigInteger.ONE ),
+			firstAbove.multiply( firstAbove.nextProbablePrime() ), BigInteger.ONE.shiftLeft( 100 ) ) );
+		for ( int i = 0; i < 30; i++ ) {
+			// Smooth parts times random cofactors
+			BigInteger n = BigInteger.probablePrime( 2 + random.nextInt( 100 ), random );
+			for ( int j = random.nextInt( 4 ); j > 0; j-- )
+				n = n.multiply( BigInteger.valueOf( 2 + random.nextInt( bound ) ) );
+			numbers.add( n );
+		}
+		// Duplicates
+		for ( int i = 0; i < 10; i++ )
+			numbers.add( numbers.get( random.nextInt( numbers.size() ) ) );
+			
+		check( new BatchTrialDivision( bound, 2 ), numbers, bound );
+	}
+	
+	/**
+	 * Checks the order of the results of a batch processed in many chunks in parallel.
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	@Test
+	public void manyChunks() throws InterruptedException {
+		final List< BigInteger > numbers = new ArrayList< BigInteger >();
+		for ( int i = 0; i < 70000; i++ )
+			numbers.add( BigInteger.valueOf( 1l + ( random.nextLong() >>> 24 ) ) );
+			
+		check( new BatchTrialDivision( 1000, 4 ), numbers, 1000 );
+	}
+	
+	/**
+	 * Checks that numbers which are not positive are rejected.
+	 */
+	@Test
+	public void rejectsNonPositive() {
+		final BatchTrialDivision batchTrialDivision = new BatchTrialDivision( 1000, 2 );
+		for ( final BigInteger n : new BigInteger[] { BigInteger.ZERO, BigInteger.ONE.negate() } )
+			assertThrows( IllegalArgumentException.class, () -> batchTrialDivision.run( Arrays.asList( BigInteger.TEN, n ).iterator(), result -> {} ), "n=" + n );
+		assertThrows( IllegalArgumentException.class, () -> new BatchTrialDivision( 1, 2 ) );
+		assertThrows( IllegalArgumentException.class, () -> new BatchTrialDivision( 1000, 0 ) );
+	}
+	
+	/**
+	 * Checks the results of a batch against the naive trial division.
+	 * @param batchTrialDivision the batch trial division to be checked
+	 * @param numbers the numbers
+	 * @param bound the bound of the prime factors
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private static void check( final BatchTrialDivision batchTrialDivision, final List< BigInteger > numbers, final int bound ) throws InterruptedException {
+		final List< BatchTrialDivision.Result > results = new ArrayList< BatchTrialDivision.Result >();
+		batchTrialDivision.run( numbers.iterator(), results::add );
+		assertEquals( numbers.size(), results.size() );
+		
+		final int[]      primes          = sievePrimes( bound );
+		final BigInteger nextPrimeSquare = BigInteger.valueOf( bound ).nextProbablePrime().pow( 2 );
+		for ( int i = 0; i < numbers.size(); i++ ) {
+			final BatchTrialDivision.Result result = results.get( i );
+			final BigInteger n       = numbers.get( i );
+			final String     message = "index " + i + ": " + n;
+			assertEquals( i, result.index, message );
+			assertEquals( n, result.n, message );
+			
+			final List< BigInteger > primeFactors = new ArrayList< BigInteger >();
+			BigInteger cofactor = n;
+			for ( final int prime : primes ) {
+				final BigInteger bigPrime = BigInteger.valueOf( prime );
+				if ( bigPrime.multiply( bigPrime ).compareTo( cofactor ) > 0 ) {
+					// The cofactor is 1 or a prime
+					if ( cofactor.compareTo( BigInteger.valueOf( bound ) ) <= 0 && !cofactor.equals( BigInteger.ONE ) ) {
+						primeFactors.add( cofactor );
+						cofactor = BigInteger.ONE;
+					}
+					break;
+				}
+				while ( cofactor.mod( bigPrime ).signum() == 0 ) {
+					cofactor = cofactor.divide( bigPrime );
+					primeFactors.add( bigPrime );
+				}
+			}
+			
+			assertEquals( primeFactors, result.primeFactors, message );
+			assertEquals( cofactor, result.cofactor, message );
+			assertEquals( n.divide( cofactor ), result.getSmoothPart(), message );
+			assertEquals( cofactor.compareTo( nextPrimeSquare ) < 0, result.fullyFactored, message );
+		}
+	}
+	
+	/**
+	 * Returns the largest prime below a bound.
+	 * @param bound the bound
+	 * @return the largest prime below the bound
+	 */
+	private static BigInteger findPrimeBelow( final int bound ) {
+		BigInteger n = BigInteger.valueOf( bound - 1 );
+		while ( !n.isProbablePrime( 100 ) )
+			n = n.subtract( BigInteger.ONE );
+		return n;
+	}
+	
+	/**
+	 * Returns the primes up to a bound using a simple Sieve of Eratosthenes.
+	 * @param bound the bound of the primes (inclusive)
+	 * @return the primes up to the bound
+	 */
+	private static int[] sievePrimes( final int bound ) {
+		final boolean[] composite = new boolean[ bound + 1 ];
+		final int[]     primes    = new int[ bound + 1 ];
+		int count = 0;
+		for ( int i = 2; i <= bound; i++ )
+			if ( !composite[ i ] ) {
+				primes[ count++ ] = i;
+				for ( long j = (long) i * i; j <= bound; j += i )
+					composite[ (int) j ] = true;
+			}
+		return Arrays.copyOf( primes, count );
+	}
+	
+}
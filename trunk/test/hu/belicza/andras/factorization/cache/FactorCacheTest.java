@@ -0,0 +1,81 @@
+package hu.belicza.andras.factorization.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link FactorCache}.
+ *
+ * @author Andras Belicza
+ */
+public class FactorCacheTest {
+	
+	/** 2 primes and their product. */
+	private static final BigInteger P = BigInteger.valueOf( 1000000007l ), Q = BigInteger.valueOf( 1000000009l ), PQ = P.multiply( Q );
+	
+	/** Directory of the store files. */
+	@TempDir
+	File tempDirectory;
+	
+	/**
+	 * Checks the exact lookups and the known divisors of the multiples of the recorded numbers.
+	 */
+	@Test
+	public void lookups() {
+		final FactorCache cache = new FactorCache( 100 );
+		cache.record( PQ, P );
+		cache.record( Q, BigInteger.ONE );
+		
+		assertEquals( P, cache.getFactor( PQ ) );
+		assertEquals( Q, cache.getFactor( Q ) );
+		assertNull( cache.getFactor( P ) );
+		
+		assertEquals( P, cache.findKnownDivisor( PQ ) );
+		assertEquals( P, cache.findKnownDivisor( P.multiply( BigInteger.valueOf( 1000000021l ) ) ) );
+		assertEquals( Q, cache.findKnownDivisor( Q.multiply( BigInteger.valueOf( 1000000021l ) ) ) );
+		assertNull( cache.findKnownDivisor( BigInteger.valueOf( 1000000021l ).multiply( BigInteger.valueOf( 1000000033l ) ) ) );
+		
+		// Giving up on a composite is not a result
+		cache.record( P.multiply( P ), BigInteger.ONE );
+		assertNull( cache.getFactor( P.multiply( P ) ) );
+	}
+	
+	/**
+	 * Checks that the least recently used numbers are evicted, and found in the store.
+	 * @throws IOException if accessing the store fails
+	 */
+	@Test
+	public void eviction() throws IOException {
+		final File file = new File( tempDirectory, "factors.store" );
+		
+		FactorCache cache = new FactorCache( 2, file );
+		try {
+			for ( long i = 3l; i < 100l; i += 2l )
+				cache.record( BigInteger.valueOf( i * 1000003l ), BigInteger.valueOf( 1000003l ) );
+			cache.recordPrime( P );
+			assertEquals( 50, cache.getStoredCount() );
+			assertEquals( BigInteger.valueOf( 1000003l ), cache.getFactor( BigInteger.valueOf( 3l * 1000003l ) ) );
+		} finally {
+			cache.close();
+		}
+		
+		cache = new FactorCache( 2, file );
+		try {
+			assertEquals( 50, cache.getStoredCount() );
+			assertEquals( P, cache.getFactor( P ) );
+			assertEquals( BigInteger.valueOf( 1000003l ), cache.getFactor( BigInteger.valueOf( 5l * 1000003l ) ) );
+			// The divisors of the latest records are known after reopening
+			assertEquals( P, cache.findKnownDivisor( PQ ) );
+		} finally {
+			cache.close();
+		}
+	}
+	
+}
@@ -0,0 +1,154 @@
+package hu.belicza.andras.factorization.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link FactorStore}: lookups, reopening the store (rebuilding the index), growing the file and rejecting invalid files.
+ *
+ * @author Andras Belicza
+ */
+public class FactorStoreTest {
+	
+	/** Number of records, their size exceeds the initial size of the mapping. */
+	private static final int RECORDS = 40000;
+	
+	/** Directory of the store files. */
+	@TempDir
+	File tempDirectory;
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Appends many records, and checks them before and after reopening the store.
+	 * @throws IOException if accessing the store fails
+	 */
+	@Test
+	public void reopen() throws IOException {
+		final File file = new File( tempDirectory, "factors.store" );
+		final List< BigInteger > numbers = new ArrayList< BigInteger >( RECORDS );
+		final List< BigInteger > factors = new ArrayList< BigInteger >( RECORDS );
+		
+		FactorStore store = new FactorStore( file );
+		for ( int i = 0; i < RECORDS; i++ ) {
+			final BigInteger factor = new BigInteger( 1 + random.nextInt( 100 ), random ).add( BigInteger.ONE );
+			numbers.add( factor.multiply( new BigInteger( 1 + random.nextInt( 100 ), random ).add( BigInteger.ONE ) ) );
+			factors.add( factor );
+			store.append( numbers.get( i ), factor );
+		}
+		checkRecords( store, numbers, factors );
+		store.close();
+		
+		store = new FactorStore( file );
+		try {
+			checkRecords( store, numbers, factors );
+			
+			// Records can be appended after reopening
+			store.append( BigInteger.valueOf( 91l ), BigInteger.valueOf( 7l ) );
+			store.append( BigInteger.valueOf( 91l ), BigInteger.valueOf( 13l ) );
+			assertEquals( new HashSet< BigInteger >( Arrays.asList( BigInteger.valueOf( 7l ), BigInteger.valueOf( 13l ) ) ),
+				new HashSet< BigInteger >( store.getFactors( BigInteger.valueOf( 91l ) ) ) );
+		} finally {
+			store.close();
+		}
+		
+		store = new FactorStore( file );
+		try {
+			assertEquals( RECORDS + 2, store.size() );
+			assertEquals( 2, store.getFactors( BigInteger.valueOf( 91l ) ).size() );
+		} finally {
+			store.close();
+		}
+	}
+	
+	/**
+	 * Checks that files which are not stores are rejected.
+	 * @throws IOException if writing the test file fails
+	 */
+	@Test
+	public void rejectsInvalidFile() throws IOException {
+		final File file = new File( tempDirectory, "invalid" );
+		final FileOutputStream output = new FileOutputStream( file );
+		try {
+			output.write( new byte[ 100 ] );
+		} finally {
+			output.close();
+		}
+		
+		assertThrows( IOException.class, () -> new FactorStore( file ) );
+	}
+	
+	/**
+	 * Checks that a store whose file is truncated before the end of the records in the header is rejected,
+	 * and so is a header with an end before the records.
+	 * @throws IOException if accessing the store fails
+	 */
+	@Test
+	public void rejectsTruncatedFile() throws IOException {
+		final File file = new File( tempDirectory, "factors.store" );
+		final FactorStore store = new FactorStore( file );
+		for ( int i = 2; i < 1000; i++ )
+			store.append( BigInteger.valueOf( i * 1009l ), BigInteger.valueOf( i ) );
+		store.close();
+		
+		final RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+		try {
+			randomAccessFile.seek( 8 );
+			final long end = randomAccessFile.readLong();
+			randomAccessFile.setLength( end - 10l );
+			assertThrows( IOException.class, () -> new FactorStore( file ) );
+			
+			randomAccessFile.setLength( end );
+			new FactorStore( file ).close();
+			
+			randomAccessFile.seek( 8 );
+			randomAccessFile.writeLong( 8l );
+			assertThrows( IOException.class, () -> new FactorStore( file ) );
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+	
+	/**
+	 * Checks the records of a store: the lookups, the number of records and their order.
+	 * @param store the store to be checked
+	 * @param numbers the numbers of the records in the order they were appended
+	 * @param factors the factors of the records in the order they were appended
+	 */
+	private static void checkRecords( final FactorStore store, final List< BigInteger > numbers, final List< BigInteger > factors ) {
+		assertEquals( numbers.size(), store.size() );
+		
+		for ( int i = 0; i < numbers.size(); i++ )
+			assertTrue( store.getFactors( numbers.get( i ) ).contains( factors.get( i ) ), "n=" + numbers.get( i ) );
+		assertTrue( store.getFactors( BigInteger.ONE.shiftLeft( 300 ) ).isEmpty() );
+		
+		final List< BigInteger > visitedNumbers = new ArrayList< BigInteger >();
+		final List< BigInteger > visitedFactors = new ArrayList< BigInteger >();
+		store.visitRecords( new FactorStore.RecordVisitor() {
+			@Override
+			public void visit( final BigInteger n, final BigInteger factor ) {
+				visitedNumbers.add( n );
+				visitedFactors.add( factor );
+			}
+		} );
+		assertEquals( numbers, visitedNumbers );
+		assertEquals( factors, visitedFactors );
+	}
+	
+}
@@ -0,0 +1,291 @@
+package hu.belicza.andras.factorization.control;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import hu.belicza.andras.factorization.algorithm.Algorithm;
+import hu.belicza.andras.factorization.algorithm.AlgorithmMetrics;
+import hu.belicza.andras.factorization.algorithm.Checkpoint;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link AlgorithmExecutor} and {@link AlgorithmJob}: suspending queued and running jobs,
+ * evicting the jobs writing checkpoints, parking the other ones, stopping them and shutting down the executor.<br>
+ * <br>
+ * The jobs run a slow deterministic walk, so they can be controlled in the middle of their run,
+ * and a job controlled in any way has to end with the same result as an uninterrupted run.
+ *
+ * @author Andras Belicza
+ */
+public class AlgorithmExecutorTest {
+	
+	/** The number to be factorized, a product of 2 primes (a prime would not be passed to the algorithms). */
+	private static final BigInteger N = BigInteger.valueOf( 1000000007l ).multiply( BigInteger.valueOf( 1000000009l ) );
+	
+	/** Maximum time to wait for a condition in milliseconds. */
+	private static final long TIMEOUT_MILLIS = 10000l;
+	
+	/** The result of an uninterrupted run of the walk. */
+	private static final BigInteger EXPECTED = new WalkAlgorithm().getFactor( N );
+	
+	/** The executor of the test, with a single worker. */
+	private AlgorithmExecutor executor;
+	
+	/**
+	 * Creates the executor of the test.
+	 */
+	@BeforeEach
+	public void createExecutor() {
+		executor = new AlgorithmExecutor( 1 );
+	}
+	
+	/**
+	 * Shuts down the executor of the test.
+	 */
+	@AfterEach
+	public void shutdownExecutor() {
+		executor.shutdown();
+	}
+	
+	/**
+	 * Checks that a job suspended while queued doesn't take the worker, and runs when resumed.
+	 */
+	@Test
+	public void suspendWhileQueued() {
+		final AlgorithmJob running = startJob( WalkAlgorithm.class );
+		final AlgorithmJob queued  = startJob( WalkAlgorithm.class );
+		assertEquals( 1, executor.getQueuedJobCount() );
+		queued.suspendAlgorithm();
+		
+		waitUntil( running::isDone, "the running job did not finish" );
+		assertEquals( EXPECTED, running.getFactor() );
+		// The suspended job leaves the queue without running
+		waitUntil( () -> executor.getQueuedJobCount() == 0 && executor.getActiveWorkerCount() == 0, "the suspended job took the worker" );
+		assertFalse( queued.isDone() );
+		assertEquals( 0l, queued.getAlgorithmMetrics().get( AlgorithmMetrics.Counter.CANDIDATES ) );
+		
+		queued.resumeAlgorithm();
+		waitUntil( queued::isDone, "the resumed job did not finish" );
+		assertEquals( EXPECTED, queued.getFactor() );
+	}
+	
+	/**
+	 * Checks that a suspended job writing checkpoints is evicted from its worker,
+	 * and continues from its checkpoint with the same result when resumed.
+	 */
+	@Test
+	public void evictAndResume() {
+		final List< BigInteger > results = new CopyOnWriteArrayList< BigInteger >();
+		final AlgorithmJob job = executor.createJob( WalkAlgorithm.class, N );
+		job.addAlgorithmCompletionListener( results::add );
+		job.startAlgorithm();
+		waitForProgress( job );
+		
+		job.suspendAlgorithm();
+		waitUntil( () -> executor.getActiveWorkerCount() == 0, "the suspended job was not evicted" );
+		assertFalse( job.isDone() );
+		
+		// The worker is free for other jobs
+		final AlgorithmJob other = startJob( WalkAlgorithm.class );
+		waitUntil( other::isDone, "the other job did not finish" );
+		assertEquals( EXPECTED, other.getFactor() );
+		
+		job.resumeAlgorithm();
+		waitUntil( job::isDone, "the resumed job did not finish" );
+		assertEquals( EXPECTED, job.getFactor() );
+		assertEquals( WalkAlgorithm.RESUMED_STAGE, job.getAlgorithmMetrics().getStage() );
+		assertEquals( Arrays.asList( EXPECTED ), results );
+	}
+	
+	/**
+	 * Checks that a suspended job not writing checkpoints parks its worker, and an extra worker runs the queued jobs.
+	 */
+	@Test
+	public void parkWithoutCheckpoints() {
+		final AlgorithmJob job = startJob( NoCheckpointWalkAlgorithm.class );
+		waitForProgress( job );
+		
+		job.suspendAlgorithm();
+		waitUntil( () -> executor.getWorkerPool().getCorePoolSize() == 2, "no extra worker for the parked job" );
+		final AlgorithmJob other = startJob( WalkAlgorithm.class );
+		waitUntil( other::isDone, "the queued job did not get the extra worker" );
+		assertEquals( EXPECTED, other.getFactor() );
+		assertFalse( job.isDone() );
+		
+		job.resumeAlgorithm();
+		assertEquals( 1, executor.getWorkerPool().getCorePoolSize() );
+		waitUntil( job::isDone, "the resumed job did not finish" );
+		assertEquals( EXPECTED, job.getFactor() );
+		assertEquals( WalkAlgorithm.STARTED_STAGE, job.getAlgorithmMetrics().getStage() );
+	}
+	
+	/**
+	 * Checks stopping an evicted job: it is done at once, without calling the completion listeners.
+	 */
+	@Test
+	public void stopWhileEvicted() {
+		final List< BigInteger > results = new CopyOnWriteArrayList< BigInteger >();
+		final AlgorithmJob job = executor.createJob( WalkAlgorithm.class, N );
+		job.addAlgorithmCompletionListener( results::add );
+		job.startAlgorithm();
+		waitForProgress( job );
+		
+		job.suspendAlgorithm();
+		waitUntil( () -> executor.getActiveWorkerCount() == 0, "the suspended job was not evicted" );
+		job.stopAlgorithm();
+		assertTrue( job.isDone() );
+		assertNull( job.getFactor() );
+		assertNull( job.getFailure() );
+		assertTrue( results.isEmpty() );
+	}
+	
+	/**
+	 * Checks stopping a parked job: its worker and the extra worker are given back.
+	 */
+	@Test
+	public void stopWhileParked() {
+		final List< BigInteger > results = new CopyOnWriteArrayList< BigInteger >();
+		final AlgorithmJob job = executor.createJob( NoCheckpointWalkAlgorithm.class, N );
+		job.addAlgorithmCompletionListener( results::add );
+		job.startAlgorithm();
+		waitForProgress( job );
+		
+		job.suspendAlgorithm();
+		waitUntil( () -> executor.getWorkerPool().getCorePoolSize() == 2, "no extra worker for the parked job" );
+		job.stopAlgorithm();
+		assertEquals( 1, executor.getWorkerPool().getCorePoolSize() );
+		waitUntil( job::isDone, "the stopped job did not leave its worker" );
+		waitUntil( () -> executor.getActiveWorkerCount() == 0, "the stopped job kept its worker" );
+		assertNull( job.getFactor() );
+		assertTrue( results.isEmpty() );
+	}
+	
+	/**
+	 * Checks that the running and the queued jobs still finish after the executor is shut down.
+	 */
+	@Test
+	public void shutdownWithPendingJobs() {
+		final AlgorithmJob running = startJob( WalkAlgorithm.class );
+		final AlgorithmJob queued  = startJob( WalkAlgorithm.class );
+		executor.shutdown();
+		
+		waitUntil( () -> running.isDone() && queued.isDone(), "the pending jobs did not finish" );
+		assertEquals( EXPECTED, running.getFactor() );
+		assertEquals( EXPECTED, queued.getFactor() );
+		assertTrue( executor.getWorkerPool().isShutdown() );
+	}
+	
+	/**
+	 * Creates and starts a job on {@link #N}.
+	 * @param algorithmClass class of the algorithm
+	 * @return the started job
+	 */
+	private AlgorithmJob startJob( final Class< ? extends Algorithm > algorithmClass ) {
+		final AlgorithmJob job = executor.createJob( algorithmClass, N );
+		job.startAlgorithm();
+		return job;
+	}
+	
+	/**
+	 * Waits until the algorithm of a job has made some steps.
+	 * @param job the job to wait for
+	 */
+	private static void waitForProgress( final AlgorithmJob job ) {
+		waitUntil( () -> job.getAlgorithmMetrics().get( AlgorithmMetrics.Counter.CANDIDATES ) >= 10l,
+			"the job did not start" );
+	}
+	
+	/**
+	 * Waits until a condition holds.
+	 * @param condition the condition to wait for
+	 * @param message the failure message if the condition doesn't hold in time
+	 */
+	private static void waitUntil( final BooleanSupplier condition, final String message ) {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while ( !condition.getAsBoolean() ) {
+			if ( System.currentTimeMillis() > deadline )
+				fail( message );
+			try {
+				Thread.sleep( 1l );
+			} catch ( final InterruptedException ie ) {
+				fail( "interrupted" );
+			}
+		}
+	}
+	
+	/**
+	 * A slow deterministic walk: <code>x -> x<sup>2</sup>+1 mod n</code> with a short sleep at each step,
+	 * the result is the end of the walk. Writes its position into the checkpoints.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class WalkAlgorithm extends Algorithm {
+		/** Number of steps of the walk.                                */
+		private static final int    STEPS         = 300;
+		/** The stage of a run started from the beginning of the walk.  */
+		static final String         STARTED_STAGE = "started";
+		/** The stage of a run resumed from a checkpoint.               */
+		static final String         RESUMED_STAGE = "resumed";
+		
+		@Override
+		protected boolean writesCheckpoints() {
+			return true;
+		}
+		
+		@Override
+		protected BigInteger getFactorImpl( final BigInteger n ) {
+			int        step = 0;
+			BigInteger x    = BigInteger.valueOf( 2l );
+			final Checkpoint.Reader checkpointReader = takeResumeCheckpoint();
+			if ( checkpointReader != null ) {
+				step = checkpointReader.getInt();
+				x    = checkpointReader.getBigInteger();
+			}
+			setStage( checkpointReader == null ? STARTED_STAGE : RESUMED_STAGE );
+			
+			for ( ; step < STEPS; step++ ) {
+				final int requests = pollControl();
+				if ( ( requests & STOP_REQUEST ) != 0 )
+					return null;
+				if ( ( requests & CHECKPOINT_REQUEST ) != 0 )
+					createCheckpoint( createCheckpointBuilder().putInt( step ).putBigInteger( x ) );
+					
+				x = x.multiply( x ).add( BigInteger.ONE ).mod( n );
+				metrics.increment( AlgorithmMetrics.Counter.CANDIDATES );
+				try {
+					Thread.sleep( 1l );
+				} catch ( final InterruptedException ie ) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			
+			return x;
+		}
+	}
+	
+	/**
+	 * The walk without writing checkpoints: it would restart from the beginning, so it is parked when suspended.
+	 *
+	 * @author Andras Belicza
+	 */
+	public static class NoCheckpointWalkAlgorithm extends WalkAlgorithm {
+		@Override
+		protected boolean writesCheckpoints() {
+			return false;
+		}
+	}
+	
+}
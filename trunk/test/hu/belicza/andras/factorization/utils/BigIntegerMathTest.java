@@ -0,0 +1,101 @@
+package hu.belicza.andras.factorization.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the roots and the square test of {@link BigIntegerMath}: around the exact powers,
+ * at the boundary of the long path of the square root, and on large numbers.
+ *
+ * @author Andras Belicza
+ */
+public class BigIntegerMathTest {
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Checks the square root and the square test on 0, 1 and around <code>k<sup>2</sup></code>.
+	 */
+	@Test
+	public void sqrtAroundSquares() {
+		assertEquals( BigInteger.ZERO, BigIntegerMath.sqrt( BigInteger.ZERO ) );
+		assertEquals( BigInteger.ONE , BigIntegerMath.sqrt( BigInteger.ONE  ) );
+		assertTrue( BigIntegerMath.isPerfectSquare( BigInteger.ZERO ) );
+		assertTrue( BigIntegerMath.isPerfectSquare( BigInteger.ONE  ) );
+		
+		for ( final BigInteger k : createRoots() ) {
+			final BigInteger square = k.multiply( k );
+			assertEquals( k, BigIntegerMath.sqrt( square ), "k=" + k );
+			assertEquals( k, BigIntegerMath.sqrt( square.add( BigInteger.ONE ) ), "k=" + k );
+			assertTrue( BigIntegerMath.isPerfectSquare( square ), "k=" + k );
+			assertFalse( BigIntegerMath.isPerfectSquare( square.add( BigInteger.ONE ) ), "k=" + k );
+			if ( k.compareTo( BigInteger.ONE ) > 0 ) {
+				assertEquals( k.subtract( BigInteger.ONE ), BigIntegerMath.sqrt( square.subtract( BigInteger.ONE ) ), "k=" + k );
+				assertFalse( BigIntegerMath.isPerfectSquare( square.subtract( BigInteger.ONE ) ), "k=" + k );
+			}
+		}
+		
+		assertFalse( BigIntegerMath.isPerfectSquare( BigInteger.ONE.negate() ) );
+		assertThrows( ArithmeticException.class, () -> BigIntegerMath.sqrt( BigInteger.ONE.negate() ) );
+	}
+	
+	/**
+	 * Compares the square root to {@link BigInteger#sqrt()} on random numbers of all bit lengths up to 2000.
+	 */
+	@Test
+	public void sqrtRandom() {
+		for ( int i = 0; i < 5000; i++ ) {
+			final BigInteger n = new BigInteger( 1 + random.nextInt( 2000 ), random );
+			assertEquals( n.sqrt(), BigIntegerMath.sqrt( n ), "n=" + n );
+			assertEquals( n.sqrt().pow( 2 ).equals( n ), BigIntegerMath.isPerfectSquare( n ), "n=" + n );
+		}
+	}
+	
+	/**
+	 * Checks the <code>k</code>-th root around <code>r<sup>k</sup></code> for the degrees up to 20.
+	 */
+	@Test
+	public void rootAroundPowers() {
+		for ( int k = 1; k <= 20; k++ ) {
+			assertEquals( BigInteger.ZERO, BigIntegerMath.root( BigInteger.ZERO, k ), "k=" + k );
+			assertEquals( BigInteger.ONE , BigIntegerMath.root( BigInteger.ONE , k ), "k=" + k );
+			for ( final BigInteger r : createRoots() ) {
+				if ( r.bitLength() * k > 4000 )
+					continue;
+				final BigInteger power = r.pow( k );
+				assertEquals( r, BigIntegerMath.root( power, k ), "r=" + r + ", k=" + k );
+				if ( k == 1 )
+					continue;
+				assertEquals( r, BigIntegerMath.root( power.add( BigInteger.ONE ), k ), "r=" + r + ", k=" + k );
+				if ( r.compareTo( BigInteger.ONE ) > 0 )
+					assertEquals( r.subtract( BigInteger.ONE ), BigIntegerMath.root( power.subtract( BigInteger.ONE ), k ), "r=" + r + ", k=" + k );
+			}
+		}
+	}
+	
+	/**
+	 * Returns the roots to be checked: small ones, the ones at the boundaries of the long arithmetic and large random ones.
+	 * @return the roots to be checked
+	 */
+	private List< BigInteger > createRoots() {
+		final List< BigInteger > roots = new ArrayList< BigInteger >();
+		for ( long k = 1l; k <= 1000l; k++ )
+			roots.add( BigInteger.valueOf( k ) );
+		for ( final long k : new long[] { 3037000498l, 3037000499l, 3037000500l, 3037000501l, Integer.MAX_VALUE, 1l << 31, 1l << 32, Long.MAX_VALUE } )
+			roots.add( BigInteger.valueOf( k ) );
+		for ( int i = 0; i < 200; i++ )
+			roots.add( new BigInteger( 32 + random.nextInt( 1000 ), random ).setBit( 0 ) );
+		return roots;
+	}
+	
+}
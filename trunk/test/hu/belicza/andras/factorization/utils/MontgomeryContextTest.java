@@ -0,0 +1,177 @@
+package hu.belicza.andras.factorization.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Randomized tests of {@link MontgomeryContext} against {@link BigInteger}.<br>
+ * <br>
+ * The single-limb, two-limb and multi-limb paths are tested separately, including the moduli with all bits set
+ * (the carries of the reduction run through every limb).
+ *
+ * @author Andras Belicza
+ */
+public class MontgomeryContextTest {
+	
+	/** Number of random operand pairs per modulus. */
+	private static final int ROUNDS = 200;
+	/** Number of random moduli per limb count.     */
+	private static final int MODULI = 20;
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Tests single-limb moduli, including 2<sup>64</sup>-1.
+	 */
+	@Test
+	public void singleLimb() {
+		checkModulus( BigInteger.valueOf( 3l ) );
+		checkModulus( BigInteger.valueOf( Long.MAX_VALUE ) );
+		checkModulus( BigInteger.ONE.shiftLeft( 64 ).subtract( BigInteger.ONE ) );
+		checkModulus( BigInteger.ONE.shiftLeft( 63 ).add( BigInteger.ONE ) );
+		for ( int i = 0; i < MODULI; i++ )
+			checkModulus( randomOddModulus( 2 + random.nextInt( 63 ) ) );
+	}
+	
+	/**
+	 * Tests two-limb moduli, including 2<sup>128</sup>-1.
+	 */
+	@Test
+	public void twoLimbs() {
+		checkModulus( BigInteger.ONE.shiftLeft( 64 ).add( BigInteger.ONE ) );
+		checkModulus( BigInteger.ONE.shiftLeft( 128 ).subtract( BigInteger.ONE ) );
+		checkModulus( BigInteger.ONE.shiftLeft( 127 ).subtract( BigInteger.ONE ) );
+		for ( int i = 0; i < MODULI; i++ )
+			checkModulus( randomOddModulus( 65 + random.nextInt( 64 ) ) );
+	}
+	
+	/**
+	 * Tests moduli of 3 or more limbs.
+	 */
+	@Test
+	public void multipleLimbs() {
+		checkModulus( BigInteger.ONE.shiftLeft( 128 ).add( BigInteger.ONE ) );
+		checkModulus( BigInteger.ONE.shiftLeft( 192 ).subtract( BigInteger.ONE ) );
+		checkModulus( BigInteger.ONE.shiftLeft( 521 ).subtract( BigInteger.ONE ) );
+		for ( int i = 0; i < MODULI; i++ )
+			checkModulus( randomOddModulus( 129 + random.nextInt( 900 ) ) );
+	}
+	
+	/**
+	 * Checks that the moduli not supported are rejected.
+	 */
+	@Test
+	public void rejectsEvenModulus() {
+		assertThrows( IllegalArgumentException.class, () -> new MontgomeryContext( BigInteger.valueOf( 1024l ) ) );
+		assertThrows( IllegalArgumentException.class, () -> new MontgomeryContext( BigInteger.ONE ) );
+	}
+	
+	/**
+	 * Checks the conversions and the operations of the context of a modulus on the edge values and on random operands.
+	 * @param n the modulus to be checked
+	 */
+	private void checkModulus( final BigInteger n ) {
+		final MontgomeryContext context = new MontgomeryContext( n );
+		assertEquals( ( n.bitLength() + 63 ) >> 6, context.getLimbCount(), "limb count of " + n );
+		
+		final BigInteger[] edgeValues = new BigInteger[] { BigInteger.ZERO, BigInteger.ONE, n.subtract( BigInteger.ONE ), n.shiftRight( 1 ) };
+		for ( final BigInteger a : edgeValues )
+			for ( final BigInteger b : edgeValues )
+				checkOperations( context, a, b );
+		
+		for ( int i = 0; i < ROUNDS; i++ )
+			checkOperations( context, randomResidue( n ), randomResidue( n ) );
+		
+		final long[] one = context.newElement();
+		context.setOne( one );
+		assertEquals( BigInteger.ONE, context.fromMontgomery( one ), "one modulo " + n );
+		
+		for ( int i = 0; i < 5; i++ ) {
+			final BigInteger base     = randomResidue( n );
+			final BigInteger exponent = new BigInteger( 1 + random.nextInt( 256 ), random );
+			assertEquals( base.modPow( exponent, n ), modPow( context, base, exponent ), base + "^" + exponent + " mod " + n );
+		}
+	}
+	
+	/**
+	 * Checks the operations of a context on a pair of operands.
+	 * @param context the context to be checked
+	 * @param a the first operand, less than the modulus
+	 * @param b the second operand, less than the modulus
+	 */
+	private static void checkOperations( final MontgomeryContext context, final BigInteger a, final BigInteger b ) {
+		final BigInteger n       = context.getModulus();
+		final String     message = "a=" + a + ", b=" + b + ", n=" + n;
+		
+		final long[] x      = context.newElement();
+		final long[] y      = context.newElement();
+		final long[] result = context.newElement();
+		context.toMontgomery( a, x );
+		context.toMontgomery( b, y );
+		
+		assertEquals( a, context.fromMontgomery( x ), message );
+		// The raw element is aR mod n
+		assertEquals( a.shiftLeft( 64 * context.getLimbCount() ).mod( n ), context.toBigInteger( x ), message );
+		
+		context.multiply( x, y, result );
+		assertEquals( a.multiply( b ).mod( n ), context.fromMontgomery( result ), "multiply " + message );
+		context.square( x, result );
+		assertEquals( a.multiply( a ).mod( n ), context.fromMontgomery( result ), "square " + message );
+		context.add( x, y, result );
+		assertEquals( a.add( b ).mod( n ), context.fromMontgomery( result ), "add " + message );
+		context.subtract( x, y, result );
+		assertEquals( a.subtract( b ).mod( n ), context.fromMontgomery( result ), "subtract " + message );
+		
+		// The result may be one of the operands
+		context.set( x, result );
+		context.multiply( result, y, result );
+		assertEquals( a.multiply( b ).mod( n ), context.fromMontgomery( result ), "multiply in place " + message );
+		context.square( result, result );
+		assertEquals( a.multiply( b ).pow( 2 ).mod( n ), context.fromMontgomery( result ), "square in place " + message );
+	}
+	
+	/**
+	 * Calculates a modular power by the square and multiply method on the elements of a context.
+	 * @param context the context of the modulus
+	 * @param base the base, less than the modulus
+	 * @param exponent the exponent, must not be negative
+	 * @return <code>base<sup>exponent</sup> mod n</code>
+	 */
+	private static BigInteger modPow( final MontgomeryContext context, final BigInteger base, final BigInteger exponent ) {
+		final long[] x      = context.newElement();
+		final long[] result = context.newElement();
+		context.toMontgomery( base, x );
+		context.setOne( result );
+		for ( int bit = exponent.bitLength() - 1; bit >= 0; bit-- ) {
+			context.square( result, result );
+			if ( exponent.testBit( bit ) )
+				context.multiply( result, x, result );
+		}
+		return context.fromMontgomery( result );
+	}
+	
+	/**
+	 * Returns a random odd modulus.
+	 * @param bitLength the bit length of the modulus, at least 2
+	 * @return a random odd modulus of the given bit length
+	 */
+	private BigInteger randomOddModulus( final int bitLength ) {
+		return new BigInteger( bitLength - 1, random ).setBit( bitLength - 1 ).setBit( 0 );
+	}
+	
+	/**
+	 * Returns a random residue.
+	 * @param n the modulus
+	 * @return a random number in the range of <code>[0, n)</code>
+	 */
+	private BigInteger randomResidue( final BigInteger n ) {
+		return new BigInteger( n.bitLength() + 16, random ).mod( n );
+	}
+	
+}
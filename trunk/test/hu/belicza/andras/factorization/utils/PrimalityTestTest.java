@@ -0,0 +1,138 @@
+package hu.belicza.andras.factorization.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link PrimalityTest} against {@link BigInteger#isProbablePrime(int)} and on known pseudoprimes.
+ *
+ * @author Andras Belicza
+ */
+public class PrimalityTestTest {
+	
+	/** Certainty of the reference test of {@link BigInteger}.                         */
+	private static final int      CERTAINTY                 = 100;
+	
+	/** Strong pseudoprimes to base 2, the last 4 to all prime bases up to 7, 23, 37 and 37. */
+	private static final String[] STRONG_PSEUDOPRIMES       = new String[] { "2047", "3277", "4033", "4681", "8321", "15841", "29341", "3215031751",
+		"3825123056546413051", "318665857834031151167461", "3317044064679887385961981" };
+	/** The first strong Lucas pseudoprimes with Selfridge's parameters.               */
+	private static final long[]   STRONG_LUCAS_PSEUDOPRIMES = new long[] { 5459l, 5777l, 10877l, 16109l, 18971l, 22499l, 24569l, 25199l, 40309l, 58519l };
+	/** Carmichael numbers (Fermat pseudoprimes to all coprime bases).                 */
+	private static final long[]   CARMICHAEL_NUMBERS        = new long[] { 561l, 1105l, 1729l, 2465l, 2821l, 6601l, 8911l, 41041l, 825265l, 321197185l };
+	
+	/** Random source with a fixed seed, so a failure can be reproduced. */
+	private final Random random = new Random( 42l );
+	
+	/**
+	 * Compares the test of longs to the reference test on all numbers up to 100000.
+	 */
+	@Test
+	public void smallNumbers() {
+		for ( long n = -10l; n < 100000l; n++ )
+			assertEquals( n > 1l && BigInteger.valueOf( n ).isProbablePrime( CERTAINTY ), PrimalityTest.isPrime( n ), "n=" + n );
+	}
+	
+	/**
+	 * Compares the test of longs to the reference test on random numbers of all bit lengths.
+	 */
+	@Test
+	public void randomLongs() {
+		for ( int i = 0; i < 20000; i++ ) {
+			final long n = random.nextLong() >>> 1 + random.nextInt( 62 );
+			assertEquals( n > 1l && BigInteger.valueOf( n ).isProbablePrime( CERTAINTY ), PrimalityTest.isPrime( n ), "n=" + n );
+		}
+	}
+	
+	/**
+	 * Compares the Baillie-PSW test to the reference test on random numbers up to 300 bits.
+	 */
+	@Test
+	public void randomBigIntegers() {
+		for ( int i = 0; i < 2000; i++ ) {
+			final BigInteger n = new BigInteger( 2 + random.nextInt( 300 ), random );
+			assertEquals( n.isProbablePrime( CERTAINTY ), PrimalityTest.isPrime( n ), "n=" + n );
+		}
+	}
+	
+	/**
+	 * Checks random primes, the products of 2 random primes and the squares of primes.
+	 */
+	@Test
+	public void primesAndSemiprimes() {
+		for ( int i = 0; i < 200; i++ ) {
+			final BigInteger p = BigInteger.probablePrime( 2 + random.nextInt( 200 ), random );
+			final BigInteger q = BigInteger.probablePrime( 2 + random.nextInt( 200 ), random );
+			assertTrue( PrimalityTest.isPrime( p ), "p=" + p );
+			assertFalse( PrimalityTest.isPrime( p.multiply( q ) ), "p=" + p + ", q=" + q );
+			assertFalse( PrimalityTest.isPrime( p.multiply( p ) ), "p^2, p=" + p );
+		}
+	}
+	
+	/**
+	 * Compares the test to the reference test on the Mersenne numbers up to 2<sup>607</sup>-1.
+	 */
+	@Test
+	public void mersenneNumbers() {
+		for ( int exponent = 2; exponent <= 607; exponent++ ) {
+			final BigInteger n = BigInteger.ONE.shiftLeft( exponent ).subtract( BigInteger.ONE );
+			assertEquals( n.isProbablePrime( CERTAINTY ), PrimalityTest.isPrime( n ), "2^" + exponent + "-1" );
+		}
+	}
+	
+	/**
+	 * Checks that the strong pseudoprimes to base 2 are recognized as composites (by more bases or by the Lucas test).
+	 */
+	@Test
+	public void strongPseudoprimes() {
+		for ( final String value : STRONG_PSEUDOPRIMES ) {
+			final BigInteger n = new BigInteger( value );
+			assertTrue( PrimalityTest.isStrongProbablePrime( n, BigIntegerMath.TWO ), "base 2, n=" + n );
+			assertFalse( PrimalityTest.isPrime( n ), "n=" + n );
+		}
+	}
+	
+	/**
+	 * Checks that the strong Lucas pseudoprimes are rejected by the base 2 test.
+	 */
+	@Test
+	public void strongLucasPseudoprimes() {
+		for ( final long value : STRONG_LUCAS_PSEUDOPRIMES ) {
+			final BigInteger n = BigInteger.valueOf( value );
+			assertTrue( PrimalityTest.isStrongLucasProbablePrime( n ), "n=" + n );
+			// Baillie-PSW: not a strong pseudoprime to base 2 at the same time
+			assertFalse( PrimalityTest.isStrongProbablePrime( n, BigIntegerMath.TWO ), "base 2, n=" + n );
+			assertFalse( PrimalityTest.isPrime( n ), "n=" + n );
+		}
+	}
+	
+	/**
+	 * Checks that the Carmichael numbers are recognized as composites.
+	 */
+	@Test
+	public void carmichaelNumbers() {
+		for ( final long n : CARMICHAEL_NUMBERS ) {
+			assertFalse( PrimalityTest.isPrime( n ), "n=" + n );
+			assertFalse( PrimalityTest.isPrime( BigInteger.valueOf( n ) ), "n=" + n );
+		}
+	}
+	
+	/**
+	 * Checks that the Lucas test accepts primes.
+	 */
+	@Test
+	public void lucasTestOfPrimes() {
+		for ( int i = 0; i < 200; i++ ) {
+			final BigInteger p = BigInteger.probablePrime( 8 + random.nextInt( 300 ), random );
+			if ( p.compareTo( BigInteger.valueOf( 97l ) ) > 0 ) // Not divisible by the small primes
+				assertTrue( PrimalityTest.isStrongLucasProbablePrime( p ), "p=" + p );
+		}
+	}
+	
+}
@@ -0,0 +1,153 @@
+package hu.belicza.andras.factorization.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link PrimeTable}: the file round trip, the rejection of invalid files,
+ * and {@link PrimeSieve} giving the same primes with and without a table.
+ *
+ * @author Andras Belicza
+ */
+public class PrimeTableTest {
+	
+	/** Number of odd numbers in a segment of {@link PrimeSieve}, doubled: the numbers spanned by a segment. */
+	private static final long SEGMENT_SPAN = 2l * 32 * 1024 * 8;
+	/** Bound of the test table: inside the fourth segment of a sieve started from 2, so that segment straddles it. */
+	private static final long BOUND        = 3l + 3l * SEGMENT_SPAN + 1000l;
+	
+	/** Directory of the table files. */
+	@TempDir
+	File tempDirectory;
+	
+	/**
+	 * Checks that a written table is read back with its bound and prime count.
+	 * @throws IOException if writing or opening the table fails
+	 */
+	@Test
+	public void fileRoundTrip() throws IOException {
+		for ( final long bound : new long[] { 3l, 64l, 129l, 1000003l, BOUND } ) {
+			final File tableFile = new File( tempDirectory, "table" + bound );
+			PrimeTable.write( tableFile, bound );
+			assertFalse( new File( tempDirectory, "table" + bound + ".tmp" ).exists(), "temporary file left" );
+			
+			final PrimeTable primeTable = PrimeTable.open( tableFile );
+			assertEquals( bound, primeTable.getBound() );
+			final PrimeSieve primeSieve = new PrimeSieve();
+			while ( primeSieve.nextPrime() <= bound )
+				;
+			assertEquals( primeSieve.getPrimeIndex() - 1l, primeTable.getPrimeCount(), "bound=" + bound );
+		}
+		
+		assertThrows( IllegalArgumentException.class, () -> PrimeTable.write( new File( tempDirectory, "invalid" ), 2l ) );
+		assertThrows( IllegalArgumentException.class, () -> PrimeTable.write( new File( tempDirectory, "invalid" ), ( 1l << 34 ) + 1l ) );
+	}
+	
+	/**
+	 * Checks that a table file with a truncated bitmap or header is rejected.
+	 * @throws IOException if writing the table fails
+	 */
+	@Test
+	public void rejectsTruncatedFile() throws IOException {
+		final File tableFile = new File( tempDirectory, "table" );
+		PrimeTable.write( tableFile, 1000003l );
+		
+		// A whole word missing from the end of the bitmap
+		setLength( tableFile, tableFile.length() - 8l );
+		assertThrows( IOException.class, () -> PrimeTable.open( tableFile ) );
+		// The bitmap is not made of whole words
+		setLength( tableFile, tableFile.length() - 3l );
+		assertThrows( IOException.class, () -> PrimeTable.open( tableFile ) );
+		// Shorter than the header
+		setLength( tableFile, 20l );
+		assertThrows( IOException.class, () -> PrimeTable.open( tableFile ) );
+		setLength( tableFile, 0l );
+		assertThrows( IOException.class, () -> PrimeTable.open( tableFile ) );
+	}
+	
+	/**
+	 * Checks that a table file with a bad header (magic number, version or bound) is rejected.
+	 * @throws IOException if writing the table fails
+	 */
+	@Test
+	public void rejectsBadHeader() throws IOException {
+		final File tableFile = new File( tempDirectory, "table" );
+		
+		// Magic number and version
+		for ( final int[] corruption : new int[][] { { 0, 0x12345678 }, { 4, 2 } } ) {
+			PrimeTable.write( tableFile, 1000003l );
+			final RandomAccessFile file = new RandomAccessFile( tableFile, "rw" );
+			try {
+				file.seek( corruption[ 0 ] );
+				file.writeInt( Integer.reverseBytes( corruption[ 1 ] ) );
+			} finally {
+				file.close();
+			}
+			assertThrows( IOException.class, () -> PrimeTable.open( tableFile ), "offset=" + corruption[ 0 ] );
+		}
+		
+		// Bounds not covered by the bitmap or out of range
+		for ( final long bound : new long[] { 2000003l, 2l, ( 1l << 34 ) + 1l, -1l } ) {
+			PrimeTable.write( tableFile, 1000003l );
+			final RandomAccessFile file = new RandomAccessFile( tableFile, "rw" );
+			try {
+				file.seek( 8 );
+				file.writeLong( Long.reverseBytes( bound ) );
+			} finally {
+				file.close();
+			}
+			assertThrows( IOException.class, () -> PrimeTable.open( tableFile ), "bound=" + bound );
+		}
+	}
+	
+	/**
+	 * Checks that the sieve gives the same primes and prime indices with and without a table,
+	 * started below the bound, exactly at the segments ending at the bound and straddling it, and above it.
+	 * @throws IOException if writing or opening the table fails
+	 */
+	@Test
+	public void sieveWithTable() throws IOException {
+		final File tableFile = new File( tempDirectory, "table" );
+		PrimeTable.write( tableFile, BOUND );
+		final PrimeTable primeTable = PrimeTable.open( tableFile );
+		
+		// The start of the segment ending at the bound (the last one copied) and the starts around it
+		final long lastCopiedStart = BOUND + 2l - SEGMENT_SPAN;
+		for ( final long start : new long[] { 2l, 3l, 1001l, 1000003l, lastCopiedStart - 2l, lastCopiedStart, lastCopiedStart + 2l, lastCopiedStart + 127l,
+				BOUND - 1000l, BOUND - 1l, BOUND, BOUND + 1l, BOUND + 2l, 2l * BOUND } ) {
+			final long       primeIndex   = start > 2l ? 1l : 0l;
+			final PrimeSieve withTable    = new PrimeSieve( start, primeIndex, primeTable );
+			final PrimeSieve withoutTable = new PrimeSieve( start, primeIndex, null );
+			// Far enough to cross the bound from all the starts below it
+			for ( int i = 0; i < 150000; i++ ) {
+				final long prime = withoutTable.nextPrime();
+				assertEquals( prime, withTable.nextPrime(), "start=" + start + ", i=" + i );
+				assertEquals( withoutTable.getPrimeIndex(), withTable.getPrimeIndex(), "start=" + start + ", i=" + i );
+			}
+		}
+	}
+	
+	/**
+	 * Sets the length of a file.
+	 * @param file the file
+	 * @param length the new length of the file
+	 * @throws IOException if setting the length fails
+	 */
+	private static void setLength( final File file, final long length ) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+		try {
+			randomAccessFile.setLength( length );
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+	
+}